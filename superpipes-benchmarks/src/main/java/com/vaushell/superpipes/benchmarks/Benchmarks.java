@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.dispatch.Tags;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+
+/**
+ * Helpers shared by the benchmarks.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class Benchmarks
+{
+    // PUBLIC
+    /**
+     * Message sizes.
+     */
+    public enum Size
+    {
+        /**
+         * Title, URI and date.
+         */
+        SMALL,
+        /**
+         * Small, with a description, a content and 20 tags.
+         */
+        LARGE;
+    }
+
+    /**
+     * Create a message.
+     *
+     * @param index Message index (used in the texts)
+     * @param size Message size
+     * @param picture True to add a 64KB picture
+     * @return the message
+     */
+    public static Message createMessage( final int index ,
+                                         final Size size ,
+                                         final boolean picture )
+    {
+        final Message message = Message.create( Message.KeyIndex.TITLE ,
+                                                "Title of the message " + index ,
+                                                Message.KeyIndex.URI ,
+                                                URI.create( "http://www.example.com/message/" + index ) ,
+                                                Message.KeyIndex.PUBLISHED_DATE ,
+                                                new DateTime( 1400000000000L + index ) );
+
+        if ( size == Size.LARGE )
+        {
+            message.setProperty( Message.KeyIndex.DESCRIPTION ,
+                                 text( 2 * 1024 ,
+                                       index ) );
+            message.setProperty( Message.KeyIndex.CONTENT ,
+                                 text( 16 * 1024 ,
+                                       index ) );
+
+            final Tags tags = new Tags();
+            for ( int i = 0 ; i < 20 ; ++i )
+            {
+                tags.add( "tag" + i );
+            }
+            message.setProperty( Message.KeyIndex.TAGS ,
+                                 tags );
+        }
+
+        if ( picture )
+        {
+            final byte[] content = new byte[ 64 * 1024 ];
+            new Random( index ).nextBytes( content );
+
+            message.setProperty( Message.KeyIndex.PICTURE ,
+                                 content );
+        }
+
+        return message;
+    }
+
+    /**
+     * Create a dispatcher with a data directory (for the nodes and transforms which write files).
+     *
+     * @param datas Data directory
+     * @return the dispatcher
+     * @throws Exception
+     */
+    public static Dispatcher createDispatcher( final Path datas )
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        dispatcher.init( new XMLConfiguration( Benchmarks.class.getResource( "/benchmark.xml" ) ) ,
+                         datas ,
+                         null );
+
+        return dispatcher;
+    }
+
+    /**
+     * Create a temporary data directory.
+     *
+     * @return the directory
+     * @throws IOException
+     */
+    public static Path createDatas()
+        throws IOException
+    {
+        return Files.createTempDirectory( "superpipes-benchmarks" );
+    }
+
+    /**
+     * Delete a data directory.
+     *
+     * @param datas Data directory
+     * @throws IOException
+     */
+    public static void deleteDatas( final Path datas )
+        throws IOException
+    {
+        if ( datas != null )
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+
+    // PRIVATE
+    private Benchmarks()
+    {
+        // Nothing
+    }
+
+    private static String text( final int length ,
+                                final int index )
+    {
+        final StringBuilder sb = new StringBuilder( length );
+        while ( sb.length() < length )
+        {
+            sb.append( "Lorem ipsum " ).append( index ).append( ' ' );
+        }
+        sb.setLength( length );
+
+        return sb.toString();
+    }
+}
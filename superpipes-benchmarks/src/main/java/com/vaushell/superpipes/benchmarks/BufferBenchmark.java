@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * N_Buffer: push a message to the disk buffer, then pop it and send it (no slot, no delay).
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class BufferBenchmark
+{
+    // PUBLIC
+    @Param(
+        {
+            "SMALL" , "LARGE"
+        } )
+    public Benchmarks.Size size;
+
+    @Param(
+        {
+            "false" , "true"
+        } )
+    public boolean picture;
+
+    /**
+     * Create the buffer.
+     *
+     * @throws Exception
+     */
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        datas = Benchmarks.createDatas();
+
+        final Dispatcher dispatcher = Benchmarks.createDispatcher( datas );
+
+        buffer = (N_BufferProbe) dispatcher.addNode( "buffer" ,
+                                                     N_BufferProbe.class ,
+                                                     ConfigProperties.EMPTY_COMMONS );
+
+        buffer.prepare();
+
+        message = Benchmarks.createMessage( 0 ,
+                                            size ,
+                                            picture );
+    }
+
+    /**
+     * Remove the buffer.
+     *
+     * @throws Exception
+     */
+    @TearDown
+    public void tearDown()
+        throws Exception
+    {
+        buffer.terminate();
+
+        Benchmarks.deleteDatas( datas );
+    }
+
+    /**
+     * Push and pop 1 message.
+     *
+     * @throws Exception
+     */
+    @Benchmark
+    public void pushPop()
+        throws Exception
+    {
+        buffer.receiveMessage( message.copy() );
+
+        // Push
+        buffer.step();
+
+        // Pop and send
+        buffer.step();
+    }
+
+    // PRIVATE
+    private Path datas;
+    private N_BufferProbe buffer;
+    private Message message;
+}
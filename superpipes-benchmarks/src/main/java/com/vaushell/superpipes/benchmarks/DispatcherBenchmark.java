@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Dispatcher fan-out: a message is sent from 1 node to 'width' nodes.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class DispatcherBenchmark
+{
+    // PUBLIC
+    @Param(
+        {
+            "1" , "4" , "16"
+        } )
+    public int width;
+
+    @Param(
+        {
+            "SMALL" , "LARGE"
+        } )
+    public Benchmarks.Size size;
+
+    /**
+     * Create and start the flow.
+     *
+     * @throws Exception
+     */
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        dispatcher = new Dispatcher();
+
+        final N_BenchSink source = (N_BenchSink) dispatcher.addNode( "source" ,
+                                                                      N_BenchSink.class ,
+                                                                      ConfigProperties.EMPTY_COMMONS );
+
+        destinations = new ArrayList<>( width );
+        for ( int i = 0 ; i < width ; ++i )
+        {
+            final String destinationID = "destination" + i;
+
+            destinations.add( (N_BenchSink) dispatcher.addNode( destinationID ,
+                                                                 N_BenchSink.class ,
+                                                                 ConfigProperties.EMPTY_COMMONS ) );
+
+            dispatcher.addRoute( "source" ,
+                                 destinationID );
+        }
+
+        dispatcher.start();
+
+        sourceIndex = source.getNodeIndex();
+        message = Benchmarks.createMessage( 0 ,
+                                            size ,
+                                            false );
+
+        batch = new ArrayList<>( BATCH_SIZE );
+        for ( int i = 0 ; i < BATCH_SIZE ; ++i )
+        {
+            batch.add( Benchmarks.createMessage( i ,
+                                                 size ,
+                                                 false ) );
+        }
+    }
+
+    /**
+     * Stop the flow.
+     *
+     * @throws Exception
+     */
+    @TearDown
+    public void tearDown()
+        throws Exception
+    {
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Send 1 message (as a node does: on a copy).
+     *
+     * @return the received count
+     * @throws Exception
+     */
+    @Benchmark
+    public int send()
+        throws Exception
+    {
+        dispatcher.sendMessage( sourceIndex ,
+                                message.copy() );
+
+        return drain();
+    }
+
+    /**
+     * Send a batch of messages.
+     *
+     * @return the received count
+     * @throws Exception
+     */
+    @Benchmark
+    public int sendBatch()
+        throws Exception
+    {
+        final List<Message> copies = new ArrayList<>( batch.size() );
+        for ( final Message m : batch )
+        {
+            copies.add( m.copy() );
+        }
+
+        dispatcher.sendMessages( sourceIndex ,
+                                 copies );
+
+        return drain();
+    }
+
+    // PRIVATE
+    private static final int BATCH_SIZE = 16;
+    private Dispatcher dispatcher;
+    private List<N_BenchSink> destinations;
+    private int sourceIndex;
+    private Message message;
+    private List<Message> batch;
+
+    private int drain()
+        throws Exception
+    {
+        int count = 0;
+        for ( final N_BenchSink destination : destinations )
+        {
+            count += destination.drain();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import com.vaushell.superpipes.nodes.dummy.N_Dummy;
+import com.vaushell.superpipes.transforms.A_Transform;
+import com.vaushell.superpipes.transforms.done.T_Done;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * T_Done: ID building and lookup of an already seen message, with a done set of 'doneSize' messages.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class DoneBenchmark
+{
+    // PUBLIC
+    @Param(
+        {
+            "1000" , "100000"
+        } )
+    public int doneSize;
+
+    @Param(
+        {
+            "SMALL" , "LARGE"
+        } )
+    public Benchmarks.Size size;
+
+    /**
+     * Fill the done set.
+     *
+     * @throws Exception
+     */
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        datas = Benchmarks.createDatas();
+
+        final Dispatcher dispatcher = Benchmarks.createDispatcher( datas );
+
+        node = dispatcher.addNode( "done" ,
+                                   N_Dummy.class ,
+                                   ConfigProperties.EMPTY_COMMONS );
+        transform = node.addTransformIN( T_Done.class ,
+                                         ConfigProperties.EMPTY_COMMONS );
+
+        node.prepare();
+
+        known = new ArrayList<>( doneSize );
+        final List<Message> chunk = new ArrayList<>( CHUNK_SIZE );
+        for ( int i = 0 ; i < doneSize ; ++i )
+        {
+            final Message message = Benchmarks.createMessage( i ,
+                                                              size ,
+                                                              false );
+            known.add( message );
+            chunk.add( message );
+
+            if ( chunk.size() >= CHUNK_SIZE )
+            {
+                transform.transformBatch( chunk );
+                chunk.clear();
+            }
+        }
+        if ( !chunk.isEmpty() )
+        {
+            transform.transformBatch( chunk );
+        }
+
+        index = 0;
+    }
+
+    /**
+     * Remove the done set.
+     *
+     * @throws Exception
+     */
+    @TearDown
+    public void tearDown()
+        throws Exception
+    {
+        node.terminate();
+
+        Benchmarks.deleteDatas( datas );
+    }
+
+    /**
+     * Filter a known message (discarded).
+     *
+     * @return the result (null)
+     * @throws Exception
+     */
+    @Benchmark
+    public Message lookup()
+        throws Exception
+    {
+        final Message message = known.get( index );
+
+        ++index;
+        if ( index >= known.size() )
+        {
+            index = 0;
+        }
+
+        return transform.transform( message );
+    }
+
+    // PRIVATE
+    private static final int CHUNK_SIZE = 1000;
+    private Path datas;
+    private A_Node node;
+    private A_Transform transform;
+    private List<Message> known;
+    private int index;
+}
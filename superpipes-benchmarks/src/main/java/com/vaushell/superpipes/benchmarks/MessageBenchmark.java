@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.Message;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Message copies: copy-on-write, first write after a copy, and serialization (used by the spill and the buffer).
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class MessageBenchmark
+{
+    // PUBLIC
+    @Param(
+        {
+            "SMALL" , "LARGE"
+        } )
+    public Benchmarks.Size size;
+
+    @Param(
+        {
+            "false" , "true"
+        } )
+    public boolean picture;
+
+    /**
+     * Create the message.
+     */
+    @Setup
+    public void setUp()
+    {
+        message = Benchmarks.createMessage( 0 ,
+                                            size ,
+                                            picture );
+    }
+
+    /**
+     * Copy without any write.
+     *
+     * @return the copy
+     */
+    @Benchmark
+    public Message copy()
+    {
+        return message.copy();
+    }
+
+    /**
+     * Copy, then write a property (the properties are cloned).
+     *
+     * @return the copy
+     */
+    @Benchmark
+    public Message copyAndWrite()
+    {
+        final Message copy = message.copy();
+        copy.setProperty( Message.KeyIndex.TITLE ,
+                          "New title" );
+
+        return copy;
+    }
+
+    /**
+     * Java serialization of the message.
+     *
+     * @return the bytes
+     * @throws IOException
+     */
+    @Benchmark
+    public byte[] serialize()
+        throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try( final ObjectOutputStream os = new ObjectOutputStream( bos ) )
+        {
+            os.writeObject( message );
+        }
+
+        return bos.toByteArray();
+    }
+
+    // PRIVATE
+    private Message message;
+}
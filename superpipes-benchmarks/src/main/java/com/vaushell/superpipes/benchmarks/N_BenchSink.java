@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Node which never pops its messages by itself: the benchmark drains the inbox.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class N_BenchSink
+    extends A_Node
+{
+    // PUBLIC
+    public N_BenchSink()
+    {
+        super( null ,
+               null );
+
+        this.drained = new ArrayList<>();
+    }
+
+    /**
+     * Remove all waiting messages.
+     *
+     * @return the count of removed messages
+     * @throws IOException
+     */
+    public int drain()
+        throws IOException
+    {
+        final int count = getInbox().drainTo( drained ,
+                                              Integer.MAX_VALUE );
+        drained.clear();
+
+        return count;
+    }
+
+    // PROTECTED
+    @Override
+    protected void prepareImpl()
+        throws Exception
+    {
+        // Nothing
+    }
+
+    @Override
+    protected void loop()
+        throws Exception
+    {
+        Thread.sleep( 1000L );
+    }
+
+    @Override
+    protected void terminateImpl()
+        throws Exception
+    {
+        // Nothing
+    }
+
+    // PRIVATE
+    private final List<Message> drained;
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.nodes.buffer.Slot;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Slot: time to wait before the next slot, from inside and outside the slot.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class SlotBenchmark
+{
+    // PUBLIC
+    /**
+     * Create the slot.
+     *
+     * @throws Exception
+     */
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        slot = Slot.parse( "MON,TUE,WED,THU,FRI" ,
+                           "12:00:00" ,
+                           "14:00:00" );
+
+        // Wednesday
+        inside = new DateTime( 2014 ,
+                               5 ,
+                               14 ,
+                               13 ,
+                               0 ,
+                               0 );
+
+        // Saturday
+        outside = new DateTime( 2014 ,
+                                5 ,
+                                17 ,
+                                9 ,
+                                0 ,
+                                0 );
+    }
+
+    /**
+     * Date inside the slot.
+     *
+     * @return the time to wait
+     */
+    @Benchmark
+    public Duration inside()
+    {
+        return slot.getSmallestDiff( inside );
+    }
+
+    /**
+     * Date outside the slot (the next slot is 2 days later).
+     *
+     * @return the time to wait
+     */
+    @Benchmark
+    public Duration outside()
+    {
+        return slot.getSmallestDiff( outside );
+    }
+
+    // PRIVATE
+    private Slot slot;
+    private DateTime inside;
+    private DateTime outside;
+}
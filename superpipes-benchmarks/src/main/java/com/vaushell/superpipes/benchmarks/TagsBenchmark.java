@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.benchmarks;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import com.vaushell.superpipes.nodes.dummy.N_Dummy;
+import com.vaushell.superpipes.transforms.A_Transform;
+import com.vaushell.superpipes.transforms.tags.T_Tags;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * T_Tags: matching of a message with 20 tags against 'tagsCount' filter tags.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class TagsBenchmark
+{
+    // PUBLIC
+    @Param(
+        {
+            "2" , "20"
+        } )
+    public int tagsCount;
+
+    @Param(
+        {
+            "INCLUDE_ONE" , "EXCLUDE_ALL"
+        } )
+    public T_Tags.OpType type;
+
+    /**
+     * Create the transform.
+     *
+     * @throws Exception
+     */
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        node = dispatcher.addNode( "tags" ,
+                                   N_Dummy.class ,
+                                   ConfigProperties.EMPTY_COMMONS );
+        transform = node.addTransformIN( T_Tags.class ,
+                                         ConfigProperties.EMPTY_COMMONS );
+
+        // Filter tags: the last one is the only one in the message
+        final StringBuilder sb = new StringBuilder();
+        for ( int i = 1 ; i < tagsCount ; ++i )
+        {
+            sb.append( "other" ).append( i ).append( ',' );
+        }
+        sb.append( "tag19" );
+
+        transform.getProperties().setProperty( "type" ,
+                                               type.name() );
+        transform.getProperties().setProperty( "tags" ,
+                                               sb.toString() );
+
+        node.prepare();
+
+        message = Benchmarks.createMessage( 0 ,
+                                            Benchmarks.Size.LARGE ,
+                                            false );
+    }
+
+    /**
+     * Terminate the transform.
+     *
+     * @throws Exception
+     */
+    @TearDown
+    public void tearDown()
+        throws Exception
+    {
+        node.terminate();
+    }
+
+    /**
+     * Filter the message.
+     *
+     * @return the result
+     * @throws Exception
+     */
+    @Benchmark
+    public Message match()
+        throws Exception
+    {
+        return transform.transform( message );
+    }
+
+    // PRIVATE
+    private A_Node node;
+    private A_Transform transform;
+    private Message message;
+}
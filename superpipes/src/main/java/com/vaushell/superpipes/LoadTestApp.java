@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes;
+
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.tools.loadtest.LoadTest;
+import com.vaushell.superpipes.tools.loadtest.LoadTestReport;
+import com.vaushell.superpipes.tools.scribe.code.VC_SystemInputFactory;
+import java.nio.file.Paths;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.joda.time.Duration;
+
+/**
+ * Load test: run a flow during a fixed time, and print the throughput, the latencies and the queues growth.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class LoadTestApp
+{
+    // PUBLIC
+    /**
+     * Main method.
+     *
+     * @param args Command line arguments
+     * @throws Exception
+     */
+    public static void main( final String... args )
+        throws Exception
+    {
+        if ( args.length < 3 || args.length > 4 )
+        {
+            System.out.println(
+                "Usage: LoadTestApp <configuration file> <nodes's data directory> <duration in milliseconds> [<sample period in milliseconds>]" );
+
+            return;
+        }
+
+        // My config
+        final XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled( true );
+        config.load( args[ 0] );
+
+        final Duration duration = new Duration( Long.parseLong( args[ 2] ) );
+
+        final Duration samplePeriod;
+        if ( args.length > 3 )
+        {
+            samplePeriod = new Duration( Long.parseLong( args[ 3] ) );
+        }
+        else
+        {
+            samplePeriod = new Duration( 1000L );
+        }
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.init( config ,
+                         Paths.get( args[ 1] ) ,
+                         new VC_SystemInputFactory() );
+
+        // Run
+        final LoadTestReport report = new LoadTest( dispatcher ,
+                                                    duration ,
+                                                    samplePeriod ).run();
+
+        System.out.print( report.format() );
+    }
+
+    // PRIVATE
+    private LoadTestApp()
+    {
+        // Nothing
+    }
+}
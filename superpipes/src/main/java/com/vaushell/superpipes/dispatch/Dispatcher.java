@@ -21,14 +21,24 @@ package com.vaushell.superpipes.dispatch;
 
 import com.vaushell.superpipes.nodes.A_Node;
 import com.vaushell.superpipes.tools.ThrowableHelper;
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import com.vaushell.superpipes.tools.clock.SystemClock;
+import com.vaushell.superpipes.tools.http.HTTPclientPool;
 import com.vaushell.superpipes.tools.scribe.code.A_ValidatorCode;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.slf4j.Logger;
@@ -45,11 +55,17 @@ public final class Dispatcher
     public Dispatcher()
     {
         this.nodes = new HashMap<>();
+        this.instances = new ArrayList<>();
         this.routes = new HashMap<>();
         this.commonsProperties = new HashMap<>();
+        this.rateLimiters = new HashMap<>();
         this.datas = null;
         this.vCodeFactory = null;
         this.eMailer = new ErrorMailer();
+        this.scheduler = new Scheduler();
+        this.httpPool = new HTTPclientPool();
+        this.routing = RoutingTable.EMPTY;
+        this.clock = SystemClock.INSTANCE;
     }
 
     public Path getDatas()
@@ -62,6 +78,44 @@ public final class Dispatcher
         return vCodeFactory;
     }
 
+    public Scheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Return the HTTP client pool, shared by all the nodes and transforms.
+     *
+     * @return the pool
+     */
+    public HTTPclientPool getHTTPclientPool()
+    {
+        return httpPool;
+    }
+
+    public A_Clock getClock()
+    {
+        return clock;
+    }
+
+    /**
+     * Set the clock of the flow (a SimulatedClock replays the schedules). Must be called before init and before adding
+     * the nodes.
+     *
+     * @param clock Clock
+     */
+    public void setClock( final A_Clock clock )
+    {
+        if ( clock == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.clock = clock;
+
+        eMailer.setClock( clock );
+    }
+
     /**
      * Return common properties set.
      *
@@ -73,6 +127,27 @@ public final class Dispatcher
         return commonsProperties.get( ID );
     }
 
+    /**
+     * Return a node of the flow.
+     *
+     * @param nodeID Node's ID
+     * @return the node (or null if not found)
+     */
+    public A_Node getNode( final String nodeID )
+    {
+        return nodes.get( nodeID );
+    }
+
+    /**
+     * Return the nodes of the flow (without the instances, see addInstances).
+     *
+     * @return the nodes
+     */
+    public Collection<A_Node> getNodes()
+    {
+        return Collections.unmodifiableCollection( nodes.values() );
+    }
+
     /**
      * Add a node to the flow.
      *
@@ -140,7 +215,67 @@ public final class Dispatcher
     }
 
     /**
-     * Add a route between 2 nodes.
+     * Add instances of a node. The instances share the node's inbox and process messages in parallel. Only stateless
+     * nodes and transforms can have instances (see A_Node.isStateless and A_Transform.isStateless): the node refuses
+     * the others at start.
+     *
+     * @param nodeID Node's ID
+     * @param count Instances count (in addition to the node)
+     * @param ordered True to send the messages in the input order
+     * @param commons commons properties set reference
+     * @return the instances (to load)
+     */
+    public List<A_Node> addInstances( final String nodeID ,
+                                      final int count ,
+                                      final boolean ordered ,
+                                      final List<ConfigProperties> commons )
+    {
+        if ( nodeID == null || count < 0 || commons == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace(
+                "[" + getClass().getSimpleName() + "] addInstances : nodeID=" + nodeID + " / count=" + count + " / ordered=" + ordered );
+        }
+
+        final A_Node node = nodes.get( nodeID );
+        if ( node == null )
+        {
+            throw new IllegalArgumentException( "Cannot find node '" + nodeID + "'" );
+        }
+
+        try
+        {
+            final List<A_Node> added = new ArrayList<>( count );
+            for ( int i = 0 ; i < count ; ++i )
+            {
+                final A_Node instance = node.getClass().newInstance();
+                instance.setParameters( nodeID ,
+                                        this ,
+                                        commons );
+
+                node.addInstance( instance ,
+                                  ordered );
+
+                added.add( instance );
+            }
+
+            instances.addAll( added );
+
+            return added;
+        }
+        catch( final IllegalAccessException |
+                     InstantiationException ex )
+        {
+            throw new RuntimeException( ex );
+        }
+    }
+
+    /**
+     * Add a route between 2 nodes. Routes are compiled when the dispatcher starts.
      *
      * @param sourceID source node ID
      * @param destinationID destination node ID
@@ -204,6 +339,41 @@ public final class Dispatcher
                                properties );
     }
 
+    /**
+     * Add a shared rate limiter.
+     *
+     * @param ID Limiter ID
+     * @param limiter The limiter
+     */
+    public void addRateLimiter( final String ID ,
+                                final RateLimiter limiter )
+    {
+        if ( ID == null || limiter == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace(
+                "[" + getClass().getSimpleName() + "] addRateLimiter : ID=" + ID + " / limiter=" + limiter );
+        }
+
+        rateLimiters.put( ID ,
+                          limiter );
+    }
+
+    /**
+     * Return a shared rate limiter.
+     *
+     * @param ID Limiter ID
+     * @return the limiter (or null if unknown)
+     */
+    public RateLimiter getRateLimiter( final String ID )
+    {
+        return rateLimiters.get( ID );
+    }
+
     /**
      * Post an error.
      *
@@ -256,19 +426,48 @@ public final class Dispatcher
                 "[" + getClass().getSimpleName() + "] start" );
         }
 
+        // Compile routes
+        final RoutingTable table = new RoutingTable( nodes ,
+                                                     routes );
+        for ( int i = 0 ; i < table.size() ; ++i )
+        {
+            table.getNode( i ).setNodeIndex( i );
+        }
+        for ( final A_Node instance : instances )
+        {
+            instance.setNodeIndex( table.indexOf( instance.getNodeID() ) );
+        }
+        routing = table;
+
         // Prepare nodes
-        for ( final A_Node node : nodes.values() )
+        final List<A_Node> allNodes = getAllNodes();
+        for ( final A_Node node : allNodes )
         {
             node.prepare();
         }
 
+        // Export metrics
+        for ( final A_Node node : nodes.values() )
+        {
+            registerMetrics( node );
+        }
+
         // Start error mailer
         eMailer.start();
 
         // Start nodes
-        for ( final A_Node node : nodes.values() )
+        for ( final A_Node node : allNodes )
         {
-            node.start();
+            final Scheduler.Pool pool = scheduler.getPool( node.getProperties().getConfigString( "executor" ,
+                                                                                                 null ) );
+            if ( pool == Scheduler.Pool.THREAD )
+            {
+                node.start();
+            }
+            else
+            {
+                node.startOn( scheduler.getExecutor( pool ) );
+            }
         }
     }
 
@@ -286,16 +485,17 @@ public final class Dispatcher
                 "[" + getClass().getSimpleName() + "] stopAndWait" );
         }
 
-        for ( final A_Node node : nodes.values() )
+        final List<A_Node> allNodes = getAllNodes();
+        for ( final A_Node node : allNodes )
         {
             node.stopMe();
         }
 
-        for ( final A_Node node : nodes.values() )
+        for ( final A_Node node : allNodes )
         {
             try
             {
-                node.join();
+                node.waitForStop();
             }
             catch( final InterruptedException ex )
             {
@@ -303,18 +503,37 @@ public final class Dispatcher
             }
         }
 
+        // Shared pools
+        scheduler.stopAndWait();
+
         // Error mailer
         eMailer.stopMe();
         eMailer.join();
 
+        for ( final A_Node node : allNodes )
+        {
+            try
+            {
+                node.terminate();
+            }
+            finally
+            {
+                node.closeInbox();
+            }
+        }
+
+        // Shared HTTP client
+        httpPool.close();
+
         for ( final A_Node node : nodes.values() )
         {
-            node.terminate();
+            unregisterMetrics( node );
         }
     }
 
     /**
-     * Send a message, from a node.
+     * Send a message, from a node. The message is frozen and shared by all destinations. It isn't copied: the caller
+     * gives the message away, and can't modify it after (A_Node.sendMessage sends a copy of the node's message).
      *
      * @param sourceID source node ID
      * @param message message
@@ -336,17 +555,101 @@ public final class Dispatcher
                 formatSimple( message ) );
         }
 
-        final Set<String> subRoutes = routes.get( sourceID );
-        if ( subRoutes != null )
+        final RoutingTable table = routing;
+
+        final int sourceIndex = table.indexOf( sourceID );
+        if ( sourceIndex >= 0 )
         {
-            for ( final String destinationID : subRoutes )
-            {
-                final A_Node destination = nodes.get( destinationID );
+            sendMessage( table.getDestinations( sourceIndex ) ,
+                         message );
+        }
+    }
 
-                destination.receiveMessage( message );
-            }
+    /**
+     * Send a message, from a node. The message is frozen and shared by all destinations. It isn't copied: the caller
+     * gives the message away, and can't modify it after (A_Node.sendMessage sends a copy of the node's message).
+     *
+     * @param sourceIndex source node index (given when the dispatcher starts)
+     * @param message message
+     * @throws java.lang.Exception
+     */
+    public void sendMessage( final int sourceIndex ,
+                             final Message message )
+        throws Exception
+    {
+        if ( sourceIndex < 0 || message == null )
+        {
+            throw new IllegalArgumentException();
         }
 
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getClass().getSimpleName() + "] sendMessage : sourceIndex=" + sourceIndex + " / message=" + Message.
+                formatSimple( message ) );
+        }
+
+        sendMessage( routing.getDestinations( sourceIndex ) ,
+                     message );
+    }
+
+    /**
+     * Send messages as a batch, from a node. Messages are frozen and shared by all destinations. They aren't copied:
+     * the caller gives the messages away, and can't modify them after (A_Node.sendMessages sends copies).
+     *
+     * @param sourceID source node ID
+     * @param messages messages
+     * @throws java.lang.Exception
+     */
+    public void sendMessages( final String sourceID ,
+                              final List<Message> messages )
+        throws Exception
+    {
+        if ( sourceID == null || messages == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getClass().getSimpleName() + "] sendMessages : sourceID=" + sourceID + " / messages.size=" + messages.
+                size() );
+        }
+
+        final RoutingTable table = routing;
+
+        final int sourceIndex = table.indexOf( sourceID );
+        if ( sourceIndex >= 0 )
+        {
+            sendMessages( table.getDestinations( sourceIndex ) ,
+                          messages );
+        }
+    }
+
+    /**
+     * Send messages as a batch, from a node. Messages are frozen and shared by all destinations. They aren't copied:
+     * the caller gives the messages away, and can't modify them after (A_Node.sendMessages sends copies).
+     *
+     * @param sourceIndex source node index (given when the dispatcher starts)
+     * @param messages messages
+     * @throws java.lang.Exception
+     */
+    public void sendMessages( final int sourceIndex ,
+                              final List<Message> messages )
+        throws Exception
+    {
+        if ( sourceIndex < 0 || messages == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getClass().getSimpleName() + "] sendMessages : sourceIndex=" + sourceIndex + " / messages.size=" + messages.
+                size() );
+        }
+
+        sendMessages( routing.getDestinations( sourceIndex ) ,
+                      messages );
     }
 
     /**
@@ -390,8 +693,31 @@ public final class Dispatcher
         // Load mailer
         eMailer.load( config.configurationAt( "mailer" ) );
 
+        // Load scheduler (optional)
+        final List<HierarchicalConfiguration> cSchedulers = config.configurationsAt( "scheduler" );
+        if ( cSchedulers == null || cSchedulers.isEmpty() )
+        {
+            scheduler.load( null );
+        }
+        else
+        {
+            scheduler.load( cSchedulers.get( 0 ) );
+        }
+
+        // Load HTTP client pool (optional)
+        final List<HierarchicalConfiguration> cHTTPs = config.configurationsAt( "http" );
+        if ( cHTTPs == null || cHTTPs.isEmpty() )
+        {
+            httpPool.load( null );
+        }
+        else
+        {
+            httpPool.load( cHTTPs.get( 0 ) );
+        }
+
         // Load commons
         commonsProperties.clear();
+        rateLimiters.clear();
         final List<HierarchicalConfiguration> cCommons = config.configurationsAt( "commons.common" );
         if ( cCommons != null )
         {
@@ -402,11 +728,22 @@ public final class Dispatcher
 
                 addCommon( cCommon.getString( "[@id]" ) ,
                            cProperties );
+
+                // A common can define a shared rate limiter, with the same ID
+                if ( cProperties.containsKey( "rate-limit-refill" ) )
+                {
+                    addRateLimiter( cCommon.getString( "[@id]" ) ,
+                                    new RateLimiter( cProperties.getConfigInteger( "rate-limit-capacity" ,
+                                                                                   1 ) ,
+                                                     cProperties.getConfigDuration( "rate-limit-refill" ) ,
+                                                     clock ) );
+                }
             }
         }
 
         // Load nodes
         nodes.clear();
+        instances.clear();
         final List<HierarchicalConfiguration> cNodes = config.configurationsAt( "nodes.node" );
         if ( cNodes != null )
         {
@@ -432,6 +769,26 @@ public final class Dispatcher
                                              commons );
 
                 node.load( cNode );
+
+                // Parallel instances (optional)
+                final String instancesCount = cNode.getString( "[@instances]" );
+                if ( instancesCount != null )
+                {
+                    final int count = Integer.parseInt( instancesCount );
+                    if ( count <= 0 )
+                    {
+                        throw new IllegalArgumentException( "Attribute 'instances' of node '" + node.getNodeID() + "' must be >0" );
+                    }
+
+                    final boolean ordered = !"false".equalsIgnoreCase( cNode.getString( "[@ordered]" ) );
+                    for ( final A_Node instance : addInstances( node.getNodeID() ,
+                                                                count - 1 ,
+                                                                ordered ,
+                                                                commons ) )
+                    {
+                        instance.load( cNode );
+                    }
+                }
             }
         }
 
@@ -453,12 +810,129 @@ public final class Dispatcher
 
     // DEFAULT
     final HashMap<String , A_Node> nodes;
+    final List<A_Node> instances;
     final HashMap<String , Set<String>> routes;
     final ErrorMailer eMailer;
+    final Scheduler scheduler;
+    final HTTPclientPool httpPool;
 
     // PRIVATE
     private static final Logger LOGGER = LoggerFactory.getLogger( Dispatcher.class );
     private final HashMap<String , ConfigProperties> commonsProperties;
+    private final HashMap<String , RateLimiter> rateLimiters;
     private Path datas;
     private A_ValidatorCode.I_Factory vCodeFactory;
+    private volatile RoutingTable routing;
+    private A_Clock clock;
+
+    /**
+     * Return the JMX name of node's metrics.
+     *
+     * @param nodeID Node's ID (quoted if it contains special characters)
+     * @return the name
+     * @throws MalformedObjectNameException
+     */
+    static ObjectName getMetricsName( final String nodeID )
+        throws MalformedObjectNameException
+    {
+        final String name;
+        if ( nodeID.matches( "[\\w.-]+" ) )
+        {
+            name = nodeID;
+        }
+        else
+        {
+            name = ObjectName.quote( nodeID );
+        }
+
+        return new ObjectName( "com.vaushell.superpipes:type=Node,name=" + name );
+    }
+
+    /**
+     * Export node's metrics over JMX. Replace the metrics of a previous dispatcher with the same node ID.
+     *
+     * @param node Node
+     * @throws JMException
+     */
+    private static void registerMetrics( final A_Node node )
+        throws JMException
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = getMetricsName( node.getNodeID() );
+
+        if ( server.isRegistered( name ) )
+        {
+            server.unregisterMBean( name );
+        }
+
+        server.registerMBean( node.getMetrics() ,
+                              name );
+    }
+
+    private static void unregisterMetrics( final A_Node node )
+    {
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = getMetricsName( node.getNodeID() );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch( final JMException ex )
+        {
+            LOGGER.warn( "[" + Dispatcher.class.getSimpleName() + "] cannot unregister metrics of node '" + node.getNodeID() + "'" ,
+                         ex );
+        }
+    }
+
+    /**
+     * Return the nodes and their instances.
+     *
+     * @return the nodes
+     */
+    private List<A_Node> getAllNodes()
+    {
+        final List<A_Node> allNodes = new ArrayList<>( nodes.values() );
+        allNodes.addAll( instances );
+
+        return allNodes;
+    }
+
+    private static void sendMessage( final A_Node[] destinations ,
+                                     final Message message )
+        throws Exception
+    {
+        if ( destinations.length > 0 )
+        {
+            // The same instance is shared by all destinations
+            message.freeze();
+
+            for ( final A_Node destination : destinations )
+            {
+                destination.receiveMessage( message );
+            }
+        }
+    }
+
+    private static void sendMessages( final A_Node[] destinations ,
+                                      final List<Message> messages )
+        throws Exception
+    {
+        if ( destinations.length > 0 && !messages.isEmpty() )
+        {
+            // The same instances are shared by all destinations
+            for ( final Message message : messages )
+            {
+                message.freeze();
+            }
+
+            for ( final A_Node destination : destinations )
+            {
+                destination.receiveMessages( messages );
+            }
+        }
+    }
 }
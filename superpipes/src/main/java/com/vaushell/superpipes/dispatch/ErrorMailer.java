@@ -30,6 +30,8 @@ import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import javax.mail.util.ByteArrayDataSource;
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import com.vaushell.superpipes.tools.clock.SystemClock;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -53,6 +55,22 @@ public class ErrorMailer
         this.internalStack = new ArrayList<>();
         this.properties = new ConfigProperties();
         this.antiBurst = new Duration( 1000L );
+        this.clock = SystemClock.INSTANCE;
+    }
+
+    /**
+     * Set the clock used by the anti-burst.
+     *
+     * @param clock Clock
+     */
+    public void setClock( final A_Clock clock )
+    {
+        if ( clock == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.clock = clock;
     }
 
     /**
@@ -178,6 +196,7 @@ public class ErrorMailer
     private final List<String> internalStack;
     private volatile boolean activated;
     private DateTime lastPop;
+    private volatile A_Clock clock;
 
     private boolean isActive()
     {
@@ -204,9 +223,8 @@ public class ErrorMailer
             }
             else
             {
-                // Null for now
                 final Duration elapsed = new Duration( lastPop ,
-                                                       null );
+                                                       clock.now() );
                 remaining = antiBurst.minus( elapsed );
             }
 
@@ -218,7 +236,12 @@ public class ErrorMailer
                 }
                 else
                 {
-                    internalStack.wait( remaining.getMillis() );
+                    // A simulated clock jumps over the wait
+                    final long wait = clock.elapse( remaining.getMillis() );
+                    if ( wait > 0L )
+                    {
+                        internalStack.wait( wait );
+                    }
                 }
 
                 if ( lastPop == null )
@@ -228,7 +251,7 @@ public class ErrorMailer
                 else
                 {
                     final Duration elapsed = new Duration( lastPop ,
-                                                           null );
+                                                           clock.now() );
                     remaining = antiBurst.minus( elapsed );
                 }
             }
@@ -238,7 +261,7 @@ public class ErrorMailer
 
             internalStack.clear();
 
-            lastPop = new DateTime();
+            lastPop = clock.now();
 
             return ret;
         }
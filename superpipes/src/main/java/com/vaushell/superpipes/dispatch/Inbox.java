@@ -0,0 +1,1011 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * Bounded inbox of a node. Messages are stored in a lock-free ring buffer (many producers). The lock is only used to park
+ * waiting consumers or producers, and each arrival wakes up a single waiter.
+ *
+ * A producer which can't wait (a task of a shared pool) never blocks: with the BLOCK policy, a full inbox keeps its
+ * message over the capacity, and the producer waits for the room with a listener (see addRoomListener).
+ *
+ * With the SPILL policy, the messages left in the spill file by the last run are read first (see open). The messages
+ * already read are forgotten at close, but they are read again after a crash.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class Inbox
+{
+    // PUBLIC
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    /**
+     * What to do when the inbox is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * The sender waits for a free slot.
+         */
+        BLOCK,
+        /**
+         * The oldest message is discarded.
+         */
+        DROP_OLDEST,
+        /**
+         * The incoming message is discarded.
+         */
+        DROP_NEWEST,
+        /**
+         * The incoming message is written to disk, and read when the inbox is empty.
+         */
+        SPILL;
+
+        /**
+         * Parse a policy name.
+         *
+         * @param name Policy name (block, drop-oldest, drop-newest or spill)
+         * @return the policy
+         */
+        public static OverflowPolicy parse( final String name )
+        {
+            if ( name == null )
+            {
+                throw new IllegalArgumentException();
+            }
+
+            try
+            {
+                return valueOf( name.trim().replace( '-' ,
+                                                     '_' ).toUpperCase( Locale.ENGLISH ) );
+            }
+            catch( final IllegalArgumentException ex )
+            {
+                throw new IllegalArgumentException(
+                    "Unknown overflow policy '" + name + "'. Should be block, drop-oldest, drop-newest or spill." ,
+                    ex );
+            }
+        }
+    }
+
+    /**
+     * Create an inbox.
+     *
+     * @param capacity Maximum messages count in memory (rounded to the next power of 2)
+     * @param policy Overflow policy
+     * @param spillPath File used by the SPILL policy (could be null for other policies)
+     */
+    public Inbox( final int capacity ,
+                  final OverflowPolicy policy ,
+                  final Path spillPath )
+    {
+        if ( capacity <= 0 || policy == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( policy == OverflowPolicy.SPILL && spillPath == null )
+        {
+            throw new IllegalArgumentException( "Spill policy needs a file" );
+        }
+
+        int size = 1;
+        while ( size < capacity )
+        {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>( size );
+        this.sequences = new AtomicLongArray( size );
+        this.stamps = new long[ size ];
+        for ( int i = 0 ; i < size ; ++i )
+        {
+            sequences.set( i ,
+                           (long) i );
+        }
+
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.policy = policy;
+        this.spillPath = spillPath;
+        this.spillLock = new Object();
+        this.spillFile = null;
+        this.spillReadOffset = 0L;
+        this.spillCount = 0;
+        this.backlog = new ArrayDeque<>();
+        this.backlogCount = 0;
+        this.roomListeners = Collections.newSetFromMap( new ConcurrentHashMap<Runnable , Boolean>() );
+        this.dropped = new AtomicLong();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.waitingConsumers = new AtomicInteger();
+        this.waitingProducers = new AtomicInteger();
+        this.waitHistogram = null;
+    }
+
+    /**
+     * Measure the time spent by the messages in memory.
+     *
+     * @param waitHistogram Histogram (could be null to stop measuring). Set it before using the inbox.
+     */
+    /**
+     * Open the spill file, and read again the messages left by the last run. Nothing is done for other policies.
+     *
+     * @throws IOException
+     */
+    public void open()
+        throws IOException
+    {
+        if ( policy != OverflowPolicy.SPILL )
+        {
+            return;
+        }
+
+        synchronized( spillLock )
+        {
+            if ( spillFile == null )
+            {
+                openSpill();
+            }
+        }
+    }
+
+    /**
+     * Close the spill file. Only the messages which are not read yet are kept in the file (the file is deleted if there
+     * is none). The file is opened again on the next spill.
+     *
+     * @throws IOException
+     */
+    public void close()
+        throws IOException
+    {
+        synchronized( spillLock )
+        {
+            if ( spillFile == null )
+            {
+                return;
+            }
+
+            try
+            {
+                if ( spillCount > 0 && spillReadOffset > 0L )
+                {
+                    // Move the unread messages to the start
+                    final byte[] chunk = new byte[ 64 * 1024 ];
+                    long readPos = spillReadOffset;
+                    long writePos = 0L;
+                    while ( readPos < spillFile.length() )
+                    {
+                        spillFile.seek( readPos );
+                        final int count = spillFile.read( chunk );
+                        spillFile.seek( writePos );
+                        spillFile.write( chunk ,
+                                         0 ,
+                                         count );
+
+                        readPos += count;
+                        writePos += count;
+                    }
+
+                    spillFile.setLength( writePos );
+                }
+            }
+            finally
+            {
+                spillFile.close();
+
+                spillFile = null;
+                spillReadOffset = 0L;
+            }
+
+            if ( spillCount <= 0 )
+            {
+                Files.deleteIfExists( spillPath );
+            }
+
+            spillCount = 0;
+        }
+    }
+
+    public void setWaitHistogram( final LatencyHistogram waitHistogram )
+    {
+        this.waitHistogram = waitHistogram;
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    public OverflowPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * How many messages are discarded by the overflow policy ?
+     *
+     * @return discarded messages count
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Return the messages count (in memory and on disk).
+     *
+     * @return the messages count
+     */
+    public int size()
+    {
+        final long h = head.get();
+        final long t = tail.get();
+
+        return (int) Math.max( 0L ,
+                               t - h ) + spillCount + backlogCount;
+    }
+
+    /**
+     * Is there room for a new message ?
+     *
+     * @return true if the inbox is not full
+     */
+    public boolean hasRoom()
+    {
+        return size() < getCapacity();
+    }
+
+    /**
+     * Call a listener once, when the inbox has room again. A listener is registered only once.
+     *
+     * @param listener Listener (called by the consumer thread)
+     */
+    public void addRoomListener( final Runnable listener )
+    {
+        if ( listener == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        roomListeners.add( listener );
+
+        // The room could be made before the registration
+        if ( hasRoom() )
+        {
+            fireRoom();
+        }
+    }
+
+    /**
+     * Is the inbox empty ?
+     *
+     * @return true or not
+     */
+    public boolean isEmpty()
+    {
+        return size() <= 0;
+    }
+
+    /**
+     * Add a message. Apply the overflow policy if the inbox is full.
+     *
+     * @param message the message
+     * @return false if the message was discarded
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public boolean offer( final Message message )
+        throws InterruptedException , IOException
+    {
+        return offer( message ,
+                      true );
+    }
+
+    /**
+     * Add a message. Apply the overflow policy if the inbox is full.
+     *
+     * @param message the message
+     * @param canWait if false, the BLOCK policy keeps the message over the capacity instead of waiting
+     * @return false if the message was discarded
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public boolean offer( final Message message ,
+                          final boolean canWait )
+        throws InterruptedException , IOException
+    {
+        if ( message == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( !offerOne( message ,
+                        canWait ) )
+        {
+            return false;
+        }
+
+        if ( waitingConsumers.get() > 0 )
+        {
+            signal( notEmpty ,
+                    false );
+        }
+
+        return true;
+    }
+
+    /**
+     * Add messages, with a single wake up. Apply the overflow policy if the inbox is full.
+     *
+     * @param messages the messages
+     * @return the count of messages which were not discarded
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public int offerAll( final List<Message> messages )
+        throws InterruptedException , IOException
+    {
+        return offerAll( messages ,
+                         true );
+    }
+
+    /**
+     * Add messages, with a single wake up. Apply the overflow policy if the inbox is full.
+     *
+     * @param messages the messages
+     * @param canWait if false, the BLOCK policy keeps the messages over the capacity instead of waiting
+     * @return the count of messages which were not discarded
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public int offerAll( final List<Message> messages ,
+                         final boolean canWait )
+        throws InterruptedException , IOException
+    {
+        if ( messages == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        int count = 0;
+        for ( final Message message : messages )
+        {
+            if ( message == null )
+            {
+                throw new IllegalArgumentException();
+            }
+
+            if ( offerOne( message ,
+                           canWait ) )
+            {
+                ++count;
+            }
+        }
+
+        if ( count > 0 && waitingConsumers.get() > 0 )
+        {
+            signal( notEmpty ,
+                    count > 1 );
+        }
+
+        return count;
+    }
+
+    /**
+     * Pop the oldest message.
+     *
+     * @return the message (or null if empty)
+     * @throws IOException
+     */
+    public Message poll()
+        throws IOException
+    {
+        final Message message = pollOne();
+
+        if ( message != null )
+        {
+            if ( waitingProducers.get() > 0 )
+            {
+                signal( notFull ,
+                        false );
+            }
+
+            if ( !roomListeners.isEmpty() )
+            {
+                fireRoom();
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Pop the oldest messages, with a single wake up.
+     *
+     * @param target Collection to fill
+     * @param max Maximum messages count
+     * @return the count of popped messages
+     * @throws IOException
+     */
+    public int drainTo( final Collection<Message> target ,
+                        final int max )
+        throws IOException
+    {
+        if ( target == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        int count = 0;
+        while ( count < max )
+        {
+            final Message message = pollOne();
+            if ( message == null )
+            {
+                break;
+            }
+
+            target.add( message );
+            ++count;
+        }
+
+        if ( count > 0 )
+        {
+            if ( waitingProducers.get() > 0 )
+            {
+                signal( notFull ,
+                        count > 1 );
+            }
+
+            if ( !roomListeners.isEmpty() )
+            {
+                fireRoom();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Pop the oldest message, or wait for it.
+     *
+     * @return the message
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public Message take()
+        throws InterruptedException , IOException
+    {
+        final Message message = poll();
+        if ( message != null )
+        {
+            return message;
+        }
+
+        lock.lockInterruptibly();
+        try
+        {
+            while ( true )
+            {
+                waitingConsumers.incrementAndGet();
+                try
+                {
+                    final Message m = poll();
+                    if ( m != null )
+                    {
+                        return m;
+                    }
+
+                    notEmpty.await();
+                }
+                finally
+                {
+                    waitingConsumers.decrementAndGet();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pop the oldest message, or wait for it.
+     *
+     * @param timeout max time to wait
+     * @param unit timeout unit
+     * @return the message (or null if empty after the timeout)
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public Message poll( final long timeout ,
+                         final TimeUnit unit )
+        throws InterruptedException , IOException
+    {
+        final Message message = poll();
+        if ( message != null || timeout <= 0L )
+        {
+            return message;
+        }
+
+        long remaining = unit.toNanos( timeout );
+
+        lock.lockInterruptibly();
+        try
+        {
+            while ( true )
+            {
+                waitingConsumers.incrementAndGet();
+                try
+                {
+                    final Message m = poll();
+                    if ( m != null || remaining <= 0L )
+                    {
+                        return m;
+                    }
+
+                    remaining = notEmpty.awaitNanos( remaining );
+                }
+                finally
+                {
+                    waitingConsumers.decrementAndGet();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // PRIVATE
+    private final int mask;
+    private final AtomicReferenceArray<Message> buffer;
+    private final AtomicLongArray sequences;
+    private final long[] stamps;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private final OverflowPolicy policy;
+    private final Path spillPath;
+    private final Object spillLock;
+    private RandomAccessFile spillFile;
+    private long spillReadOffset;
+    private volatile int spillCount;
+    private final ArrayDeque<Message> backlog;
+    private volatile int backlogCount;
+    private final Set<Runnable> roomListeners;
+    private final AtomicLong dropped;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final AtomicInteger waitingConsumers;
+    private final AtomicInteger waitingProducers;
+    private volatile LatencyHistogram waitHistogram;
+
+    /**
+     * Add a message, without waking up consumers.
+     *
+     * @param message the message
+     * @param canWait if false, the BLOCK policy keeps the message over the capacity instead of waiting
+     * @return false if the message was discarded
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private boolean offerOne( final Message message ,
+                              final boolean canWait )
+        throws InterruptedException , IOException
+    {
+        switch( policy )
+        {
+            case DROP_NEWEST:
+            {
+                if ( !offerRing( message ) )
+                {
+                    dropped.incrementAndGet();
+
+                    return false;
+                }
+
+                return true;
+            }
+
+            case DROP_OLDEST:
+            {
+                while ( !offerRing( message ) )
+                {
+                    if ( pollRing() != null )
+                    {
+                        dropped.incrementAndGet();
+                    }
+                }
+
+                return true;
+            }
+
+            case SPILL:
+            {
+                if ( spillCount > 0 || !offerRing( message ) )
+                {
+                    synchronized( spillLock )
+                    {
+                        if ( spillCount > 0 || !offerRing( message ) )
+                        {
+                            writeSpill( message );
+                        }
+                    }
+                }
+
+                return true;
+            }
+
+            default:
+            {
+                // The backlog is older than the ring
+                if ( backlogCount <= 0 && offerRing( message ) )
+                {
+                    return true;
+                }
+
+                if ( !canWait )
+                {
+                    synchronized( backlog )
+                    {
+                        if ( backlogCount > 0 || !offerRing( message ) )
+                        {
+                            backlog.addLast( message );
+                            ++backlogCount;
+                        }
+                    }
+
+                    return true;
+                }
+
+                lock.lockInterruptibly();
+                try
+                {
+                    while ( true )
+                    {
+                        waitingProducers.incrementAndGet();
+                        try
+                        {
+                            if ( backlogCount <= 0 && offerRing( message ) )
+                            {
+                                return true;
+                            }
+
+                            // Messages of a batch could be waiting
+                            if ( waitingConsumers.get() > 0 )
+                            {
+                                notEmpty.signalAll();
+                            }
+
+                            notFull.await();
+                        }
+                        finally
+                        {
+                            waitingProducers.decrementAndGet();
+                        }
+                    }
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Pop the oldest message, without waking up producers.
+     *
+     * @return the message (or null if empty)
+     * @throws IOException
+     */
+    private Message pollOne()
+        throws IOException
+    {
+        final Message message = pollRing();
+        if ( message != null )
+        {
+            return message;
+        }
+
+        if ( backlogCount > 0 )
+        {
+            synchronized( backlog )
+            {
+                // Check again: the ring is older than the backlog
+                final Message older = pollRing();
+                if ( older != null || backlogCount <= 0 )
+                {
+                    return older;
+                }
+
+                --backlogCount;
+
+                return backlog.pollFirst();
+            }
+        }
+
+        if ( spillCount <= 0 )
+        {
+            return null;
+        }
+
+        synchronized( spillLock )
+        {
+            // Check again: the ring is older than the spill
+            final Message older = pollRing();
+            if ( older != null || spillCount <= 0 )
+            {
+                return older;
+            }
+
+            return readSpill();
+        }
+    }
+
+    /**
+     * Add a message to the ring buffer (Vyukov's bounded queue).
+     *
+     * @param message the message
+     * @return false if the ring is full
+     */
+    private boolean offerRing( final Message message )
+    {
+        long pos = tail.get();
+        while ( true )
+        {
+            final int index = (int) ( pos & mask );
+            final long diff = sequences.get( index ) - pos;
+            if ( diff == 0L )
+            {
+                if ( tail.compareAndSet( pos ,
+                                         pos + 1L ) )
+                {
+                    if ( waitHistogram != null )
+                    {
+                        // Published with the sequence
+                        stamps[ index] = System.nanoTime();
+                    }
+
+                    buffer.lazySet( index ,
+                                    message );
+
+                    // Publish
+                    sequences.set( index ,
+                                   pos + 1L );
+
+                    return true;
+                }
+
+                pos = tail.get();
+            }
+            else if ( diff < 0L )
+            {
+                return false;
+            }
+            else
+            {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Pop a message from the ring buffer.
+     *
+     * @return the message (or null if empty)
+     */
+    private Message pollRing()
+    {
+        long pos = head.get();
+        while ( true )
+        {
+            final int index = (int) ( pos & mask );
+            final long diff = sequences.get( index ) - ( pos + 1L );
+            if ( diff == 0L )
+            {
+                if ( head.compareAndSet( pos ,
+                                         pos + 1L ) )
+                {
+                    final Message message = buffer.get( index );
+                    buffer.lazySet( index ,
+                                    null );
+
+                    final LatencyHistogram histogram = waitHistogram;
+                    if ( histogram != null )
+                    {
+                        histogram.record( System.nanoTime() - stamps[ index] );
+                    }
+
+                    // Release the slot for the next round
+                    sequences.set( index ,
+                                   pos + mask + 1L );
+
+                    return message;
+                }
+
+                pos = head.get();
+            }
+            else if ( diff < 0L )
+            {
+                return null;
+            }
+            else
+            {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Call the room listeners, if the inbox has room.
+     */
+    private void fireRoom()
+    {
+        for ( final Runnable listener : roomListeners )
+        {
+            if ( !hasRoom() )
+            {
+                return;
+            }
+
+            if ( roomListeners.remove( listener ) )
+            {
+                listener.run();
+            }
+        }
+    }
+
+    private void signal( final Condition condition ,
+                         final boolean all )
+    {
+        lock.lock();
+        try
+        {
+            if ( all )
+            {
+                condition.signalAll();
+            }
+            else
+            {
+                condition.signal();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a message to the spill file. Must be called with the spill lock.
+     *
+     * @param message the message
+     * @throws IOException
+     */
+    private void writeSpill( final Message message )
+        throws IOException
+    {
+        if ( spillFile == null )
+        {
+            openSpill();
+        }
+
+        final byte[] content = SerializationUtils.serialize( message );
+
+        spillFile.seek( spillFile.length() );
+        spillFile.writeInt( content.length );
+        spillFile.write( content );
+
+        ++spillCount;
+    }
+
+    /**
+     * Open the spill file and count its messages. An interrupted write at the end of the file is dropped. Must be
+     * called with the spill lock.
+     *
+     * @throws IOException
+     */
+    private void openSpill()
+        throws IOException
+    {
+        Files.createDirectories( spillPath.getParent() );
+
+        spillFile = new RandomAccessFile( spillPath.toFile() ,
+                                          "rw" );
+        spillReadOffset = 0L;
+
+        final long length = spillFile.length();
+        long valid = 0L;
+        int count = 0;
+        while ( valid + 4L <= length )
+        {
+            spillFile.seek( valid );
+            final int size = spillFile.readInt();
+            if ( size < 0 || valid + 4L + size > length )
+            {
+                break;
+            }
+
+            valid += 4L + size;
+            ++count;
+        }
+
+        if ( valid < length )
+        {
+            spillFile.setLength( valid );
+        }
+
+        spillCount = count;
+    }
+
+    /**
+     * Read the oldest message of the spill file. Must be called with the spill lock.
+     *
+     * @return the message
+     * @throws IOException
+     */
+    private Message readSpill()
+        throws IOException
+    {
+        spillFile.seek( spillReadOffset );
+
+        final byte[] content = new byte[ spillFile.readInt() ];
+        spillFile.readFully( content );
+
+        spillReadOffset = spillFile.getFilePointer();
+
+        --spillCount;
+        if ( spillCount <= 0 )
+        {
+            // Everything is read: reuse the file from the start
+            spillFile.setLength( 0L );
+            spillReadOffset = 0L;
+        }
+
+        return (Message) SerializationUtils.deserialize( content );
+    }
+}
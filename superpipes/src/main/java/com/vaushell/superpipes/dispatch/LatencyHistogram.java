@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram, with log-linear buckets (like HDR histograms): each power of 2 is split in 8 buckets,
+ * so the precision is 12.5%.
+ *
+ * Values are in nanoseconds.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class LatencyHistogram
+{
+    // PUBLIC
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray( BUCKETS );
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param nanos Value in nanoseconds (negative values are recorded as 0)
+     */
+    public void record( final long nanos )
+    {
+        final long value = Math.max( 0L ,
+                                     nanos );
+
+        counts.incrementAndGet( indexOf( value ) );
+        count.incrementAndGet();
+        sum.addAndGet( value );
+
+        long current = max.get();
+        while ( current < value && !max.compareAndSet( current ,
+                                                       value ) )
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Add the values of another histogram.
+     *
+     * @param other Histogram
+     */
+    public void add( final LatencyHistogram other )
+    {
+        if ( other == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        for ( int i = 0 ; i < BUCKETS ; ++i )
+        {
+            final long c = other.counts.get( i );
+            if ( c > 0L )
+            {
+                counts.addAndGet( i ,
+                                  c );
+            }
+        }
+        count.addAndGet( other.count.get() );
+        sum.addAndGet( other.sum.get() );
+
+        final long value = other.max.get();
+        long current = max.get();
+        while ( current < value && !max.compareAndSet( current ,
+                                                       value ) )
+        {
+            current = max.get();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Return a percentile.
+     *
+     * @param percentile Percentile (between 0 and 100)
+     * @return the highest value of the bucket containing the percentile (0 if empty)
+     */
+    public long getPercentile( final double percentile )
+    {
+        if ( percentile < 0.0 || percentile > 100.0 )
+        {
+            throw new IllegalArgumentException( "Percentile must be between 0 and 100" );
+        }
+
+        final long total = count.get();
+        if ( total <= 0L )
+        {
+            return 0L;
+        }
+
+        final long rank = Math.max( 1L ,
+                                    (long) Math.ceil( total * percentile / 100.0 ) );
+
+        long seen = 0L;
+        for ( int i = 0 ; i < BUCKETS ; ++i )
+        {
+            seen += counts.get( i );
+            if ( seen >= rank )
+            {
+                return Math.min( highestValueAt( i ) ,
+                                 max.get() );
+            }
+        }
+
+        // Concurrent records
+        return max.get();
+    }
+
+    /**
+     * Return the statistics of the histogram.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot()
+    {
+        final long total = count.get();
+
+        return new Snapshot( total ,
+                             total <= 0L ? 0L : sum.get() / total ,
+                             getPercentile( 50.0 ) ,
+                             getPercentile( 90.0 ) ,
+                             getPercentile( 99.0 ) ,
+                             max.get() );
+    }
+
+    /**
+     * Statistics of a histogram. Values are in nanoseconds.
+     */
+    public static final class Snapshot
+    {
+        // PUBLIC
+        @ConstructorProperties(
+            {
+                "count" , "mean" , "p50" , "p90" , "p99" , "max"
+            } )
+        public Snapshot( final long count ,
+                         final long mean ,
+                         final long p50 ,
+                         final long p90 ,
+                         final long p99 ,
+                         final long max )
+        {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getMean()
+        {
+            return mean;
+        }
+
+        public long getP50()
+        {
+            return p50;
+        }
+
+        public long getP90()
+        {
+            return p90;
+        }
+
+        public long getP99()
+        {
+            return p99;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Snapshot{" + "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", max=" + max + '}';
+        }
+
+        // PRIVATE
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+    }
+
+    // DEFAULT
+    /**
+     * Return the bucket of a value.
+     *
+     * @param value Positive value
+     * @return the bucket index
+     */
+    static int indexOf( final long value )
+    {
+        if ( value < SUB_BUCKETS )
+        {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros( value );
+
+        return ( exponent - SUB_BITS + 1 ) * SUB_BUCKETS + (int) ( ( value >>> ( exponent - SUB_BITS ) ) & ( SUB_BUCKETS - 1 ) );
+    }
+
+    /**
+     * Return the highest value of a bucket.
+     *
+     * @param index Bucket index
+     * @return the value
+     */
+    static long highestValueAt( final int index )
+    {
+        if ( index < SUB_BUCKETS )
+        {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) ( SUB_BUCKETS + index % SUB_BUCKETS ) << shift;
+
+        return lowest + ( 1L << shift ) - 1L;
+    }
+
+    // PRIVATE
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = ( 64 - SUB_BITS ) * SUB_BUCKETS;
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+}
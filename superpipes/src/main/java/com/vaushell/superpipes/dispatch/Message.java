@@ -24,6 +24,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -35,6 +36,15 @@ import org.joda.time.format.DateTimeFormatter;
 /**
  * Message object.
  *
+ * Copies are cheap: a copy shares the properties with its source until one of them is written (copy-on-write). Values
+ * must be considered immutable: to change a value (a Tags or a picture), set a new one.
+ *
+ * A frozen message can't be modified anymore and can be shared between threads. Use a copy to modify it.
+ *
+ * The fields are not volatile: a message is written by one thread at a time, and is published to the other threads by
+ * the inboxes (a message is frozen before it is sent, and an inbox offer happens-before the poll which returns it). A
+ * message given to another thread by other means must be published safely (a lock, a volatile, a concurrent queue).
+ *
  * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
  */
 public final class Message
@@ -109,6 +119,40 @@ public final class Message
         return m;
     }
 
+    /**
+     * Create a copy of this message. Properties are shared until the first write.
+     *
+     * @return the copy
+     */
+    public Message copy()
+    {
+        // A frozen message never writes its properties
+        if ( !frozen )
+        {
+            shared = true;
+        }
+
+        return new Message( properties );
+    }
+
+    /**
+     * Forbid any modification of this message.
+     */
+    public void freeze()
+    {
+        frozen = true;
+    }
+
+    /**
+     * Is the message frozen ?
+     *
+     * @return true or not
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
     /**
      * Does the message contain this property ?
      *
@@ -170,7 +214,12 @@ public final class Message
      */
     public void removeProperty( final String key )
     {
-        properties.remove( key );
+        if ( properties.containsKey( key ) )
+        {
+            prepareWrite();
+
+            properties.remove( key );
+        }
     }
 
     /**
@@ -197,23 +246,25 @@ public final class Message
     {
         if ( value == null )
         {
-            properties.remove( key );
+            removeProperty( key );
         }
         else
         {
+            prepareWrite();
+
             properties.put( key ,
                             value );
         }
     }
 
     /**
-     * Return the properties indexes list.
+     * Return the properties indexes list. The set can't be modified: use setProperty or removeProperty.
      *
-     * @return a set of keys
+     * @return an unmodifiable set of keys
      */
     public Set<String> getKeys()
     {
-        return properties.keySet();
+        return Collections.unmodifiableSet( properties.keySet() );
     }
 
     /**
@@ -506,11 +557,40 @@ public final class Message
     // PRIVATE
     private static final long serialVersionUID = 944934823467345234L;
     private static final DateTimeFormatter PUBLISHED_DATE_FORMAT = DateTimeFormat.forPattern( "dd/MM/yyyy HH:mm:ss" );
+    // Published by the inboxes (see the class comment)
     private TreeMap<String , Serializable> properties;
+    private boolean shared;
+    private boolean frozen;
 
     private Message()
     {
         this.properties = new TreeMap<>();
+        this.shared = false;
+        this.frozen = false;
+    }
+
+    private Message( final TreeMap<String , Serializable> properties )
+    {
+        this.properties = properties;
+        this.shared = true;
+        this.frozen = false;
+    }
+
+    /**
+     * Detach the properties from the copies before a write.
+     */
+    private void prepareWrite()
+    {
+        if ( frozen )
+        {
+            throw new IllegalStateException( "Message is frozen. Use a copy." );
+        }
+
+        if ( shared )
+        {
+            properties = new TreeMap<>( properties );
+            shared = false;
+        }
     }
 
     private void writeObject( final ObjectOutputStream os )
@@ -525,5 +605,7 @@ public final class Message
         throws IOException , ClassNotFoundException
     {
         properties = (TreeMap<String , Serializable>) is.readObject();
+        shared = false;
+        frozen = false;
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node's metrics: counters, inbox depth and latency histograms. Shared by the instances of a node.
+ *
+ * Exported by the dispatcher over JMX, as 'com.vaushell.superpipes:type=Node,name=[node ID]'.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class NodeMetrics
+    implements NodeMetricsMXBean
+{
+    // PUBLIC
+    public NodeMetrics()
+    {
+        this.received = new AtomicLong();
+        this.discarded = new AtomicLong();
+        this.sent = new AtomicLong();
+        this.errors = new AtomicLong();
+        this.inbox = null;
+        this.queueWait = new LatencyHistogram();
+        this.loopTime = new LatencyHistogram();
+        this.transformTimes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Follow an inbox: depth, overflow and wait time.
+     *
+     * @param inbox Inbox
+     */
+    public void setInbox( final Inbox inbox )
+    {
+        this.inbox = inbox;
+
+        if ( inbox != null )
+        {
+            inbox.setWaitHistogram( queueWait );
+        }
+    }
+
+    public void addReceived( final long count )
+    {
+        received.addAndGet( count );
+    }
+
+    public void addDiscarded( final long count )
+    {
+        discarded.addAndGet( count );
+    }
+
+    public void addSent( final long count )
+    {
+        sent.addAndGet( count );
+    }
+
+    public void addError()
+    {
+        errors.incrementAndGet();
+    }
+
+    public LatencyHistogram getLoopHistogram()
+    {
+        return loopTime;
+    }
+
+    /**
+     * Return the histogram of a transform (created if needed).
+     *
+     * @param key Transform key ('IN/index/type' or 'OUT/index/type')
+     * @return the histogram
+     */
+    public LatencyHistogram getTransformHistogram( final String key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        final LatencyHistogram histogram = transformTimes.get( key );
+        if ( histogram != null )
+        {
+            return histogram;
+        }
+
+        final LatencyHistogram created = new LatencyHistogram();
+        final LatencyHistogram previous = transformTimes.putIfAbsent( key ,
+                                                                      created );
+
+        return previous == null ? created : previous;
+    }
+
+    @Override
+    public long getReceived()
+    {
+        return received.get();
+    }
+
+    @Override
+    public long getDiscarded()
+    {
+        final Inbox current = inbox;
+
+        return discarded.get() + ( current == null ? 0L : current.getDroppedCount() );
+    }
+
+    @Override
+    public long getSent()
+    {
+        return sent.get();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        final Inbox current = inbox;
+
+        return current == null ? 0 : current.size();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getQueueWait()
+    {
+        return queueWait.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getLoopTime()
+    {
+        return loopTime.snapshot();
+    }
+
+    @Override
+    public Map<String , LatencyHistogram.Snapshot> getTransformTimes()
+    {
+        final Map<String , LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        for ( final Map.Entry<String , LatencyHistogram> entry : transformTimes.entrySet() )
+        {
+            snapshots.put( entry.getKey() ,
+                           entry.getValue().snapshot() );
+        }
+
+        return snapshots;
+    }
+
+    // PRIVATE
+    private final AtomicLong received;
+    private final AtomicLong discarded;
+    private final AtomicLong sent;
+    private final AtomicLong errors;
+    private volatile Inbox inbox;
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram loopTime;
+    private final ConcurrentMap<String , LatencyHistogram> transformTimes;
+}
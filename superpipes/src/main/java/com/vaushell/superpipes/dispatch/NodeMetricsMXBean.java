@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import java.util.Map;
+
+/**
+ * JMX view of the node's metrics. Latencies are in nanoseconds.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public interface NodeMetricsMXBean
+{
+    /**
+     * Return the count of messages stacked in the inbox.
+     *
+     * @return the count
+     */
+    long getReceived();
+
+    /**
+     * Return the count of messages discarded (inbox overflow, transforms IN or OUT).
+     *
+     * @return the count
+     */
+    long getDiscarded();
+
+    /**
+     * Return the count of messages sent to the next nodes.
+     *
+     * @return the count
+     */
+    long getSent();
+
+    /**
+     * Return the count of errors.
+     *
+     * @return the count
+     */
+    long getErrors();
+
+    /**
+     * Return the count of messages waiting in the inbox.
+     *
+     * @return the count
+     */
+    int getQueueDepth();
+
+    /**
+     * Return the time spent by messages in the inbox.
+     *
+     * @return the statistics
+     */
+    LatencyHistogram.Snapshot getQueueWait();
+
+    /**
+     * Return the time of a loop, from the message pop to the end of the loop.
+     *
+     * @return the statistics
+     */
+    LatencyHistogram.Snapshot getLoopTime();
+
+    /**
+     * Return the time of each transform (by 'IN/index/type' or 'OUT/index/type').
+     *
+     * @return the statistics
+     */
+    Map<String , LatencyHistogram.Snapshot> getTransformTimes();
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import com.vaushell.superpipes.tools.clock.SystemClock;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+
+/**
+ * Token bucket. The bucket holds up to 'capacity' permits (the burst) and gets a new permit every 'refill' period.
+ *
+ * A limiter can be shared by several nodes (to enforce an account-wide quota). Acquiring a permit never blocks: the
+ * caller gets the time to wait instead.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class RateLimiter
+{
+    // PUBLIC
+    /**
+     * Create a full bucket.
+     *
+     * @param capacity Maximum permits (burst)
+     * @param refill Time to get a new permit
+     */
+    public RateLimiter( final int capacity ,
+                        final Duration refill )
+    {
+        this( capacity ,
+              refill ,
+              SystemClock.INSTANCE );
+    }
+
+    /**
+     * Create a full bucket.
+     *
+     * @param capacity Maximum permits (burst)
+     * @param refill Time to get a new permit
+     * @param clock Clock
+     */
+    public RateLimiter( final int capacity ,
+                        final Duration refill ,
+                        final A_Clock clock )
+    {
+        if ( capacity <= 0 || refill == null || refill.getMillis() <= 0L || clock == null )
+        {
+            throw new IllegalArgumentException( "Rate limiter must have capacity >0, refill >0 and a clock" );
+        }
+
+        this.capacity = capacity;
+        this.refill = refill;
+        this.clock = clock;
+        this.refillNanos = TimeUnit.MILLISECONDS.toNanos( refill.getMillis() );
+        this.permits = capacity;
+        this.lastRefill = clock.nanoTime();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public Duration getRefill()
+    {
+        return refill;
+    }
+
+    /**
+     * Try to take a permit.
+     *
+     * @return 0 if the permit is taken, otherwise the time to wait in milliseconds before a new try
+     */
+    public synchronized long tryAcquire()
+    {
+        final long now = clock.nanoTime();
+        refill( now );
+
+        if ( permits > 0 )
+        {
+            --permits;
+
+            return 0L;
+        }
+
+        final long remaining = refillNanos - ( now - lastRefill );
+
+        return Math.max( 1L ,
+                         TimeUnit.NANOSECONDS.toMillis( remaining + TimeUnit.MILLISECONDS.toNanos( 1L ) - 1L ) );
+    }
+
+    /**
+     * Give back a permit which isn't used.
+     */
+    public synchronized void release()
+    {
+        refill( clock.nanoTime() );
+
+        if ( permits < capacity )
+        {
+            ++permits;
+        }
+    }
+
+    /**
+     * Return the available permits.
+     *
+     * @return the permits count
+     */
+    public synchronized int getAvailablePermits()
+    {
+        refill( clock.nanoTime() );
+
+        return permits;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RateLimiter{" + "capacity=" + capacity + ", refill=" + refill + '}';
+    }
+
+    // PRIVATE
+    private final int capacity;
+    private final Duration refill;
+    private final A_Clock clock;
+    private final long refillNanos;
+    private int permits;
+    private long lastRefill;
+
+    private void refill( final long now )
+    {
+        if ( permits >= capacity )
+        {
+            // A full bucket doesn't bank time: the next permit comes a full refill after the first one taken
+            lastRefill = now;
+
+            return;
+        }
+
+        final long elapsed = now - lastRefill;
+        if ( elapsed < refillNanos )
+        {
+            return;
+        }
+
+        final long added = elapsed / refillNanos;
+        if ( permits + added >= capacity )
+        {
+            permits = capacity;
+            lastRefill = now;
+        }
+        else
+        {
+            permits += (int) added;
+            lastRefill += added * refillNanos;
+        }
+    }
+}
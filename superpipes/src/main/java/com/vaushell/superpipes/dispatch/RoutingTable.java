@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import com.vaushell.superpipes.nodes.A_Node;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable routing plan, compiled from the routes when the dispatcher starts. Nodes are indexed from 0 to N-1.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class RoutingTable
+{
+    // DEFAULT
+    static final RoutingTable EMPTY = new RoutingTable( Collections.<String , A_Node>emptyMap() ,
+                                                        Collections.<String , Set<String>>emptyMap() );
+
+    /**
+     * Compile the routes.
+     *
+     * @param nodes Nodes by ID
+     * @param routes Destinations IDs by source ID
+     */
+    RoutingTable( final Map<String , A_Node> nodes ,
+                  final Map<String , Set<String>> routes )
+    {
+        final List<String> nodesIDs = new ArrayList<>( nodes.keySet() );
+        Collections.sort( nodesIDs );
+
+        this.indexes = new HashMap<>();
+        this.nodes = new A_Node[ nodesIDs.size() ];
+        for ( int i = 0 ; i < nodesIDs.size() ; ++i )
+        {
+            final String nodeID = nodesIDs.get( i );
+
+            indexes.put( nodeID ,
+                         i );
+
+            this.nodes[ i] = nodes.get( nodeID );
+        }
+
+        this.destinations = new A_Node[ nodesIDs.size() ][];
+        for ( int i = 0 ; i < nodesIDs.size() ; ++i )
+        {
+            final Set<String> subRoutes = routes.get( nodesIDs.get( i ) );
+            if ( subRoutes == null )
+            {
+                destinations[ i] = NO_DESTINATION;
+            }
+            else
+            {
+                final List<String> destinationsIDs = new ArrayList<>( subRoutes );
+                Collections.sort( destinationsIDs );
+
+                final A_Node[] subDestinations = new A_Node[ destinationsIDs.size() ];
+                for ( int j = 0 ; j < subDestinations.length ; ++j )
+                {
+                    subDestinations[ j] = nodes.get( destinationsIDs.get( j ) );
+                }
+
+                destinations[ i] = subDestinations;
+            }
+        }
+    }
+
+    /**
+     * Return the index of a node.
+     *
+     * @param nodeID Node's ID
+     * @return the index (or -1 if unknown)
+     */
+    int indexOf( final String nodeID )
+    {
+        final Integer index = indexes.get( nodeID );
+        if ( index == null )
+        {
+            return -1;
+        }
+
+        return index;
+    }
+
+    /**
+     * Return the nodes count.
+     *
+     * @return the count
+     */
+    int size()
+    {
+        return nodes.length;
+    }
+
+    /**
+     * Return a node.
+     *
+     * @param index Node's index
+     * @return the node
+     */
+    A_Node getNode( final int index )
+    {
+        return nodes[ index];
+    }
+
+    /**
+     * Return the destinations of a node. The array must not be modified.
+     *
+     * @param index Source node's index
+     * @return the destinations (never null)
+     */
+    A_Node[] getDestinations( final int index )
+    {
+        return destinations[ index];
+    }
+
+    // PRIVATE
+    private static final A_Node[] NO_DESTINATION = new A_Node[ 0 ];
+    private final Map<String , Integer> indexes;
+    private final A_Node[] nodes;
+    private final A_Node[][] destinations;
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared scheduler. Nodes which don't run in their own thread are executed as tasks on these pools.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class Scheduler
+{
+    // PUBLIC
+    /**
+     * Execution pools.
+     */
+    public enum Pool
+    {
+        /**
+         * One dedicated thread for the node.
+         */
+        THREAD,
+        /**
+         * Shared pool for I/O bound nodes (network, files).
+         */
+        IO,
+        /**
+         * Shared pool for CPU bound nodes.
+         */
+        CPU;
+
+        /**
+         * Parse a pool name.
+         *
+         * @param name Pool name (thread, io or cpu)
+         * @return the pool
+         */
+        public static Pool parse( final String name )
+        {
+            if ( name == null )
+            {
+                throw new IllegalArgumentException();
+            }
+
+            try
+            {
+                return valueOf( name.trim().toUpperCase( Locale.ENGLISH ) );
+            }
+            catch( final IllegalArgumentException ex )
+            {
+                throw new IllegalArgumentException( "Unknown executor '" + name + "'. Should be thread, io or cpu." ,
+                                                    ex );
+            }
+        }
+    }
+
+    public Scheduler()
+    {
+        this.properties = new ConfigProperties();
+        this.defaultPool = Pool.THREAD;
+        this.ioExecutor = null;
+        this.cpuExecutor = null;
+    }
+
+    public ConfigProperties getProperties()
+    {
+        return properties;
+    }
+
+    public Pool getDefaultPool()
+    {
+        return defaultPool;
+    }
+
+    /**
+     * Load configuration for the scheduler.
+     *
+     * @param cNode Configuration (could be null)
+     */
+    public void load( final HierarchicalConfiguration cNode )
+    {
+        properties.readProperties( cNode );
+
+        defaultPool = Pool.parse( properties.getConfigString( "default-executor" ,
+                                                              "thread" ) );
+    }
+
+    /**
+     * Return the pool to use.
+     *
+     * @param name Pool name (could be null to use the default pool)
+     * @return the pool
+     */
+    public Pool getPool( final String name )
+    {
+        if ( name == null )
+        {
+            return defaultPool;
+        }
+
+        return Pool.parse( name );
+    }
+
+    /**
+     * Return the executor of a shared pool.
+     *
+     * @param pool IO or CPU
+     * @return the executor
+     */
+    public ScheduledExecutorService getExecutor( final Pool pool )
+    {
+        if ( pool == null || pool == Pool.THREAD )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        synchronized( this )
+        {
+            if ( pool == Pool.IO )
+            {
+                if ( ioExecutor == null )
+                {
+                    ioExecutor = createExecutor( "io" ,
+                                                 properties.getConfigInteger( "io-threads" ,
+                                                                              DEFAULT_IO_THREADS ) );
+                }
+
+                return ioExecutor;
+            }
+            else
+            {
+                if ( cpuExecutor == null )
+                {
+                    cpuExecutor = createExecutor( "cpu" ,
+                                                  properties.getConfigInteger( "cpu-threads" ,
+                                                                               Runtime.getRuntime().
+                                                                               availableProcessors() ) );
+                }
+
+                return cpuExecutor;
+            }
+        }
+    }
+
+    /**
+     * Stop the pools and wait all tasks to stop.
+     *
+     * @throws InterruptedException
+     */
+    public void stopAndWait()
+        throws InterruptedException
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getClass().getSimpleName() + "] stopAndWait" );
+        }
+
+        final ScheduledExecutorService io;
+        final ScheduledExecutorService cpu;
+        synchronized( this )
+        {
+            io = ioExecutor;
+            cpu = cpuExecutor;
+
+            ioExecutor = null;
+            cpuExecutor = null;
+        }
+
+        if ( io != null )
+        {
+            io.shutdownNow();
+        }
+
+        if ( cpu != null )
+        {
+            cpu.shutdownNow();
+        }
+
+        if ( io != null )
+        {
+            io.awaitTermination( 1L ,
+                                 TimeUnit.MINUTES );
+        }
+
+        if ( cpu != null )
+        {
+            cpu.awaitTermination( 1L ,
+                                  TimeUnit.MINUTES );
+        }
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( Scheduler.class );
+    private static final int DEFAULT_IO_THREADS = 16;
+    private final ConfigProperties properties;
+    private Pool defaultPool;
+    private ScheduledExecutorService ioExecutor;
+    private ScheduledExecutorService cpuExecutor;
+
+    private static ScheduledExecutorService createExecutor( final String name ,
+                                                            final int threads )
+    {
+        if ( threads <= 0 )
+        {
+            throw new IllegalArgumentException( "Property '" + name + "-threads' must be >0" );
+        }
+
+        if ( LOGGER.isInfoEnabled() )
+        {
+            LOGGER.info( "[" + Scheduler.class.getSimpleName() + "] create pool " + name + " with " + threads + " threads" );
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( threads ,
+                                                                                      new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable r )
+            {
+                final Thread th = new Thread( r ,
+                                              "superpipes-" + name + "-" + count.incrementAndGet() );
+                th.setDaemon( true );
+
+                return th;
+            }
+        } );
+        executor.setRemoveOnCancelPolicy( true );
+
+        return executor;
+    }
+}
@@ -21,14 +21,28 @@ package com.vaushell.superpipes.nodes;
 
 import com.vaushell.superpipes.dispatch.ConfigProperties;
 import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Inbox;
+import com.vaushell.superpipes.dispatch.LatencyHistogram;
 import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.dispatch.NodeMetrics;
+import com.vaushell.superpipes.dispatch.RateLimiter;
+import com.vaushell.superpipes.tools.clock.A_Clock;
 import com.vaushell.superpipes.transforms.A_Transform;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.lang3.SerializationUtils;
-import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,12 +67,45 @@ public abstract class A_Node
         super();
 
         this.activated = true;
-        this.internalStack = new LinkedList<>();
+        this.nodeIndex = -1;
+        this.inbox = new Inbox( Inbox.DEFAULT_CAPACITY ,
+                                Inbox.OverflowPolicy.BLOCK ,
+                                null );
+        this.ready = new ArrayDeque<>();
+        this.batchSize = 1;
+        this.inFlight = new ArrayDeque<>();
+        this.maxInFlight = 1;
+        this.inFlightSignal = new Object();
+        this.inFlightSignaled = false;
+        this.metrics = new NodeMetrics();
+        this.transformsINTimes = null;
+        this.transformsOUTTimes = null;
+        this.loopStart = 0L;
+        this.instances = null;
+        this.poppedSequence = -1L;
+        this.currentSequence = -1L;
         this.transformsIN = new ArrayList<>();
         this.transformsOUT = new ArrayList<>();
         this.properties = new ConfigProperties();
-        this.lastPop = null;
+        this.burstLimiter = null;
+        this.rateLimiter = null;
         this.message = null;
+        this.executor = null;
+        this.poolLock = new Object();
+        this.parked = false;
+        this.parkTimedOut = false;
+        this.fullInbox = null;
+        this.roomListener = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                wakeUp();
+            }
+        };
+        this.pending = null;
+        this.carrier = null;
+        this.stopped = null;
 
         if ( defaultAntiBurst != null && defaultAntiBurst.getMillis() <= 0L )
         {
@@ -94,6 +141,71 @@ public abstract class A_Node
         return nodeID;
     }
 
+    public int getNodeIndex()
+    {
+        return nodeIndex;
+    }
+
+    /**
+     * Set node's index in the routing table. Given by the dispatcher when it starts.
+     *
+     * @param nodeIndex Node's index
+     */
+    public void setNodeIndex( final int nodeIndex )
+    {
+        this.nodeIndex = nodeIndex;
+    }
+
+    /**
+     * Add an instance of this node. The instance shares the inbox of this node and works in parallel. The instance must
+     * be added to the dispatcher's lifecycle (prepare, start, stop).
+     *
+     * @param instance Instance (same type, not started)
+     * @param ordered True to send the messages in the input order (with a reorder buffer)
+     */
+    public void addInstance( final A_Node instance ,
+                             final boolean ordered )
+    {
+        if ( instance == null || instance == this || instance.instances != null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( instances == null )
+        {
+            instances = new NodeInstances( this ,
+                                           ordered );
+        }
+        else if ( instances.getPrimary() != this )
+        {
+            throw new IllegalArgumentException( "Node '" + getNodeID() + "' is already an instance" );
+        }
+
+        instances.add( instance );
+        instance.instances = instances;
+    }
+
+    /**
+     * Return the node's metrics (shared by the instances of the node).
+     *
+     * @return the metrics
+     */
+    public NodeMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Could the node have instances ? A node which keeps a state in its files (i.e. N_Buffer) must not be duplicated.
+     * Default: yes.
+     *
+     * @return true if node has no state shared between the instances
+     */
+    public boolean isStateless()
+    {
+        return true;
+    }
+
     public ConfigProperties getProperties()
     {
         return properties;
@@ -104,6 +216,16 @@ public abstract class A_Node
         return dispatcher;
     }
 
+    /**
+     * Return the clock of the flow. All waits and scheduling decisions must use it.
+     *
+     * @return the clock
+     */
+    public A_Clock getClock()
+    {
+        return dispatcher.getClock();
+    }
+
     /**
      * Load configuration for this node.
      *
@@ -120,6 +242,39 @@ public abstract class A_Node
         delay = getProperties().getConfigDuration( "delay" ,
                                                    delay );
 
+        final Inbox.OverflowPolicy policy = Inbox.OverflowPolicy.parse( getProperties().getConfigString(
+            "inbox-overflow" ,
+            "block" ) );
+
+        final Path spillPath;
+        if ( policy == Inbox.OverflowPolicy.SPILL )
+        {
+            spillPath = getDispatcher().getDatas().resolve( getNodeID() ).resolve( "inbox.spill" );
+        }
+        else
+        {
+            spillPath = null;
+        }
+
+        inbox = new Inbox( getProperties().getConfigInteger( "inbox-capacity" ,
+                                                             Inbox.DEFAULT_CAPACITY ) ,
+                           policy ,
+                           spillPath );
+
+        batchSize = getProperties().getConfigInteger( "batch-size" ,
+                                                      1 );
+        if ( batchSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Property 'batch-size' must be >0" );
+        }
+
+        maxInFlight = getProperties().getConfigInteger( "in-flight" ,
+                                                        1 );
+        if ( maxInFlight <= 0 )
+        {
+            throw new IllegalArgumentException( "Property 'in-flight' must be >0" );
+        }
+
         // Load transforms IN
         transformsIN.clear();
         final List<HierarchicalConfiguration> cTransformsIN = cNode.configurationsAt( "in.transform" );
@@ -297,6 +452,75 @@ public abstract class A_Node
         {
             LOGGER.trace( "[" + getNodeID() + "] prepare" );
         }
+
+        if ( instances != null )
+        {
+            if ( batchSize > 1 || maxInFlight > 1 )
+            {
+                throw new IllegalArgumentException(
+                    "Node '" + getNodeID() + "' has instances and can't use 'batch-size' or 'in-flight'" );
+            }
+
+            if ( !isStateless() )
+            {
+                throw new IllegalArgumentException( "Node '" + getNodeID() + "' has a state and can't have instances" );
+            }
+
+            for ( final List<A_Transform> transforms : Arrays.asList( transformsIN ,
+                                                                     transformsOUT ) )
+            {
+                for ( final A_Transform transform : transforms )
+                {
+                    if ( !transform.isStateless() )
+                    {
+                        throw new IllegalArgumentException(
+                            "Node '" + getNodeID() + "' has instances and can't use the transform " + transform.
+                            getClass().getSimpleName() );
+                    }
+                }
+            }
+
+            // All instances pop from the same inbox
+            inbox = instances.getPrimary().inbox;
+            metrics = instances.getPrimary().metrics;
+        }
+
+        // The messages spilled by the last run come first
+        inbox.open();
+
+        metrics.setInbox( inbox );
+        transformsINTimes = getTransformsHistograms( "IN" ,
+                                                     transformsIN );
+        transformsOUTTimes = getTransformsHistograms( "OUT" ,
+                                                      transformsOUT );
+
+        // Anti-burst is a private bucket of 1 permit
+        if ( antiBurst == null )
+        {
+            burstLimiter = null;
+        }
+        else
+        {
+            burstLimiter = new RateLimiter( 1 ,
+                                            antiBurst ,
+                                            getClock() );
+        }
+
+        final String rateLimiterID = getProperties().getConfigString( "rate-limiter" ,
+                                                                      null );
+        if ( rateLimiterID == null )
+        {
+            rateLimiter = null;
+        }
+        else
+        {
+            rateLimiter = getDispatcher().getRateLimiter( rateLimiterID );
+            if ( rateLimiter == null )
+            {
+                throw new IllegalArgumentException( "Cannot find rate limiter '" + rateLimiterID + "'" );
+            }
+        }
+
         prepareImpl();
 
         for ( final A_Transform transform : transformsIN )
@@ -330,11 +554,14 @@ public abstract class A_Node
         {
             while ( isActive() )
             {
+                loopStart = System.nanoTime();
                 try
                 {
                     setMessage( null );
                     loop();
                     setMessage( null );
+
+                    metrics.getLoopHistogram().record( System.nanoTime() - loopStart );
                 }
                 catch( final InterruptedException ex )
                 {
@@ -342,15 +569,17 @@ public abstract class A_Node
                 }
                 catch( final Throwable ex )
                 {
-                    getDispatcher().postError( ex ,
-                                               message );
+                    postError( ex ,
+                               message );
                 }
 
+                completeSequence();
+
                 if ( delay != null )
                 {
                     try
                     {
-                        Thread.sleep( delay.getMillis() );
+                        getClock().sleep( delay.getMillis() );
                     }
                     catch( final InterruptedException ex )
                     {
@@ -361,8 +590,8 @@ public abstract class A_Node
         }
         catch( final Throwable th )
         {
-            getDispatcher().postError( th ,
-                                       null );
+            postError( th ,
+                       null );
         }
 
         if ( LOGGER.isTraceEnabled() )
@@ -371,6 +600,70 @@ public abstract class A_Node
         }
     }
 
+    /**
+     * Start the node as a task of a shared pool, instead of its own thread.
+     *
+     * @param executor Shared pool
+     */
+    public void startOn( final ScheduledExecutorService executor )
+    {
+        if ( executor == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNodeID() + "] start task" );
+        }
+
+        synchronized( poolLock )
+        {
+            if ( this.executor != null )
+            {
+                throw new IllegalStateException( "Node '" + getNodeID() + "' is already started" );
+            }
+
+            this.executor = executor;
+            this.stopped = new CountDownLatch( 1 );
+
+            pending = executor.schedule( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runIteration();
+                }
+            } ,
+                                         0L ,
+                                         TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Wait the node to stop (the thread or the task).
+     *
+     * @throws InterruptedException
+     */
+    public void waitForStop()
+        throws InterruptedException
+    {
+        final CountDownLatch latch;
+        synchronized( poolLock )
+        {
+            latch = stopped;
+        }
+
+        if ( latch == null )
+        {
+            join();
+        }
+        else
+        {
+            latch.await();
+        }
+    }
+
     /**
      * Close node's execution. Executed 1 time at the ending. Generic implementation.
      *
@@ -405,7 +698,21 @@ public abstract class A_Node
     }
 
     /**
-     * Receive a message and stack it.
+     * Close the inbox. The messages left in the spill file are read again at the next prepare. Executed 1 time at the
+     * ending, after terminate.
+     *
+     * @throws IOException
+     */
+    public void closeInbox()
+        throws IOException
+    {
+        inbox.close();
+    }
+
+    /**
+     * Receive a message and stack it. The transforms IN are applied later, by the node itself.
+     *
+     * A frozen message is stacked as is (and could be shared with other nodes).
      *
      * @param message Message
      * @throws java.lang.Exception
@@ -423,36 +730,132 @@ public abstract class A_Node
             LOGGER.trace( "[" + getNodeID() + "] receiveMessage : message=" + Message.formatSimple( message ) );
         }
 
-        Message result = SerializationUtils.clone( message );
-        for ( final A_Transform transform : transformsIN )
+        final Message shared;
+        if ( message.isFrozen() )
         {
-            result = transform.transform( result );
-            if ( result == null )
+            shared = message;
+        }
+        else
+        {
+            shared = message.copy();
+            shared.freeze();
+        }
+
+        final A_Node sender = CURRENT_TASK.get();
+
+        if ( inbox.offer( shared ,
+                          !isTaskOf( sender ) ) )
+        {
+            metrics.addReceived( 1L );
+
+            if ( LOGGER.isDebugEnabled() )
             {
-                if ( LOGGER.isDebugEnabled() )
-                {
-                    LOGGER.debug( "[" + getNodeID() + "] receive but discard message=" + Message.formatSimple(
-                        message ) );
-                }
+                LOGGER.debug( "[" + getNodeID() + "] receive and stack message=" + Message.formatSimple( message ) );
+            }
 
-                return;
+            wakeUpInstances();
+
+            waitRoom( sender );
+        }
+        else
+        {
+            if ( LOGGER.isDebugEnabled() )
+            {
+                LOGGER.debug( "[" + getNodeID() + "] inbox is full, discard message=" + Message.formatSimple( message ) );
+            }
+        }
+    }
+
+    /**
+     * Receive messages and stack them, with a single wake up.
+     *
+     * @param messages Messages
+     * @throws java.lang.Exception
+     */
+    public void receiveMessages( final List<Message> messages )
+        throws Exception
+    {
+        if ( messages == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNodeID() + "] receiveMessages : messages.size=" + messages.size() );
+        }
+
+        final List<Message> shared = new ArrayList<>( messages.size() );
+        for ( final Message message : messages )
+        {
+            if ( message.isFrozen() )
+            {
+                shared.add( message );
             }
             else
             {
-                result = SerializationUtils.clone( result );
+                final Message copy = message.copy();
+                copy.freeze();
+
+                shared.add( copy );
             }
         }
 
+        final A_Node sender = CURRENT_TASK.get();
+
+        final int count = inbox.offerAll( shared ,
+                                          !isTaskOf( sender ) );
+        if ( count > 0 )
+        {
+            metrics.addReceived( count );
+
+            wakeUpInstances();
+
+            waitRoom( sender );
+        }
+
         if ( LOGGER.isDebugEnabled() )
         {
-            LOGGER.debug( "[" + getNodeID() + "] receive and stack message=" + Message.formatSimple( message ) );
+            LOGGER.debug( "[" + getNodeID() + "] receive and stack " + count + " messages, discard " + ( shared.size() - count ) );
+        }
+    }
+
+    /**
+     * Wake up a suspended task (a message is received, or an asynchronous transform is done).
+     */
+    public void wakeUp()
+    {
+        if ( maxInFlight > 1 )
+        {
+            // A node thread waits its messages in flight
+            synchronized( inFlightSignal )
+            {
+                inFlightSignaled = true;
+
+                inFlightSignal.notifyAll();
+            }
+        }
+
+        if ( !parked )
+        {
+            return;
         }
 
-        synchronized( internalStack )
+        synchronized( poolLock )
         {
-            internalStack.addFirst( result );
+            if ( !parked )
+            {
+                return;
+            }
+
+            parked = false;
+
+            if ( pending != null )
+            {
+                pending.cancel( false );
+            }
 
-            internalStack.notifyAll();
+            schedule( 0L );
         }
     }
 
@@ -471,7 +874,26 @@ public abstract class A_Node
             activated = false;
         }
 
-        interrupt();
+        synchronized( poolLock )
+        {
+            if ( executor == null )
+            {
+                interrupt();
+            }
+            else
+            {
+                if ( carrier != null )
+                {
+                    carrier.interrupt();
+                }
+                else if ( parked || pending != null && pending.cancel( false ) )
+                {
+                    // Run once more to finish the task
+                    parked = false;
+                    schedule( 0L );
+                }
+            }
+        }
     }
 
     // PROTECTED
@@ -486,6 +908,10 @@ public abstract class A_Node
     /**
      * Loop execution. The execution is looped until message reception.
      *
+     * On a shared pool, the loop is suspended when getLastMessageOrWait has nothing to return, and replayed from the
+     * beginning later: the loop must do nothing before its first wait that can't be done twice. The suspension is an
+     * Error: the loop must not catch Throwable around getLastMessageOrWait.
+     *
      * @throws java.lang.Exception
      */
     protected abstract void loop()
@@ -502,6 +928,9 @@ public abstract class A_Node
     /**
      * Send actual message to every connected nodes.
      *
+     * The node's message isn't modified: the transforms OUT work on a copy, which is frozen and shared by the
+     * destinations. The node can still modify its message after. A transform OUT gives away the message it returns.
+     *
      * @throws java.lang.Exception
      */
     protected void sendMessage()
@@ -517,12 +946,22 @@ public abstract class A_Node
             LOGGER.trace( "[" + getNodeID() + "] sendMessage : message=" + Message.formatSimple( message ) );
         }
 
-        Message result = message;
-        for ( final A_Transform transform : transformsOUT )
+        // Transforms OUT don't modify the node's message
+        Message result = message.copy();
+        for ( int i = 0 ; i < transformsOUT.size() ; ++i )
         {
-            result = transform.transform( result );
+            final long start = System.nanoTime();
+
+            result = transformsOUT.get( i ).transform( result );
+
+            recordTransform( transformsOUTTimes ,
+                             i ,
+                             start );
+
             if ( result == null )
             {
+                metrics.addDiscarded( 1L );
+
                 if ( LOGGER.isDebugEnabled() )
                 {
                     LOGGER.
@@ -531,10 +970,6 @@ public abstract class A_Node
 
                 return;
             }
-            else
-            {
-                result = SerializationUtils.clone( result );
-            }
         }
 
         if ( LOGGER.isDebugEnabled() )
@@ -542,62 +977,188 @@ public abstract class A_Node
             LOGGER.debug( "[" + getNodeID() + "] send message=" + Message.formatSimple( message ) );
         }
 
-        dispatcher.sendMessage( nodeID ,
-                                result );
-    }
+        metrics.addSent( 1L );
 
-    /**
-     * Is the node alive ?
-     *
-     * @return True if alive
-     */
-    protected boolean isActive()
-    {
-        synchronized( this )
+        if ( isReordered() )
         {
-            return activated;
+            instances.buffer( currentSequence ,
+                              Collections.singletonList( result ) );
+        }
+        else if ( nodeIndex >= 0 )
+        {
+            dispatcher.sendMessage( nodeIndex ,
+                                    result );
+        }
+        else
+        {
+            dispatcher.sendMessage( nodeID ,
+                                    result );
         }
     }
 
     /**
-     * Pop the last message.
+     * Send messages to every connected nodes, as a batch. Transforms OUT work on the whole batch.
      *
-     * @return the message
-     * @throws InterruptedException
+     * As with sendMessage, the node's messages aren't modified: copies are frozen and shared by the destinations.
+     *
+     * @param messages Messages
+     * @throws java.lang.Exception
      */
-    protected Message getLastMessageOrWait()
-        throws InterruptedException
+    protected void sendMessages( final List<Message> messages )
+        throws Exception
     {
+        if ( messages == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
         if ( LOGGER.isTraceEnabled() )
         {
-            LOGGER.trace( "[" + getNodeID() + "] getLastMessageOrWait" );
+            LOGGER.trace( "[" + getNodeID() + "] sendMessages : messages.size=" + messages.size() );
         }
 
-        final Message message;
-        synchronized( internalStack )
+        if ( messages.isEmpty() )
         {
-            while ( internalStack.isEmpty() )
-            {
-                internalStack.wait();
-            }
+            return;
+        }
 
-            message = internalStack.pollLast();
+        // Transforms OUT don't modify the node's messages
+        List<Message> results = new ArrayList<>( messages.size() );
+        for ( final Message m : messages )
+        {
+            results.add( m.copy() );
         }
 
-        if ( lastPop != null && antiBurst != null )
+        for ( int i = 0 ; i < transformsOUT.size() ; ++i )
         {
-            // Null for now
-            final Duration elapsed = new Duration( lastPop ,
-                                                   null );
+            final long start = System.nanoTime();
 
-            final Duration remaining = antiBurst.minus( elapsed );
-            if ( remaining.getMillis() > 0L )
-            {
-                Thread.sleep( remaining.getMillis() );
-            }
-        }
+            results = transformsOUT.get( i ).transformBatch( results );
 
-        lastPop = new DateTime();
+            recordTransform( transformsOUTTimes ,
+                             i ,
+                             start );
+
+            if ( results.isEmpty() )
+            {
+                metrics.addDiscarded( messages.size() );
+
+                if ( LOGGER.isDebugEnabled() )
+                {
+                    LOGGER.debug( "[" + getNodeID() + "] send but discard " + messages.size() + " messages" );
+                }
+
+                return;
+            }
+        }
+
+        if ( LOGGER.isDebugEnabled() )
+        {
+            LOGGER.debug( "[" + getNodeID() + "] send " + results.size() + " messages" );
+        }
+
+        metrics.addDiscarded( messages.size() - results.size() );
+        metrics.addSent( results.size() );
+
+        if ( isReordered() )
+        {
+            instances.buffer( currentSequence ,
+                              results );
+        }
+        else if ( nodeIndex >= 0 )
+        {
+            dispatcher.sendMessages( nodeIndex ,
+                                     results );
+        }
+        else
+        {
+            dispatcher.sendMessages( nodeID ,
+                                     results );
+        }
+    }
+
+    /**
+     * Is the node alive ?
+     *
+     * @return True if alive
+     */
+    protected boolean isActive()
+    {
+        synchronized( this )
+        {
+            return activated;
+        }
+    }
+
+    /**
+     * Pop the last message. The transforms IN are applied here, in the node thread.
+     *
+     * @return the message
+     * @throws InterruptedException
+     */
+    protected Message getLastMessageOrWait()
+        throws InterruptedException
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNodeID() + "] getLastMessageOrWait" );
+        }
+
+        final Message message;
+        if ( isPooled() )
+        {
+            // A task never blocks : the loop is suspended and replayed later
+            final boolean permit = parkIfLimited();
+
+            Message result = ready.pollFirst();
+            if ( result == null && maxInFlight > 1 )
+            {
+                result = pollInFlight( null );
+                if ( result == null )
+                {
+                    releasePermit( permit );
+
+                    throw park( -1L ,
+                                true );
+                }
+            }
+
+            while ( result == null )
+            {
+                final Message raw = popRaw( 0L );
+                if ( raw == null )
+                {
+                    releasePermit( permit );
+
+                    throw park( -1L ,
+                                true );
+                }
+
+                result = acceptIN( raw );
+            }
+
+            message = result;
+        }
+        else
+        {
+            Message result = ready.pollFirst();
+            if ( result == null && maxInFlight > 1 )
+            {
+                result = takeInFlight( -1L );
+            }
+
+            while ( result == null )
+            {
+                result = acceptIN( popRaw( -1L ) );
+            }
+
+            message = result;
+
+            waitPermit();
+        }
+
+        // The loop time is measured from the pop
+        loopStart = System.nanoTime();
 
         if ( LOGGER.isDebugEnabled() )
         {
@@ -608,9 +1169,9 @@ public abstract class A_Node
     }
 
     /**
-     * Pop the last message.
+     * Pop the last message. The transforms IN are applied here, in the node thread.
      *
-     * @param timeout max time to wait. If timeout is smaller than antiburst, use antiburst.
+     * @param timeout max time to wait. The wait for a rate limiter permit is added, when a message is popped.
      * @return the message (or null if empty)
      * @throws InterruptedException
      */
@@ -628,42 +1189,88 @@ public abstract class A_Node
         }
 
         final Message message;
-        synchronized( internalStack )
+        if ( isPooled() )
         {
-            DateTime start = new DateTime();
-            Duration remaining = timeout;
-            while ( internalStack.isEmpty()
-                    && remaining.getMillis() > 0L )
+            // A task never blocks : the loop is suspended and replayed later
+            final boolean permit = parkIfLimited();
+
+            Message result = ready.pollFirst();
+            if ( result == null && maxInFlight > 1 )
             {
-                internalStack.wait( remaining.getMillis() );
+                result = pollInFlight( null );
+            }
 
-                final DateTime now = new DateTime();
+            Message raw = result == null && maxInFlight <= 1 ? popRaw( 0L ) : null;
+            while ( raw != null )
+            {
+                result = acceptIN( raw );
+                if ( result != null )
+                {
+                    break;
+                }
 
-                final Duration elapsed = new Duration( start ,
-                                                       now );
+                raw = popRaw( 0L );
+            }
 
-                remaining = remaining.minus( elapsed );
+            message = result;
+            if ( message == null )
+            {
+                releasePermit( permit );
+            }
 
-                start = now;
+            if ( message == null && !parkTimedOut && timeout.getMillis() > 0L )
+            {
+                throw park( timeout.getMillis() ,
+                            true );
             }
 
-            message = internalStack.pollLast();
+            parkTimedOut = false;
         }
-
-        if ( lastPop != null && antiBurst != null )
+        else
         {
-            // Null for now
-            final Duration elapsed = new Duration( lastPop ,
-                                                   null );
+            Message result = ready.pollFirst();
+            if ( result == null && maxInFlight > 1 )
+            {
+                result = takeInFlight( TimeUnit.MILLISECONDS.toNanos( getClock().elapse( timeout.getMillis() ) ) );
+            }
+
+            long deadline = -1L;
+            while ( result == null && maxInFlight <= 1 )
+            {
+                Message raw = popRaw( 0L );
+                if ( raw == null )
+                {
+                    if ( deadline < 0L )
+                    {
+                        // Nothing is waiting: a simulated clock jumps over the timeout
+                        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( getClock().elapse( timeout.
+                            getMillis() ) );
+                    }
+
+                    raw = popRaw( Math.max( 0L ,
+                                            deadline - System.nanoTime() ) );
+                    if ( raw == null )
+                    {
+                        break;
+                    }
+                }
+
+                result = acceptIN( raw );
+            }
+
+            message = result;
 
-            final Duration remaining = antiBurst.minus( elapsed );
-            if ( remaining.getMillis() > 0L )
+            if ( message != null )
             {
-                Thread.sleep( remaining.getMillis() );
+                waitPermit();
             }
         }
 
-        lastPop = new DateTime();
+        if ( message != null )
+        {
+            // The loop time is measured from the pop
+            loopStart = System.nanoTime();
+        }
 
         if ( LOGGER.isDebugEnabled() )
         {
@@ -686,6 +1293,16 @@ public abstract class A_Node
         return message;
     }
 
+    /**
+     * Return the node's inbox.
+     *
+     * @return the inbox
+     */
+    protected Inbox getInbox()
+    {
+        return inbox;
+    }
+
     protected void setMessage( final Message message )
     {
         this.message = message;
@@ -693,16 +1310,974 @@ public abstract class A_Node
 
     // PRIVATE
     private static final Logger LOGGER = LoggerFactory.getLogger( A_Node.class );
+    private static final ParkSignal PARK = new ParkSignal();
+    private static final ThreadLocal<A_Node> CURRENT_TASK = new ThreadLocal<>();
     private String nodeID;
+    private int nodeIndex;
     private final ConfigProperties properties;
     private Dispatcher dispatcher;
-    private final LinkedList<Message> internalStack;
+    private Inbox inbox;
+    private final ArrayDeque<Message> ready;
+    private int batchSize;
+    private final ArrayDeque<InFlight> inFlight;
+    private int maxInFlight;
+    private final Object inFlightSignal;
+    private boolean inFlightSignaled;
+    private NodeMetrics metrics;
+    private LatencyHistogram[] transformsINTimes;
+    private LatencyHistogram[] transformsOUTTimes;
+    private long loopStart;
+    private NodeInstances instances;
+    private long poppedSequence;
+    private long currentSequence;
     private volatile boolean activated;
     private final List<A_Transform> transformsIN;
     private final List<A_Transform> transformsOUT;
-    private DateTime lastPop;
     private Duration antiBurst;
+    private RateLimiter burstLimiter;
+    private RateLimiter rateLimiter;
     private Duration delay;
     private Message message;
+    private ScheduledExecutorService executor;
+    private final Object poolLock;
+    private volatile boolean parked;
+    private boolean parkTimedOut;
+    private long parkDelay;
+    private boolean parkUntilMessage;
+    private ScheduledFuture<?> pending;
+    private Inbox fullInbox;
+    private final Runnable roomListener;
+    private Thread carrier;
+    private CountDownLatch stopped;
+
+    /**
+     * Apply the transforms IN to a popped message, and to the next waiting ones (up to batch-size). Kept messages are
+     * stacked in the ready list.
+     *
+     * @param first Popped message (frozen)
+     * @return the first kept message (or null if all are discarded)
+     * @throws InterruptedException
+     */
+    private Message transformIN( final Message first )
+        throws InterruptedException
+    {
+        final List<Message> raws = new ArrayList<>( batchSize );
+        raws.add( first );
+
+        if ( batchSize > 1 )
+        {
+            try
+            {
+                inbox.drainTo( raws ,
+                               batchSize - 1 );
+            }
+            catch( final IOException ex )
+            {
+                throw new RuntimeException( ex );
+            }
+        }
+
+        // Private copies of the shared messages
+        List<Message> results = new ArrayList<>( raws.size() );
+        for ( final Message raw : raws )
+        {
+            results.add( raw.copy() );
+        }
+
+        for ( int i = 0 ; i < transformsIN.size() ; ++i )
+        {
+            if ( results.isEmpty() )
+            {
+                break;
+            }
+
+            final A_Transform transform = transformsIN.get( i );
+            final long start = System.nanoTime();
+            try
+            {
+                results = transform.transformBatch( results );
+
+                recordTransform( transformsINTimes ,
+                                 i ,
+                                 start );
+            }
+            catch( final InterruptedException ex )
+            {
+                throw ex;
+            }
+            catch( final Throwable ex )
+            {
+                if ( results.size() == 1 )
+                {
+                    postError( ex ,
+                               results.get( 0 ) );
+
+                    results = new ArrayList<>();
+                }
+                else
+                {
+                    // Find the faulty messages
+                    results = transformOneByOne( transform ,
+                                                 results );
+                }
+            }
+        }
+
+        metrics.addDiscarded( raws.size() - results.size() );
+
+        if ( results.size() < raws.size() && LOGGER.isDebugEnabled() )
+        {
+            if ( raws.size() == 1 )
+            {
+                LOGGER.debug( "[" + getNodeID() + "] receive but discard message=" + Message.formatSimple( first ) );
+            }
+            else
+            {
+                LOGGER.debug( "[" + getNodeID() + "] receive but discard " + ( raws.size() - results.size() ) + " messages" );
+            }
+        }
+
+        ready.addAll( results );
+
+        return ready.pollFirst();
+    }
+
+    /**
+     * Apply a transform to each message of a batch. An error in the transform discards the message.
+     *
+     * @param transform Transform
+     * @param messages Messages
+     * @return the kept messages
+     * @throws InterruptedException
+     */
+    private List<Message> transformOneByOne( final A_Transform transform ,
+                                             final List<Message> messages )
+        throws InterruptedException
+    {
+        final List<Message> results = new ArrayList<>( messages.size() );
+        for ( final Message m : messages )
+        {
+            try
+            {
+                final Message result = transform.transform( m );
+                if ( result != null )
+                {
+                    results.add( result );
+                }
+            }
+            catch( final InterruptedException ex )
+            {
+                throw ex;
+            }
+            catch( final Throwable ex )
+            {
+                postError( ex ,
+                           m );
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Apply the transforms IN with several messages in flight (asynchronous transforms). Messages are released in the
+     * order of arrival.
+     *
+     * @param first Popped message to add (could be null)
+     * @return the next transformed message (or null if the oldest one is not ready)
+     * @throws InterruptedException
+     */
+    private Message pollInFlight( final Message first )
+        throws InterruptedException
+    {
+        Message raw = first;
+        while ( true )
+        {
+            // Fill
+            while ( inFlight.size() < maxInFlight )
+            {
+                if ( raw == null )
+                {
+                    raw = popMessage();
+                    if ( raw == null )
+                    {
+                        break;
+                    }
+                }
+
+                final InFlight entry = new InFlight( raw.copy() );
+                raw = null;
+
+                inFlight.addLast( entry );
+            }
 
+            // Move forward every message
+            for ( final InFlight entry : inFlight )
+            {
+                advance( entry );
+            }
+
+            final InFlight head = inFlight.peekFirst();
+            if ( head == null || !head.done )
+            {
+                return null;
+            }
+
+            inFlight.pollFirst();
+
+            if ( head.message != null )
+            {
+                return head.message;
+            }
+        }
+    }
+
+    /**
+     * Wait the next transformed message, with several messages in flight.
+     *
+     * @param timeout max time to wait in nanoseconds (-1 for infinite)
+     * @return the next transformed message (or null after the timeout)
+     * @throws InterruptedException
+     */
+    private Message takeInFlight( final long timeout )
+        throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + timeout;
+        while ( true )
+        {
+            final Message result = pollInFlight( null );
+            if ( result != null )
+            {
+                return result;
+            }
+
+            final long remaining = timeout < 0L ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if ( remaining <= 0L )
+            {
+                return null;
+            }
+
+            final InFlight head = inFlight.peekFirst();
+            if ( head == null )
+            {
+                // Nothing in flight: wait a message
+                final Message raw;
+                try
+                {
+                    raw = inbox.poll( remaining ,
+                                      TimeUnit.NANOSECONDS );
+                }
+                catch( final IOException ex )
+                {
+                    throw new RuntimeException( ex );
+                }
+
+                if ( raw == null )
+                {
+                    return null;
+                }
+
+                final Message first = pollInFlight( raw );
+                if ( first != null )
+                {
+                    return first;
+                }
+            }
+            else
+            {
+                // Wait the oldest message, or a new message to put in flight (both wake up the node)
+                synchronized( inFlightSignal )
+                {
+                    if ( !inFlightSignaled
+                         && !isInFlightReady()
+                         && ( inFlight.size() >= maxInFlight || inbox.isEmpty() ) )
+                    {
+                        TimeUnit.NANOSECONDS.timedWait( inFlightSignal ,
+                                                        remaining );
+                    }
+
+                    inFlightSignaled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute the next transforms of a message in flight, while they are done.
+     *
+     * @param entry Message in flight
+     * @throws InterruptedException
+     */
+    private void advance( final InFlight entry )
+        throws InterruptedException
+    {
+        while ( !entry.done )
+        {
+            if ( entry.future != null )
+            {
+                if ( !entry.future.isDone() )
+                {
+                    return;
+                }
+
+                final Message result;
+                try
+                {
+                    result = entry.future.get();
+                }
+                catch( final ExecutionException ex )
+                {
+                    postError( ex.getCause() ,
+                               entry.message );
+
+                    metrics.addDiscarded( 1L );
+                    entry.discard();
+
+                    return;
+                }
+
+                entry.future = null;
+
+                recordTransform( transformsINTimes ,
+                                 entry.step ,
+                                 entry.started );
+
+                if ( result == null )
+                {
+                    if ( LOGGER.isDebugEnabled() )
+                    {
+                        LOGGER.debug( "[" + getNodeID() + "] receive but discard message=" + Message.formatSimple(
+                            entry.message ) );
+                    }
+
+                    metrics.addDiscarded( 1L );
+                    entry.discard();
+
+                    return;
+                }
+
+                entry.message = result;
+                ++entry.step;
+            }
+
+            if ( entry.step >= transformsIN.size() )
+            {
+                entry.done = true;
+
+                return;
+            }
+
+            try
+            {
+                entry.started = System.nanoTime();
+                entry.future = transformsIN.get( entry.step ).transformAsync( entry.message );
+            }
+            catch( final InterruptedException ex )
+            {
+                throw ex;
+            }
+            catch( final Throwable ex )
+            {
+                postError( ex ,
+                           entry.message );
+
+                metrics.addDiscarded( 1L );
+                entry.discard();
+
+                return;
+            }
+        }
+    }
+
+    /**
+     * Is the oldest message in flight ready ?
+     *
+     * @return true or not
+     */
+    private boolean isInFlightReady()
+    {
+        final InFlight head = inFlight.peekFirst();
+
+        return head != null && ( head.done || head.future != null && head.future.isDone() );
+    }
+
+    /**
+     * Pop a message without waiting.
+     *
+     * @return the message (or null if empty)
+     */
+    private Message popMessage()
+    {
+        try
+        {
+            return inbox.poll();
+        }
+        catch( final IOException ex )
+        {
+            throw new RuntimeException( ex );
+        }
+    }
+
+    /**
+     * Post an error, and count it.
+     *
+     * @param th the error
+     * @param message the message (could be null)
+     */
+    private void postError( final Throwable th ,
+                            final Message message )
+    {
+        metrics.addError();
+
+        getDispatcher().postError( th ,
+                                   message );
+    }
+
+    /**
+     * Return the histograms of transforms.
+     *
+     * @param direction IN or OUT
+     * @param transforms Transforms
+     * @return the histograms, in the transforms order
+     */
+    private LatencyHistogram[] getTransformsHistograms( final String direction ,
+                                                        final List<A_Transform> transforms )
+    {
+        final LatencyHistogram[] histograms = new LatencyHistogram[ transforms.size() ];
+        for ( int i = 0 ; i < histograms.length ; ++i )
+        {
+            histograms[ i] = metrics.getTransformHistogram(
+                direction + "/" + i + "/" + transforms.get( i ).getClass().getSimpleName() );
+        }
+
+        return histograms;
+    }
+
+    /**
+     * Record the time of a transform.
+     *
+     * @param histograms Histograms of the transforms (null if the node isn't prepared)
+     * @param index Transform's index
+     * @param start Start time in nanoseconds
+     */
+    private static void recordTransform( final LatencyHistogram[] histograms ,
+                                         final int index ,
+                                         final long start )
+    {
+        if ( histograms != null && index < histograms.length )
+        {
+            histograms[ index].record( System.nanoTime() - start );
+        }
+    }
+
+    /**
+     * Pop a message from the inbox. With instances, the sequence number is taken with the message.
+     *
+     * @param timeoutNanos max time to wait (0 for no wait, -1 to wait forever)
+     * @return the message (or null if empty)
+     * @throws InterruptedException
+     */
+    private Message popRaw( final long timeoutNanos )
+        throws InterruptedException
+    {
+        if ( instances == null )
+        {
+            return pollInbox( timeoutNanos );
+        }
+
+        final ReentrantLock popLock = instances.getPopLock();
+        final long deadline = System.nanoTime() + timeoutNanos;
+        if ( timeoutNanos < 0L )
+        {
+            popLock.lockInterruptibly();
+        }
+        else if ( timeoutNanos == 0L )
+        {
+            // Never held long by a task
+            popLock.lock();
+        }
+        else if ( !popLock.tryLock( timeoutNanos ,
+                                    TimeUnit.NANOSECONDS ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            final Message raw = pollInbox( timeoutNanos <= 0L ? timeoutNanos : Math.max( 0L ,
+                                                                                          deadline - System.nanoTime() ) );
+            if ( raw != null )
+            {
+                poppedSequence = instances.nextSequence();
+            }
+
+            return raw;
+        }
+        finally
+        {
+            popLock.unlock();
+        }
+    }
+
+    private Message pollInbox( final long timeoutNanos )
+        throws InterruptedException
+    {
+        try
+        {
+            if ( timeoutNanos < 0L )
+            {
+                return inbox.take();
+            }
+            else if ( timeoutNanos == 0L )
+            {
+                return inbox.poll();
+            }
+            else
+            {
+                return inbox.poll( timeoutNanos ,
+                                   TimeUnit.NANOSECONDS );
+            }
+        }
+        catch( final IOException ex )
+        {
+            throw new RuntimeException( ex );
+        }
+    }
+
+    /**
+     * Apply the transforms IN to a popped message. With instances, follow the sequence number of the message.
+     *
+     * @param raw Popped message
+     * @return the kept message (or null if discarded)
+     * @throws InterruptedException
+     */
+    private Message acceptIN( final Message raw )
+        throws InterruptedException
+    {
+        final Message result = transformIN( raw );
+
+        if ( instances != null )
+        {
+            // A new message ends the previous one
+            completeSequence();
+
+            if ( result == null )
+            {
+                completeSequence( poppedSequence );
+            }
+            else
+            {
+                currentSequence = poppedSequence;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * End the processing of the current message (with instances).
+     */
+    private void completeSequence()
+    {
+        if ( currentSequence >= 0L )
+        {
+            final long sequence = currentSequence;
+            currentSequence = -1L;
+
+            completeSequence( sequence );
+        }
+    }
+
+    private void completeSequence( final long sequence )
+    {
+        try
+        {
+            instances.complete( sequence );
+        }
+        catch( final InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch( final Throwable th )
+        {
+            postError( th ,
+                       null );
+        }
+    }
+
+    /**
+     * Are the sent messages buffered by the ordered instances ?
+     *
+     * @return true if buffered
+     */
+    private boolean isReordered()
+    {
+        return instances != null && instances.isOrdered() && currentSequence >= 0L;
+    }
+
+    /**
+     * Wake up this node, or all its instances.
+     */
+    private void wakeUpInstances()
+    {
+        if ( instances == null )
+        {
+            wakeUp();
+        }
+        else
+        {
+            instances.wakeUpAll();
+        }
+    }
+
+    private boolean isPooled()
+    {
+        synchronized( poolLock )
+        {
+            return executor != null;
+        }
+    }
+
+    /**
+     * Try to take a permit of the anti-burst bucket and of the shared rate limiter.
+     *
+     * @return 0 if the permit is taken, otherwise the time to wait in milliseconds
+     */
+    private long tryAcquirePermit()
+    {
+        if ( burstLimiter != null )
+        {
+            final long wait = burstLimiter.tryAcquire();
+            if ( wait > 0L )
+            {
+                return wait;
+            }
+        }
+
+        if ( rateLimiter != null )
+        {
+            final long wait = rateLimiter.tryAcquire();
+            if ( wait > 0L )
+            {
+                if ( burstLimiter != null )
+                {
+                    burstLimiter.release();
+                }
+
+                return wait;
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Give back an unused permit (no message popped).
+     *
+     * @param permit True if a permit was taken
+     */
+    private void releasePermit( final boolean permit )
+    {
+        if ( permit )
+        {
+            if ( burstLimiter != null )
+            {
+                burstLimiter.release();
+            }
+
+            if ( rateLimiter != null )
+            {
+                rateLimiter.release();
+            }
+        }
+    }
+
+    /**
+     * Wait a permit of the rate limiters, in the node's own thread.
+     *
+     * @throws InterruptedException
+     */
+    private void waitPermit()
+        throws InterruptedException
+    {
+        long wait = tryAcquirePermit();
+        while ( wait > 0L )
+        {
+            getClock().sleep( wait );
+
+            wait = tryAcquirePermit();
+        }
+    }
+
+    /**
+     * Take a permit of the rate limiters before popping a message, or suspend the task until a permit is available.
+     *
+     * @return true if a permit is taken
+     */
+    private boolean parkIfLimited()
+    {
+        if ( burstLimiter == null && rateLimiter == null )
+        {
+            return false;
+        }
+
+        final long wait = tryAcquirePermit();
+        if ( wait > 0L )
+        {
+            throw park( wait ,
+                        false );
+        }
+
+        return true;
+    }
+
+    /**
+     * Prepare the suspension of the task.
+     *
+     * @param delay Time to wait in milliseconds (-1 for infinite)
+     * @param untilMessage if true, an incoming message wakes up the task
+     * @return the signal to throw
+     */
+    private ParkSignal park( final long delay ,
+                                final boolean untilMessage )
+    {
+        parkDelay = delay;
+        parkUntilMessage = untilMessage;
+
+        return PARK;
+    }
+
+    /**
+     * Execute one loop iteration as a task, then schedule the next one.
+     */
+    private void runIteration()
+    {
+        synchronized( poolLock )
+        {
+            pending = null;
+            carrier = Thread.currentThread();
+        }
+
+        boolean suspended = false;
+        long nextDelay = delay == null ? 0L : delay.getMillis();
+
+        // A full destination suspends the task before the next loop
+        if ( fullInbox != null && fullInbox.hasRoom() )
+        {
+            fullInbox = null;
+        }
+
+        if ( fullInbox != null && isActive() )
+        {
+            fullInbox.addRoomListener( roomListener );
+
+            suspended = true;
+            nextDelay = -1L;
+        }
+        else if ( isActive() )
+        {
+            loopStart = System.nanoTime();
+            CURRENT_TASK.set( this );
+            try
+            {
+                setMessage( null );
+                loop();
+                setMessage( null );
+
+                metrics.getLoopHistogram().record( System.nanoTime() - loopStart );
+            }
+            catch( final ParkSignal ex )
+            {
+                suspended = parkUntilMessage;
+                nextDelay = parkDelay;
+            }
+            catch( final InterruptedException ex )
+            {
+                // Ignore
+            }
+            catch( final Throwable ex )
+            {
+                postError( ex ,
+                           message );
+            }
+
+            // With ordered instances, the messages are sent here
+            completeSequence();
+
+            CURRENT_TASK.remove();
+        }
+
+        if ( !suspended )
+        {
+            parkTimedOut = false;
+        }
+
+        // A simulated clock jumps over the delay (outside the lock: the clock could wait for other threads)
+        if ( nextDelay > 0L && isActive() )
+        {
+            nextDelay = getClock().elapse( nextDelay );
+        }
+
+        synchronized( poolLock )
+        {
+            carrier = null;
+
+            // Clear a stop interruption. The carrier thread is reused by other nodes.
+            Thread.interrupted();
+
+            if ( !isActive() )
+            {
+                if ( LOGGER.isTraceEnabled() )
+                {
+                    LOGGER.trace( "[" + getNodeID() + "] stop task" );
+                }
+
+                stopped.countDown();
+
+                return;
+            }
+
+            if ( suspended )
+            {
+                parked = true;
+
+                if ( nextDelay >= 0L )
+                {
+                    pending = executor.schedule( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            synchronized( poolLock )
+                            {
+                                if ( !parked )
+                                {
+                                    return;
+                                }
+
+                                parked = false;
+                            }
+
+                            parkTimedOut = true;
+
+                            runIteration();
+                        }
+                    } ,
+                                                 nextDelay ,
+                                                 TimeUnit.MILLISECONDS );
+                }
+            }
+            else
+            {
+                schedule( nextDelay );
+            }
+        }
+
+        // A message (or the room) could be arrived before the suspension
+        if ( suspended )
+        {
+            if ( fullInbox == null ? !inbox.isEmpty() || isInFlightReady() : fullInbox.hasRoom() )
+            {
+                wakeUp();
+            }
+        }
+    }
+
+    /**
+     * Schedule the next iteration. Must be called with poolLock.
+     *
+     * @param delay Delay in milliseconds
+     */
+    private void schedule( final long delay )
+    {
+        pending = executor.schedule( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runIteration();
+            }
+        } ,
+                                     delay ,
+                                     TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * A message in the transforms IN chain.
+     */
+    private static final class InFlight
+    {
+        // PUBLIC
+        public InFlight( final Message message )
+        {
+            this.message = message;
+            this.step = 0;
+            this.started = 0L;
+            this.future = null;
+            this.done = false;
+        }
+
+        /**
+         * The message is discarded.
+         */
+        public void discard()
+        {
+            message = null;
+            future = null;
+            done = true;
+        }
+
+        // DEFAULT
+        Message message;
+        int step;
+        long started;
+        Future<Message> future;
+        boolean done;
+    }
+
+    /**
+     * Is the sender a task of a shared pool, which must not wait for this inbox ?
+     *
+     * @param sender Node of the current task (could be null)
+     * @return true if the sender can't wait
+     */
+    private boolean isTaskOf( final A_Node sender )
+    {
+        return sender != null && sender.inbox != inbox;
+    }
+
+    /**
+     * Suspend the sending task before its next loop, while this inbox is full. Only with the BLOCK policy: the other
+     * policies never make the sender wait.
+     *
+     * @param sender Node of the current task (could be null)
+     */
+    private void waitRoom( final A_Node sender )
+    {
+        if ( isTaskOf( sender ) && inbox.getPolicy() == Inbox.OverflowPolicy.BLOCK && !inbox.hasRoom() )
+        {
+            sender.fullInbox = inbox;
+        }
+    }
+
+    /**
+     * Suspend a task. The loop will be replayed from the beginning.
+     *
+     * It isn't an InterruptedException: a loop which catches interruptions (to retry or to sleep) doesn't swallow it.
+     */
+    private static final class ParkSignal
+        extends Error
+    {
+        // PUBLIC
+        public ParkSignal()
+        {
+            super( "park" ,
+                   null ,
+                   false ,
+                   false );
+        }
+
+        // PRIVATE
+        private static final long serialVersionUID = 2861029572394583271L;
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes;
+
+import com.vaushell.superpipes.dispatch.Message;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Instances of a node, sharing the inbox of the first one.
+ *
+ * Each popped message gets a sequence number. When the instances are ordered, the sent messages are buffered, and
+ * released in the sequence order: the next nodes see the input order. An instance can't complete a message more than
+ * the inbox capacity ahead of the release: it waits for the slow instances, so the buffer stays bounded.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class NodeInstances
+{
+    // DEFAULT
+    NodeInstances( final A_Node primary ,
+                   final boolean ordered )
+    {
+        this.primary = primary;
+        this.ordered = ordered;
+        this.members = new CopyOnWriteArrayList<>();
+        this.popLock = new ReentrantLock();
+        this.nextSequence = 0L;
+        this.releaseSequence = 0L;
+        this.outputs = new HashMap<>();
+        this.released = new ArrayList<>();
+        this.sending = false;
+
+        members.add( primary );
+    }
+
+    A_Node getPrimary()
+    {
+        return primary;
+    }
+
+    boolean isOrdered()
+    {
+        return ordered;
+    }
+
+    /**
+     * Add an instance.
+     *
+     * @param instance Instance
+     */
+    void add( final A_Node instance )
+    {
+        members.add( instance );
+    }
+
+    /**
+     * Wake up all suspended instances.
+     */
+    void wakeUpAll()
+    {
+        for ( final A_Node member : members )
+        {
+            member.wakeUp();
+        }
+    }
+
+    /**
+     * Lock to hold while popping a message and taking its sequence number.
+     *
+     * @return the lock
+     */
+    ReentrantLock getPopLock()
+    {
+        return popLock;
+    }
+
+    /**
+     * Give the next sequence number. Must be called with the pop lock.
+     *
+     * @return the sequence number
+     */
+    long nextSequence()
+    {
+        return nextSequence++;
+    }
+
+    /**
+     * Buffer messages sent while processing a popped message.
+     *
+     * @param sequence Sequence number of the popped message
+     * @param messages Sent messages (OUT transforms already applied)
+     */
+    synchronized void buffer( final long sequence ,
+                              final List<Message> messages )
+    {
+        Output output = outputs.get( sequence );
+        if ( output == null )
+        {
+            output = new Output();
+            outputs.put( sequence ,
+                         output );
+        }
+
+        output.messages.addAll( messages );
+    }
+
+    /**
+     * A popped message is processed. Release all the buffered messages which are next in the sequence order.
+     *
+     * The released messages are sent without the lock (a destination could block): only 1 instance sends at a time,
+     * and it also sends the messages released by the others while it sends. The order is kept between releases.
+     *
+     * If the message is the inbox capacity ahead of the release, the instance waits until the release catches up (or
+     * until it is interrupted). Unordered instances don't buffer anything and never wait.
+     *
+     * @param sequence Sequence number of the popped message
+     * @throws Exception
+     */
+    void complete( final long sequence )
+        throws Exception
+    {
+        if ( !ordered )
+        {
+            return;
+        }
+
+        synchronized( this )
+        {
+            final int limit = primary.getInbox().getCapacity();
+            while ( sequence - releaseSequence >= limit )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( final InterruptedException ex )
+                {
+                    // Stop waiting: the order is still kept
+                    Thread.currentThread().interrupt();
+
+                    break;
+                }
+            }
+
+            Output output = outputs.get( sequence );
+            if ( output == null )
+            {
+                output = new Output();
+                outputs.put( sequence ,
+                             output );
+            }
+            output.completed = true;
+
+            final long previousRelease = releaseSequence;
+
+            output = outputs.get( releaseSequence );
+            while ( output != null && output.completed )
+            {
+                outputs.remove( releaseSequence );
+                ++releaseSequence;
+
+                released.addAll( output.messages );
+
+                output = outputs.get( releaseSequence );
+            }
+
+            if ( releaseSequence > previousRelease )
+            {
+                // Wake up the instances waiting for the release
+                notifyAll();
+            }
+
+            if ( sending || released.isEmpty() )
+            {
+                // The sending instance will send them
+                return;
+            }
+
+            sending = true;
+        }
+
+        boolean stopped = false;
+        try
+        {
+            while ( true )
+            {
+                final List<Message> messages;
+                synchronized( this )
+                {
+                    if ( released.isEmpty() )
+                    {
+                        sending = false;
+                        stopped = true;
+
+                        return;
+                    }
+
+                    messages = new ArrayList<>( released );
+                    released.clear();
+                }
+
+                if ( primary.getNodeIndex() >= 0 )
+                {
+                    primary.getDispatcher().sendMessages( primary.getNodeIndex() ,
+                                                          messages );
+                }
+                else
+                {
+                    primary.getDispatcher().sendMessages( primary.getNodeID() ,
+                                                          messages );
+                }
+            }
+        }
+        finally
+        {
+            if ( !stopped )
+            {
+                // Error: the next release sends the remaining messages
+                synchronized( this )
+                {
+                    sending = false;
+                }
+            }
+        }
+    }
+
+    // PRIVATE
+    private final A_Node primary;
+    private final boolean ordered;
+    private final List<A_Node> members;
+    private final ReentrantLock popLock;
+    private long nextSequence;
+    private long releaseSequence;
+    private final Map<Long , Output> outputs;
+    private final List<Message> released;
+    private boolean sending;
+
+    /**
+     * Messages sent for a popped message.
+     */
+    private static final class Output
+    {
+        // PUBLIC
+        public Output()
+        {
+            this.messages = new ArrayList<>();
+            this.completed = false;
+        }
+
+        // DEFAULT
+        final List<Message> messages;
+        boolean completed;
+    }
+}
@@ -22,17 +22,12 @@ package com.vaushell.superpipes.nodes.buffer;
 import com.vaushell.superpipes.dispatch.Message;
 import com.vaushell.superpipes.nodes.A_Node;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.TreeSet;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,9 +46,9 @@ public class N_Buffer
         super( null ,
                null );
 
-        this.slots = new ArrayList<>();
-        this.messageIDs = new TreeSet<>();
-        this.lastWrite = null;
+        this.schedule = null;
+        this.flowLimit = -1L;
+        this.lastWrite = -1L;
         this.rnd = new Random();
     }
 
@@ -63,7 +58,7 @@ public class N_Buffer
     {
         super.load( cNode );
 
-        slots.clear();
+        final List<Slot> slots = new ArrayList<>();
         final List<HierarchicalConfiguration> sNodes = cNode.configurationsAt( "slots.slot" );
         if ( sNodes != null )
         {
@@ -76,6 +71,43 @@ public class N_Buffer
                 slots.add( slot );
             }
         }
+
+        final String zoneID = getProperties().getConfigString( "timezone" ,
+                                                              null );
+        final DateTimeZone zone;
+        if ( zoneID == null )
+        {
+            zone = DateTimeZone.getDefault();
+        }
+        else
+        {
+            zone = DateTimeZone.forID( zoneID );
+        }
+
+        schedule = new WeekSchedule( slots ,
+                                     zone );
+
+        final Duration limit = getProperties().getConfigDuration( "flow-limit" ,
+                                                                  null );
+        if ( limit == null )
+        {
+            flowLimit = -1L;
+        }
+        else
+        {
+            flowLimit = limit.getMillis();
+        }
+    }
+
+    /**
+     * The buffered messages are in the files of the node: the instances would share them.
+     *
+     * @return false
+     */
+    @Override
+    public boolean isStateless()
+    {
+        return false;
     }
 
     // PROTECTED
@@ -83,19 +115,10 @@ public class N_Buffer
     protected void prepareImpl()
         throws Exception
     {
-        // Load messages IDs
-        messagesPath = getDispatcher().getDatas().resolve( getNodeID() );
-
-        Files.createDirectories( messagesPath );
-
-        try( final DirectoryStream<Path> stream = Files.newDirectoryStream( messagesPath ) )
-        {
-            for ( final Path p : stream )
-            {
-                final long ID = Long.parseLong( p.getFileName().toString() );
-                messageIDs.add( ID );
-            }
-        }
+        // Only the index is read
+        log = new SegmentLog( getDispatcher().getDatas().resolve( getNodeID() ) ,
+                              SEGMENT_SIZE );
+        log.open();
     }
 
     @Override
@@ -103,10 +126,10 @@ public class N_Buffer
         throws Exception
     {
         // 1. Are we allowed to publish ?
-        final DateTime now = new DateTime();
+        final long now = getClock().currentTimeMillis();
 
-        final Duration time2wait = getTimeToWait( now );
-        if ( time2wait.getMillis() > 0L )
+        final long time2wait = getTimeToWait( now );
+        if ( time2wait > 0L )
         {
             if ( LOGGER.isDebugEnabled() )
             {
@@ -114,7 +137,16 @@ public class N_Buffer
                     "[" + getNodeID() + "] time to wait : " + time2wait + ". During this time, we're trying to catch an incoming message." );
             }
 
-            setMessage( getLastMessageOrWait( time2wait ) );
+            if ( log.isEmpty() )
+            {
+                // Nothing to publish: no need to wake up before an incoming message
+                setMessage( getLastMessageOrWait() );
+            }
+            else
+            {
+                setMessage( getLastMessageOrWait( new Duration( time2wait ) ) );
+            }
+
             if ( getMessage() != null )
             {
                 pushMessage( getMessage() );
@@ -162,40 +194,31 @@ public class N_Buffer
     protected void terminateImpl()
         throws Exception
     {
-        // Nothing
+        if ( log != null )
+        {
+            log.close();
+        }
     }
 
     // PRIVATE
     private static final Logger LOGGER = LoggerFactory.getLogger( N_Buffer.class );
-    private final List<Slot> slots;
-    private final TreeSet<Long> messageIDs;
-    private DateTime lastWrite;
-    private Path messagesPath;
+    private static final long SEGMENT_SIZE = 16L * 1024L * 1024L;
+    private WeekSchedule schedule;
+    private long flowLimit;
+    private long lastWrite;
+    private SegmentLog log;
     private final Random rnd;
 
     private Message popMessage()
         throws IOException , ClassNotFoundException
     {
-        if ( messageIDs.isEmpty() )
-        {
-            return null;
-        }
-
-        final Long ID = messageIDs.pollFirst();
-
-        final Path p = messagesPath.resolve( Long.toString( ID ) );
-
-        final Message m = readMessage( p );
-
-        Files.delete( p );
-
-        return m;
+        return log.pop();
     }
 
     private void pushMessage( final Message message )
         throws IOException
     {
-        final DateTime now = new DateTime();
+        final DateTime now = getClock().now();
 
         final Duration delta;
         if ( getProperties().containsKey( "wait-min" ) && getProperties().containsKey( "wait-max" ) )
@@ -218,7 +241,7 @@ public class N_Buffer
         }
 
         final DateTime ID;
-        if ( messageIDs.isEmpty() )
+        if ( log.isEmpty() )
         {
             ID = now.plus( delta );
         }
@@ -226,10 +249,11 @@ public class N_Buffer
         {
             final DateTime askedTime = now.plus( delta );
 
-            final long lastID = messageIDs.last();
+            final long lastID = log.getLastTime();
             final DateTime lastTime = new DateTime( lastID );
 
-            if ( askedTime.isBefore( lastTime ) )
+            // IDs are unique: 2 messages pushed in the same millisecond get 2 IDs
+            if ( !askedTime.isAfter( lastTime ) )
             {
                 ID = lastTime.plusMillis( 1 );
             }
@@ -239,8 +263,6 @@ public class N_Buffer
             }
         }
 
-        final Path p = messagesPath.resolve( Long.toString( ID.getMillis() ) );
-
         if ( LOGGER.isTraceEnabled() )
         {
             LOGGER.trace(
@@ -248,88 +270,36 @@ public class N_Buffer
             );
         }
 
-        writeMessage( p ,
-                      message );
-
-        messageIDs.add( ID.getMillis() );
+        log.push( ID.getMillis() ,
+                  message );
     }
 
-    private Duration getTimeToWait( final DateTime from )
+    private long getTimeToWait( final long from )
     {
         // Best slot
-        Duration minDuration;
-        if ( slots.isEmpty() )
-        {
-            minDuration = new Duration( 0L );
-        }
-        else
-        {
-            minDuration = null;
-            for ( final Slot slot : slots )
-            {
-                final Duration duration = slot.getSmallestDiff( from );
-                if ( minDuration == null || duration.isShorterThan( minDuration ) )
-                {
-                    minDuration = duration;
-
-                    if ( minDuration.getMillis() <= 0L )
-                    {
-                        break;
-                    }
-                }
-            }
-        }
+        long minDuration = schedule.getTimeToWait( from );
 
         // Anti burst
-        if ( getProperties().containsKey( "flow-limit" ) && lastWrite != null )
+        if ( flowLimit >= 0L && lastWrite >= 0L )
         {
-            final Duration diff = new Duration( lastWrite ,
-                                                from );
-
-            final Duration toAdd = getProperties().getConfigDuration( "flow-limit" ).minus( diff );
-            if ( toAdd.isLongerThan( minDuration ) )
+            final long toAdd = flowLimit - ( from - lastWrite );
+            if ( toAdd > minDuration )
             {
                 minDuration = toAdd;
             }
         }
 
         // First message
-        if ( !messageIDs.isEmpty() )
+        if ( !log.isEmpty() )
         {
-            final long firstID = messageIDs.first();
-            final DateTime first = new DateTime( firstID );
-
-            if ( first.isAfter( from ) )
+            final long diff = log.getFirstTime() - from;
+            if ( diff > minDuration )
             {
-                final Duration diff = new Duration( from ,
-                                                    first );
-                if ( diff.isLongerThan( minDuration ) )
-                {
-                    minDuration = diff;
-                }
+                minDuration = diff;
             }
         }
 
         // Result
         return minDuration;
     }
-
-    private static void writeMessage( final Path p ,
-                                      final Message m )
-        throws IOException
-    {
-        try( ObjectOutputStream os = new ObjectOutputStream( Files.newOutputStream( p ) ) )
-        {
-            os.writeObject( m );
-        }
-    }
-
-    private static Message readMessage( final Path p )
-        throws IOException , ClassNotFoundException
-    {
-        try( ObjectInputStream is = new ObjectInputStream( Files.newInputStream( p ) ) )
-        {
-            return (Message) is.readObject();
-        }
-    }
 }
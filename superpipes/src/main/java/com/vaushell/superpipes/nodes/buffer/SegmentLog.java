@@ -0,0 +1,758 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.buffer;
+
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.tools.FilesHelper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent queue of messages, ordered by scheduled time.
+ *
+ * Messages are appended to segment files. An append-only index holds the operations: add (scheduled time, segment,
+ * offset, length) and remove (scheduled time). A checkpoint of the index (the live entries, and the index length they
+ * cover) is written every 1000 operations and at close: at startup, only the checkpoint and the index tail are read.
+ * Messages are read from memory-mapped segments. When the removed messages outnumber the waiting ones (at least 1000),
+ * the live messages are copied to a new segment and the index is rewritten.
+ *
+ * Files of the old storage (1 file per message, named by the scheduled time) are imported at startup. Each file is
+ * deleted once its message is in the index, so an interrupted import is finished at the next startup.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class SegmentLog
+{
+    // DEFAULT
+    /**
+     * Create a log.
+     *
+     * @param directory Storage directory
+     * @param segmentSize A new segment is started beyond this size (in bytes)
+     */
+    SegmentLog( final Path directory ,
+                final long segmentSize )
+    {
+        if ( directory == null || segmentSize <= 0L )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.entries = new TreeMap<>();
+        this.mapped = new HashMap<>();
+        this.removed = 0;
+        this.indexSize = 0L;
+        this.checkpointOps = 0;
+    }
+
+    /**
+     * Read the index, and import the files left by the old storage.
+     *
+     * @throws IOException
+     */
+    void open()
+        throws IOException
+    {
+        Files.createDirectories( directory );
+
+        final Path indexPath = directory.resolve( INDEX );
+        if ( Files.exists( indexPath ) )
+        {
+            readIndex( indexPath ,
+                       readCheckpoint( Files.size( indexPath ) ) );
+        }
+        else
+        {
+            Files.deleteIfExists( directory.resolve( CHECKPOINT ) );
+        }
+
+        // Active segment is the last one. Segments left by an interrupted compaction are deleted.
+        activeSegment = 0;
+        final List<Integer> orphans = new ArrayList<>();
+        try( final DirectoryStream<Path> stream = Files.newDirectoryStream( directory ,
+                                                                            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX ) )
+        {
+            for ( final Path p : stream )
+            {
+                final int segment = parseSegment( p );
+                activeSegment = Math.max( activeSegment ,
+                                          segment );
+
+                if ( !isUsed( segment ) )
+                {
+                    orphans.add( segment );
+                }
+            }
+        }
+
+        for ( final int segment : orphans )
+        {
+            if ( segment != activeSegment )
+            {
+                Files.delete( getSegmentPath( segment ) );
+            }
+        }
+
+        openWriters();
+
+        importFiles();
+    }
+
+    /**
+     * Write a checkpoint and close the files.
+     *
+     * @throws IOException
+     */
+    void close()
+        throws IOException
+    {
+        if ( index != null && checkpointOps > 0 )
+        {
+            writeCheckpoint();
+        }
+
+        closeFiles();
+    }
+
+    boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Return the scheduled time of the first message.
+     *
+     * @return the time in milliseconds
+     */
+    long getFirstTime()
+    {
+        return entries.firstKey();
+    }
+
+    /**
+     * Return the scheduled time of the last message.
+     *
+     * @return the time in milliseconds
+     */
+    long getLastTime()
+    {
+        return entries.lastKey();
+    }
+
+    /**
+     * Add a message.
+     *
+     * @param time Scheduled time (unique)
+     * @param message Message
+     * @throws IOException
+     */
+    void push( final long time ,
+               final Message message )
+        throws IOException
+    {
+        if ( message == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( entries.containsKey( time ) )
+        {
+            throw new IllegalArgumentException( "A message is already scheduled at " + time );
+        }
+
+        final byte[] content = serialize( message );
+
+        if ( segment.size() >= segmentSize )
+        {
+            segment.close();
+
+            ++activeSegment;
+            segment = openSegment( activeSegment );
+        }
+
+        final long offset = segment.size();
+        final ByteBuffer buffer = ByteBuffer.wrap( content );
+        while ( buffer.hasRemaining() )
+        {
+            segment.write( buffer );
+        }
+
+        final Entry entry = new Entry( activeSegment ,
+                                       offset ,
+                                       content.length );
+
+        index.writeByte( OP_ADD );
+        index.writeLong( time );
+        index.writeInt( entry.segment );
+        index.writeLong( entry.offset );
+        index.writeInt( entry.length );
+        index.flush();
+        indexSize += ADD_SIZE;
+
+        entries.put( time ,
+                     entry );
+
+        checkpointIfNeeded();
+    }
+
+    /**
+     * Remove the first message.
+     *
+     * @return the message (or null if empty)
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    Message pop()
+        throws IOException , ClassNotFoundException
+    {
+        if ( entries.isEmpty() )
+        {
+            return null;
+        }
+
+        final long time = entries.firstKey();
+        final Message message = deserialize( read( entries.get( time ) ) );
+
+        index.writeByte( OP_REMOVE );
+        index.writeLong( time );
+        index.flush();
+        indexSize += REMOVE_SIZE;
+
+        entries.remove( time );
+        ++removed;
+
+        if ( removed >= COMPACTION_MIN && removed > entries.size() )
+        {
+            compact();
+        }
+        else
+        {
+            checkpointIfNeeded();
+        }
+
+        return message;
+    }
+
+    /**
+     * Copy the live messages to a new segment, and rewrite the index.
+     *
+     * @throws IOException
+     */
+    void compact()
+        throws IOException
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + directory + "] compact : live=" + entries.size() + " / removed=" + removed );
+        }
+
+        final int lastOld = activeSegment;
+        final int newSegment = activeSegment + 1;
+
+        // New segment and new index
+        final Map<Long , Entry> compacted = new TreeMap<>();
+        final Path indexTmp = directory.resolve( INDEX + ".tmp" );
+        try( final FileChannel out = openSegment( newSegment ) ;
+             final DataOutputStream idx = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( indexTmp ) ) ) )
+        {
+            for ( final Map.Entry<Long , Entry> e : entries.entrySet() )
+            {
+                final byte[] content = read( e.getValue() );
+
+                final Entry entry = new Entry( newSegment ,
+                                               out.size() ,
+                                               content.length );
+
+                final ByteBuffer buffer = ByteBuffer.wrap( content );
+                while ( buffer.hasRemaining() )
+                {
+                    out.write( buffer );
+                }
+
+                idx.writeByte( OP_ADD );
+                idx.writeLong( e.getKey() );
+                idx.writeInt( entry.segment );
+                idx.writeLong( entry.offset );
+                idx.writeInt( entry.length );
+
+                compacted.put( e.getKey() ,
+                               entry );
+            }
+
+            out.force( false );
+        }
+
+        closeFiles();
+
+        // The checkpoint covers the old index
+        Files.deleteIfExists( directory.resolve( CHECKPOINT ) );
+
+        Files.move( indexTmp ,
+                    directory.resolve( INDEX ) ,
+                    StandardCopyOption.REPLACE_EXISTING ,
+                    StandardCopyOption.ATOMIC_MOVE );
+
+        final List<Path> olds = new ArrayList<>();
+        try( final DirectoryStream<Path> stream = Files.newDirectoryStream( directory ,
+                                                                            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX ) )
+        {
+            for ( final Path p : stream )
+            {
+                if ( parseSegment( p ) <= lastOld )
+                {
+                    olds.add( p );
+                }
+            }
+        }
+
+        for ( final Path p : olds )
+        {
+            Files.delete( p );
+        }
+
+        entries.clear();
+        entries.putAll( compacted );
+        removed = 0;
+        activeSegment = newSegment;
+        indexSize = (long) entries.size() * ADD_SIZE;
+        checkpointOps = 0;
+
+        openWriters();
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( SegmentLog.class );
+    private static final String INDEX = "index.dat";
+    private static final String CHECKPOINT = "index.ckp";
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int CHECKPOINT_OPS = 1000;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte OP_ADD = 'A';
+    private static final byte OP_REMOVE = 'R';
+    private static final long ADD_SIZE = 1L + 8L + 4L + 8L + 4L;
+    private static final long REMOVE_SIZE = 1L + 8L;
+    private static final int COMPACTION_MIN = 1000;
+    private final Path directory;
+    private final long segmentSize;
+    private final TreeMap<Long , Entry> entries;
+    private final Map<Integer , MappedByteBuffer> mapped;
+    private int removed;
+    private int activeSegment;
+    private FileChannel segment;
+    private DataOutputStream index;
+    private long indexSize;
+    private int checkpointOps;
+
+    /**
+     * Read the checkpoint of the index. A checkpoint which doesn't match the index is ignored.
+     *
+     * @param indexLength Length of the index
+     * @return the index position after the checkpoint (0 if no checkpoint)
+     */
+    private long readCheckpoint( final long indexLength )
+    {
+        final Path checkpointPath = directory.resolve( CHECKPOINT );
+        if ( !Files.exists( checkpointPath ) )
+        {
+            return 0L;
+        }
+
+        try( final DataInputStream is = new DataInputStream( new BufferedInputStream( Files.newInputStream(
+            checkpointPath ) ) ) )
+        {
+            if ( is.readInt() != CHECKPOINT_VERSION )
+            {
+                throw new IOException( "Unknown checkpoint version" );
+            }
+
+            final long position = is.readLong();
+            if ( position > indexLength )
+            {
+                throw new IOException( "Checkpoint is beyond the index" );
+            }
+
+            removed = is.readInt();
+
+            final int count = is.readInt();
+            for ( int i = 0 ; i < count ; ++i )
+            {
+                final long time = is.readLong();
+                entries.put( time ,
+                             new Entry( is.readInt() ,
+                                        is.readLong() ,
+                                        is.readInt() ) );
+            }
+
+            return position;
+        }
+        catch( final IOException ex )
+        {
+            // The whole index is read
+            if ( LOGGER.isWarnEnabled() )
+            {
+                LOGGER.warn( "[" + directory + "] ignore checkpoint" ,
+                             ex );
+            }
+
+            entries.clear();
+            removed = 0;
+
+            return 0L;
+        }
+    }
+
+    /**
+     * Replay the index operations after a position.
+     *
+     * @param indexPath Index
+     * @param start Position of the first operation
+     * @throws IOException
+     */
+    private void readIndex( final Path indexPath ,
+                            final long start )
+        throws IOException
+    {
+        long valid = start;
+        try( final FileChannel channel = FileChannel.open( indexPath ,
+                                                           StandardOpenOption.READ ) ;
+             final DataInputStream is = new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel.
+                 position( start ) ) ) ) )
+        {
+            while ( true )
+            {
+                final int op = is.read();
+                if ( op < 0 )
+                {
+                    break;
+                }
+
+                if ( op == OP_ADD )
+                {
+                    final long time = is.readLong();
+                    entries.put( time ,
+                                 new Entry( is.readInt() ,
+                                            is.readLong() ,
+                                            is.readInt() ) );
+
+                    valid += ADD_SIZE;
+                }
+                else if ( op == OP_REMOVE )
+                {
+                    entries.remove( is.readLong() );
+                    ++removed;
+
+                    valid += REMOVE_SIZE;
+                }
+                else
+                {
+                    throw new IOException( "Corrupted index '" + indexPath + "' at " + valid );
+                }
+
+                ++checkpointOps;
+            }
+        }
+        catch( final EOFException ex )
+        {
+            // The last operation was interrupted: it is dropped
+            if ( LOGGER.isWarnEnabled() )
+            {
+                LOGGER.warn( "[" + directory + "] truncate interrupted index operation at " + valid );
+            }
+
+            try( final FileChannel channel = FileChannel.open( indexPath ,
+                                                               StandardOpenOption.WRITE ) )
+            {
+                channel.truncate( valid );
+            }
+        }
+
+        indexSize = valid;
+    }
+
+    /**
+     * Write a checkpoint after enough operations.
+     *
+     * @throws IOException
+     */
+    private void checkpointIfNeeded()
+        throws IOException
+    {
+        ++checkpointOps;
+        if ( checkpointOps >= CHECKPOINT_OPS )
+        {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Write the live entries and the index length they cover. The file is replaced atomically.
+     *
+     * @throws IOException
+     */
+    private void writeCheckpoint()
+        throws IOException
+    {
+        final Path checkpointTmp = directory.resolve( CHECKPOINT + ".tmp" );
+        try( final DataOutputStream os = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream(
+            checkpointTmp ) ) ) )
+        {
+            os.writeInt( CHECKPOINT_VERSION );
+            os.writeLong( indexSize );
+            os.writeInt( removed );
+            os.writeInt( entries.size() );
+            for ( final Map.Entry<Long , Entry> e : entries.entrySet() )
+            {
+                os.writeLong( e.getKey() );
+                os.writeInt( e.getValue().segment );
+                os.writeLong( e.getValue().offset );
+                os.writeInt( e.getValue().length );
+            }
+        }
+
+        Files.move( checkpointTmp ,
+                    directory.resolve( CHECKPOINT ) ,
+                    StandardCopyOption.REPLACE_EXISTING ,
+                    StandardCopyOption.ATOMIC_MOVE );
+
+        checkpointOps = 0;
+    }
+
+    /**
+     * Close the files, and release the mapped segments.
+     *
+     * @throws IOException
+     */
+    private void closeFiles()
+        throws IOException
+    {
+        for ( final MappedByteBuffer buffer : mapped.values() )
+        {
+            FilesHelper.unmap( buffer );
+        }
+        mapped.clear();
+
+        if ( index != null )
+        {
+            index.close();
+            index = null;
+        }
+
+        if ( segment != null )
+        {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    private void openWriters()
+        throws IOException
+    {
+        segment = openSegment( activeSegment );
+
+        index = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( directory.resolve( INDEX ) ,
+                                                                                       StandardOpenOption.CREATE ,
+                                                                                       StandardOpenOption.APPEND ) ) );
+    }
+
+    private FileChannel openSegment( final int number )
+        throws IOException
+    {
+        return FileChannel.open( getSegmentPath( number ) ,
+                                 StandardOpenOption.CREATE ,
+                                 StandardOpenOption.WRITE ,
+                                 StandardOpenOption.APPEND );
+    }
+
+    /**
+     * Import the messages of the old storage (1 file per message). A file whose time is already in the index was
+     * imported before an interruption: it is only deleted.
+     *
+     * @throws IOException
+     */
+    private void importFiles()
+        throws IOException
+    {
+        final List<Path> files = new ArrayList<>();
+        try( final DirectoryStream<Path> stream = Files.newDirectoryStream( directory ) )
+        {
+            for ( final Path p : stream )
+            {
+                if ( p.getFileName().toString().matches( "[0-9]+" ) )
+                {
+                    files.add( p );
+                }
+            }
+        }
+
+        for ( final Path p : files )
+        {
+            final long time = Long.parseLong( p.getFileName().toString() );
+            if ( !entries.containsKey( time ) )
+            {
+                try( final ObjectInputStream is = new ObjectInputStream( Files.newInputStream( p ) ) )
+                {
+                    push( time ,
+                          (Message) is.readObject() );
+                }
+                catch( final ClassNotFoundException ex )
+                {
+                    throw new IOException( ex );
+                }
+            }
+
+            Files.delete( p );
+        }
+
+        if ( LOGGER.isInfoEnabled() && !files.isEmpty() )
+        {
+            LOGGER.info( "[" + directory + "] import " + files.size() + " messages from the old storage" );
+        }
+    }
+
+    private byte[] read( final Entry entry )
+        throws IOException
+    {
+        MappedByteBuffer buffer = mapped.get( entry.segment );
+        if ( buffer == null || buffer.capacity() < entry.offset + entry.length )
+        {
+            // The active segment grows: map it again
+            FilesHelper.unmap( buffer );
+
+            try( final FileChannel channel = FileChannel.open( getSegmentPath( entry.segment ) ,
+                                                               StandardOpenOption.READ ) )
+            {
+                buffer = channel.map( FileChannel.MapMode.READ_ONLY ,
+                                      0L ,
+                                      channel.size() );
+            }
+
+            mapped.put( entry.segment ,
+                        buffer );
+        }
+
+        final ByteBuffer view = buffer.duplicate();
+        view.position( (int) entry.offset );
+
+        final byte[] content = new byte[ entry.length ];
+        view.get( content );
+
+        return content;
+    }
+
+    private boolean isUsed( final int number )
+    {
+        for ( final Entry entry : entries.values() )
+        {
+            if ( entry.segment == number )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Path getSegmentPath( final int number )
+    {
+        return directory.resolve( SEGMENT_PREFIX + number + SEGMENT_SUFFIX );
+    }
+
+    private static int parseSegment( final Path p )
+    {
+        final String name = p.getFileName().toString();
+
+        return Integer.parseInt( name.substring( SEGMENT_PREFIX.length() ,
+                                                 name.length() - SEGMENT_SUFFIX.length() ) );
+    }
+
+    private static byte[] serialize( final Message message )
+        throws IOException
+    {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try( final ObjectOutputStream os = new ObjectOutputStream( bos ) )
+        {
+            os.writeObject( message );
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static Message deserialize( final byte[] content )
+        throws IOException , ClassNotFoundException
+    {
+        try( final ObjectInputStream is = new ObjectInputStream( new ByteArrayInputStream( content ) ) )
+        {
+            return (Message) is.readObject();
+        }
+    }
+
+    /**
+     * Position of a message.
+     */
+    private static final class Entry
+    {
+        // PUBLIC
+        public Entry( final int segment ,
+                      final long offset ,
+                      final int length )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        // DEFAULT
+        final int segment;
+        final long offset;
+        final int length;
+    }
+}
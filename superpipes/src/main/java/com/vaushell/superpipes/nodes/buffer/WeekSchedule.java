@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.buffer;
+
+import java.util.Arrays;
+import java.util.List;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Slots compiled into a sorted array of weekly intervals.
+ *
+ * An interval is a [start, end) range in milliseconds since monday 00:00:00. Overlapping or contiguous slots are
+ * merged, so a lookup is a binary search and doesn't allocate anything.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class WeekSchedule
+{
+    // DEFAULT
+    /**
+     * Compile slots.
+     *
+     * @param slots Slots. A slot which ends before its start crosses midnight. A slot which ends at its start lasts 24
+     * hours.
+     * @param zone Time zone of the slots
+     */
+    WeekSchedule( final List<Slot> slots ,
+                  final DateTimeZone zone )
+    {
+        if ( slots == null || zone == null )
+        {
+            throw new IllegalArgumentException( "Schedule must have slots and a time zone" );
+        }
+
+        this.zone = zone;
+
+        // Raw intervals
+        long[] raw = new long[ 16 ];
+        int count = 0;
+        for ( final Slot slot : slots )
+        {
+            long length = (long) slot.getMaxMillisOfDay() - (long) slot.getMinMillisOfDay();
+            if ( length <= 0L )
+            {
+                // Ends the next day
+
+                length += DateTimeConstants.MILLIS_PER_DAY;
+            }
+
+            for ( final int dayOfWeek : slot.getDays() )
+            {
+                final long start = (long) ( dayOfWeek - 1 ) * DateTimeConstants.MILLIS_PER_DAY + slot.
+                    getMinMillisOfDay();
+                final long end = start + length;
+
+                if ( count + 4 > raw.length )
+                {
+                    raw = Arrays.copyOf( raw ,
+                                         raw.length * 2 );
+                }
+
+                if ( end <= MILLIS_PER_WEEK )
+                {
+                    raw[ count++] = start;
+                    raw[ count++] = end;
+                }
+                else
+                {
+                    // Crosses sunday midnight
+                    raw[ count++] = start;
+                    raw[ count++] = MILLIS_PER_WEEK;
+                    raw[ count++] = 0L;
+                    raw[ count++] = end - MILLIS_PER_WEEK;
+                }
+            }
+        }
+
+        // Sort by start (insertion sort: there are few intervals)
+        for ( int i = 2 ; i < count ; i += 2 )
+        {
+            final long start = raw[ i];
+            final long end = raw[ i + 1];
+
+            int j = i - 2;
+            while ( j >= 0 && raw[ j] > start )
+            {
+                raw[ j + 2] = raw[ j];
+                raw[ j + 3] = raw[ j + 1];
+                j -= 2;
+            }
+
+            raw[ j + 2] = start;
+            raw[ j + 3] = end;
+        }
+
+        // Merge overlapping and contiguous intervals
+        int merged = 0;
+        for ( int i = 0 ; i < count ; i += 2 )
+        {
+            if ( merged > 0 && raw[ i] <= raw[ merged - 1] )
+            {
+                raw[ merged - 1] = Math.max( raw[ merged - 1] ,
+                                             raw[ i + 1] );
+            }
+            else
+            {
+                raw[ merged++] = raw[ i];
+                raw[ merged++] = raw[ i + 1];
+            }
+        }
+
+        this.starts = new long[ merged / 2 ];
+        this.ends = new long[ merged / 2 ];
+        for ( int i = 0 ; i < starts.length ; ++i )
+        {
+            starts[ i] = raw[ i * 2];
+            ends[ i] = raw[ i * 2 + 1];
+        }
+    }
+
+    DateTimeZone getZone()
+    {
+        return zone;
+    }
+
+    /**
+     * Is there any slot ?
+     *
+     * @return true if there is no slot (always open)
+     */
+    boolean isEmpty()
+    {
+        return starts.length == 0;
+    }
+
+    /**
+     * Return the time to wait to be in a slot.
+     *
+     * @param instant Actual time in milliseconds (UTC)
+     * @return 0 if we are inside a slot, otherwise the time to wait in milliseconds
+     */
+    long getTimeToWait( final long instant )
+    {
+        if ( starts.length == 0 )
+        {
+            return 0L;
+        }
+
+        final long local = instant + zone.getOffset( instant );
+        final long millisOfWeek = getMillisOfWeek( local );
+
+        // Last interval which starts before (or at) millisOfWeek
+        int low = 0;
+        int high = starts.length - 1;
+        int found = -1;
+        while ( low <= high )
+        {
+            final int mid = ( low + high ) >>> 1;
+            if ( starts[ mid] <= millisOfWeek )
+            {
+                found = mid;
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        if ( found >= 0 && millisOfWeek < ends[ found] )
+        {
+            return 0L;
+        }
+
+        final long localWait;
+        if ( found + 1 < starts.length )
+        {
+            localWait = starts[ found + 1] - millisOfWeek;
+        }
+        else
+        {
+            // Next week
+            localWait = starts[ 0] + MILLIS_PER_WEEK - millisOfWeek;
+        }
+
+        // Daylight saving time: the local wait is converted back to UTC
+        final long next = zone.convertLocalToUTC( local + localWait ,
+                                                  false );
+
+        return Math.max( 1L ,
+                         next - instant );
+    }
+
+    // PRIVATE
+    private static final long MILLIS_PER_WEEK = DateTimeConstants.MILLIS_PER_WEEK;
+    // 01/01/1970 is a thursday
+    private static final long EPOCH_MILLIS_OF_WEEK = 3L * DateTimeConstants.MILLIS_PER_DAY;
+    private final DateTimeZone zone;
+    private final long[] starts;
+    private final long[] ends;
+
+    private static long getMillisOfWeek( final long local )
+    {
+        final long millisOfWeek = ( local + EPOCH_MILLIS_OF_WEEK ) % MILLIS_PER_WEEK;
+        if ( millisOfWeek < 0L )
+        {
+            return millisOfWeek + MILLIS_PER_WEEK;
+        }
+
+        return millisOfWeek;
+    }
+}
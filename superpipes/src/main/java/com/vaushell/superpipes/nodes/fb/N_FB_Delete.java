@@ -109,6 +109,7 @@ public class N_FB_Delete
                     }
                 }
             }
+                .setClock( getClock() )
                 .setRetry( getProperties().getConfigInteger( "retry" ,
                                                              10 ) )
                 .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
@@ -158,6 +158,7 @@ public class N_FB_Post
                 }
             }
         }
+            .setClock( getClock() )
             .setRetry( getProperties().getConfigInteger( "retry" ,
                                                          10 ) )
             .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
@@ -113,6 +113,7 @@ public class N_FB_PostLike
                 }
             }
         }
+            .setClock( getClock() )
             .setRetry( getProperties().getConfigInteger( "retry" ,
                                                          10 ) )
             .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
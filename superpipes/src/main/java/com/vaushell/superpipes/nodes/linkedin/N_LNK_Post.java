@@ -118,6 +118,7 @@ public class N_LNK_Post
                 }
             }
         }
+            .setClock( getClock() )
             .setRetry( getProperties().getConfigInteger( "retry" ,
                                                          10 ) )
             .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
@@ -30,6 +30,7 @@ import com.vaushell.superpipes.nodes.A_Node;
 import com.vaushell.superpipes.tools.HTMLhelper;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -78,66 +79,79 @@ public class N_RSS
         final SyndFeed feed = input.build( new XmlReader( url ) );
 
         int count = 0;
+        final List<Message> messages = new ArrayList<>();
         final List<SyndEntry> entries = feed.getEntries();
-        for ( final SyndEntry entry : entries )
+
+        // An error keeps the messages already read (as if they were sent one by one)
+        try
         {
-            if ( entry.getUri() != null )
+            for ( final SyndEntry entry : entries )
             {
-                // Tags
-                final Tags tags = new Tags();
-
-                final List<SyndCategory> categories = entry.getCategories();
-                if ( categories != null )
+                if ( entry.getUri() != null )
                 {
-                    for ( final SyndCategory category : categories )
+                    // Tags
+                    final Tags tags = new Tags();
+
+                    final List<SyndCategory> categories = entry.getCategories();
+                    if ( categories != null )
                     {
-                        tags.add( category.getName() );
+                        for ( final SyndCategory category : categories )
+                        {
+                            tags.add( category.getName() );
+                        }
                     }
-                }
 
-                setMessage( Message.create(
-                    Message.KeyIndex.URI ,
-                    new URI( entry.getUri() ) ,
-                    Message.KeyIndex.TAGS ,
-                    tags
-                ) );
+                    setMessage( Message.create(
+                        Message.KeyIndex.URI ,
+                        new URI( entry.getUri() ) ,
+                        Message.KeyIndex.TAGS ,
+                        tags
+                    ) );
 
-                // Title
-                if ( entry.getTitle() != null )
-                {
-                    getMessage().setProperty( Message.KeyIndex.TITLE ,
-                                              HTMLhelper.cleanHTML( entry.getTitle() ) );
-                }
+                    // Title
+                    if ( entry.getTitle() != null )
+                    {
+                        getMessage().setProperty( Message.KeyIndex.TITLE ,
+                                                  HTMLhelper.cleanHTML( entry.getTitle() ) );
+                    }
 
-                // Description
-                if ( entry.getDescription() != null )
-                {
-                    getMessage().setProperty( Message.KeyIndex.DESCRIPTION ,
-                                              HTMLhelper.cleanHTML( entry.getDescription().getValue() ) );
-                }
+                    // Description
+                    if ( entry.getDescription() != null )
+                    {
+                        getMessage().setProperty( Message.KeyIndex.DESCRIPTION ,
+                                                  HTMLhelper.cleanHTML( entry.getDescription().getValue() ) );
+                    }
 
-                // Author
-                if ( entry.getAuthor() != null )
-                {
-                    getMessage().setProperty( Message.KeyIndex.AUTHOR ,
-                                              entry.getAuthor() );
+                    // Author
+                    if ( entry.getAuthor() != null )
+                    {
+                        getMessage().setProperty( Message.KeyIndex.AUTHOR ,
+                                                  entry.getAuthor() );
+                    }
+
+                    // Published date
+                    if ( entry.getPublishedDate() != null )
+                    {
+                        getMessage().setProperty( Message.KeyIndex.PUBLISHED_DATE ,
+                                                  new DateTime( entry.getPublishedDate() ) );
+                    }
+
+                    messages.add( getMessage() );
                 }
 
-                // Published date
-                if ( entry.getPublishedDate() != null )
+                ++count;
+
+                if ( count >= max )
                 {
-                    getMessage().setProperty( Message.KeyIndex.PUBLISHED_DATE ,
-                                              new DateTime( entry.getPublishedDate() ) );
+                    break;
                 }
-
-                sendMessage();
             }
-
-            ++count;
-
-            if ( count >= max )
+        }
+        finally
+        {
+            if ( !messages.isEmpty() )
             {
-                break;
+                sendMessages( messages );
             }
         }
     }
@@ -26,6 +26,7 @@ import com.vaushell.superpipes.dispatch.Message;
 import com.vaushell.superpipes.dispatch.Tags;
 import com.vaushell.superpipes.nodes.A_Node;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import org.apache.commons.configuration.HierarchicalConfiguration;
@@ -104,51 +105,64 @@ public class N_Shaarli
             it = client.searchAllIterator();
         }
 
-        while ( it.hasNext() && count < max )
-        {
-            final ShaarliLink sl = it.next();
+        final List<Message> messages = new ArrayList<>();
 
-            if ( sl.getUrl() != null
-                 && sl.getTitle() != null
-                 && ( sl.getID() != null || sl.getPermaID() != null ) )
+        // An error keeps the messages already read (as if they were sent one by one)
+        try
+        {
+            while ( it.hasNext() && count < max )
             {
-                // Tags
-                final Tags tags = new Tags();
-                for ( final String tag : sl.getTags() )
-                {
-                    tags.add( tag );
-                }
+                final ShaarliLink sl = it.next();
 
-                setMessage( Message.create(
-                    Message.KeyIndex.URI ,
-                    new URI( sl.getUrl() ) ,
-                    Message.KeyIndex.TITLE ,
-                    sl.getTitle() ,
-                    Message.KeyIndex.CONTENT ,
-                    sl.getDescription() ,
-                    "id-shaarli" ,
-                    sl.getID() ,
-                    "id-permanent" ,
-                    sl.getPermaID() ,
-                    "uri-permanent" ,
-                    URI.create( sl.getPermaURL( client.getEndpoint() ) ) ,
-                    Message.KeyIndex.TAGS ,
-                    tags
-                ) );
-
-                final DateTime dt = client.convertIDstringToDate( sl.getID() );
-
-                if ( dt != null )
+                if ( sl.getUrl() != null
+                     && sl.getTitle() != null
+                     && ( sl.getID() != null || sl.getPermaID() != null ) )
                 {
-                    dt.toDateTime( DateTimeZone.UTC );
-                    getMessage().setProperty( Message.KeyIndex.PUBLISHED_DATE ,
-                                              dt );
+                    // Tags
+                    final Tags tags = new Tags();
+                    for ( final String tag : sl.getTags() )
+                    {
+                        tags.add( tag );
+                    }
+
+                    setMessage( Message.create(
+                        Message.KeyIndex.URI ,
+                        new URI( sl.getUrl() ) ,
+                        Message.KeyIndex.TITLE ,
+                        sl.getTitle() ,
+                        Message.KeyIndex.CONTENT ,
+                        sl.getDescription() ,
+                        "id-shaarli" ,
+                        sl.getID() ,
+                        "id-permanent" ,
+                        sl.getPermaID() ,
+                        "uri-permanent" ,
+                        URI.create( sl.getPermaURL( client.getEndpoint() ) ) ,
+                        Message.KeyIndex.TAGS ,
+                        tags
+                    ) );
+
+                    final DateTime dt = client.convertIDstringToDate( sl.getID() );
+
+                    if ( dt != null )
+                    {
+                        dt.toDateTime( DateTimeZone.UTC );
+                        getMessage().setProperty( Message.KeyIndex.PUBLISHED_DATE ,
+                                                  dt );
+                    }
+
+                    messages.add( getMessage() );
                 }
 
-                sendMessage();
+                ++count;
+            }
+        }
+        finally
+        {
+            if ( !messages.isEmpty() )
+            {
+                sendMessages( messages );
             }
-
-            ++count;
         }
     }
 
@@ -136,6 +136,7 @@ public class N_Shaarli_Post
             }
 
         }
+            .setClock( getClock() )
             .setRetry( getProperties().getConfigInteger( "retry" ,
                                                          10 ) )
             .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
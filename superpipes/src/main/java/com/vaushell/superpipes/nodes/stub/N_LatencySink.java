@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.stub;
+
+import com.vaushell.superpipes.dispatch.LatencyHistogram;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receive messages and record the end-to-end latency (from the N_LoadGenerator which creates the message).
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class N_LatencySink
+    extends A_Node
+{
+    // PUBLIC
+    public N_LatencySink()
+    {
+        super( null ,
+               null );
+
+        this.latencies = new LatencyHistogram();
+        this.unstamped = new AtomicLong();
+    }
+
+    /**
+     * Return the end-to-end latencies of the received messages.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getLatencies()
+    {
+        return latencies;
+    }
+
+    /**
+     * Return the count of received messages without creation time.
+     *
+     * @return the count
+     */
+    public long getUnstamped()
+    {
+        return unstamped.get();
+    }
+
+    // PROTECTED
+    @Override
+    protected void prepareImpl()
+        throws Exception
+    {
+        // Nothing
+    }
+
+    @Override
+    protected void loop()
+        throws Exception
+    {
+        setMessage( getLastMessageOrWait() );
+
+        final Long sent = (Long) getMessage().getProperty( N_LoadGenerator.KEY_SENT );
+        if ( sent == null )
+        {
+            if ( LOGGER.isTraceEnabled() )
+            {
+                LOGGER.trace( "[" + getNodeID() + "] receive message without creation time : " + Message.formatSimple(
+                    getMessage() ) );
+            }
+
+            unstamped.incrementAndGet();
+        }
+        else
+        {
+            latencies.record( System.nanoTime() - sent );
+        }
+    }
+
+    @Override
+    protected void terminateImpl()
+        throws Exception
+    {
+        // Nothing
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( N_LatencySink.class );
+    private final LatencyHistogram latencies;
+    private final AtomicLong unstamped;
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.stub;
+
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generate messages at a given rate, for load tests. Each message holds its creation time (see N_LatencySink).
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class N_LoadGenerator
+    extends A_Node
+{
+    // PUBLIC
+    /**
+     * Property holding the creation time of the message (System.nanoTime).
+     */
+    public static final String KEY_SENT = "loadtest-sent";
+
+    /**
+     * Rate profile.
+     */
+    public enum Profile
+    {
+        /**
+         * 'rate' messages per second.
+         */
+        CONSTANT,
+        /**
+         * From 'rate' to 'rate-max' messages per second during 'ramp', then 'rate-max'.
+         */
+        RAMP,
+        /**
+         * 'burst-size' messages at once, every 'burst-period'.
+         */
+        BURST;
+    }
+
+    public N_LoadGenerator()
+    {
+        super( null ,
+               null );
+
+        this.generated = 0L;
+        this.startTime = -1L;
+    }
+
+    /**
+     * Return the count of generated messages.
+     *
+     * @return the count
+     */
+    public long getGenerated()
+    {
+        return generated;
+    }
+
+    // PROTECTED
+    @Override
+    protected void prepareImpl()
+        throws Exception
+    {
+        profile = Profile.valueOf( getProperties().getConfigString( "profile" ,
+                                                                    Profile.CONSTANT.name() ) );
+
+        rate = getProperties().getConfigDouble( "rate" ,
+                                                100.0 );
+        rateMax = getProperties().getConfigDouble( "rate-max" ,
+                                                   rate );
+        ramp = getProperties().getConfigDuration( "ramp" ,
+                                                  new Duration( 60L * 1000L ) ).getMillis();
+        burstSize = getProperties().getConfigInteger( "burst-size" ,
+                                                      100 );
+        burstPeriod = getProperties().getConfigDuration( "burst-period" ,
+                                                         new Duration( 1000L ) ).getMillis();
+        maxCount = getProperties().getConfigLong( "count" ,
+                                                  0L );
+
+        if ( rate < 0.0 || rateMax < 0.0 || ramp <= 0L || burstSize <= 0 || burstPeriod <= 0L || maxCount < 0L )
+        {
+            throw new IllegalArgumentException(
+                "[" + getNodeID() + "] rates must be >=0, ramp, burst-size and burst-period >0 and count >=0" );
+        }
+
+        final int payloadSize = getProperties().getConfigInteger( "payload" ,
+                                                                  0 );
+        if ( payloadSize > 0 )
+        {
+            final StringBuilder sb = new StringBuilder( payloadSize );
+            while ( sb.length() < payloadSize )
+            {
+                sb.append( "Lorem ipsum " );
+            }
+            sb.setLength( payloadSize );
+
+            payload = sb.toString();
+        }
+        else
+        {
+            payload = null;
+        }
+    }
+
+    @Override
+    protected void loop()
+        throws Exception
+    {
+        final long now = System.nanoTime();
+        if ( startTime < 0L )
+        {
+            startTime = now;
+        }
+
+        long expected = getExpectedCount( TimeUnit.NANOSECONDS.toMillis( now - startTime ) );
+        if ( maxCount > 0L )
+        {
+            expected = Math.min( expected ,
+                                 maxCount );
+        }
+
+        if ( expected > generated )
+        {
+            // Late messages are sent at once, as a batch
+            final int size = (int) Math.min( expected - generated ,
+                                             MAX_BATCH );
+
+            if ( LOGGER.isTraceEnabled() )
+            {
+                LOGGER.trace( "[" + getNodeID() + "] generate messages : count=" + size );
+            }
+
+            final List<Message> messages = new ArrayList<>( size );
+            for ( int i = 0 ; i < size ; ++i )
+            {
+                messages.add( createMessage( generated ) );
+                ++generated;
+            }
+
+            sendMessages( messages );
+        }
+        else
+        {
+            // Wait for the next message, or a stop
+            getLastMessageOrWait( maxCount > 0L && generated >= maxCount ? IDLE : TICK );
+        }
+    }
+
+    @Override
+    protected void terminateImpl()
+        throws Exception
+    {
+        // Nothing
+    }
+
+    // DEFAULT
+    /**
+     * Return the count of messages to generate since the start.
+     *
+     * @param elapsed Time since the start, in milliseconds
+     * @return the count
+     */
+    long getExpectedCount( final long elapsed )
+    {
+        switch( profile )
+        {
+            case CONSTANT:
+            {
+                return (long) ( rate * elapsed / 1000.0 ) + 1L;
+            }
+
+            case RAMP:
+            {
+                final double rampTime = Math.min( elapsed ,
+                                                  ramp );
+
+                double count = rate * rampTime / 1000.0 + ( rateMax - rate ) * rampTime * rampTime / ( 2000.0 * ramp );
+                if ( elapsed > ramp )
+                {
+                    count += rateMax * ( elapsed - ramp ) / 1000.0;
+                }
+
+                return (long) count + 1L;
+            }
+
+            case BURST:
+            {
+                return ( elapsed / burstPeriod + 1L ) * burstSize;
+            }
+
+            default:
+            {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( N_LoadGenerator.class );
+    private static final int MAX_BATCH = 1000;
+    private static final Duration TICK = new Duration( 1L );
+    private static final Duration IDLE = new Duration( 1000L );
+    private Profile profile;
+    private double rate;
+    private double rateMax;
+    private long ramp;
+    private int burstSize;
+    private long burstPeriod;
+    private long maxCount;
+    private String payload;
+    private volatile long generated;
+    private long startTime;
+
+    private Message createMessage( final long index )
+    {
+        final Message message = Message.create( Message.KeyIndex.TITLE ,
+                                                "message number " + index );
+
+        if ( payload != null )
+        {
+            message.setProperty( Message.KeyIndex.CONTENT ,
+                                 payload );
+        }
+
+        message.setProperty( KEY_SENT ,
+                             System.nanoTime() );
+
+        return message;
+    }
+}
@@ -98,6 +98,7 @@ public class N_TB_Delete
                 }
 
             }
+                .setClock( getClock() )
                 .setRetry( getProperties().getConfigInteger( "retry" ,
                                                              10 ) )
                 .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
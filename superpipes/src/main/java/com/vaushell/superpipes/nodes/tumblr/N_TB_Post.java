@@ -132,6 +132,7 @@ public class N_TB_Post
                 }
             }
         }
+            .setClock( getClock() )
             .setRetry( getProperties().getConfigInteger( "retry" ,
                                                          10 ) )
             .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
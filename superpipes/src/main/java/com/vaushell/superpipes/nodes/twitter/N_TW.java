@@ -25,7 +25,9 @@ import com.vaushell.superpipes.tools.scribe.twitter.TW_Tweet;
 import com.vaushell.superpipes.tools.scribe.twitter.TwitterClient;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -79,35 +81,48 @@ public class N_TW
                                                                Math.min( POST_MAX_COUNT ,
                                                                          max ) );
 
-        while ( it.hasNext() && count < max )
-        {
-            final TW_Tweet tweet = it.next();
+        final List<Message> messages = new ArrayList<>();
 
-            if ( tweet.getID() >= 0 )
+        // An error keeps the messages already read (as if they were sent one by one)
+        try
+        {
+            while ( it.hasNext() && count < max )
             {
-                setMessage( Message.create(
-                    "id-twitter" ,
-                    tweet.getID() ,
-                    Message.KeyIndex.PUBLISHED_DATE ,
-                    tweet.getCreatedTime()
-                ) );
-
-                if ( tweet.getUser() != null && tweet.getUser().getName() != null )
-                {
-                    getMessage().setProperty( Message.KeyIndex.AUTHOR ,
-                                              tweet.getUser().getName() );
-                }
+                final TW_Tweet tweet = it.next();
 
-                if ( tweet.getMessage() != null )
+                if ( tweet.getID() >= 0 )
                 {
-                    getMessage().setProperty( Message.KeyIndex.CONTENT ,
-                                              tweet.getMessage() );
+                    setMessage( Message.create(
+                        "id-twitter" ,
+                        tweet.getID() ,
+                        Message.KeyIndex.PUBLISHED_DATE ,
+                        tweet.getCreatedTime()
+                    ) );
+
+                    if ( tweet.getUser() != null && tweet.getUser().getName() != null )
+                    {
+                        getMessage().setProperty( Message.KeyIndex.AUTHOR ,
+                                                  tweet.getUser().getName() );
+                    }
+
+                    if ( tweet.getMessage() != null )
+                    {
+                        getMessage().setProperty( Message.KeyIndex.CONTENT ,
+                                                  tweet.getMessage() );
+                    }
+
+                    messages.add( getMessage() );
                 }
 
-                sendMessage();
+                ++count;
+            }
+        }
+        finally
+        {
+            if ( !messages.isEmpty() )
+            {
+                sendMessages( messages );
             }
-
-            ++count;
         }
     }
 
@@ -95,6 +95,7 @@ public class N_TW_Delete
                     }
                 }
             }
+                .setClock( getClock() )
                 .setRetry( getProperties().getConfigInteger( "retry" ,
                                                              10 ) )
                 .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
@@ -221,6 +221,7 @@ public class N_TW_Post
                     }
                 }
             }
+                .setClock( getClock() )
                 .setRetry( getProperties().getConfigInteger( "retry" ,
                                                              10 ) )
                 .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
@@ -242,7 +243,7 @@ public class N_TW_Post
             {
                 try
                 {
-                    Thread.sleep( d.getMillis() );
+                    getClock().sleep( d.getMillis() );
                 }
                 catch( final InterruptedException ex2 )
                 {
@@ -275,6 +276,7 @@ public class N_TW_Post
                 }
             }
         }
+            .setClock( getClock() )
             .
             setRetry( getProperties().getConfigInteger( "retry" ,
                                                         10 ) )
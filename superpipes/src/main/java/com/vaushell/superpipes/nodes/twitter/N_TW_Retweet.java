@@ -97,6 +97,7 @@ public class N_TW_Retweet
                     }
                 }
             }
+                .setClock( getClock() )
                 .setRetry( getProperties().getConfigInteger( "retry" ,
                                                              10 ) )
                 .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
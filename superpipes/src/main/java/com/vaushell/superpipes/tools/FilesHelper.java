@@ -21,6 +21,10 @@ package com.vaushell.superpipes.tools;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -153,6 +157,58 @@ public final class FilesHelper
         return result;
     }
 
+    /**
+     * Release a memory-mapped buffer now, without waiting the garbage collector (a mapped file can't be deleted or
+     * replaced on Windows). The JDK has no public API for it: the internal cleaner is called by reflection. If it
+     * fails, the garbage collector releases the buffer later. The buffer (and its views) must not be used after.
+     *
+     * @param buffer the mapped buffer (could be null)
+     */
+    public static void unmap( final MappedByteBuffer buffer )
+    {
+        if ( buffer == null )
+        {
+            return;
+        }
+
+        try
+        {
+            // Java 9+
+            final Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            final Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner" ,
+                                                                ByteBuffer.class );
+
+            final Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+            theUnsafe.setAccessible( true );
+
+            invokeCleaner.invoke( theUnsafe.get( null ) ,
+                                  buffer );
+        }
+        catch( final NoSuchMethodException ex )
+        {
+            // Java 7 and 8
+            try
+            {
+                final Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+                cleanerMethod.setAccessible( true );
+
+                final Object cleaner = cleanerMethod.invoke( buffer );
+                if ( cleaner != null )
+                {
+                    cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+                }
+            }
+            catch( final ReflectiveOperationException | RuntimeException ex2 )
+            {
+                // Released by the garbage collector
+            }
+        }
+        catch( final ReflectiveOperationException | RuntimeException ex )
+        {
+            // Released by the garbage collector
+        }
+    }
+
     // PRIVATE
     private FilesHelper()
     {
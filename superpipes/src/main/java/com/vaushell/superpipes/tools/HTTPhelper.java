@@ -19,38 +19,55 @@
 
 package com.vaushell.superpipes.tools;
 
+import com.vaushell.superpipes.tools.http.PartialResponse;
+import com.vaushell.superpipes.tools.http.PartialResponseConsumer;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.imageio.ImageIO;
-import org.apache.commons.io.IOUtils;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.net.ssl.SSLContext;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
-import org.apache.http.ProtocolException;
+import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.joda.time.Duration;
@@ -58,6 +75,9 @@ import org.joda.time.Duration;
 /**
  * HTTP helper.
  *
+ * Network operations use the asynchronous client: each operation returns a future (and calls an optional callback in
+ * the I/O thread of the client). The blocking versions wait for the future.
+ *
  * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
  */
 public final class HTTPhelper
@@ -69,21 +89,41 @@ public final class HTTPhelper
      * @return the builder.
      */
     public static HttpClientBuilder createBuilder()
+    {
+        return HttpClientBuilder
+            .create()
+            .setDefaultCookieStore( new BasicCookieStore() )
+            .setUserAgent( USER_AGENT )
+            .setSSLSocketFactory( createSSLsocketFactory() );
+    }
+
+    /**
+     * Create a standard asynchronous builder, firefox agent. SSL is set by the connection manager (see
+     * createSSLcontext).
+     *
+     * @return the builder.
+     */
+    public static HttpAsyncClientBuilder createAsyncBuilder()
+    {
+        return HttpAsyncClients
+            .custom()
+            .setDefaultCookieStore( new BasicCookieStore() )
+            .setUserAgent( USER_AGENT );
+    }
+
+    /**
+     * Create a SSL context which accepts self-signed certificates.
+     *
+     * @return the context.
+     */
+    public static SSLContext createSSLcontext()
     {
         try
         {
-            return HttpClientBuilder
-                .create()
-                .setDefaultCookieStore( new BasicCookieStore() )
-                .setUserAgent( "Mozilla/5.0 (Windows NT 5.1; rv:15.0) Gecko/20100101 Firefox/15.0.1" )
-                .setSSLSocketFactory(
-                    new SSLConnectionSocketFactory(
-                        new SSLContextBuilder()
-                        .loadTrustMaterial( null ,
-                                            new TrustSelfSignedStrategy() )
-                        .build()
-                    )
-                );
+            return new SSLContextBuilder()
+                .loadTrustMaterial( null ,
+                                    new TrustSelfSignedStrategy() )
+                .build();
         }
         catch( final KeyManagementException |
                      KeyStoreException |
@@ -93,234 +133,705 @@ public final class HTTPhelper
         }
     }
 
+    /**
+     * Create a SSL socket factory which accepts self-signed certificates.
+     *
+     * @return the factory.
+     */
+    public static SSLConnectionSocketFactory createSSLsocketFactory()
+    {
+        return new SSLConnectionSocketFactory( createSSLcontext() );
+    }
+
+    /**
+     * Execute a request and keep only the first bytes of the content. The connection is closed when the limit is
+     * reached.
+     *
+     * @param client Asynchronous HTTP client
+     * @param request the request
+     * @param limit Maximum count of bytes to keep
+     * @param context Context of the request (could be null)
+     * @param callback Callback (could be null)
+     * @return the future response
+     */
+    public static Future<PartialResponse> executePartial( final CloseableHttpAsyncClient client ,
+                                                          final HttpUriRequest request ,
+                                                          final int limit ,
+                                                          final HttpContext context ,
+                                                          final FutureCallback<PartialResponse> callback )
+    {
+        if ( client == null || request == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        final BasicFuture<PartialResponse> future = new BasicFuture<>( callback );
+
+        client.execute( HttpAsyncMethods.create( request ) ,
+                        new PartialResponseConsumer( limit ,
+                                                     future ) ,
+                        context ,
+                        new ForwardCallback<PartialResponse>( future )
+                        {
+                            @Override
+                            public void completed( final PartialResponse result )
+                            {
+                                future.completed( result );
+                            }
+                        } );
+
+        return future;
+    }
+
+    /**
+     * Return all redirected URLs.
+     *
+     * @param client Asynchronous HTTP client
+     * @param source Source URI
+     * @param callback Callback (could be null)
+     * @return the future list of redirected URLs
+     */
+    public static Future<List<URI>> getRedirectedAsync( final CloseableHttpAsyncClient client ,
+                                                        final URI source ,
+                                                        final FutureCallback<List<URI>> callback )
+    {
+        if ( client == null || source == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        final BasicFuture<List<URI>> future = new BasicFuture<>( callback );
+
+        final HttpClientContext context = HttpClientContext.create();
+
+        // The content is not read
+        executePartial( client ,
+                        new HttpGet( source ) ,
+                        0 ,
+                        context ,
+                        new ForwardCallback<PartialResponse>( future )
+                        {
+                            @Override
+                            public void completed( final PartialResponse result )
+                            {
+                                final List<URI> uris = context.getRedirectLocations();
+                                if ( uris == null )
+                                {
+                                    future.completed( new ArrayList<URI>() );
+                                }
+                                else
+                                {
+                                    future.completed( new ArrayList<>( uris ) );
+                                }
+                            }
+                        } );
+
+        return future;
+    }
+
     /**
      * Return all redirected URLs.
      *
-     * @param builder Http client builder
+     * @param client Asynchronous HTTP client
      * @param source Source URI
      * @return a list of redirected URLs
      * @throws IOException
      */
-    public static List<URI> getRedirected( final HttpClientBuilder builder ,
+    public static List<URI> getRedirected( final CloseableHttpAsyncClient client ,
                                            final URI source )
         throws IOException
     {
-        if ( builder == null || source == null )
+        return getResult( getRedirectedAsync( client ,
+                                              source ,
+                                              null ) );
+    }
+
+    /**
+     * Return the last URL of the redirects.
+     *
+     * @param client Asynchronous HTTP client
+     * @param source Source URI
+     * @param callback Callback (could be null)
+     * @return the future final URI (the source if there is no redirect)
+     */
+    public static Future<URI> resolveRedirectAsync( final CloseableHttpAsyncClient client ,
+                                                    final URI source ,
+                                                    final FutureCallback<URI> callback )
+    {
+        final BasicFuture<URI> future = new BasicFuture<>( callback );
+
+        getRedirectedAsync( client ,
+                            source ,
+                            new ForwardCallback<List<URI>>( future )
+                            {
+                                @Override
+                                public void completed( final List<URI> redirects )
+                                {
+                                    if ( redirects.isEmpty() )
+                                    {
+                                        future.completed( source );
+                                    }
+                                    else
+                                    {
+                                        future.completed( redirects.get( redirects.size() - 1 ) );
+                                    }
+                                }
+                            } );
+
+        return future;
+    }
+
+    /**
+     * Return the last URL of the redirects.
+     *
+     * @param client Asynchronous HTTP client
+     * @param source Source URI
+     * @return the final URI (the source if there is no redirect)
+     * @throws IOException
+     */
+    public static URI resolveRedirect( final CloseableHttpAsyncClient client ,
+                                       final URI source )
+        throws IOException
+    {
+        return getResult( resolveRedirectAsync( client ,
+                                                source ,
+                                                null ) );
+    }
+
+    /**
+     * Find all URLs of a text.
+     *
+     * @param text the text
+     * @return the URLs (without duplicate, in the order of the text)
+     */
+    public static Set<String> findURLs( final String text )
+    {
+        if ( text == null )
         {
             throw new IllegalArgumentException();
         }
 
-        final List<URI> uris = new ArrayList<>();
+        final Set<String> urls = new LinkedHashSet<>();
 
-        builder.setRedirectStrategy( new DefaultRedirectStrategy()
+        final Matcher m = URL_PATTERN.matcher( text );
+        while ( m.find() )
         {
+            urls.add( m.group() );
+        }
 
-            @Override
-            public HttpUriRequest getRedirect( final HttpRequest request ,
-                                               final HttpResponse response ,
-                                               final HttpContext context )
-                throws ProtocolException
-            {
-                final HttpUriRequest r = super.getRedirect( request ,
-                                                            response ,
-                                                            context );
+        return urls;
+    }
 
-                uris.add( r.getURI() );
+    /**
+     * Replace URLs of a text, in one pass.
+     *
+     * @param text the text
+     * @param replacements new URL for each URL (URLs not in the map are kept)
+     * @return the new text
+     */
+    public static String replaceURLs( final String text ,
+                                      final Map<String , String> replacements )
+    {
+        if ( text == null || replacements == null )
+        {
+            throw new IllegalArgumentException();
+        }
 
-                return r;
-            }
+        if ( replacements.isEmpty() )
+        {
+            return text;
+        }
 
-        } )
-            .build();
+        final StringBuilder sb = new StringBuilder( text.length() );
+        int last = 0;
 
-        try( final CloseableHttpClient client = builder.build() )
+        final Matcher m = URL_PATTERN.matcher( text );
+        while ( m.find() )
         {
-            final HttpGet get = new HttpGet( source );
+            final String replacement = replacements.get( m.group() );
+            if ( replacement != null )
+            {
+                sb.append( text ,
+                           last ,
+                           m.start() )
+                    .append( replacement );
 
-            client.execute( get );
+                last = m.end();
+            }
+        }
 
-            get.abort();
+        if ( last == 0 )
+        {
+            return text;
         }
 
-        return uris;
+        sb.append( text ,
+                   last ,
+                   text.length() );
+
+        return sb.toString();
     }
 
     /**
-     * Expand all shorten URLs contained inside a message.
+     * Expand all shorten URLs contained inside a message. URLs are resolved at the same time.
      *
-     * @param builder Http client builder
+     * @param client Asynchronous HTTP client
      * @param message the message
      * @return the message with expanded URLs
      * @throws IOException
      */
-    public static String expandShortenURLinMessage( final HttpClientBuilder builder ,
+    public static String expandShortenURLinMessage( final CloseableHttpAsyncClient client ,
                                                     final String message )
         throws IOException
     {
-        if ( builder == null || message == null )
+        if ( client == null || message == null )
         {
             throw new IllegalArgumentException();
         }
 
-        final Pattern p = Pattern.compile( "http\\://[a-zA-Z0-9\\-\\.]+\\.[a-zA-Z]{2,3}(/\\S*)?" );
-        final Matcher m = p.matcher( message );
-
-        String result = message;
-        while ( m.find() )
+        final Map<String , Future<URI>> resolutions = new HashMap<>();
+        for ( final String shorten : findURLs( message ) )
         {
-            final URI shorten = URI.create( m.group() );
+            resolutions.put( shorten ,
+                             resolveRedirectAsync( client ,
+                                                   URI.create( shorten ) ,
+                                                   null ) );
+        }
 
-            final List<URI> redirects = HTTPhelper.getRedirected( builder ,
-                                                                  shorten );
-            if ( !redirects.isEmpty() )
+        final Map<String , String> replacements = new HashMap<>();
+        for ( final Map.Entry<String , Future<URI>> resolution : resolutions.entrySet() )
+        {
+            final String expand = getResult( resolution.getValue() ).toString();
+            if ( !expand.equals( resolution.getKey() ) )
             {
-                final URI expand = redirects.get( redirects.size() - 1 );
-
-                result = result.replace( shorten.toString() ,
-                                         expand.toString() );
+                replacements.put( resolution.getKey() ,
+                                  expand );
             }
         }
 
-        return result;
+        return replaceURLs( message ,
+                            replacements );
     }
 
     /**
      * Is a URI exist (HTTP response code between 200 and 299).
      *
-     * @param client HTTP client.
+     * @param client Asynchronous HTTP client.
      * @param uri the URI.
      * @param timeout how many ms to wait ? (could be null)
      * @return true if it exists.
      * @throws IOException
      */
-    public static boolean isURIvalid( final CloseableHttpClient client ,
+    public static boolean isURIvalid( final CloseableHttpAsyncClient client ,
                                       final URI uri ,
                                       final Duration timeout )
         throws IOException
+    {
+        final int statusCode = getStatusCode( client ,
+                                              uri ,
+                                              timeout );
+
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Return the HTTP response code of a URI, without downloading the content. Ask with HEAD, and with a GET of the
+     * first byte if the server rejects HEAD.
+     *
+     * @param client Asynchronous HTTP client.
+     * @param uri the URI.
+     * @param timeout how many ms to wait ? (could be null)
+     * @param callback Callback (could be null)
+     * @return the future response code (after the redirects).
+     */
+    public static Future<Integer> getStatusCodeAsync( final CloseableHttpAsyncClient client ,
+                                                      final URI uri ,
+                                                      final Duration timeout ,
+                                                      final FutureCallback<Integer> callback )
     {
         if ( client == null || uri == null )
         {
             throw new IllegalArgumentException();
         }
 
-        HttpEntity responseEntity = null;
-        try
-        {
-            // Exec request
-            final HttpGet get = new HttpGet( uri );
+        final BasicFuture<Integer> future = new BasicFuture<>( callback );
 
-            if ( timeout != null && timeout.getMillis() > 0L )
-            {
-                get.setConfig(
-                    RequestConfig.custom()
-                    .setConnectTimeout( (int) timeout.getMillis() )
-                    .setConnectionRequestTimeout( (int) timeout.getMillis() )
-                    .setSocketTimeout( (int) timeout.getMillis() )
-                    .build()
-                );
-            }
+        final HttpHead head = new HttpHead( uri );
+        setTimeout( head ,
+                    timeout );
 
-            try( final CloseableHttpResponse response = client.execute( get ) )
-            {
-                final StatusLine sl = response.getStatusLine();
-                responseEntity = response.getEntity();
+        client.execute( head ,
+                        new ForwardCallback<HttpResponse>( future )
+                        {
+                            @Override
+                            public void completed( final HttpResponse response )
+                            {
+                                final int headStatusCode = response.getStatusLine().getStatusCode();
+                                if ( headStatusCode != HttpStatus.SC_METHOD_NOT_ALLOWED
+                                     && headStatusCode != HttpStatus.SC_NOT_IMPLEMENTED )
+                                {
+                                    future.completed( headStatusCode );
+
+                                    return;
+                                }
+
+                                // HEAD is rejected
+                                final HttpGet get = new HttpGet( uri );
+                                get.setHeader( "Range" ,
+                                               "bytes=0-0" );
+                                setTimeout( get ,
+                                            timeout );
+
+                                executePartial( client ,
+                                                get ,
+                                                0 ,
+                                                null ,
+                                                new ForwardCallback<PartialResponse>( future )
+                                                {
+                                                    @Override
+                                                    public void completed( final PartialResponse result )
+                                                    {
+                                                        future.completed( result.getStatusCode() );
+                                                    }
+                                                } );
+                            }
+                        } );
+
+        return future;
+    }
 
-                return sl.getStatusCode() >= 200 && sl.getStatusCode() < 300;
-            }
-        }
-        finally
+    /**
+     * Return the HTTP response code of a URI, without downloading the content.
+     *
+     * @param client Asynchronous HTTP client.
+     * @param uri the URI.
+     * @param timeout how many ms to wait ? (could be null)
+     * @return the response code (after the redirects).
+     * @throws IOException
+     * @see #getStatusCodeAsync
+     */
+    public static int getStatusCode( final CloseableHttpAsyncClient client ,
+                                     final URI uri ,
+                                     final Duration timeout )
+        throws IOException
+    {
+        return getResult( getStatusCodeAsync( client ,
+                                              uri ,
+                                              timeout ,
+                                              null ) );
+    }
+
+    /**
+     * Load the content of a image.
+     *
+     * @param client Asynchronous HTTP client.
+     * @param uri the URL.
+     * @param callback Callback (could be null)
+     * @return the future content (or null if it isn't a image).
+     */
+    public static Future<byte[]> loadPictureContentAsync( final CloseableHttpAsyncClient client ,
+                                                          final URI uri ,
+                                                          final FutureCallback<byte[]> callback )
+    {
+        if ( client == null || uri == null )
         {
-            if ( responseEntity != null )
-            {
-                EntityUtils.consumeQuietly( responseEntity );
-            }
+            throw new IllegalArgumentException();
         }
+
+        final BasicFuture<byte[]> future = new BasicFuture<>( callback );
+
+        client.execute( new HttpGet( uri ) ,
+                        new ForwardCallback<HttpResponse>( future )
+                        {
+                            @Override
+                            public void completed( final HttpResponse response )
+                            {
+                                final HttpEntity responseEntity = response.getEntity();
+                                try
+                                {
+                                    final StatusLine sl = response.getStatusLine();
+                                    if ( sl.getStatusCode() != 200 )
+                                    {
+                                        future.failed( new IOException( sl.getReasonPhrase() ) );
+
+                                        return;
+                                    }
+
+                                    if ( responseEntity == null || !isPicture( responseEntity.getContentType() ) )
+                                    {
+                                        future.completed( null );
+
+                                        return;
+                                    }
+
+                                    final byte[] content = EntityUtils.toByteArray( responseEntity );
+                                    if ( content == null || content.length <= 0 )
+                                    {
+                                        future.completed( null );
+                                    }
+                                    else
+                                    {
+                                        future.completed( content );
+                                    }
+                                }
+                                catch( final IOException ex )
+                                {
+                                    future.failed( ex );
+                                }
+                            }
+                        } );
+
+        return future;
     }
 
     /**
      * Load a image.
      *
-     * @param client Http client.
+     * @param client Asynchronous HTTP client.
      * @param uri the URL.
      * @return the image.
      * @throws IOException
      */
-    public static BufferedImage loadPicture( final CloseableHttpClient client ,
+    public static BufferedImage loadPicture( final CloseableHttpAsyncClient client ,
                                              final URI uri )
         throws IOException
     {
-        if ( client == null || uri == null )
+        return decodePicture( getResult( loadPictureContentAsync( client ,
+                                                                  uri ,
+                                                                  null ) ) );
+    }
+
+    /**
+     * Decode a image.
+     *
+     * @param content the content (could be null).
+     * @return the image (or null).
+     * @throws IOException
+     */
+    public static BufferedImage decodePicture( final byte[] content )
+        throws IOException
+    {
+        if ( content == null || content.length <= 0 )
+        {
+            return null;
+        }
+
+        try( final ByteArrayInputStream bis = new ByteArrayInputStream( content ) )
+        {
+            return ImageIO.read( bis );
+        }
+    }
+
+    /**
+     * Read the size of a image from the first bytes of its content. The pixels are not downloaded.
+     *
+     * @param client Asynchronous HTTP client.
+     * @param uri the URL.
+     * @param limit how many bytes to read ?
+     * @param callback Callback (could be null)
+     * @return the future size (or null if it isn't a image, or if the size isn't in the first bytes).
+     */
+    public static Future<Dimension> probePictureSizeAsync( final CloseableHttpAsyncClient client ,
+                                                           final URI uri ,
+                                                           final int limit ,
+                                                           final FutureCallback<Dimension> callback )
+    {
+        if ( client == null || uri == null || limit <= 0 )
         {
             throw new IllegalArgumentException();
         }
 
-        HttpEntity responseEntity = null;
-        try
+        final BasicFuture<Dimension> future = new BasicFuture<>( callback );
+
+        final HttpGet get = new HttpGet( uri );
+        get.setHeader( "Range" ,
+                       "bytes=0-" + Integer.toString( limit - 1 ) );
+
+        executePartial( client ,
+                        get ,
+                        limit ,
+                        null ,
+                        new ForwardCallback<PartialResponse>( future )
+                        {
+                            @Override
+                            public void completed( final PartialResponse result )
+                            {
+                                final StatusLine sl = result.getResponse().getStatusLine();
+                                if ( sl.getStatusCode() != HttpStatus.SC_OK
+                                     && sl.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT )
+                                {
+                                    future.failed( new IOException( sl.getReasonPhrase() ) );
+
+                                    return;
+                                }
+
+                                if ( !isPicture( result.getResponse().getFirstHeader( "Content-Type" ) ) )
+                                {
+                                    future.completed( null );
+
+                                    return;
+                                }
+
+                                future.completed( readPictureSize( result.getContent() ) );
+                            }
+                        } );
+
+        return future;
+    }
+
+    /**
+     * Read the size of a image, without decoding the pixels.
+     *
+     * @param content the first bytes of the content (could be null).
+     * @return the size (or null if it can't be read).
+     */
+    public static Dimension readPictureSize( final byte[] content )
+    {
+        if ( content == null || content.length <= 0 )
         {
-            // Exec request
-            final HttpGet get = new HttpGet( uri );
+            return null;
+        }
 
-            try( final CloseableHttpResponse response = client.execute( get ) )
+        try( final ImageInputStream iis = new MemoryCacheImageInputStream( new ByteArrayInputStream( content ) ) )
+        {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders( iis );
+            while ( readers.hasNext() )
             {
-                final StatusLine sl = response.getStatusLine();
-                if ( sl.getStatusCode() != 200 )
+                final ImageReader reader = readers.next();
+                try
                 {
-                    throw new IOException( sl.getReasonPhrase() );
-                }
-
-                responseEntity = response.getEntity();
+                    iis.seek( 0L );
 
-                final Header ct = responseEntity.getContentType();
-                if ( ct == null )
-                {
-                    return null;
-                }
+                    reader.setInput( iis ,
+                                     true ,
+                                     true );
 
-                final String type = ct.getValue();
-                if ( type == null )
-                {
-                    return null;
+                    return new Dimension( reader.getWidth( 0 ) ,
+                                          reader.getHeight( 0 ) );
                 }
-
-                if ( !type.startsWith( "image/" ) )
+                catch( final IOException | RuntimeException ex )
                 {
-                    return null;
+                    // The header is truncated or unknown: try the next reader
                 }
-
-                try( final ByteArrayOutputStream bos = new ByteArrayOutputStream() )
+                finally
                 {
-                    try( final InputStream is = responseEntity.getContent() )
-                    {
-                        IOUtils.copy( is ,
-                                      bos );
-                    }
-
-                    if ( bos.size() <= 0 )
-                    {
-                        return null;
-                    }
-                    else
-                    {
-                        try( final ByteArrayInputStream bis = new ByteArrayInputStream( bos.toByteArray() ) )
-                        {
-                            return ImageIO.read( bis );
-                        }
-                    }
+                    reader.dispose();
                 }
             }
         }
-        finally
+        catch( final IOException ex )
+        {
+            // Nothing
+        }
+
+        return null;
+    }
+
+    /**
+     * Is the content type a image type ?
+     *
+     * @param contentType Content-Type header (could be null)
+     * @return true if it is a image
+     */
+    public static boolean isPicture( final Header contentType )
+    {
+        if ( contentType == null )
+        {
+            return false;
+        }
+
+        final String type = contentType.getValue();
+
+        return type != null && type.startsWith( "image/" );
+    }
+
+    /**
+     * Wait for a future.
+     *
+     * @param <T> Type of the result
+     * @param future the future
+     * @return the result
+     * @throws IOException
+     */
+    public static <T> T getResult( final Future<T> future )
+        throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch( final InterruptedException ex )
         {
-            if ( responseEntity != null )
+            Thread.currentThread().interrupt();
+
+            final InterruptedIOException ioe = new InterruptedIOException();
+            ioe.initCause( ex );
+
+            throw ioe;
+        }
+        catch( final ExecutionException ex )
+        {
+            if ( ex.getCause() instanceof IOException )
             {
-                EntityUtils.consume( responseEntity );
+                throw (IOException) ex.getCause();
             }
+
+            throw new IOException( ex.getCause() );
         }
     }
 
     // PRIVATE
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 5.1; rv:15.0) Gecko/20100101 Firefox/15.0.1";
+    private static final Pattern URL_PATTERN = Pattern.compile(
+        "https?\\://[a-zA-Z0-9\\-]+(\\.[a-zA-Z0-9\\-]+)*(\\:[0-9]{1,5})?(/(\\S*[^\\s\\.,;:!\\?\\)\\]'\"])?)?" );
+
     private HTTPhelper()
     {
         // Nothing
     }
+
+    private static void setTimeout( final HttpRequestBase request ,
+                                    final Duration timeout )
+    {
+        if ( timeout != null && timeout.getMillis() > 0L )
+        {
+            request.setConfig(
+                RequestConfig.custom()
+                .setConnectTimeout( (int) timeout.getMillis() )
+                .setConnectionRequestTimeout( (int) timeout.getMillis() )
+                .setSocketTimeout( (int) timeout.getMillis() )
+                .build()
+            );
+        }
+    }
+
+    /**
+     * Callback which gives the failures and the cancellations to a future.
+     *
+     * @param <T> Type of the result
+     */
+    private abstract static class ForwardCallback<T>
+        implements FutureCallback<T>
+    {
+        // PUBLIC
+        public ForwardCallback( final BasicFuture<?> future )
+        {
+            this.future = future;
+        }
+
+        @Override
+        public void failed( final Exception ex )
+        {
+            future.failed( ex );
+        }
+
+        @Override
+        public void cancelled()
+        {
+            future.cancel( true );
+        }
+
+        // PRIVATE
+        private final BasicFuture<?> future;
+    }
 }
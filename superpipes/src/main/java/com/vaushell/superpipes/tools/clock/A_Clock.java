@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.clock;
+
+import org.joda.time.DateTime;
+
+/**
+ * Time source and sleeper of the flow.
+ *
+ * Every scheduling decision (slots, anti-burst, rate limits, retries) asks the clock, and every wait goes through the
+ * clock. Measures of the execution time (metrics) use the real time.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public abstract class A_Clock
+{
+    // PUBLIC
+    public A_Clock()
+    {
+        // Nothing
+    }
+
+    /**
+     * Return the current time.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Return a monotonic time, to measure the elapsed time.
+     *
+     * @return the time in nanoseconds (from an arbitrary origin)
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Return the current date.
+     *
+     * @return the date
+     */
+    public DateTime now()
+    {
+        return new DateTime( currentTimeMillis() );
+    }
+
+    /**
+     * Sleep.
+     *
+     * @param millis Time to sleep in milliseconds
+     * @throws InterruptedException
+     */
+    public abstract void sleep( final long millis )
+        throws InterruptedException;
+
+    /**
+     * Prepare a wait which isn't a sleep (a timed wait on a queue, a scheduled task, etc.).
+     *
+     * @param millis Time to wait in milliseconds
+     * @return the real time to wait in milliseconds (0 when the clock jumps over the wait)
+     */
+    public abstract long elapse( final long millis );
+}
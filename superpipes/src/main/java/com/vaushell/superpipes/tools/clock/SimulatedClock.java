@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.clock;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Simulated clock, to replay days of scheduling in seconds.
+ *
+ * The time only moves when a thread waits: the clock jumps to the deadline of the wait, and the thread never really
+ * waits. The clock keeps the deadlines of all the waiting threads, and only jumps to the earliest one: a long wait
+ * never jumps over a shorter one. A test can also move the time with advance().
+ *
+ * To make the replay deterministic with several threads, the test registers the threads which drive the flow: the
+ * clock only moves when all the registered threads wait. A registered thread must only wait through the clock.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class SimulatedClock
+    extends A_Clock
+{
+    // PUBLIC
+    /**
+     * Create a simulated clock.
+     *
+     * @param start Start date
+     */
+    public SimulatedClock( final DateTime start )
+    {
+        super();
+
+        if ( start == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.origin = start.getMillis();
+        this.time = new AtomicLong( origin );
+        this.deadlines = new PriorityQueue<>();
+        this.participants = new HashSet<>();
+        this.waitingParticipants = 0;
+    }
+
+    @Override
+    public long currentTimeMillis()
+    {
+        return time.get();
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return TimeUnit.MILLISECONDS.toNanos( time.get() - origin );
+    }
+
+    @Override
+    public void sleep( final long millis )
+        throws InterruptedException
+    {
+        if ( Thread.interrupted() )
+        {
+            throw new InterruptedException();
+        }
+
+        if ( millis > 0L )
+        {
+            waitFor( millis );
+        }
+    }
+
+    @Override
+    public long elapse( final long millis )
+    {
+        if ( millis > 0L )
+        {
+            try
+            {
+                waitFor( millis );
+            }
+            catch( final InterruptedException ex )
+            {
+                // The caller stops: it will see the interruption
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Move the time forward.
+     *
+     * @param duration Duration
+     */
+    public void advance( final Duration duration )
+    {
+        if ( duration == null || duration.getMillis() < 0L )
+        {
+            throw new IllegalArgumentException( "Clock can't go back" );
+        }
+
+        synchronized( this )
+        {
+            time.addAndGet( duration.getMillis() );
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Register a thread which drives the flow. The time only moves when all the registered threads wait.
+     *
+     * @param thread Thread
+     */
+    public void register( final Thread thread )
+    {
+        if ( thread == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        synchronized( this )
+        {
+            participants.add( thread );
+        }
+    }
+
+    /**
+     * Unregister a thread (at the end of its work).
+     *
+     * @param thread Thread
+     */
+    public void unregister( final Thread thread )
+    {
+        if ( thread == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        synchronized( this )
+        {
+            participants.remove( thread );
+
+            notifyAll();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SimulatedClock{" + "time=" + now() + '}';
+    }
+
+    // PRIVATE
+    private final long origin;
+    private final AtomicLong time;
+    private final PriorityQueue<Long> deadlines;
+    private final Set<Thread> participants;
+    private int waitingParticipants;
+
+    /**
+     * Wait until the time reaches the deadline. The waiting thread with the earliest deadline moves the time, when all
+     * the registered threads wait.
+     *
+     * @param millis Time to wait in milliseconds
+     * @throws InterruptedException
+     */
+    private synchronized void waitFor( final long millis )
+        throws InterruptedException
+    {
+        final Long deadline = time.get() + millis;
+        final boolean participant = participants.contains( Thread.currentThread() );
+
+        deadlines.add( deadline );
+        if ( participant )
+        {
+            ++waitingParticipants;
+        }
+
+        // Other threads could wait for a later deadline
+        notifyAll();
+
+        try
+        {
+            while ( time.get() < deadline )
+            {
+                if ( deadline.equals( deadlines.peek() ) && waitingParticipants >= participants.size() )
+                {
+                    time.set( deadline );
+
+                    return;
+                }
+
+                wait();
+            }
+        }
+        finally
+        {
+            deadlines.remove( deadline );
+            if ( participant )
+            {
+                --waitingParticipants;
+            }
+
+            notifyAll();
+        }
+    }
+}
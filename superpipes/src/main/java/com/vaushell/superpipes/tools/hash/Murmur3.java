@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.hash;
+
+/**
+ * Streaming MurmurHash3 (x64, 128 bits).
+ *
+ * Values are fed one by one, without building an intermediate String or array. Multi-bytes values are little-endian.
+ * The hasher is reusable (reset) but not thread-safe.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class Murmur3
+{
+    // PUBLIC
+    public Murmur3()
+    {
+        this( 0 );
+    }
+
+    /**
+     * Create a hasher.
+     *
+     * @param seed Seed
+     */
+    public Murmur3( final int seed )
+    {
+        this.seed = seed & 0xFFFFFFFFL;
+
+        reset();
+    }
+
+    /**
+     * Start a new hash.
+     *
+     * @return this
+     */
+    public Murmur3 reset()
+    {
+        h1 = seed;
+        h2 = seed;
+        k1 = 0L;
+        k2 = 0L;
+        pending = 0;
+        length = 0L;
+        done = false;
+
+        return this;
+    }
+
+    /**
+     * Feed a byte.
+     *
+     * @param b Byte
+     * @return this
+     */
+    public Murmur3 putByte( final byte b )
+    {
+        if ( done )
+        {
+            throw new IllegalStateException( "Hash is computed: reset the hasher" );
+        }
+
+        final long v = b & 0xFFL;
+        if ( pending < 8 )
+        {
+            k1 |= v << ( pending * 8 );
+        }
+        else
+        {
+            k2 |= v << ( ( pending - 8 ) * 8 );
+        }
+
+        ++pending;
+        ++length;
+
+        if ( pending == 16 )
+        {
+            mixBlock();
+        }
+
+        return this;
+    }
+
+    /**
+     * Feed bytes.
+     *
+     * @param bytes Bytes
+     * @return this
+     */
+    public Murmur3 putBytes( final byte[] bytes )
+    {
+        for ( final byte b : bytes )
+        {
+            putByte( b );
+        }
+
+        return this;
+    }
+
+    /**
+     * Feed a char (2 bytes).
+     *
+     * @param c Char
+     * @return this
+     */
+    public Murmur3 putChar( final char c )
+    {
+        putByte( (byte) c );
+        putByte( (byte) ( c >>> 8 ) );
+
+        return this;
+    }
+
+    /**
+     * Feed the chars of a sequence (2 bytes per char).
+     *
+     * @param chars Sequence
+     * @return this
+     */
+    public Murmur3 putChars( final CharSequence chars )
+    {
+        final int size = chars.length();
+        for ( int i = 0 ; i < size ; ++i )
+        {
+            putChar( chars.charAt( i ) );
+        }
+
+        return this;
+    }
+
+    /**
+     * Feed an int (4 bytes).
+     *
+     * @param value Int
+     * @return this
+     */
+    public Murmur3 putInt( final int value )
+    {
+        for ( int i = 0 ; i < 4 ; ++i )
+        {
+            putByte( (byte) ( value >>> ( i * 8 ) ) );
+        }
+
+        return this;
+    }
+
+    /**
+     * Feed a long (8 bytes).
+     *
+     * @param value Long
+     * @return this
+     */
+    public Murmur3 putLong( final long value )
+    {
+        for ( int i = 0 ; i < 8 ; ++i )
+        {
+            putByte( (byte) ( value >>> ( i * 8 ) ) );
+        }
+
+        return this;
+    }
+
+    /**
+     * Return the high 64 bits of the hash (the first 8 bytes of the MurmurHash3 output, little-endian).
+     *
+     * @return the bits
+     */
+    public long getHigh()
+    {
+        finish();
+
+        return h1;
+    }
+
+    /**
+     * Return the low 64 bits of the hash (the last 8 bytes of the MurmurHash3 output, little-endian).
+     *
+     * @return the bits
+     */
+    public long getLow()
+    {
+        finish();
+
+        return h2;
+    }
+
+    // PRIVATE
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private final long seed;
+    private long h1;
+    private long h2;
+    private long k1;
+    private long k2;
+    private int pending;
+    private long length;
+    private boolean done;
+
+    private void mixBlock()
+    {
+        h1 ^= mixK1( k1 );
+
+        h1 = Long.rotateLeft( h1 ,
+                              27 );
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2( k2 );
+
+        h2 = Long.rotateLeft( h2 ,
+                              31 );
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        k1 = 0L;
+        k2 = 0L;
+        pending = 0;
+    }
+
+    private void finish()
+    {
+        if ( done )
+        {
+            return;
+        }
+
+        // Tail
+        if ( pending > 0 )
+        {
+            h1 ^= mixK1( k1 );
+            h2 ^= mixK2( k2 );
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix( h1 );
+        h2 = fmix( h2 );
+
+        h1 += h2;
+        h2 += h1;
+
+        done = true;
+    }
+
+    private static long mixK1( final long k )
+    {
+        long r = k * C1;
+        r = Long.rotateLeft( r ,
+                             31 );
+        return r * C2;
+    }
+
+    private static long mixK2( final long k )
+    {
+        long r = k * C2;
+        r = Long.rotateLeft( r ,
+                             33 );
+        return r * C1;
+    }
+
+    private static long fmix( final long k )
+    {
+        long r = k;
+        r ^= r >>> 33;
+        r *= 0xff51afd7ed558ccdL;
+        r ^= r >>> 33;
+        r *= 0xc4ceb9fe1a85ec53L;
+        r ^= r >>> 33;
+
+        return r;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import com.vaushell.superpipes.tools.clock.SystemClock;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.conn.DnsResolver;
+import org.joda.time.Duration;
+
+/**
+ * DNS resolver which keeps the addresses of a host for a time to live. Unknown hosts are not cached.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class DNScache
+    implements DnsResolver
+{
+    // PUBLIC
+    /**
+     * Create a cache.
+     *
+     * @param resolver Resolver to ask when the addresses are unknown or expired
+     * @param ttl Time to live of the addresses
+     * @param clock Clock
+     */
+    public DNScache( final DnsResolver resolver ,
+                     final Duration ttl ,
+                     final A_Clock clock )
+    {
+        if ( resolver == null || ttl == null || clock == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.resolver = resolver;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos( ttl.getMillis() );
+        this.clock = clock;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Create a cache, with the real time.
+     *
+     * @param resolver Resolver to ask when the addresses are unknown or expired
+     * @param ttl Time to live of the addresses
+     */
+    public DNScache( final DnsResolver resolver ,
+                     final Duration ttl )
+    {
+        this( resolver ,
+              ttl ,
+              SystemClock.INSTANCE );
+    }
+
+    @Override
+    public InetAddress[] resolve( final String host )
+        throws UnknownHostException
+    {
+        if ( host == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        final long now = clock.nanoTime();
+
+        final Entry entry = entries.get( host );
+        if ( entry != null && now - entry.resolved < ttlNanos )
+        {
+            return entry.addresses.clone();
+        }
+
+        final InetAddress[] addresses = resolver.resolve( host );
+
+        entries.put( host ,
+                     new Entry( addresses.clone() ,
+                                now ) );
+
+        return addresses;
+    }
+
+    /**
+     * Forget all the addresses.
+     */
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Return the count of cached hosts (expired or not).
+     *
+     * @return the count
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    // PRIVATE
+    private final DnsResolver resolver;
+    private final long ttlNanos;
+    private final A_Clock clock;
+    private final ConcurrentMap<String , Entry> entries;
+
+    /**
+     * Addresses of a host.
+     */
+    private static final class Entry
+    {
+        // PUBLIC
+        public Entry( final InetAddress[] addresses ,
+                      final long resolved )
+        {
+            this.addresses = addresses;
+            this.resolved = resolved;
+        }
+
+        // DEFAULT
+        final InetAddress[] addresses;
+        final long resolved;
+    }
+}
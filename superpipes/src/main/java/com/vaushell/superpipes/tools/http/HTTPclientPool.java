@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.tools.HTTPhelper;
+import java.io.IOException;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP client shared by all the nodes and transforms of the dispatcher.
+ *
+ * Connections are pooled and kept alive between requests (with a limit per host), host addresses are cached, and the
+ * timeouts are the same for everybody. The clients are thread-safe and must not be closed by their users.
+ *
+ * There are 2 clients: a blocking client, and an asynchronous client (non-blocking I/O). The asynchronous client
+ * handles all requests in flight with a few I/O threads.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class HTTPclientPool
+{
+    // PUBLIC
+    public HTTPclientPool()
+    {
+        this.properties = new ConfigProperties();
+        this.client = null;
+        this.manager = null;
+        this.asyncClient = null;
+        this.asyncManager = null;
+        this.dns = null;
+    }
+
+    public ConfigProperties getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * Load configuration for the pool.
+     *
+     * @param cNode Configuration (could be null)
+     */
+    public void load( final HierarchicalConfiguration cNode )
+    {
+        properties.readProperties( cNode );
+    }
+
+    /**
+     * Return the shared client. It is created on the first call.
+     *
+     * @return the client
+     */
+    public synchronized CloseableHttpClient getClient()
+    {
+        if ( client == null )
+        {
+            manager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                .register( "http" ,
+                           PlainConnectionSocketFactory.getSocketFactory() )
+                .register( "https" ,
+                           HTTPhelper.createSSLsocketFactory() )
+                .build() ,
+                getDNS() );
+            manager.setMaxTotal( properties.getConfigInteger( "max-connections" ,
+                                                              DEFAULT_MAX_CONNECTIONS ) );
+            manager.setDefaultMaxPerRoute( properties.getConfigInteger( "max-connections-per-host" ,
+                                                                        DEFAULT_MAX_CONNECTIONS_PER_HOST ) );
+
+            client = HTTPhelper.createBuilder()
+                .setConnectionManager( manager )
+                .setDefaultRequestConfig( createRequestConfig() )
+                .build();
+
+            if ( LOGGER.isTraceEnabled() )
+            {
+                LOGGER.trace( "[" + getClass().getSimpleName() + "] client created" );
+            }
+        }
+
+        return client;
+    }
+
+    /**
+     * Return the shared asynchronous client. It is created and started on the first call.
+     *
+     * @return the client
+     * @throws IOException
+     */
+    public synchronized CloseableHttpAsyncClient getAsyncClient()
+        throws IOException
+    {
+        if ( asyncClient == null )
+        {
+            asyncManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor( IOReactorConfig.custom()
+                    .setIoThreadCount( properties.getConfigInteger( "io-threads" ,
+                                                                    DEFAULT_IO_THREADS ) )
+                    .build() ) ,
+                ManagedNHttpClientConnectionFactory.INSTANCE ,
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register( "http" ,
+                           NoopIOSessionStrategy.INSTANCE )
+                .register( "https" ,
+                           new SSLIOSessionStrategy( HTTPhelper.createSSLcontext() ,
+                                                     SSLIOSessionStrategy.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER ) )
+                .build() ,
+                getDNS() );
+            asyncManager.setMaxTotal( properties.getConfigInteger( "max-connections" ,
+                                                                   DEFAULT_MAX_CONNECTIONS ) );
+            asyncManager.setDefaultMaxPerRoute( properties.getConfigInteger( "max-connections-per-host" ,
+                                                                             DEFAULT_MAX_CONNECTIONS_PER_HOST ) );
+
+            asyncClient = HTTPhelper.createAsyncBuilder()
+                .setConnectionManager( asyncManager )
+                .setDefaultRequestConfig( createRequestConfig() )
+                .build();
+
+            asyncClient.start();
+
+            if ( LOGGER.isTraceEnabled() )
+            {
+                LOGGER.trace( "[" + getClass().getSimpleName() + "] asynchronous client started" );
+            }
+        }
+
+        return asyncClient;
+    }
+
+    /**
+     * Close the client and all the pooled connections. A new client is created on the next getClient call.
+     *
+     * @throws IOException
+     */
+    public void close()
+        throws IOException
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getClass().getSimpleName() + "] close" );
+        }
+
+        final CloseableHttpClient c;
+        final CloseableHttpAsyncClient ac;
+        synchronized( this )
+        {
+            c = client;
+            ac = asyncClient;
+
+            client = null;
+            manager = null;
+            asyncClient = null;
+            asyncManager = null;
+            dns = null;
+        }
+
+        try
+        {
+            if ( c != null )
+            {
+                c.close();
+            }
+        }
+        finally
+        {
+            if ( ac != null )
+            {
+                ac.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        final PoolingHttpClientConnectionManager m;
+        final PoolingNHttpClientConnectionManager am;
+        synchronized( this )
+        {
+            m = manager;
+            am = asyncManager;
+        }
+
+        final StringBuilder sb = new StringBuilder( "HTTPclientPool{" );
+        if ( m != null )
+        {
+            sb.append( "blocking=" ).append( m.getTotalStats() );
+        }
+        if ( am != null )
+        {
+            if ( m != null )
+            {
+                sb.append( ", " );
+            }
+
+            sb.append( "async=" ).append( am.getTotalStats() );
+        }
+        sb.append( '}' );
+
+        return sb.toString();
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( HTTPclientPool.class );
+    private static final Duration DEFAULT_TIMEOUT = new Duration( 20L * 1000L );
+    private static final Duration DEFAULT_DNS_TTL = new Duration( 5L * 60L * 1000L );
+    private static final int DEFAULT_MAX_CONNECTIONS = 100;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+    private static final int DEFAULT_IO_THREADS = 2;
+    private final ConfigProperties properties;
+    private CloseableHttpClient client;
+    private PoolingHttpClientConnectionManager manager;
+    private CloseableHttpAsyncClient asyncClient;
+    private PoolingNHttpClientConnectionManager asyncManager;
+    private DNScache dns;
+
+    /**
+     * Return the DNS cache, shared by the clients. Must be called with the lock.
+     *
+     * @return the cache
+     */
+    private DNScache getDNS()
+    {
+        if ( dns == null )
+        {
+            dns = new DNScache( new SystemDefaultDnsResolver() ,
+                                properties.getConfigDuration( "dns-ttl" ,
+                                                              DEFAULT_DNS_TTL ) );
+        }
+
+        return dns;
+    }
+
+    private RequestConfig createRequestConfig()
+    {
+        return RequestConfig.custom()
+            .setConnectTimeout( (int) properties.getConfigDuration( "connect-timeout" ,
+                                                                    DEFAULT_TIMEOUT ).getMillis() )
+            .setSocketTimeout( (int) properties.getConfigDuration( "socket-timeout" ,
+                                                                   DEFAULT_TIMEOUT ).getMillis() )
+            .setConnectionRequestTimeout( (int) properties.getConfigDuration( "connection-request-timeout" ,
+                                                                              DEFAULT_TIMEOUT ).getMillis() )
+            .build();
+    }
+}
@@ -20,20 +20,22 @@
 package com.vaushell.superpipes.tools.http;
 
 import com.vaushell.superpipes.tools.HTTPhelper;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
 import org.apache.http.HttpEntity;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.util.EntityUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -43,14 +45,49 @@ import org.jsoup.select.Elements;
 /**
  * Extract biggest image of a webpage.
  *
+ * With a probe size, only the first bytes of each image are read to find its size, and only the biggest image is
+ * loaded.
+ *
+ * An extractor is thread-safe: it keeps no state between 2 extractions, and the HTTP clients are pooled.
+ *
  * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
  */
 public class ImageExtractor
 {
     // PUBLIC
-    public ImageExtractor( final CloseableHttpClient client )
+    /**
+     * Create a extractor.
+     *
+     * @param client HTTP client (to load the webpage)
+     * @param asyncClient Asynchronous HTTP client (to load the images at the same time)
+     */
+    public ImageExtractor( final CloseableHttpClient client ,
+                           final CloseableHttpAsyncClient asyncClient )
+    {
+        this( client ,
+              asyncClient ,
+              0 );
+    }
+
+    /**
+     * Create a extractor.
+     *
+     * @param client HTTP client (to load the webpage)
+     * @param asyncClient Asynchronous HTTP client (to load the images at the same time)
+     * @param probeSize How many bytes of each image are read to find its size ? (0 = the images are fully loaded)
+     */
+    public ImageExtractor( final CloseableHttpClient client ,
+                           final CloseableHttpAsyncClient asyncClient ,
+                           final int probeSize )
     {
+        if ( client == null || asyncClient == null || probeSize < 0 )
+        {
+            throw new IllegalArgumentException();
+        }
+
         this.client = client;
+        this.asyncClient = asyncClient;
+        this.probeSize = probeSize;
     }
 
     /**
@@ -116,52 +153,57 @@ public class ImageExtractor
             }
         }
 
-        final BufferedImage[] images = new BufferedImage[ imagesURIs.size() ];
-        final ExecutorService service = Executors.newCachedThreadPool();
-        for ( int i = 0 ; i < imagesURIs.size() ; ++i )
+        if ( probeSize > 0 )
         {
-            final int num = i;
-
-            service.execute( new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    try
-                    {
-                        images[ num] = HTTPhelper.loadPicture( client ,
-                                                              imagesURIs.get( num ) );
-                    }
-                    catch( final IOException ex )
-                    {
-                        images[ num] = null;
-                    }
-                }
-            } );
+            return probeBiggest( imagesURIs );
         }
-
-        service.shutdown();
-
-        try
+        else
         {
-            service.awaitTermination( 1L ,
-                                      TimeUnit.DAYS );
+            return loadBiggest( imagesURIs );
         }
-        catch( final InterruptedException ex )
+    }
+
+    // PRIVATE
+    private final CloseableHttpClient client;
+    private final CloseableHttpAsyncClient asyncClient;
+    private final int probeSize;
+
+    private BufferedImage loadBiggest( final List<URI> imagesURIs )
+        throws IOException
+    {
+        // All images are loaded at the same time, and decoded here
+        final List<Future<byte[]>> contents = new ArrayList<>( imagesURIs.size() );
+        for ( final URI imageURI : imagesURIs )
         {
-            // Ignore
+            contents.add( HTTPhelper.loadPictureContentAsync( asyncClient ,
+                                                              imageURI ,
+                                                              null ) );
         }
 
         BufferedImage biggest = null;
         int biggestSize = Integer.MIN_VALUE;
-        for ( int i = 0 ; i < imagesURIs.size() ; ++i )
+        for ( final Future<byte[]> content : contents )
         {
-            if ( images[i] != null )
+            final BufferedImage image;
+            try
+            {
+                image = HTTPhelper.decodePicture( HTTPhelper.getResult( content ) );
+            }
+            catch( final InterruptedIOException ex )
+            {
+                throw ex;
+            }
+            catch( final IOException ex )
             {
-                final int actualSize = images[ i].getWidth() * images[i].getHeight();
+                continue;
+            }
+
+            if ( image != null )
+            {
+                final int actualSize = image.getWidth() * image.getHeight();
                 if ( actualSize > biggestSize )
                 {
-                    biggest = images[ i];
+                    biggest = image;
 
                     biggestSize = actualSize;
                 }
@@ -171,6 +213,94 @@ public class ImageExtractor
         return biggest;
     }
 
-    // PRIVATE
-    private final CloseableHttpClient client;
+    private BufferedImage probeBiggest( final List<URI> imagesURIs )
+        throws IOException
+    {
+        // Only the first bytes of the images are read, at the same time
+        final List<Future<Dimension>> sizes = new ArrayList<>( imagesURIs.size() );
+        for ( final URI imageURI : imagesURIs )
+        {
+            sizes.add( HTTPhelper.probePictureSizeAsync( asyncClient ,
+                                                         imageURI ,
+                                                         probeSize ,
+                                                         null ) );
+        }
+
+        final List<Candidate> candidates = new ArrayList<>( imagesURIs.size() );
+        for ( int i = 0 ; i < imagesURIs.size() ; ++i )
+        {
+            final Dimension size;
+            try
+            {
+                size = HTTPhelper.getResult( sizes.get( i ) );
+            }
+            catch( final InterruptedIOException ex )
+            {
+                throw ex;
+            }
+            catch( final IOException ex )
+            {
+                continue;
+            }
+
+            if ( size != null )
+            {
+                candidates.add( new Candidate( imagesURIs.get( i ) ,
+                                               size.width * size.height ) );
+            }
+        }
+
+        // Only the biggest image is loaded (or the next one, if it fails). Equal sizes keep the page order.
+        Collections.sort( candidates );
+
+        for ( final Candidate candidate : candidates )
+        {
+            try
+            {
+                final BufferedImage image = HTTPhelper.loadPicture( asyncClient ,
+                                                                    candidate.uri );
+                if ( image != null )
+                {
+                    return image;
+                }
+            }
+            catch( final InterruptedIOException ex )
+            {
+                throw ex;
+            }
+            catch( final IOException ex )
+            {
+                // Try the next one
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Image found by a probe.
+     */
+    private static final class Candidate
+        implements Comparable<Candidate>
+    {
+        // PUBLIC
+        public Candidate( final URI uri ,
+                          final int size )
+        {
+            this.uri = uri;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo( final Candidate o )
+        {
+            // Biggest first
+            return Integer.compare( o.size ,
+                                    size );
+        }
+
+        // DEFAULT
+        final URI uri;
+        final int size;
+    }
 }
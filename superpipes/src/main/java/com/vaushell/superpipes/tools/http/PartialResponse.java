@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * HTTP response with the beginning of its content.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class PartialResponse
+{
+    // PUBLIC
+    /**
+     * Create a response.
+     *
+     * @param response Response (status and headers, without content)
+     * @param content First bytes of the content
+     * @param truncated Is the content longer than the bytes ?
+     */
+    public PartialResponse( final HttpResponse response ,
+                            final byte[] content ,
+                            final boolean truncated )
+    {
+        if ( response == null || content == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.response = response;
+        this.content = content;
+        this.truncated = truncated;
+    }
+
+    public HttpResponse getResponse()
+    {
+        return response;
+    }
+
+    public int getStatusCode()
+    {
+        return response.getStatusLine().getStatusCode();
+    }
+
+    public byte[] getContent()
+    {
+        return content;
+    }
+
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    // PRIVATE
+    private final HttpResponse response;
+    private final byte[] content;
+    private final boolean truncated;
+}
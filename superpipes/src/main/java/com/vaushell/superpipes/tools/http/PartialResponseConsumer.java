@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Asynchronous consumer which keeps only the first bytes of the content.
+ *
+ * When the limit is reached, the result is given to the future and the connection is closed: the rest of the content
+ * is never downloaded.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class PartialResponseConsumer
+    extends AbstractAsyncResponseConsumer<PartialResponse>
+{
+    // PUBLIC
+    /**
+     * Create a consumer.
+     *
+     * @param limit Maximum count of bytes to keep
+     * @param future Future which receives the result (as soon as the limit is reached)
+     */
+    public PartialResponseConsumer( final int limit ,
+                                    final BasicFuture<PartialResponse> future )
+    {
+        super();
+
+        if ( limit < 0 || future == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.limit = limit;
+        this.future = future;
+        this.response = null;
+        this.content = new ByteArrayOutputStream();
+        this.buffer = ByteBuffer.allocate( BUFFER_SIZE );
+        this.truncated = false;
+        this.aborted = false;
+    }
+
+    // PROTECTED
+    @Override
+    protected void onResponseReceived( final HttpResponse response )
+    {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed( final HttpEntity entity ,
+                                     final ContentType contentType )
+    {
+        // Nothing
+    }
+
+    @Override
+    protected void onContentReceived( final ContentDecoder decoder ,
+                                      final IOControl ioctrl )
+        throws IOException
+    {
+        if ( aborted )
+        {
+            return;
+        }
+
+        int read;
+        while ( ( read = decoder.read( buffer ) ) > 0 )
+        {
+            buffer.flip();
+
+            final int kept = Math.min( read ,
+                                       limit - content.size() );
+            if ( kept > 0 )
+            {
+                content.write( buffer.array() ,
+                               buffer.arrayOffset() + buffer.position() ,
+                               kept );
+            }
+
+            if ( kept < read )
+            {
+                truncated = true;
+            }
+
+            buffer.clear();
+
+            if ( content.size() >= limit && !decoder.isCompleted() )
+            {
+                // The rest of the content isn't needed
+                aborted = true;
+
+                future.completed( new PartialResponse( response ,
+                                                       content.toByteArray() ,
+                                                       true ) );
+
+                ioctrl.shutdown();
+
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected PartialResponse buildResult( final HttpContext context )
+    {
+        return new PartialResponse( response ,
+                                    content.toByteArray() ,
+                                    truncated );
+    }
+
+    @Override
+    protected void releaseResources()
+    {
+        // Nothing
+    }
+
+    // PRIVATE
+    private static final int BUFFER_SIZE = 4096;
+    private final int limit;
+    private final BasicFuture<PartialResponse> future;
+    private HttpResponse response;
+    private final ByteArrayOutputStream content;
+    private final ByteBuffer buffer;
+    private boolean truncated;
+    private boolean aborted;
+}
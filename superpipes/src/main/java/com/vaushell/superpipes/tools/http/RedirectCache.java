@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.joda.time.Duration;
+
+/**
+ * Bounded cache of resolved redirects (short URL to final URL). The least recently used URL is forgotten first.
+ *
+ * A failed resolution is also cached (negative entry), but only for a time to live: the server could be back later.
+ *
+ * The cache can be saved to a text file (1 line per URL: time, source and target, separated by tabs) and loaded back.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class RedirectCache
+{
+    // PUBLIC
+    /**
+     * Create a cache.
+     *
+     * @param capacity Maximum count of URLs
+     * @param negativeTTL Time to keep a failed resolution
+     * @param clock Clock
+     */
+    public RedirectCache( final int capacity ,
+                          final Duration negativeTTL ,
+                          final A_Clock clock )
+    {
+        if ( capacity <= 0 || negativeTTL == null || clock == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+        this.negativeTTL = negativeTTL.getMillis();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String , Entry>( 16 ,
+                                                          0.75f ,
+                                                          true )
+        {
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String , Entry> eldest )
+            {
+                return size() > RedirectCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cached resolution of a URL.
+     *
+     * @param source Source URL
+     * @return the entry (or null if unknown or if the failure is expired)
+     */
+    public synchronized Entry get( final String source )
+    {
+        if ( source == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        final Entry entry = entries.get( source );
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        if ( entry.isFailed() && clock.currentTimeMillis() - entry.getTime() >= negativeTTL )
+        {
+            entries.remove( source );
+
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Store a resolved URL.
+     *
+     * @param source Source URL
+     * @param target Final URL (the source if there is no redirect)
+     */
+    public synchronized void putTarget( final String source ,
+                                        final String target )
+    {
+        if ( source == null || target == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        entries.put( source ,
+                     new Entry( target ,
+                                clock.currentTimeMillis() ) );
+    }
+
+    /**
+     * Store a failed resolution.
+     *
+     * @param source Source URL
+     */
+    public synchronized void putFailure( final String source )
+    {
+        if ( source == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        entries.put( source ,
+                     new Entry( null ,
+                                clock.currentTimeMillis() ) );
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Load the URLs of a file. Does nothing if the file doesn't exist.
+     *
+     * @param path File
+     * @throws IOException
+     */
+    public void load( final Path path )
+        throws IOException
+    {
+        if ( path == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        if ( Files.notExists( path ) )
+        {
+            return;
+        }
+
+        try( final BufferedReader br = Files.newBufferedReader( path ,
+                                                                CHARSET ) )
+        {
+            synchronized( this )
+            {
+                String line;
+                while ( ( line = br.readLine() ) != null )
+                {
+                    final String[] parts = line.split( "\t" ,
+                                                       -1 );
+                    if ( parts.length != 3 || parts[1].isEmpty() )
+                    {
+                        continue;
+                    }
+
+                    final long time;
+                    try
+                    {
+                        time = Long.parseLong( parts[0] );
+                    }
+                    catch( final NumberFormatException ex )
+                    {
+                        continue;
+                    }
+
+                    final String target;
+                    if ( parts[2].isEmpty() )
+                    {
+                        target = null;
+                    }
+                    else
+                    {
+                        target = parts[2];
+                    }
+
+                    entries.put( parts[1] ,
+                                 new Entry( target ,
+                                            time ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the URLs to a file, from the least recently used. The file is replaced atomically.
+     *
+     * @param path File
+     * @throws IOException
+     */
+    public void save( final Path path )
+        throws IOException
+    {
+        if ( path == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        final Path tmp = path.resolveSibling( path.getFileName().toString() + ".tmp" );
+        try( final BufferedWriter bw = Files.newBufferedWriter( tmp ,
+                                                                CHARSET ) )
+        {
+            synchronized( this )
+            {
+                for ( final Map.Entry<String , Entry> entry : entries.entrySet() )
+                {
+                    bw.write( Long.toString( entry.getValue().getTime() ) );
+                    bw.write( '\t' );
+                    bw.write( entry.getKey() );
+                    bw.write( '\t' );
+                    if ( !entry.getValue().isFailed() )
+                    {
+                        bw.write( entry.getValue().getTarget() );
+                    }
+                    bw.newLine();
+                }
+            }
+        }
+
+        Files.move( tmp ,
+                    path ,
+                    StandardCopyOption.REPLACE_EXISTING ,
+                    StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Resolution of a URL.
+     */
+    public static final class Entry
+    {
+        // PUBLIC
+        public Entry( final String target ,
+                      final long time )
+        {
+            this.target = target;
+            this.time = time;
+        }
+
+        /**
+         * Return the final URL.
+         *
+         * @return the URL (or null if the resolution failed)
+         */
+        public String getTarget()
+        {
+            return target;
+        }
+
+        public long getTime()
+        {
+            return time;
+        }
+
+        public boolean isFailed()
+        {
+            return target == null;
+        }
+
+        // PRIVATE
+        private final String target;
+        private final long time;
+    }
+
+    // PRIVATE
+    private static final Charset CHARSET = Charset.forName( "UTF-8" );
+    private final int capacity;
+    private final long negativeTTL;
+    private final A_Clock clock;
+    private final LinkedHashMap<String , Entry> entries;
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.loadtest;
+
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.LatencyHistogram;
+import com.vaushell.superpipes.nodes.A_Node;
+import com.vaushell.superpipes.nodes.stub.N_LatencySink;
+import com.vaushell.superpipes.nodes.stub.N_LoadGenerator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run a flow during a fixed time, and measure it.
+ *
+ * The messages are created by the N_LoadGenerator nodes, and the end-to-end latency is measured by the N_LatencySink
+ * nodes. The queue depth of each node is sampled during the run.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class LoadTest
+{
+    // PUBLIC
+    /**
+     * Create a load test.
+     *
+     * @param dispatcher Initialized dispatcher (not started)
+     * @param duration Run duration
+     * @param samplePeriod Time between 2 queue depth samples
+     */
+    public LoadTest( final Dispatcher dispatcher ,
+                     final Duration duration ,
+                     final Duration samplePeriod )
+    {
+        if ( dispatcher == null || duration == null || samplePeriod == null || samplePeriod.getMillis() <= 0L )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.dispatcher = dispatcher;
+        this.duration = duration;
+        this.samplePeriod = samplePeriod;
+    }
+
+    /**
+     * Start the flow, wait the duration, and stop the flow.
+     *
+     * @return the report
+     * @throws Exception
+     */
+    public LoadTestReport run()
+        throws Exception
+    {
+        if ( LOGGER.isInfoEnabled() )
+        {
+            LOGGER.info( "[" + getClass().getSimpleName() + "] run : duration=" + duration );
+        }
+
+        final Map<String , LoadTestReport.QueueStats> queues = new TreeMap<>();
+        for ( final A_Node node : dispatcher.getNodes() )
+        {
+            queues.put( node.getNodeID() ,
+                        new LoadTestReport.QueueStats() );
+        }
+
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos( duration.getMillis() );
+
+        dispatcher.start();
+        try
+        {
+            long now = System.nanoTime();
+            while ( now < end )
+            {
+                sample( queues );
+
+                Thread.sleep( Math.min( samplePeriod.getMillis() ,
+                                        Math.max( 1L ,
+                                                  TimeUnit.NANOSECONDS.toMillis( end - now ) ) ) );
+
+                now = System.nanoTime();
+            }
+
+            // Last sample, before the stop empties the queues
+            sample( queues );
+        }
+        finally
+        {
+            dispatcher.stopAndWait();
+        }
+
+        final long elapsed = System.nanoTime() - start;
+
+        // Results
+        long generated = 0L;
+        long received = 0L;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        for ( final A_Node node : dispatcher.getNodes() )
+        {
+            if ( node instanceof N_LoadGenerator )
+            {
+                generated += ( (N_LoadGenerator) node ).getGenerated();
+            }
+            else if ( node instanceof N_LatencySink )
+            {
+                final N_LatencySink sink = (N_LatencySink) node;
+
+                latencies.add( sink.getLatencies() );
+                received += sink.getLatencies().getCount() + sink.getUnstamped();
+            }
+        }
+
+        return new LoadTestReport( new Duration( TimeUnit.NANOSECONDS.toMillis( elapsed ) ) ,
+                                   generated ,
+                                   received ,
+                                   latencies ,
+                                   queues );
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( LoadTest.class );
+    private final Dispatcher dispatcher;
+    private final Duration duration;
+    private final Duration samplePeriod;
+
+    private void sample( final Map<String , LoadTestReport.QueueStats> queues )
+    {
+        for ( final A_Node node : dispatcher.getNodes() )
+        {
+            queues.get( node.getNodeID() ).add( System.nanoTime() ,
+                                                node.getMetrics().getQueueDepth() );
+        }
+    }
+}
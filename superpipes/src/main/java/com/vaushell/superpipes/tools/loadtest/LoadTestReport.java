@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.loadtest;
+
+import com.vaushell.superpipes.dispatch.LatencyHistogram;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+
+/**
+ * Results of a load test.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public final class LoadTestReport
+{
+    // PUBLIC
+    public Duration getElapsed()
+    {
+        return elapsed;
+    }
+
+    public long getGenerated()
+    {
+        return generated;
+    }
+
+    public long getReceived()
+    {
+        return received;
+    }
+
+    /**
+     * Return the throughput, measured at the sinks.
+     *
+     * @return the received messages per second
+     */
+    public double getThroughput()
+    {
+        if ( elapsed.getMillis() <= 0L )
+        {
+            return 0.0;
+        }
+
+        return received * 1000.0 / elapsed.getMillis();
+    }
+
+    /**
+     * Return the end-to-end latencies of all sinks.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getLatencies()
+    {
+        return latencies;
+    }
+
+    /**
+     * Return the queue depth statistics of the nodes.
+     *
+     * @return the statistics, by node ID
+     */
+    public Map<String , QueueStats> getQueues()
+    {
+        return Collections.unmodifiableMap( queues );
+    }
+
+    /**
+     * Format the report.
+     *
+     * @return the text
+     */
+    public String format()
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append( String.format( Locale.ENGLISH ,
+                                  "Duration   : %d ms%n" ,
+                                  elapsed.getMillis() ) );
+        sb.append( String.format( Locale.ENGLISH ,
+                                  "Generated  : %d messages%n" ,
+                                  generated ) );
+        sb.append( String.format( Locale.ENGLISH ,
+                                  "Received   : %d messages%n" ,
+                                  received ) );
+        sb.append( String.format( Locale.ENGLISH ,
+                                  "Throughput : %.1f messages/s%n" ,
+                                  getThroughput() ) );
+        sb.append( String.format( Locale.ENGLISH ,
+                                  "Latency    : p50=%.3f ms / p99=%.3f ms / p999=%.3f ms / max=%.3f ms%n" ,
+                                  toMillis( latencies.getPercentile( 50.0 ) ) ,
+                                  toMillis( latencies.getPercentile( 99.0 ) ) ,
+                                  toMillis( latencies.getPercentile( 99.9 ) ) ,
+                                  toMillis( latencies.snapshot().getMax() ) ) );
+
+        sb.append( String.format( Locale.ENGLISH ,
+                                  "Queues     :%n" ) );
+        for ( final Map.Entry<String , QueueStats> entry : queues.entrySet() )
+        {
+            final QueueStats stats = entry.getValue();
+
+            sb.append( String.format( Locale.ENGLISH ,
+                                      "  %-20s first=%d / max=%d / last=%d / growth=%.1f messages/s%n" ,
+                                      entry.getKey() ,
+                                      stats.getFirst() ,
+                                      stats.getMax() ,
+                                      stats.getLast() ,
+                                      stats.getGrowth() ) );
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LoadTestReport{" + "elapsed=" + elapsed + ", generated=" + generated + ", received=" + received + '}';
+    }
+
+    /**
+     * Queue depth samples of a node.
+     */
+    public static final class QueueStats
+    {
+        // PUBLIC
+        public int getFirst()
+        {
+            return first;
+        }
+
+        public int getMax()
+        {
+            return max;
+        }
+
+        public int getLast()
+        {
+            return last;
+        }
+
+        /**
+         * Return the queue growth between the first and the last sample. A positive growth means the node can't
+         * follow the flow.
+         *
+         * @return the growth in messages per second
+         */
+        public double getGrowth()
+        {
+            if ( lastTime <= firstTime )
+            {
+                return 0.0;
+            }
+
+            return ( last - first ) * (double) TimeUnit.SECONDS.toNanos( 1L ) / ( lastTime - firstTime );
+        }
+
+        // DEFAULT
+        QueueStats()
+        {
+            this.samples = 0;
+        }
+
+        void add( final long time ,
+                  final int depth )
+        {
+            if ( samples == 0 )
+            {
+                first = depth;
+                firstTime = time;
+                max = depth;
+            }
+            else if ( depth > max )
+            {
+                max = depth;
+            }
+
+            last = depth;
+            lastTime = time;
+            ++samples;
+        }
+
+        // PRIVATE
+        private int samples;
+        private int first;
+        private long firstTime;
+        private int max;
+        private int last;
+        private long lastTime;
+    }
+
+    // DEFAULT
+    LoadTestReport( final Duration elapsed ,
+                    final long generated ,
+                    final long received ,
+                    final LatencyHistogram latencies ,
+                    final Map<String , QueueStats> queues )
+    {
+        this.elapsed = elapsed;
+        this.generated = generated;
+        this.received = received;
+        this.latencies = latencies;
+        this.queues = queues;
+    }
+
+    // PRIVATE
+    private final Duration elapsed;
+    private final long generated;
+    private final long received;
+    private final LatencyHistogram latencies;
+    private final Map<String , QueueStats> queues;
+
+    private static double toMillis( final long nanos )
+    {
+        return nanos / 1000000.0;
+    }
+}
@@ -19,6 +19,8 @@
 
 package com.vaushell.superpipes.tools.retry;
 
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import com.vaushell.superpipes.tools.clock.SystemClock;
 import java.util.Random;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -43,6 +45,25 @@ public abstract class A_Retry<T>
 
         this.tryCount = 0;
         this.random = new Random();
+        this.clock = SystemClock.INSTANCE;
+    }
+
+    /**
+     * Which clock do I use to wait ? (the clock of the node).
+     *
+     * @param clock Clock
+     * @return this element.
+     */
+    public A_Retry<T> setClock( final A_Clock clock )
+    {
+        if ( clock == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.clock = clock;
+
+        return this;
     }
 
     /**
@@ -144,7 +165,7 @@ public abstract class A_Retry<T>
     public T execute()
         throws RetryException
     {
-        start = new DateTime();
+        start();
 
         while ( true )
         {
@@ -159,82 +180,108 @@ public abstract class A_Retry<T>
             }
             catch( final Throwable ex )
             {
-                // Error
-                if ( tryCount >= retry )
+                final long wait = failed( ex );
+                if ( wait > 0L )
                 {
-                    if ( LOGGER.isDebugEnabled() )
+                    try
                     {
-                        LOGGER.debug( "try count reached" );
+                        clock.sleep( wait );
+                    }
+                    catch( final InterruptedException ex2 )
+                    {
+                        // Ignore
                     }
-
-                    throw new RetryException( ex );
                 }
+            }
+        }
+    }
 
-                if ( maxDuration.getMillis() > 0L )
-                {
-                    final Duration actualDuration = new Duration( start ,
-                                                                  null );
+    /**
+     * Start the tries without executing them (for an asynchronous execution, with failed).
+     *
+     * @return this element.
+     */
+    public A_Retry<T> start()
+    {
+        start = clock.now();
 
-                    if ( !actualDuration.isShorterThan( maxDuration ) )
-                    {
-                        if ( LOGGER.isDebugEnabled() )
-                        {
-                            LOGGER.debug( "try delay reached" );
-                        }
+        return this;
+    }
 
-                        throw new RetryException( ex );
-                    }
-                }
+    /**
+     * A try fails: what do I do ? Doesn't wait, so the next try could be scheduled instead of waiting in a thread.
+     *
+     * @param ex Error of the try
+     * @return Time to wait before the next try, in milliseconds.
+     * @throws RetryException if I can't try again.
+     */
+    public long failed( final Throwable ex )
+        throws RetryException
+    {
+        if ( tryCount >= retry )
+        {
+            if ( LOGGER.isDebugEnabled() )
+            {
+                LOGGER.debug( "try count reached" );
             }
 
-            if ( waitTime.getMillis() > 0L )
+            throw new RetryException( ex );
+        }
+
+        if ( maxDuration.getMillis() > 0L )
+        {
+            final Duration actualDuration = new Duration( start ,
+                                                          clock.now() );
+
+            if ( !actualDuration.isShorterThan( maxDuration ) )
             {
                 if ( LOGGER.isDebugEnabled() )
                 {
-                    LOGGER.debug(
-                        "try " + tryCount + "/" + retry + " failed. Wait " + waitTime + " before next retry" );
+                    LOGGER.debug( "try delay reached" );
                 }
 
-                try
-                {
-                    Thread.sleep( waitTime.getMillis() );
-                }
-                catch( final InterruptedException ex )
-                {
-                    // Ignore
-                }
+                throw new RetryException( ex );
+            }
+        }
+
+        final long wait = waitTime.getMillis();
+        if ( LOGGER.isDebugEnabled() )
+        {
+            if ( wait > 0L )
+            {
+                LOGGER.debug(
+                    "try " + tryCount + "/" + retry + " failed. Wait " + waitTime + " before next retry" );
             }
             else
             {
-                if ( LOGGER.isDebugEnabled() )
-                {
-                    LOGGER.debug(
-                        "try " + tryCount + "/" + retry + " failed. Don't wait" );
-                }
+                LOGGER.debug(
+                    "try " + tryCount + "/" + retry + " failed. Don't wait" );
             }
+        }
 
-            // First, multiply time
-            waitTime = new Duration( (long) ( (double) waitTime.getMillis() * waitTimeMultiplier ) );
+        // First, multiply time
+        waitTime = new Duration( (long) ( (double) waitTime.getMillis() * waitTimeMultiplier ) );
 
-            // Second, add jitter
-            if ( jitterRange > 0 )
+        // Second, add jitter
+        if ( jitterRange > 0 )
+        {
+            final int jitter = random.nextInt( jitterRange );
+            if ( random.nextBoolean() )
             {
-                final int jitter = random.nextInt( jitterRange );
-                if ( random.nextBoolean() )
-                {
-                    waitTime = waitTime.plus( (long) jitter );
-                }
-                else
+                waitTime = waitTime.plus( (long) jitter );
+            }
+            else
+            {
+                if ( (long) jitter < waitTime.getMillis() )
                 {
-                    if ( (long) jitter < waitTime.getMillis() )
-                    {
-                        waitTime = waitTime.minus( (long) jitter );
-                    }
+                    waitTime = waitTime.minus( (long) jitter );
                 }
             }
-
-            ++tryCount;
         }
+
+        ++tryCount;
+
+        return wait;
     }
 
     // PROTECTED
@@ -257,4 +304,5 @@ public abstract class A_Retry<T>
     private final Random random;
     private Duration maxDuration;
     private DateTime start;
+    private A_Clock clock;
 }
@@ -21,8 +21,13 @@ package com.vaushell.superpipes.transforms;
 
 import com.vaushell.superpipes.dispatch.ConfigProperties;
 import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.dispatch.Scheduler;
 import com.vaushell.superpipes.nodes.A_Node;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 
 /**
@@ -37,6 +42,7 @@ public abstract class A_Transform
     {
         this.node = null;
         this.properties = new ConfigProperties();
+        this.ioLock = new Object();
     }
 
     /**
@@ -92,6 +98,81 @@ public abstract class A_Transform
     public abstract Message transform( final Message message )
         throws Exception;
 
+    /**
+     * Asynchronous transform's execution, used when the node has several messages in flight. Generic implementation:
+     * call transform in the node thread. I/O bound transforms override it with transformOnIO.
+     *
+     * @param message the Message
+     * @return the future Message (or null)
+     * @throws Exception
+     */
+    public Future<Message> transformAsync( final Message message )
+        throws Exception
+    {
+        final FutureTask<Message> task = new FutureTask<>( new Callable<Message>()
+        {
+            @Override
+            public Message call()
+                throws Exception
+            {
+                return transform( message );
+            }
+        } );
+
+        task.run();
+
+        return task;
+    }
+
+    /**
+     * Transform's execution for a batch of messages. Generic implementation: call transform for each message. Override it
+     * to share the work (I/O) between the messages.
+     *
+     * @param messages the Messages, in order
+     * @return the kept Messages, in order
+     * @throws Exception
+     */
+    public List<Message> transformBatch( final List<Message> messages )
+        throws Exception
+    {
+        final List<Message> results = new ArrayList<>( messages.size() );
+        for ( final Message message : messages )
+        {
+            final Message result = transform( message );
+            if ( result != null )
+            {
+                results.add( result );
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Could transform be called by several threads at the same time ? transformOnIO uses it: the calls of a transform
+     * which isn't thread-safe are done one at a time (still outside the node thread). Default: no.
+     *
+     * A thread-safe transform doesn't change its own fields in transform, or protects them (the caches are
+     * synchronized).
+     *
+     * @return true if transform is thread-safe
+     */
+    public boolean isThreadSafe()
+    {
+        return false;
+    }
+
+    /**
+     * Could the node of the transform have instances ? Each instance has its own transform: a transform which keeps a
+     * state in the files of the node (i.e. T_Done) must not be duplicated. Default: yes.
+     *
+     * @return true if transform has no state shared between the instances
+     */
+    public boolean isStateless()
+    {
+        return true;
+    }
+
     /**
      * Close transform's execution. Executed 1 time at the ending.
      *
@@ -100,7 +181,48 @@ public abstract class A_Transform
     public abstract void terminate()
         throws Exception;
 
+    // PROTECTED
+    /**
+     * Call transform in the shared I/O pool. The node is woken up when it's done. Several messages of the node could be
+     * transformed at the same time: if the transform isn't thread-safe (see isThreadSafe), the calls are serialized.
+     *
+     * @param message the Message
+     * @return the future Message (or null)
+     */
+    protected Future<Message> transformOnIO( final Message message )
+    {
+        final FutureTask<Message> task = new FutureTask<Message>( new Callable<Message>()
+        {
+            @Override
+            public Message call()
+                throws Exception
+            {
+                if ( isThreadSafe() )
+                {
+                    return transform( message );
+                }
+
+                synchronized( ioLock )
+                {
+                    return transform( message );
+                }
+            }
+        } )
+        {
+            @Override
+            protected void done()
+            {
+                getNode().wakeUp();
+            }
+        };
+
+        getNode().getDispatcher().getScheduler().getExecutor( Scheduler.Pool.IO ).execute( task );
+
+        return task;
+    }
+
     // PRIVATE
     private A_Node node;
     private final ConfigProperties properties;
+    private final Object ioLock;
 }
@@ -25,6 +25,7 @@ import com.rosaloves.bitlyj.Url;
 import com.vaushell.superpipes.dispatch.Message;
 import com.vaushell.superpipes.transforms.A_Transform;
 import java.net.URI;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +41,8 @@ public class T_Shorten
     public T_Shorten()
     {
         super();
+
+        this.bitly = null;
     }
 
     @Override
@@ -47,8 +50,19 @@ public class T_Shorten
         throws Exception
     {
         // https://bitly.com/a/your_api_key
-        this.bitly = Bitly.as( getProperties().getConfigString( "username" ) ,
-                               getProperties().getConfigString( "apikey" ) );
+        final String username = getProperties().getConfigString( "username" );
+        final String apikey = getProperties().getConfigString( "apikey" );
+
+        // The provider isn't thread-safe: 1 provider per I/O thread
+        this.bitly = new ThreadLocal<Provider>()
+        {
+            @Override
+            protected Provider initialValue()
+            {
+                return Bitly.as( username ,
+                                 apikey );
+            }
+        };
     }
 
     @Override
@@ -66,7 +80,7 @@ public class T_Shorten
         {
             final URI longURI = (URI) message.getProperty( Message.KeyIndex.URI );
 
-            final Url url = bitly.call( Bitly.shorten( longURI.toString() ) );
+            final Url url = bitly.get().call( Bitly.shorten( longURI.toString() ) );
 
             if ( url != null && url.getShortUrl() != null )
             {
@@ -80,6 +94,23 @@ public class T_Shorten
         return message;
     }
 
+    @Override
+    public Future<Message> transformAsync( final Message message )
+    {
+        return transformOnIO( message );
+    }
+
+    /**
+     * Each thread has its own Bitly provider.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     public void terminate()
         throws Exception
@@ -89,5 +120,5 @@ public class T_Shorten
 
     // PRIVATE
     private static final Logger LOGGER = LoggerFactory.getLogger( T_Shorten.class );
-    private Provider bitly;
+    private ThreadLocal<Provider> bitly;
 }
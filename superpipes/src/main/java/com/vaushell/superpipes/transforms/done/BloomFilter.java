@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+/**
+ * Bloom filter of 128 bits hashes.
+ *
+ * The filter answers 'definitely not seen' or 'maybe seen'. Hashes are already uniform: the k bit positions are derived
+ * from the 2 halves of the hash (double hashing). 10 bits per expected hash and 7 positions give about 1% of false
+ * positives.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class BloomFilter
+{
+    // DEFAULT
+    /**
+     * Create an empty filter.
+     *
+     * @param expected Expected count of hashes
+     */
+    BloomFilter( final int expected )
+    {
+        if ( expected <= 0 )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.expected = expected;
+        this.bitsCount = Math.max( 64L ,
+                                   (long) expected * BITS_PER_HASH );
+        this.bits = new long[ (int) ( ( bitsCount + 63L ) / 64L ) ];
+        this.count = 0;
+    }
+
+    /**
+     * Is the filter full ? Beyond the expected count, false positives increase.
+     *
+     * @return true or false
+     */
+    boolean isFull()
+    {
+        return count >= expected;
+    }
+
+    /**
+     * Add a hash.
+     *
+     * @param high High 64 bits of the hash
+     * @param low Low 64 bits of the hash
+     */
+    void add( final long high ,
+              final long low )
+    {
+        final long l = DoneTable.fixLow( high ,
+                                         low );
+
+        long combined = high;
+        for ( int i = 0 ; i < HASHES ; ++i )
+        {
+            final long index = ( combined & Long.MAX_VALUE ) % bitsCount;
+            bits[ (int) ( index >>> 6 )] |= 1L << index;
+
+            combined += l;
+        }
+
+        ++count;
+    }
+
+    /**
+     * Could the hash be in the filter ?
+     *
+     * @param high High 64 bits of the hash
+     * @param low Low 64 bits of the hash
+     * @return false if the hash was never added, true if it may be
+     */
+    boolean mightContain( final long high ,
+                          final long low )
+    {
+        final long l = DoneTable.fixLow( high ,
+                                         low );
+
+        long combined = high;
+        for ( int i = 0 ; i < HASHES ; ++i )
+        {
+            final long index = ( combined & Long.MAX_VALUE ) % bitsCount;
+            if ( ( bits[ (int) ( index >>> 6 )] & ( 1L << index ) ) == 0L )
+            {
+                return false;
+            }
+
+            combined += l;
+        }
+
+        return true;
+    }
+
+    // PRIVATE
+    private static final int BITS_PER_HASH = 10;
+    private static final int HASHES = 7;
+    private final int expected;
+    private final long bitsCount;
+    private final long[] bits;
+    private int count;
+}
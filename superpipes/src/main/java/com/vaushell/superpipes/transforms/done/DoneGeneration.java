@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+import com.vaushell.superpipes.dispatch.Message;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * IDs learned during a period: a journal and its memory-mapped table.
+ *
+ * At opening, the table is mapped and only the end of the journal, not yet in the table, is read. If the table is
+ * missing or broken, it is rebuilt from the journal.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class DoneGeneration
+{
+    // DEFAULT
+    /**
+     * Create a generation.
+     *
+     * @param journalPath Journal file
+     * @param tablePath Table file
+     * @param start Start of the period (in milliseconds)
+     */
+    DoneGeneration( final Path journalPath ,
+                    final Path tablePath ,
+                    final long start )
+    {
+        if ( journalPath == null || tablePath == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.journalPath = journalPath;
+        this.tablePath = tablePath;
+        this.start = start;
+        this.table = null;
+        this.journal = null;
+    }
+
+    long getStart()
+    {
+        return start;
+    }
+
+    /**
+     * Return the time of the last write in the journal.
+     *
+     * @return the time in milliseconds
+     * @throws IOException
+     */
+    long getLastModified()
+        throws IOException
+    {
+        return Files.getLastModifiedTime( journalPath ).toMillis();
+    }
+
+    /**
+     * Open the table and the journal.
+     *
+     * @param flushRecords Write the journal when this count of lines is waiting
+     * @throws IOException
+     */
+    void open( final int flushRecords )
+        throws IOException
+    {
+        table = new DoneTable( tablePath );
+        try
+        {
+            table.open();
+        }
+        catch( final IOException ex )
+        {
+            LOGGER.warn( "[" + getClass().getSimpleName() + "] cannot open " + tablePath + ". Rebuild it from the journal." ,
+                         ex );
+
+            resetTable();
+        }
+
+        replayJournal();
+
+        journal = new DoneJournal( journalPath ,
+                                   flushRecords );
+        journal.open();
+    }
+
+    int size()
+    {
+        return table.size();
+    }
+
+    boolean contains( final long high ,
+                      final long low )
+    {
+        return table.contains( high ,
+                               low );
+    }
+
+    /**
+     * Add an ID.
+     *
+     * @param high High 64 bits of the ID
+     * @param low Low 64 bits of the ID
+     * @param message Message written in the journal
+     * @return true if the ID is new
+     * @throws IOException
+     */
+    boolean add( final long high ,
+                 final long low ,
+                 final Message message )
+        throws IOException
+    {
+        if ( !table.add( high ,
+                         low ) )
+        {
+            return false;
+        }
+
+        journal.append( high ,
+                        low ,
+                        message );
+
+        return true;
+    }
+
+    /**
+     * Write the journal if enough lines are waiting.
+     *
+     * @throws IOException
+     */
+    void commit()
+        throws IOException
+    {
+        journal.commit();
+
+        table.setJournalPosition( journal.getPosition() );
+    }
+
+    /**
+     * Write the journal. Could be called by another thread.
+     *
+     * @throws IOException
+     */
+    void flush()
+        throws IOException
+    {
+        journal.flush();
+    }
+
+    /**
+     * Add all the IDs to a Bloom filter.
+     *
+     * @param filter Bloom filter
+     */
+    void addTo( final BloomFilter filter )
+    {
+        table.addTo( filter );
+    }
+
+    /**
+     * Write the journal and close the files.
+     *
+     * @throws IOException
+     */
+    void close()
+        throws IOException
+    {
+        try
+        {
+            if ( journal != null )
+            {
+                journal.close();
+            }
+        }
+        finally
+        {
+            if ( table != null )
+            {
+                if ( journal != null )
+                {
+                    table.setJournalPosition( journal.getPosition() );
+                }
+
+                table.close();
+            }
+        }
+    }
+
+    /**
+     * Close and delete the files.
+     *
+     * @throws IOException
+     */
+    void delete()
+        throws IOException
+    {
+        close();
+
+        Files.deleteIfExists( journalPath );
+        Files.deleteIfExists( tablePath );
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( DoneGeneration.class );
+    private static final int ID_LENGTH = 32;
+    private final Path journalPath;
+    private final Path tablePath;
+    private final long start;
+    private DoneTable table;
+    private DoneJournal journal;
+
+    private void resetTable()
+        throws IOException
+    {
+        Files.deleteIfExists( tablePath );
+
+        table = new DoneTable( tablePath );
+        table.open();
+    }
+
+    /**
+     * Add the IDs of the journal which are not yet in the table.
+     */
+    private void replayJournal()
+        throws IOException
+    {
+        if ( !Files.exists( journalPath ) )
+        {
+            table.setJournalPosition( 0L );
+            return;
+        }
+
+        final long journalSize = Files.size( journalPath );
+        long position = table.getJournalPosition();
+        if ( position > journalSize )
+        {
+            // The journal was replaced: start again
+            table.close();
+            resetTable();
+
+            position = 0L;
+        }
+
+        if ( position == journalSize )
+        {
+            return;
+        }
+
+        try( final FileChannel channel = FileChannel.open( journalPath ,
+                                                           StandardOpenOption.READ ) )
+        {
+            channel.position( position );
+
+            final BufferedReader bfr = new BufferedReader( new InputStreamReader( Channels.newInputStream( channel ) ,
+                                                                                  Charset.forName( "utf-8" ) ) );
+            String line = bfr.readLine();
+            while ( line != null )
+            {
+                if ( line.length() >= ID_LENGTH && ( line.length() == ID_LENGTH || line.charAt( ID_LENGTH ) == ' ' ) )
+                {
+                    table.add( parseHexLong( line ,
+                                             0 ) ,
+                               parseHexLong( line ,
+                                             16 ) );
+                }
+
+                line = bfr.readLine();
+            }
+        }
+
+        table.setJournalPosition( journalSize );
+    }
+
+    private static long parseHexLong( final String line ,
+                                      final int offset )
+    {
+        long value = 0L;
+        for ( int i = offset ; i < offset + 16 ; ++i )
+        {
+            final int digit = Character.digit( line.charAt( i ) ,
+                                               16 );
+            if ( digit < 0 )
+            {
+                throw new IllegalArgumentException( "Bad ID in the journal: " + line );
+            }
+
+            value = ( value << 4 ) | digit;
+        }
+
+        return value;
+    }
+}
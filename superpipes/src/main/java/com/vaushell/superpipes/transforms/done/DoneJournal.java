@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+import com.vaushell.superpipes.dispatch.Message;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Journal of the known IDs (1 line per message), kept open.
+ *
+ * Lines are buffered and written together (group commit) when 'flushRecords' lines are waiting at a commit, or by a
+ * periodic flush.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class DoneJournal
+{
+    // DEFAULT
+    /**
+     * Create a journal.
+     *
+     * @param path Journal file
+     * @param flushRecords Write the lines when this count is waiting
+     */
+    DoneJournal( final Path path ,
+                 final int flushRecords )
+    {
+        if ( path == null || flushRecords <= 0 )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.path = path;
+        this.flushRecords = flushRecords;
+        this.pending = new ByteArrayOutputStream();
+        this.pendingRecords = 0;
+        this.channel = null;
+        this.position = 0L;
+    }
+
+    /**
+     * Open the journal in append mode.
+     *
+     * @throws IOException
+     */
+    synchronized void open()
+        throws IOException
+    {
+        channel = FileChannel.open( path ,
+                                    StandardOpenOption.CREATE ,
+                                    StandardOpenOption.WRITE ,
+                                    StandardOpenOption.APPEND );
+        position = channel.size();
+    }
+
+    /**
+     * Add a line. The line waits for a commit or a flush.
+     *
+     * @param high High 64 bits of the message ID
+     * @param low Low 64 bits of the message ID
+     * @param message Message
+     * @throws IOException
+     */
+    synchronized void append( final long high ,
+                              final long low ,
+                              final Message message )
+        throws IOException
+    {
+        final String line = toHex( high ) + toHex( low ) + ' ' + Message.formatSimple( message ) + LINE_SEPARATOR;
+        final byte[] bytes = line.getBytes( UTF8 );
+
+        pending.write( bytes ,
+                       0 ,
+                       bytes.length );
+        ++pendingRecords;
+    }
+
+    /**
+     * Write the waiting lines if there are enough.
+     *
+     * @throws IOException
+     */
+    synchronized void commit()
+        throws IOException
+    {
+        if ( pendingRecords >= flushRecords )
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Write the waiting lines.
+     *
+     * @throws IOException
+     */
+    synchronized void flush()
+        throws IOException
+    {
+        if ( pendingRecords <= 0 || channel == null )
+        {
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap( pending.toByteArray() );
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+        position += pending.size();
+
+        pending.reset();
+        pendingRecords = 0;
+    }
+
+    /**
+     * Return the size of the written journal (waiting lines excluded).
+     *
+     * @return the size in bytes
+     */
+    synchronized long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Write the waiting lines and close the journal.
+     *
+     * @throws IOException
+     */
+    synchronized void close()
+        throws IOException
+    {
+        if ( channel == null )
+        {
+            return;
+        }
+
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // PRIVATE
+    private static final Charset UTF8 = Charset.forName( "utf-8" );
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private final Path path;
+    private final int flushRecords;
+    private final ByteArrayOutputStream pending;
+    private int pendingRecords;
+    private FileChannel channel;
+    private long position;
+
+    private static String toHex( final long value )
+    {
+        final char[] chars = new char[ 16 ];
+        for ( int i = 15 ; i >= 0 ; --i )
+        {
+            chars[ i] = Character.forDigit( (int) ( ( value >>> ( ( 15 - i ) * 4 ) ) & 0xFL ) ,
+                                            16 );
+        }
+
+        return new String( chars );
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+import com.vaushell.superpipes.tools.FilesHelper;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Set of 128 bits hashes, stored in a memory-mapped file.
+ *
+ * The file is an open-addressing table (linear probing) of 16 bytes slots, after a 32 bytes header. Opening the set is
+ * a map call: nothing is read before a lookup. The table is doubled (and rehashed in a new file) when it is 3/4 full.
+ *
+ * The header also holds a position in a journal: the caller stores where the set is synchronized with its journal.
+ *
+ * The file is mapped through a single channel, kept open until close(). close() and the growth release the mapping
+ * (without waiting for the GC). The growth replaces the file with an atomic move: it fails on a file system without
+ * atomic move, and on Windows when another process holds the file open.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class DoneTable
+{
+    // DEFAULT
+    /**
+     * Create a set.
+     *
+     * @param path Storage file
+     */
+    DoneTable( final Path path )
+    {
+        if ( path == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.path = path;
+        this.channel = null;
+        this.buffer = null;
+        this.capacity = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Map the file (created if missing).
+     *
+     * @throws IOException
+     */
+    void open()
+        throws IOException
+    {
+        if ( Files.exists( path ) && Files.size( path ) >= HEADER_SIZE )
+        {
+            channel = FileChannel.open( path ,
+                                        StandardOpenOption.READ ,
+                                        StandardOpenOption.WRITE );
+            try
+            {
+                buffer = channel.map( FileChannel.MapMode.READ_WRITE ,
+                                      0L ,
+                                      channel.size() );
+
+                if ( buffer.getInt( HEADER_MAGIC ) != MAGIC || buffer.getInt( HEADER_VERSION ) != VERSION )
+                {
+                    throw new IOException( "File " + path + " is not a done table" );
+                }
+
+                capacity = buffer.getInt( HEADER_CAPACITY );
+                size = buffer.getInt( HEADER_SIZE_POS );
+
+                if ( channel.size() < getFileSize( capacity ) )
+                {
+                    throw new IOException( "File " + path + " is truncated" );
+                }
+            }
+            catch( final IOException ex )
+            {
+                release();
+
+                throw ex;
+            }
+        }
+        else
+        {
+            channel = create( path );
+            buffer = map( channel ,
+                          INITIAL_CAPACITY );
+            capacity = INITIAL_CAPACITY;
+            size = 0;
+        }
+    }
+
+    /**
+     * Flush the table to the disk, release the mapping and close the file.
+     *
+     * @throws IOException
+     */
+    void close()
+        throws IOException
+    {
+        if ( buffer != null )
+        {
+            buffer.force();
+        }
+
+        release();
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Is the hash in the set ?
+     *
+     * @param high High 64 bits of the hash
+     * @param low Low 64 bits of the hash
+     * @return true or false
+     */
+    boolean contains( final long high ,
+                      final long low )
+    {
+        final long l = fixLow( high ,
+                               low );
+
+        final int mask = capacity - 1;
+        int index = indexOf( high ,
+                             mask );
+        while ( true )
+        {
+            final int offset = HEADER_SIZE + index * SLOT_SIZE;
+            final long h = buffer.getLong( offset );
+            final long lo = buffer.getLong( offset + 8 );
+
+            if ( h == 0L && lo == 0L )
+            {
+                return false;
+            }
+
+            if ( h == high && lo == l )
+            {
+                return true;
+            }
+
+            index = ( index + 1 ) & mask;
+        }
+    }
+
+    /**
+     * Add a hash.
+     *
+     * @param high High 64 bits of the hash
+     * @param low Low 64 bits of the hash
+     * @return true if the hash is new
+     * @throws IOException
+     */
+    boolean add( final long high ,
+                 final long low )
+        throws IOException
+    {
+        if ( ( size + 1 ) * 4L > capacity * 3L )
+        {
+            grow();
+        }
+
+        if ( !insert( buffer ,
+                      capacity ,
+                      high ,
+                      fixLow( high ,
+                              low ) ) )
+        {
+            return false;
+        }
+
+        ++size;
+        buffer.putInt( HEADER_SIZE_POS ,
+                       size );
+
+        return true;
+    }
+
+    /**
+     * Add all the hashes to a Bloom filter.
+     *
+     * @param filter Bloom filter
+     */
+    void addTo( final BloomFilter filter )
+    {
+        for ( int i = 0 ; i < capacity ; ++i )
+        {
+            final int offset = HEADER_SIZE + i * SLOT_SIZE;
+            final long h = buffer.getLong( offset );
+            final long l = buffer.getLong( offset + 8 );
+
+            if ( h != 0L || l != 0L )
+            {
+                filter.add( h ,
+                            l );
+            }
+        }
+    }
+
+    /**
+     * Return the journal position where the set is synchronized.
+     *
+     * @return the position in bytes
+     */
+    long getJournalPosition()
+    {
+        return buffer.getLong( HEADER_JOURNAL );
+    }
+
+    void setJournalPosition( final long position )
+    {
+        buffer.putLong( HEADER_JOURNAL ,
+                        position );
+    }
+
+    /**
+     * The (0, 0) hash marks an empty slot: it is stored as (0, 1).
+     *
+     * @param high High 64 bits of the hash
+     * @param low Low 64 bits of the hash
+     * @return the stored low 64 bits
+     */
+    static long fixLow( final long high ,
+                        final long low )
+    {
+        if ( high == 0L && low == 0L )
+        {
+            return 1L;
+        }
+
+        return low;
+    }
+
+    // PRIVATE
+    private static final int MAGIC = 0x444F4E45;
+    private static final int VERSION = 1;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_SIZE_POS = 12;
+    private static final int HEADER_JOURNAL = 16;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 26;
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+
+    private static long getFileSize( final int capacity )
+    {
+        return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    }
+
+    private static FileChannel create( final Path path )
+        throws IOException
+    {
+        return FileChannel.open( path ,
+                                 StandardOpenOption.CREATE ,
+                                 StandardOpenOption.TRUNCATE_EXISTING ,
+                                 StandardOpenOption.READ ,
+                                 StandardOpenOption.WRITE );
+    }
+
+    private static MappedByteBuffer map( final FileChannel channel ,
+                                         final int capacity )
+        throws IOException
+    {
+        // Sparse file, filled with zeros
+        final MappedByteBuffer created = channel.map( FileChannel.MapMode.READ_WRITE ,
+                                                      0L ,
+                                                      getFileSize( capacity ) );
+
+        created.putInt( HEADER_MAGIC ,
+                        MAGIC );
+        created.putInt( HEADER_VERSION ,
+                        VERSION );
+        created.putInt( HEADER_CAPACITY ,
+                        capacity );
+
+        return created;
+    }
+
+    private static int indexOf( final long high ,
+                                final int mask )
+    {
+        return (int) ( high ^ ( high >>> 32 ) ) & mask;
+    }
+
+    private static boolean insert( final MappedByteBuffer table ,
+                                   final int tableCapacity ,
+                                   final long high ,
+                                   final long low )
+    {
+        final int mask = tableCapacity - 1;
+        int index = indexOf( high ,
+                             mask );
+        while ( true )
+        {
+            final int offset = HEADER_SIZE + index * SLOT_SIZE;
+            final long h = table.getLong( offset );
+            final long l = table.getLong( offset + 8 );
+
+            if ( h == 0L && l == 0L )
+            {
+                table.putLong( offset ,
+                               high );
+                table.putLong( offset + 8 ,
+                               low );
+
+                return true;
+            }
+
+            if ( h == high && l == low )
+            {
+                return false;
+            }
+
+            index = ( index + 1 ) & mask;
+        }
+    }
+
+    /**
+     * Double the table in a new file, which replaces the old one.
+     */
+    private void grow()
+        throws IOException
+    {
+        if ( capacity >= MAX_CAPACITY )
+        {
+            throw new IOException( "Done table " + path + " is full" );
+        }
+
+        final int newCapacity = capacity * 2;
+        final Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+
+        final FileChannel grownChannel = create( tmp );
+        final MappedByteBuffer grown;
+        try
+        {
+            grown = map( grownChannel ,
+                         newCapacity );
+        }
+        catch( final IOException ex )
+        {
+            grownChannel.close();
+            Files.deleteIfExists( tmp );
+
+            throw ex;
+        }
+
+        for ( int i = 0 ; i < capacity ; ++i )
+        {
+            final int offset = HEADER_SIZE + i * SLOT_SIZE;
+            final long h = buffer.getLong( offset );
+            final long l = buffer.getLong( offset + 8 );
+
+            if ( h != 0L || l != 0L )
+            {
+                insert( grown ,
+                        newCapacity ,
+                        h ,
+                        l );
+            }
+        }
+
+        grown.putInt( HEADER_SIZE_POS ,
+                      size );
+        grown.putLong( HEADER_JOURNAL ,
+                       getJournalPosition() );
+        grown.force();
+
+        // The old file must be released before it is replaced (Windows)
+        release();
+
+        try
+        {
+            Files.move( tmp ,
+                        path ,
+                        StandardCopyOption.REPLACE_EXISTING ,
+                        StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( final IOException ex )
+        {
+            FilesHelper.unmap( grown );
+            grownChannel.close();
+            Files.deleteIfExists( tmp );
+
+            // The old file is still complete
+            open();
+
+            throw ex;
+        }
+
+        // The channel follows the moved file
+        channel = grownChannel;
+        buffer = grown;
+        capacity = newCapacity;
+    }
+
+    /**
+     * Release the mapping and close the file.
+     */
+    private void release()
+        throws IOException
+    {
+        FilesHelper.unmap( buffer );
+        buffer = null;
+
+        if ( channel != null )
+        {
+            try
+            {
+                channel.close();
+            }
+            finally
+            {
+                channel = null;
+            }
+        }
+    }
+}
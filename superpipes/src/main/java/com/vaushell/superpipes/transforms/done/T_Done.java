@@ -20,27 +20,49 @@
 package com.vaushell.superpipes.transforms.done;
 
 import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.dispatch.Scheduler;
+import com.vaushell.superpipes.dispatch.Tags;
+import com.vaushell.superpipes.tools.hash.Murmur3;
 import com.vaushell.superpipes.transforms.A_Transform;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.charset.Charset;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.joda.time.Duration;
+import org.joda.time.ReadableInstant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Filter already known message by ID.
  *
+ * IDs are 128 bits MurmurHash3 of the fields, streamed without building a String. They are written in a journal
+ * (ids.dat, 1 line per message) and kept in a memory-mapped hash table (ids.idx). At startup, the table is mapped and
+ * only the end of the journal, not yet in the table, is read. If the table is missing or broken, it is rebuilt from
+ * the journal.
+ *
+ * IDs of the previous versions are MD5 hashes of a String (done.dat). They can't be converted to the new IDs, so these
+ * files are still read: an unknown message is also searched by its MD5 ID. If it's found, its new ID is learned. The
+ * files are deleted 'legacy-expire' milliseconds after their last write (90 days by default).
+ *
+ * The journal stays open. Lines are written every 'flush-records' messages and/or every 'flush-interval' milliseconds.
+ *
+ * With 'expire', IDs are forgotten when they are not seen during this time. IDs are stored in generations (a journal
+ * and a table per period: ids-<start>.dat and ids-<start>.idx). The oldest generation is deleted when it is beyond
+ * the horizon. A Bloom filter in front of the generations answers for the new IDs.
+ *
  * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
  */
 public class T_Done
@@ -51,43 +73,104 @@ public class T_Done
     {
         super();
 
-        this.ids = new HashSet<>();
+        this.generations = new ArrayList<>();
+        this.legacy = new ArrayList<>();
+        this.legacyUntil = Long.MIN_VALUE;
+        this.hasher = new Murmur3();
+        this.active = null;
+        this.bloom = null;
+        this.flushTask = null;
         this.fields = new ArrayList<>();
     }
 
+    /**
+     * The done table is in the files of the node: the instances would share it.
+     *
+     * @return false
+     */
+    @Override
+    public boolean isStateless()
+    {
+        return false;
+    }
+
     @Override
     public void prepare()
         throws IOException
     {
         // Config
-        path = getNode().getDispatcher().getDatas().resolve( Paths.get( getNode().getNodeID() ,
-                                                                        "done.dat" ) );
+        directory = getNode().getDispatcher().getDatas().resolve( getNode().getNodeID() );
 
-        Files.createDirectories( path.getParent() );
+        Files.createDirectories( directory );
 
-        // Load previous ID
-        if ( Files.exists( path ) )
+        final long flushInterval = getProperties().getConfigDuration( "flush-interval" ,
+                                                                      new Duration( 0L ) ).getMillis();
+        if ( flushInterval > 0L )
         {
-            try( final BufferedReader bfr = Files.newBufferedReader( path ,
-                                                                     Charset.forName( "utf-8" ) ) )
-            {
-                String line = bfr.readLine();
-                while ( line != null )
-                {
-                    final int ind = line.indexOf( ' ' );
-                    if ( ind < 0 )
-                    {
-                        ids.add( line );
-                    }
-                    else
-                    {
-                        ids.add( line.substring( 0 ,
-                                                 ind ) );
-                    }
+            flushRecords = getProperties().getConfigInteger( "flush-records" ,
+                                                             Integer.MAX_VALUE );
+        }
+        else
+        {
+            flushRecords = getProperties().getConfigInteger( "flush-records" ,
+                                                             1 );
+        }
 
-                    line = bfr.readLine();
-                }
+        if ( flushRecords <= 0 )
+        {
+            throw new IllegalArgumentException( "Property 'flush-records' must be >0" );
+        }
+
+        expire = getProperties().getConfigDuration( "expire" ,
+                                                    new Duration( 0L ) ).getMillis();
+        if ( expire > 0L )
+        {
+            final int generationsCount = getProperties().getConfigInteger( "expire-generations" ,
+                                                                           DEFAULT_GENERATIONS );
+            if ( generationsCount <= 0 || expire < generationsCount )
+            {
+                throw new IllegalArgumentException( "Property 'expire-generations' must be >0 and <=expire" );
             }
+
+            generationLength = expire / generationsCount;
+        }
+
+        // Load previous ID
+        final long now = getNode().getClock().currentTimeMillis();
+
+        generations.clear();
+        openGenerations( PREFIX ,
+                         generations ,
+                         true ,
+                         now );
+
+        legacy.clear();
+        openGenerations( LEGACY_PREFIX ,
+                         legacy ,
+                         false ,
+                         now );
+
+        final Duration legacyExpire = getProperties().getConfigDuration( "legacy-expire" ,
+                                                                         DEFAULT_LEGACY_EXPIRE );
+        legacyUntil = Long.MIN_VALUE;
+        for ( final DoneGeneration generation : legacy )
+        {
+            legacyUntil = Math.max( legacyUntil ,
+                                    generation.getLastModified() + legacyExpire.getMillis() );
+        }
+
+        deleteLegacyIfExpired( now );
+
+        active = null;
+        if ( expire > 0L )
+        {
+            rotate( now );
+
+            rebuildBloom();
+        }
+        else
+        {
+            active = generations.get( generations.size() - 1 );
         }
 
         // Load fields list
@@ -104,6 +187,31 @@ public class T_Done
                 }
             }
         }
+
+        // Periodic flush
+        if ( flushInterval > 0L )
+        {
+            flushTask = getNode().getDispatcher().getScheduler().getExecutor( Scheduler.Pool.IO ).scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            active.flush();
+                        }
+                        catch( final IOException ex )
+                        {
+                            LOGGER.error( "[" + getNode().getNodeID() + "/" + T_Done.class.getSimpleName() + "] cannot flush the journal" ,
+                                          ex );
+                        }
+                    }
+                } ,
+                flushInterval ,
+                flushInterval ,
+                TimeUnit.MILLISECONDS );
+        }
     }
 
     @Override
@@ -116,48 +224,245 @@ public class T_Done
                 formatSimple( message ) );
         }
 
-        final String ID = buildID( message ,
-                                   fields );
-        if ( ids.contains( ID ) )
+        final List<Message> results = transformBatch( Collections.singletonList( message ) );
+        if ( results.isEmpty() )
         {
             return null;
         }
 
-        // Save message ID. Won't be replay
-        ids.add( ID );
+        return results.get( 0 );
+    }
 
-        try( final BufferedWriter bfw = Files.newBufferedWriter( path ,
-                                                                 Charset.forName( "utf-8" ) ,
-                                                                 StandardOpenOption.APPEND ,
-                                                                 StandardOpenOption.CREATE ) )
+    @Override
+    public List<Message> transformBatch( final List<Message> messages )
+        throws Exception
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] transform batch : size=" + messages.
+                size() );
+        }
+
+        final long now = getNode().getClock().currentTimeMillis();
+        if ( expire > 0L )
         {
-            bfw.write( ID );
-            bfw.write( ' ' );
-            bfw.write( Message.formatSimple( message ) );
-            bfw.newLine();
+            rotate( now );
         }
 
-        return message;
+        deleteLegacyIfExpired( now );
+
+        final List<Message> results = new ArrayList<>( messages.size() );
+        for ( final Message message : messages )
+        {
+            buildID( message );
+            final long high = hasher.getHigh();
+            final long low = hasher.getLow();
+
+            // Also filter duplicates inside the batch
+            if ( isKnown( high ,
+                          low ) )
+            {
+                if ( expire > 0L )
+                {
+                    // Seen again: keep it in the active generation
+                    active.add( high ,
+                                low ,
+                                message );
+                }
+            }
+            else
+            {
+                active.add( high ,
+                            low ,
+                            message );
+
+                if ( bloom != null )
+                {
+                    bloom.add( high ,
+                               low );
+                }
+
+                if ( !isKnownLegacy( message ) )
+                {
+                    results.add( message );
+                }
+            }
+        }
+
+        // Save messages ID. Won't be replay. At most 1 write for the batch.
+        active.commit();
+
+        if ( bloom != null && bloom.isFull() )
+        {
+            rebuildBloom();
+        }
+
+        return results;
     }
 
     @Override
     public void terminate()
+        throws IOException
     {
-        // Nothing
+        if ( flushTask != null )
+        {
+            flushTask.cancel( false );
+            flushTask = null;
+        }
+
+        IOException error = null;
+        for ( final List<DoneGeneration> list : Arrays.asList( generations ,
+                                                              legacy ) )
+        {
+            for ( final DoneGeneration generation : list )
+            {
+                try
+                {
+                    generation.close();
+                }
+                catch( final IOException ex )
+                {
+                    error = ex;
+                }
+            }
+        }
+
+        if ( error != null )
+        {
+            throw error;
+        }
     }
 
     // PRIVATE
     private static final Logger LOGGER = LoggerFactory.getLogger( T_Done.class );
-    private final HashSet<String> ids;
-    private Path path;
+    private static final int DEFAULT_GENERATIONS = 4;
+    private static final Duration DEFAULT_LEGACY_EXPIRE = new Duration( 90L * 24L * 60L * 60L * 1000L );
+    private static final int MIN_BLOOM_SIZE = 1024;
+    private static final String PREFIX = "ids";
+    private static final String LEGACY_PREFIX = "done";
+    private static final byte TYPE_CHARS = 1;
+    private static final byte TYPE_TAGS = 2;
+    private static final byte TYPE_INSTANT = 3;
+    private static final byte TYPE_INTEGER = 4;
+    private static final byte TYPE_BYTES = 5;
+    private static final byte TYPE_OTHER = 6;
+    private final List<DoneGeneration> generations;
+    private final List<DoneGeneration> legacy;
+    private long legacyUntil;
+    private final Murmur3 hasher;
+    private volatile DoneGeneration active;
+    private BloomFilter bloom;
+    private ScheduledFuture<?> flushTask;
+    private Path directory;
+    private int flushRecords;
+    private long expire;
+    private long generationLength;
     private final List<String> fields;
 
-    private String buildID( final Message message ,
-                            final Collection<String> keys )
+    /**
+     * Hash the fields (or all fields if none is found) of the message.
+     *
+     * @param message Message
+     */
+    private void buildID( final Message message )
     {
+        hasher.reset();
+
         if ( message.getPropertyCount() == 0 )
         {
-            return null;
+            return;
+        }
+
+        boolean found = false;
+        for ( final String key : fields )
+        {
+            if ( putField( message ,
+                           key ) )
+            {
+                found = true;
+            }
+        }
+
+        if ( !found )
+        {
+            for ( final String key : message.getKeys() )
+            {
+                putField( message ,
+                          key );
+            }
+        }
+    }
+
+    private boolean putField( final Message message ,
+                              final String key )
+    {
+        final Serializable value = message.getProperty( key );
+        if ( value == null )
+        {
+            return false;
+        }
+
+        hasher.putChar( '$' )
+            .putChars( key )
+            .putChar( '#' );
+
+        if ( value instanceof CharSequence )
+        {
+            hasher.putByte( TYPE_CHARS )
+                .putChars( (CharSequence) value );
+        }
+        else if ( value instanceof URI )
+        {
+            // URI caches its String
+            hasher.putByte( TYPE_CHARS )
+                .putChars( value.toString() );
+        }
+        else if ( value instanceof Tags )
+        {
+            hasher.putByte( TYPE_TAGS );
+            for ( final String tag : ( (Tags) value ).getAll() )
+            {
+                hasher.putChars( tag )
+                    .putChar( ',' );
+            }
+        }
+        else if ( value instanceof ReadableInstant )
+        {
+            hasher.putByte( TYPE_INSTANT )
+                .putLong( ( (ReadableInstant) value ).getMillis() );
+        }
+        else if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+        {
+            hasher.putByte( TYPE_INTEGER )
+                .putLong( ( (Number) value ).longValue() );
+        }
+        else if ( value instanceof byte[] )
+        {
+            hasher.putByte( TYPE_BYTES )
+                .putBytes( (byte[]) value );
+        }
+        else
+        {
+            hasher.putByte( TYPE_OTHER )
+                .putChars( value.toString() );
+        }
+
+        return true;
+    }
+
+    /**
+     * Build the ID of the previous versions: MD5 of a String.
+     *
+     * @param message Message
+     * @param keys Fields
+     * @return the ID
+     */
+    private static byte[] buildLegacyID( final Message message ,
+                                         final Collection<String> keys )
+    {
+        if ( message.getPropertyCount() == 0 )
+        {
+            return DigestUtils.md5( "" );
         }
 
         final StringBuilder sb = new StringBuilder();
@@ -176,12 +481,315 @@ public class T_Done
 
         if ( sb.length() <= 0 )
         {
-            return buildID( message ,
-                            message.getKeys() );
+            return buildLegacyID( message ,
+                                  message.getKeys() );
+        }
+        else
+        {
+            return DigestUtils.md5( sb.toString() );
+        }
+    }
+
+    private static long readLong( final byte[] bytes ,
+                                  final int offset )
+    {
+        long value = 0L;
+        for ( int i = offset ; i < offset + 8 ; ++i )
+        {
+            value = ( value << 8 ) | ( bytes[ i] & 0xFFL );
+        }
+
+        return value;
+    }
+
+    private boolean isKnown( final long high ,
+                             final long low )
+    {
+        if ( bloom != null && !bloom.mightContain( high ,
+                                                   low ) )
+        {
+            return false;
+        }
+
+        // Newest first
+        for ( int i = generations.size() - 1 ; i >= 0 ; --i )
+        {
+            if ( generations.get( i ).contains( high ,
+                                                low ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Search the message in the files of the previous versions.
+     *
+     * @param message Message
+     * @return true if the message is known
+     */
+    private boolean isKnownLegacy( final Message message )
+    {
+        if ( legacy.isEmpty() )
+        {
+            return false;
+        }
+
+        final byte[] ID = buildLegacyID( message ,
+                                         fields );
+        final long high = readLong( ID ,
+                                    0 );
+        final long low = readLong( ID ,
+                                   8 );
+
+        for ( int i = legacy.size() - 1 ; i >= 0 ; --i )
+        {
+            if ( legacy.get( i ).contains( high ,
+                                           low ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Open the generations which are not expired.
+     *
+     * @param prefix Files prefix
+     * @param target Opened generations, oldest first
+     * @param create Create the generation of the mode without expiry
+     * @param now Actual time
+     */
+    private void openGenerations( final String prefix ,
+                                  final List<DoneGeneration> target ,
+                                  final boolean create ,
+                                  final long now )
+        throws IOException
+    {
+        final Path single = getJournalPath( prefix ,
+                                            null );
+        if ( expire > 0L && Files.exists( single ) )
+        {
+            // Files of the mode without expiry become a generation
+            final long start = alignStart( Files.getLastModifiedTime( single ).toMillis() );
+
+            Files.move( single ,
+                        getJournalPath( prefix ,
+                                        start ) ,
+                        StandardCopyOption.REPLACE_EXISTING );
+
+            final Path singleTable = getTablePath( prefix ,
+                                                   null );
+            if ( Files.exists( singleTable ) )
+            {
+                Files.move( singleTable ,
+                            getTablePath( prefix ,
+                                          start ) ,
+                            StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+
+        final TreeSet<Long> starts = new TreeSet<>();
+        try( final DirectoryStream<Path> stream = Files.newDirectoryStream( directory ,
+                                                                            prefix + "-*.{dat,idx}" ) )
+        {
+            for ( final Path p : stream )
+            {
+                final String name = p.getFileName().toString();
+                try
+                {
+                    starts.add( Long.parseLong( name.substring( prefix.length() + 1 ,
+                                                                name.length() - 4 ) ) );
+                }
+                catch( final NumberFormatException ex )
+                {
+                    // Not a generation
+                }
+            }
+        }
+
+        for ( final long start : starts )
+        {
+            final DoneGeneration generation = new DoneGeneration( getJournalPath( prefix ,
+                                                                                  start ) ,
+                                                                  getTablePath( prefix ,
+                                                                                start ) ,
+                                                                  start );
+            if ( expire > 0L && isExpired( start ,
+                                           now ) )
+            {
+                generation.delete();
+            }
+            else
+            {
+                generation.open( flushRecords );
+                target.add( generation );
+            }
+        }
+
+        // Without expiry, the last generation is the single one
+        if ( expire <= 0L && ( create || Files.exists( single ) ) )
+        {
+            final DoneGeneration generation = new DoneGeneration( single ,
+                                                                  getTablePath( prefix ,
+                                                                                null ) ,
+                                                                  Long.MAX_VALUE );
+            generation.open( flushRecords );
+            target.add( generation );
+        }
+    }
+
+    /**
+     * Start a new generation if the period of the active one is over, and delete the expired ones.
+     *
+     * @param now Actual time
+     */
+    private void rotate( final long now )
+        throws IOException
+    {
+        final long start = alignStart( now );
+        if ( active != null && active.getStart() >= start )
+        {
+            return;
+        }
+
+        if ( active != null )
+        {
+            active.flush();
+        }
+
+        final DoneGeneration last;
+        if ( generations.isEmpty() )
+        {
+            last = null;
         }
         else
         {
-            return DigestUtils.md5Hex( sb.toString() );
+            last = generations.get( generations.size() - 1 );
+        }
+
+        if ( last != null && last.getStart() >= start )
+        {
+            // Clock went back: keep the last one
+            active = last;
+        }
+        else
+        {
+            final DoneGeneration generation = new DoneGeneration( getJournalPath( PREFIX ,
+                                                                                  start ) ,
+                                                                  getTablePath( PREFIX ,
+                                                                                start ) ,
+                                                                  start );
+            generation.open( flushRecords );
+            generations.add( generation );
+
+            active = generation;
+        }
+
+        boolean removed = false;
+        while ( generations.size() > 1 && isExpired( generations.get( 0 ).getStart() ,
+                                                     now ) )
+        {
+            final DoneGeneration expired = generations.remove( 0 );
+            expired.delete();
+
+            if ( LOGGER.isTraceEnabled() )
+            {
+                LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] delete expired generation " + expired.
+                    getStart() );
+            }
+
+            removed = true;
+        }
+
+        while ( !legacy.isEmpty() && isExpired( legacy.get( 0 ).getStart() ,
+                                                now ) )
+        {
+            legacy.remove( 0 ).delete();
+        }
+
+        if ( removed && bloom != null )
+        {
+            rebuildBloom();
+        }
+    }
+
+    /**
+     * Delete the files of the previous versions after the cutoff.
+     *
+     * @param now Actual time
+     * @throws IOException
+     */
+    private void deleteLegacyIfExpired( final long now )
+        throws IOException
+    {
+        if ( legacy.isEmpty() || now < legacyUntil )
+        {
+            return;
         }
+
+        if ( LOGGER.isInfoEnabled() )
+        {
+            LOGGER.info( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] delete the IDs of the previous versions" );
+        }
+
+        for ( final DoneGeneration generation : legacy )
+        {
+            generation.delete();
+        }
+        legacy.clear();
+    }
+
+    private void rebuildBloom()
+    {
+        int size = 0;
+        for ( final DoneGeneration generation : generations )
+        {
+            size += generation.size();
+        }
+
+        bloom = new BloomFilter( Math.max( MIN_BLOOM_SIZE ,
+                                           size * 2 ) );
+        for ( final DoneGeneration generation : generations )
+        {
+            generation.addTo( bloom );
+        }
+    }
+
+    private long alignStart( final long time )
+    {
+        return time - ( time % generationLength );
+    }
+
+    private boolean isExpired( final long start ,
+                               final long now )
+    {
+        return start + generationLength <= now - expire;
+    }
+
+    private Path getJournalPath( final String prefix ,
+                                 final Long start )
+    {
+        if ( start == null )
+        {
+            return directory.resolve( prefix + ".dat" );
+        }
+
+        return directory.resolve( prefix + "-" + start + ".dat" );
+    }
+
+    private Path getTablePath( final String prefix ,
+                               final Long start )
+    {
+        if ( start == null )
+        {
+            return directory.resolve( prefix + ".idx" );
+        }
+
+        return directory.resolve( prefix + "-" + start + ".idx" );
     }
 }
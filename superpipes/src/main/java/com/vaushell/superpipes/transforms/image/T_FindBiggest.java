@@ -20,13 +20,13 @@
 package com.vaushell.superpipes.transforms.image;
 
 import com.vaushell.superpipes.dispatch.Message;
-import com.vaushell.superpipes.tools.HTTPhelper;
 import com.vaushell.superpipes.tools.http.ImageExtractor;
 import com.vaushell.superpipes.transforms.A_Transform;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
@@ -53,9 +53,12 @@ public class T_FindBiggest
     public void prepare()
         throws Exception
     {
-        this.client = HTTPhelper.createBuilder().build();
+        this.client = getNode().getDispatcher().getHTTPclientPool().getClient();
 
-        this.extractor = new ImageExtractor( this.client );
+        this.extractor = new ImageExtractor( this.client ,
+                                             getNode().getDispatcher().getHTTPclientPool().getAsyncClient() ,
+                                             getProperties().getConfigInteger( "probe-size" ,
+                                                                               0 ) );
     }
 
     @Override
@@ -104,14 +107,28 @@ public class T_FindBiggest
         return message;
     }
 
+    @Override
+    public Future<Message> transformAsync( final Message message )
+    {
+        return transformOnIO( message );
+    }
+
+    /**
+     * The extractor and the HTTP clients are shared between the I/O threads.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     public void terminate()
-        throws IOException
+        throws Exception
     {
-        if ( client != null )
-        {
-            client.close();
-        }
+        // Nothing: the client is shared
     }
 
     // PRIVATE
@@ -20,13 +20,27 @@
 package com.vaushell.superpipes.transforms.uri;
 
 import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.dispatch.Scheduler;
 import com.vaushell.superpipes.tools.HTTPhelper;
 import com.vaushell.superpipes.tools.retry.A_Retry;
 import com.vaushell.superpipes.tools.retry.RetryException;
 import com.vaushell.superpipes.transforms.A_Transform;
 import java.io.IOException;
+import java.net.ConnectException;
 import java.net.URI;
-import org.apache.http.impl.client.CloseableHttpClient;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +48,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Check if the URI exists.
  *
+ * The URI is asked with HEAD (or with a GET of the first byte if the server rejects HEAD). Verdicts are cached per URI
+ * and per host: an unreachable host (unknown, or refusing the connection) isn't asked again for its other URIs. A
+ * timeout only makes its URI invalid.
+ *
  * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
  */
 public class T_CheckURI
@@ -45,13 +63,28 @@ public class T_CheckURI
         super();
 
         this.client = null;
+        this.verdicts = null;
     }
 
     @Override
     public void prepare()
         throws Exception
     {
-        this.client = HTTPhelper.createBuilder().build();
+        this.client = getNode().getDispatcher().getHTTPclientPool().getAsyncClient();
+
+        this.verdicts = new URIverdictCache( getProperties().getConfigInteger( "cache-size" ,
+                                                                               10_000 ) ,
+                                             getProperties().getConfigDuration( "valid-ttl" ,
+                                                                                new Duration( 60L * 60L * 1000L ) ).
+                                             getMillis() ,
+                                             getProperties().getConfigDuration( "invalid-ttl" ,
+                                                                                new Duration( 10L * 60L * 1000L ) ).
+                                             getMillis() ,
+                                             getProperties().getConfigBoolean( "trust-hosts" ,
+                                                                               Boolean.FALSE ) ,
+                                             getProperties().getConfigBoolean( "skip-unreachable-hosts" ,
+                                                                               Boolean.TRUE ) ,
+                                             getNode().getClock() );
     }
 
     @Override
@@ -71,66 +104,453 @@ public class T_CheckURI
         }
 
         final URI uri = (URI) message.getProperty( Message.KeyIndex.URI );
+        if ( isValid( uri ) )
+        {
+            return message;
+        }
+        else
+        {
+            return null;
+        }
+    }
 
-        try
+    @Override
+    public List<Message> transformBatch( final List<Message> messages )
+        throws Exception
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] transform batch : size=" + messages.
+                size() );
+        }
+
+        // Each URI is checked only 1 time per batch, and all URIs at the same time
+        final Map<URI , Future<Integer>> checks = new HashMap<>();
+        for ( final Message message : messages )
         {
-            new A_Retry<Void>()
+            if ( message.contains( Message.KeyIndex.URI ) )
             {
-                @Override
-                protected Void executeContent()
-                    throws IOException
+                final URI uri = (URI) message.getProperty( Message.KeyIndex.URI );
+                if ( !checks.containsKey( uri ) && verdicts.get( uri ) == null )
                 {
-                    if ( HTTPhelper.isURIvalid( client ,
-                                                uri ,
-                                                getProperties().getConfigDuration( "timeout" ,
-                                                                                   new Duration( 20L * 1000L ) ) ) )
-                    {
-                        return null;
-                    }
-                    else
-                    {
-                        throw new IOException( "Cannot validate URI=" + uri );
-                    }
+                    checks.put( uri ,
+                                HTTPhelper.getStatusCodeAsync( client ,
+                                                               uri ,
+                                                               getTimeout() ,
+                                                               null ) );
                 }
             }
-                .setRetry( getProperties().getConfigInteger( "retry" ,
-                                                             3 ) )
-                .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
-                                                                 new Duration( 2000L ) ) )
-                .setWaitTimeMultiplier( getProperties().getConfigDouble( "wait-time-multiplier" ,
-                                                                         2.0 ) )
-                .setJitterRange( getProperties().getConfigInteger( "jitter-range" ,
-                                                                   500 ) )
-                .setMaxDuration( getProperties().getConfigDuration( "max-duration" ,
-                                                                    new Duration( 10_000L ) ) )
-                .execute();
+        }
 
-            return message;
+        final Map<URI , Boolean> checked = new HashMap<>();
+
+        final List<Message> results = new ArrayList<>( messages.size() );
+        for ( final Message message : messages )
+        {
+            if ( message.contains( Message.KeyIndex.URI ) )
+            {
+                final URI uri = (URI) message.getProperty( Message.KeyIndex.URI );
+
+                Boolean valid = checked.get( uri );
+                if ( valid == null )
+                {
+                    valid = isValid( uri ,
+                                     checks.get( uri ) );
+
+                    checked.put( uri ,
+                                 valid );
+                }
+
+                if ( valid )
+                {
+                    results.add( message );
+                }
+            }
         }
-        catch( final RetryException ex )
+
+        return results;
+    }
+
+    /**
+     * The checks don't hold a thread: they're done by the asynchronous HTTP client. The retries are scheduled after
+     * their wait time.
+     *
+     * @param message the Message
+     * @return the future Message (or null)
+     */
+    @Override
+    public Future<Message> transformAsync( final Message message )
+    {
+        final BasicFuture<Message> future = new BasicFuture<>( new FutureCallback<Message>()
         {
-            if ( LOGGER.isTraceEnabled() )
+            @Override
+            public void completed( final Message result )
             {
-                LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] Invalid URI : " + uri.
-                    toString() ,
-                              ex );
+                getNode().wakeUp();
             }
 
-            return null;
+            @Override
+            public void failed( final Exception ex )
+            {
+                getNode().wakeUp();
+            }
+
+            @Override
+            public void cancelled()
+            {
+                getNode().wakeUp();
+            }
+        } );
+
+        if ( !message.contains( Message.KeyIndex.URI ) )
+        {
+            future.completed( null );
+
+            return future;
+        }
+
+        final URI uri = (URI) message.getProperty( Message.KeyIndex.URI );
+
+        final Boolean cached = verdicts.get( uri );
+        if ( cached != null )
+        {
+            if ( cached )
+            {
+                future.completed( message );
+            }
+            else
+            {
+                future.completed( null );
+            }
+
+            return future;
         }
+
+        checkAsync( message ,
+                    uri ,
+                    future ,
+                    newRetry( uri ).start() );
+
+        return future;
     }
 
     @Override
     public void terminate()
-        throws IOException
+        throws Exception
+    {
+        // Nothing: the client is shared
+    }
+
+    // DEFAULT
+    /**
+     * Is the error a failure to reach the host (unknown host, or connection refused) ? A timeout isn't: the host could
+     * be slow for this URI only.
+     *
+     * @param error Error (and its causes)
+     * @return true if the host is unreachable
+     */
+    static boolean isUnreachable( final Throwable error )
     {
-        if ( client != null )
+        Throwable cause = error;
+        while ( cause != null )
         {
-            client.close();
+            if ( cause instanceof UnknownHostException || cause instanceof ConnectException )
+            {
+                return true;
+            }
+
+            cause = cause.getCause();
         }
+
+        return false;
     }
 
     // PRIVATE
     private static final Logger LOGGER = LoggerFactory.getLogger( T_CheckURI.class );
-    private CloseableHttpClient client;
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private CloseableHttpAsyncClient client;
+    private URIverdictCache verdicts;
+
+    private Duration getTimeout()
+    {
+        return getProperties().getConfigDuration( "timeout" ,
+                                                  new Duration( 20L * 1000L ) );
+    }
+
+    /**
+     * Server errors could be temporary.
+     *
+     * @param statusCode HTTP response code
+     * @return true if the check must be retried
+     */
+    private static boolean isTemporary( final int statusCode )
+    {
+        return statusCode >= 500 || statusCode == SC_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Keep the verdict of a final response code.
+     *
+     * @param uri URI
+     * @param statusCode HTTP response code
+     * @return true if valid
+     */
+    private boolean verdict( final URI uri ,
+                             final int statusCode )
+    {
+        if ( statusCode >= 200 && statusCode < 300 )
+        {
+            verdicts.putValid( uri );
+
+            return true;
+        }
+
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] Invalid URI : " + uri.
+                toString() + " (status " + statusCode + ")" );
+        }
+
+        verdicts.putInvalid( uri );
+
+        return false;
+    }
+
+    /**
+     * Check a URI with the asynchronous HTTP client.
+     *
+     * @param message the Message
+     * @param uri URI of the message
+     * @param future the future Message
+     * @param retry Tries of this check
+     */
+    private void checkAsync( final Message message ,
+                             final URI uri ,
+                             final BasicFuture<Message> future ,
+                             final A_Retry<Integer> retry )
+    {
+        HTTPhelper.getStatusCodeAsync( client ,
+                                       uri ,
+                                       getTimeout() ,
+                                       new FutureCallback<Integer>()
+                                       {
+                                           @Override
+                                           public void completed( final Integer statusCode )
+                                           {
+                                               if ( isTemporary( statusCode ) )
+                                               {
+                                                   retryLater( message ,
+                                                               uri ,
+                                                               future ,
+                                                               retry ,
+                                                               new HttpResponseException( statusCode ,
+                                                                                          "Cannot validate URI=" + uri ) );
+                                               }
+                                               else if ( verdict( uri ,
+                                                                  statusCode ) )
+                                               {
+                                                   future.completed( message );
+                                               }
+                                               else
+                                               {
+                                                   future.completed( null );
+                                               }
+                                           }
+
+                                           @Override
+                                           public void failed( final Exception ex )
+                                           {
+                                               retryLater( message ,
+                                                           uri ,
+                                                           future ,
+                                                           retry ,
+                                                           ex );
+                                           }
+
+                                           @Override
+                                           public void cancelled()
+                                           {
+                                               future.cancel( true );
+                                           }
+                                       } );
+    }
+
+    /**
+     * Schedule the next check after its wait time. No thread waits meanwhile.
+     *
+     * @param message the Message
+     * @param uri URI of the message
+     * @param future the future Message
+     * @param retry Tries of this check
+     * @param error Error of the last check
+     */
+    private void retryLater( final Message message ,
+                             final URI uri ,
+                             final BasicFuture<Message> future ,
+                             final A_Retry<Integer> retry ,
+                             final Throwable error )
+    {
+        final long wait;
+        try
+        {
+            wait = retry.failed( error );
+        }
+        catch( final RetryException ex )
+        {
+            giveUp( uri ,
+                    ex );
+
+            future.completed( null );
+
+            return;
+        }
+
+        try
+        {
+            final ScheduledExecutorService executor = getNode().getDispatcher().getScheduler().getExecutor(
+                Scheduler.Pool.IO );
+
+            executor.schedule( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    checkAsync( message ,
+                                uri ,
+                                future ,
+                                retry );
+                }
+            } ,
+                               getNode().getClock().elapse( wait ) ,
+                               TimeUnit.MILLISECONDS );
+        }
+        catch( final RejectedExecutionException ex )
+        {
+            // The pool stops
+            future.failed( ex );
+        }
+    }
+
+    private boolean isValid( final URI uri )
+        throws Exception
+    {
+        return isValid( uri ,
+                        null );
+    }
+
+    /**
+     * Check a URI.
+     *
+     * @param uri URI
+     * @param firstCheck Future response code of a first check already sent (could be null)
+     * @return true if valid
+     * @throws Exception
+     */
+    private boolean isValid( final URI uri ,
+                             final Future<Integer> firstCheck )
+        throws Exception
+    {
+        final Boolean cached = verdicts.get( uri );
+        if ( cached != null )
+        {
+            return cached;
+        }
+
+        if ( firstCheck != null )
+        {
+            try
+            {
+                final int statusCode = HTTPhelper.getResult( firstCheck );
+                if ( !isTemporary( statusCode ) )
+                {
+                    return verdict( uri ,
+                                    statusCode );
+                }
+            }
+            catch( final IOException ex )
+            {
+                // Retry
+            }
+        }
+
+        try
+        {
+            final int statusCode = newRetry( uri ).execute();
+
+            return verdict( uri ,
+                            statusCode );
+        }
+        catch( final RetryException ex )
+        {
+            giveUp( uri ,
+                    ex );
+
+            return false;
+        }
+    }
+
+    /**
+     * Tries of a check, configured by the parameters.
+     *
+     * @param uri URI
+     * @return the tries
+     */
+    private A_Retry<Integer> newRetry( final URI uri )
+    {
+        return new A_Retry<Integer>()
+        {
+            @Override
+            protected Integer executeContent()
+                throws IOException
+            {
+                final int statusCode = HTTPhelper.getStatusCode( client ,
+                                                                 uri ,
+                                                                 getTimeout() );
+                if ( isTemporary( statusCode ) )
+                {
+                    throw new HttpResponseException( statusCode ,
+                                                     "Cannot validate URI=" + uri );
+                }
+
+                return statusCode;
+            }
+        }
+            .setClock( getNode().getClock() )
+            .setRetry( getProperties().getConfigInteger( "retry" ,
+                                                         3 ) )
+            .setWaitTime( getProperties().getConfigDuration( "wait-time" ,
+                                                             new Duration( 2000L ) ) )
+            .setWaitTimeMultiplier( getProperties().getConfigDouble( "wait-time-multiplier" ,
+                                                                     2.0 ) )
+            .setJitterRange( getProperties().getConfigInteger( "jitter-range" ,
+                                                               500 ) )
+            .setMaxDuration( getProperties().getConfigDuration( "max-duration" ,
+                                                                new Duration( 10_000L ) ) );
+    }
+
+    /**
+     * No more tries: keep the verdict of the last error.
+     *
+     * @param uri URI
+     * @param ex Error
+     */
+    private void giveUp( final URI uri ,
+                         final RetryException ex )
+    {
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] Invalid URI : " + uri.
+                toString() ,
+                          ex );
+        }
+
+        if ( isUnreachable( ex ) )
+        {
+            verdicts.putUnreachable( uri );
+        }
+        else
+        {
+            verdicts.putInvalid( uri );
+        }
+    }
 }
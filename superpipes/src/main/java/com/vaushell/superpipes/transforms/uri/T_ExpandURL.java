@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.uri;
+
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.tools.HTTPhelper;
+import com.vaushell.superpipes.tools.http.RedirectCache;
+import com.vaushell.superpipes.transforms.A_Transform;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expand the URLs (i.e. shorten URLs) inside the content and the description of the message.
+ *
+ * The URLs of a message are resolved together, by the asynchronous HTTP client. Resolutions are kept in a cache (failures too, for a while).
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class T_ExpandURL
+    extends A_Transform
+{
+    // PUBLIC
+    public T_ExpandURL()
+    {
+        super();
+
+        this.client = null;
+        this.cache = null;
+        this.cachePath = null;
+    }
+
+    @Override
+    public void prepare()
+        throws Exception
+    {
+        this.client = getNode().getDispatcher().getHTTPclientPool().getAsyncClient();
+
+        this.cache = new RedirectCache( getProperties().getConfigInteger( "cache-size" ,
+                                                                          10_000 ) ,
+                                        getProperties().getConfigDuration( "negative-ttl" ,
+                                                                           new Duration( 60L * 60L * 1000L ) ) ,
+                                        getNode().getClock() );
+
+        if ( getProperties().getConfigBoolean( "persist" ,
+                                               Boolean.FALSE ) )
+        {
+            final Path directory = getNode().getDispatcher().getDatas().resolve( getNode().getNodeID() );
+
+            Files.createDirectories( directory );
+
+            cachePath = directory.resolve( "redirects.dat" );
+
+            cache.load( cachePath );
+        }
+    }
+
+    @Override
+    public Message transform( final Message message )
+        throws Exception
+    {
+        // Receive
+        if ( LOGGER.isTraceEnabled() )
+        {
+            LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] transform message : " + Message.
+                formatSimple( message ) );
+        }
+
+        for ( final Message.KeyIndex key : KEYS )
+        {
+            if ( message.contains( key ) )
+            {
+                final String text = (String) message.getProperty( key );
+
+                message.setProperty( key ,
+                                     expand( text ) );
+            }
+        }
+
+        return message;
+    }
+
+    @Override
+    public Future<Message> transformAsync( final Message message )
+    {
+        return transformOnIO( message );
+    }
+
+    /**
+     * The HTTP client and the cache are shared between the I/O threads.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+
+    @Override
+    public void terminate()
+        throws Exception
+    {
+        if ( cachePath != null )
+        {
+            cache.save( cachePath );
+        }
+    }
+
+    // PRIVATE
+    private static final Logger LOGGER = LoggerFactory.getLogger( T_ExpandURL.class );
+    private static final Message.KeyIndex[] KEYS = new Message.KeyIndex[]
+    {
+        Message.KeyIndex.CONTENT ,
+        Message.KeyIndex.DESCRIPTION
+    };
+    private CloseableHttpAsyncClient client;
+    private RedirectCache cache;
+    private Path cachePath;
+
+    private String expand( final String text )
+        throws InterruptedException
+    {
+        final Map<String , String> replacements = new HashMap<>();
+        final Map<String , Future<URI>> resolutions = new HashMap<>();
+
+        // Cached URLs first, then all unknown URLs at the same time
+        for ( final String url : HTTPhelper.findURLs( text ) )
+        {
+            final RedirectCache.Entry entry = cache.get( url );
+            if ( entry == null )
+            {
+                try
+                {
+                    resolutions.put( url ,
+                                     HTTPhelper.resolveRedirectAsync( client ,
+                                                                      URI.create( url ) ,
+                                                                      null ) );
+                }
+                catch( final IllegalArgumentException ex )
+                {
+                    cache.putFailure( url );
+                }
+            }
+            else if ( !entry.isFailed() )
+            {
+                replacements.put( url ,
+                                  entry.getTarget() );
+            }
+        }
+
+        for ( final Map.Entry<String , Future<URI>> resolution : resolutions.entrySet() )
+        {
+            final String url = resolution.getKey();
+
+            try
+            {
+                final String target = resolution.getValue().get().toString();
+
+                cache.putTarget( url ,
+                                 target );
+
+                replacements.put( url ,
+                                  target );
+            }
+            catch( final ExecutionException ex )
+            {
+                if ( LOGGER.isTraceEnabled() )
+                {
+                    LOGGER.trace( "[" + getNode().getNodeID() + "/" + getClass().getSimpleName() + "] Cannot expand URL : " + url ,
+                                  ex.getCause() );
+                }
+
+                cache.putFailure( url );
+            }
+        }
+
+        return HTTPhelper.replaceURLs( text ,
+                                       replacements );
+    }
+}
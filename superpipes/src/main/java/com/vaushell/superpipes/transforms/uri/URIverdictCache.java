@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.uri;
+
+import com.vaushell.superpipes.tools.clock.A_Clock;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Verdicts of the URI checks, kept for a time to live (one for the valid URIs, one for the invalid URIs).
+ *
+ * Verdicts are kept per URI and per host: when the unreachable hosts are skipped, an unreachable host makes all its URIs
+ * invalid. When the hosts are trusted, a valid URI makes all the URIs of its host valid.
+ *
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+final class URIverdictCache
+{
+    // DEFAULT
+    /**
+     * Create a cache.
+     *
+     * @param capacity Maximum count of URIs and hosts
+     * @param validTTL Time to keep a valid verdict (in milliseconds)
+     * @param invalidTTL Time to keep an invalid verdict (in milliseconds)
+     * @param trustHosts Is a host valid when one of its URIs is valid ?
+     * @param skipUnreachableHosts Is a host invalid when it is unreachable ?
+     * @param clock Clock
+     */
+    URIverdictCache( final int capacity ,
+                     final long validTTL ,
+                     final long invalidTTL ,
+                     final boolean trustHosts ,
+                     final boolean skipUnreachableHosts ,
+                     final A_Clock clock )
+    {
+        if ( capacity <= 0 || validTTL < 0L || invalidTTL < 0L || clock == null )
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+        this.validTTL = validTTL;
+        this.invalidTTL = invalidTTL;
+        this.trustHosts = trustHosts;
+        this.skipUnreachableHosts = skipUnreachableHosts;
+        this.clock = clock;
+        this.verdicts = new LinkedHashMap<String , Verdict>( 16 ,
+                                                             0.75f ,
+                                                             true )
+        {
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String , Verdict> eldest )
+            {
+                return size() > URIverdictCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the verdict of a URI.
+     *
+     * @param uri URI
+     * @return true if valid, false if invalid, or null if unknown
+     */
+    synchronized Boolean get( final URI uri )
+    {
+        final long now = clock.currentTimeMillis();
+
+        final Boolean uriVerdict = get( uriKey( uri ) ,
+                                        now );
+        if ( uriVerdict != null )
+        {
+            return uriVerdict;
+        }
+
+        final Boolean hostVerdict = get( hostKey( uri ) ,
+                                         now );
+        if ( hostVerdict == null || hostVerdict && !trustHosts )
+        {
+            return null;
+        }
+
+        return hostVerdict;
+    }
+
+    /**
+     * The URI is valid (and so its host is reachable).
+     *
+     * @param uri URI
+     */
+    synchronized void putValid( final URI uri )
+    {
+        put( uriKey( uri ) ,
+             true );
+        put( hostKey( uri ) ,
+             true );
+    }
+
+    /**
+     * The URI is invalid, but its host answers.
+     *
+     * @param uri URI
+     */
+    synchronized void putInvalid( final URI uri )
+    {
+        put( uriKey( uri ) ,
+             false );
+    }
+
+    /**
+     * The host of the URI doesn't answer. The host is kept only if the unreachable hosts are skipped.
+     *
+     * @param uri URI
+     */
+    synchronized void putUnreachable( final URI uri )
+    {
+        put( uriKey( uri ) ,
+             false );
+
+        if ( skipUnreachableHosts )
+        {
+            put( hostKey( uri ) ,
+                 false );
+        }
+    }
+
+    synchronized int size()
+    {
+        return verdicts.size();
+    }
+
+    // PRIVATE
+    private final int capacity;
+    private final long validTTL;
+    private final long invalidTTL;
+    private final boolean trustHosts;
+    private final boolean skipUnreachableHosts;
+    private final A_Clock clock;
+    private final LinkedHashMap<String , Verdict> verdicts;
+
+    private static String uriKey( final URI uri )
+    {
+        return uri.toString();
+    }
+
+    private static String hostKey( final URI uri )
+    {
+        // Can't be confused with a URI key
+        final StringBuilder sb = new StringBuilder( "host " );
+
+        if ( uri.getHost() != null )
+        {
+            sb.append( uri.getHost().toLowerCase( Locale.ENGLISH ) );
+        }
+
+        if ( uri.getPort() >= 0 )
+        {
+            sb.append( ':' ).append( uri.getPort() );
+        }
+
+        return sb.toString();
+    }
+
+    private Boolean get( final String key ,
+                         final long now )
+    {
+        final Verdict verdict = verdicts.get( key );
+        if ( verdict == null )
+        {
+            return null;
+        }
+
+        final long ttl;
+        if ( verdict.valid )
+        {
+            ttl = validTTL;
+        }
+        else
+        {
+            ttl = invalidTTL;
+        }
+
+        if ( now - verdict.time >= ttl )
+        {
+            verdicts.remove( key );
+
+            return null;
+        }
+
+        return verdict.valid;
+    }
+
+    private void put( final String key ,
+                      final boolean valid )
+    {
+        verdicts.put( key ,
+                      new Verdict( valid ,
+                                   clock.currentTimeMillis() ) );
+    }
+
+    /**
+     * Verdict of a URI or a host.
+     */
+    private static final class Verdict
+    {
+        // PUBLIC
+        public Verdict( final boolean valid ,
+                        final long time )
+        {
+            this.valid = valid;
+            this.time = time;
+        }
+
+        // DEFAULT
+        final boolean valid;
+        final long time;
+    }
+}
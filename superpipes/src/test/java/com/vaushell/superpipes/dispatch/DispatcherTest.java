@@ -23,9 +23,26 @@ import com.vaushell.superpipes.nodes.A_Node;
 import com.vaushell.superpipes.nodes.dummy.N_Dummy;
 import com.vaushell.superpipes.nodes.stub.N_MessageLogger;
 import com.vaushell.superpipes.nodes.stub.N_NewsGenerator;
+import com.vaushell.superpipes.nodes.test.N_ReceiveBlocking;
 import com.vaushell.superpipes.transforms.A_Transform;
+import com.vaushell.superpipes.transforms.date.T_Date;
 import com.vaushell.superpipes.transforms.done.T_Done;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import static org.testng.AssertJUnit.*;
 import org.testng.annotations.Test;
 
@@ -177,4 +194,558 @@ public class DispatcherTest
                       "montest" ,
                       val );
     }
+
+    /**
+     * Test the compiled routes with a fan-out.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testFanOut()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+
+        final N_ReceiveBlocking receive1 = (N_ReceiveBlocking) dispatcher.addNode( "receive1" ,
+                                                                                   N_ReceiveBlocking.class ,
+                                                                                   ConfigProperties.EMPTY_COMMONS );
+
+        final N_ReceiveBlocking receive2 = (N_ReceiveBlocking) dispatcher.addNode( "receive2" ,
+                                                                                   N_ReceiveBlocking.class ,
+                                                                                   ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "dummy" ,
+                             "receive1" );
+        dispatcher.addRoute( "dummy" ,
+                             "receive2" );
+
+        dispatcher.start();
+
+        assertEquals( "Nodes should be indexed when the dispatcher starts" ,
+                      0 ,
+                      dummy.getNodeIndex() );
+
+        dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                              "fan-out" ) );
+
+        for ( final N_ReceiveBlocking receive : Arrays.asList( receive1 ,
+                                                               receive2 ) )
+        {
+            final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+            assertNotNull( "Message should be received by every destination" ,
+                           message );
+            assertEquals( "fan-out" ,
+                          message.getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test the transforms IN with a fan-out: each destination applies its own transforms, 1 time per message, and a
+     * filtered message is not delivered.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testFanOutTransformsIN()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+
+        final List<N_ReceiveBlocking> receives = new ArrayList<>();
+        final List<T_CountFilter> filters = new ArrayList<>();
+        for ( int i = 1 ; i <= 2 ; ++i )
+        {
+            final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.addNode( "receive" + i ,
+                                                                                      N_ReceiveBlocking.class ,
+                                                                                      ConfigProperties.EMPTY_COMMONS );
+            receives.add( receive );
+
+            filters.add( (T_CountFilter) receive.addTransformIN( T_CountFilter.class ,
+                                                                 ConfigProperties.EMPTY_COMMONS ) );
+
+            dispatcher.addRoute( "dummy" ,
+                                 "receive" + i );
+        }
+
+        dispatcher.start();
+
+        for ( final String title : Arrays.asList( "message 0" ,
+                                                  "filtered" ,
+                                                  "message 1" ) )
+        {
+            dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                  title ) );
+        }
+
+        for ( int r = 0 ; r < receives.size() ; ++r )
+        {
+            final N_ReceiveBlocking receive = receives.get( r );
+
+            for ( int i = 0 ; i < 2 ; ++i )
+            {
+                final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "Message " + i + " should be received" ,
+                               message );
+                assertEquals( "Filtered message should not be delivered" ,
+                              "message " + i ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertNull( "No more message" ,
+                        receive.getProcessingMessageOrWait( new Duration( 200L ) ) );
+
+            assertEquals( "Transforms IN should run 1 time per message and per destination" ,
+                          3 ,
+                          filters.get( r ).getCount() );
+        }
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test nodes executed by a shared pool.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSharedPool()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+        dummy.getProperties().setProperty( "executor" ,
+                                           "io" );
+
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.addNode( "receive" ,
+                                                                                  N_ReceiveBlocking.class ,
+                                                                                  ConfigProperties.EMPTY_COMMONS );
+        receive.getProperties().setProperty( "executor" ,
+                                             "cpu" );
+
+        dispatcher.addRoute( "dummy" ,
+                             "receive" );
+
+        dispatcher.start();
+
+        for ( int i = 0 ; i < 10 ; ++i )
+        {
+            dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                  "message " + i ) );
+        }
+
+        for ( int i = 0 ; i < 10 ; ++i )
+        {
+            final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+            assertNotNull( "Message " + i + " should be received" ,
+                           message );
+            assertEquals( "Messages should keep their order" ,
+                          "message " + i ,
+                          message.getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        assertFalse( "Node shouldn't have its own thread" ,
+                     dummy.isAlive() );
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test a producer and a consumer on a single thread pool, with a full blocking inbox. The slow consumer fills its
+     * inbox: the producer must not hold the thread while the inbox is full.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSharedPoolFullInbox()
+        throws Exception
+    {
+        final String xml = "<configuration>"
+                           + "<mailer><params><param name=\"anti-burst\" value=\"1000\" /></params></mailer>"
+                           + "<scheduler><params><param name=\"io-threads\" value=\"1\" /></params></scheduler>"
+                           + "<nodes>"
+                           + "<node id=\"dummy\" type=\"com.vaushell.superpipes.nodes.dummy.N_Dummy\">"
+                           + "<params><param name=\"executor\" value=\"io\" /></params>"
+                           + "</node>"
+                           + "<node id=\"receive\" type=\"com.vaushell.superpipes.nodes.test.N_ReceiveBlocking\">"
+                           + "<params>"
+                           + "<param name=\"executor\" value=\"io\" />"
+                           + "<param name=\"inbox-capacity\" value=\"2\" />"
+                           + "<param name=\"inbox-overflow\" value=\"block\" />"
+                           + "<param name=\"anti-burst\" value=\"5\" />"
+                           + "</params>"
+                           + "</node>"
+                           + "</nodes>"
+                           + "<routes><route source=\"dummy\" destination=\"receive\" /></routes>"
+                           + "</configuration>";
+
+        final XMLConfiguration config = new XMLConfiguration();
+        config.load( new ByteArrayInputStream( xml.getBytes( Charset.forName( "utf-8" ) ) ) );
+
+        final Path datas = Files.createTempDirectory( "dispatcher" );
+        try
+        {
+            final Dispatcher dispatcher = new Dispatcher();
+            dispatcher.init( config ,
+                             datas ,
+                             null );
+
+            final A_Node dummy = dispatcher.getNode( "dummy" );
+            final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.getNode( "receive" );
+
+            dispatcher.start();
+
+            for ( int i = 0 ; i < 100 ; ++i )
+            {
+                dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                      "message " + i ) );
+            }
+
+            for ( int i = 0 ; i < 100 ; ++i )
+            {
+                final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "Message " + i + " should be received" ,
+                               message );
+                assertEquals( "Messages should keep their order" ,
+                              "message " + i ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            dispatcher.stopAndWait();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+
+    /**
+     * Test a producer and a slow consumer on a single thread pool, with a full dropping inbox. The producer must never
+     * wait for the room: the consumer's inbox drops the messages.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSharedPoolDropInbox()
+        throws Exception
+    {
+        final String xml = "<configuration>"
+                           + "<mailer><params><param name=\"anti-burst\" value=\"1000\" /></params></mailer>"
+                           + "<scheduler><params><param name=\"io-threads\" value=\"1\" /></params></scheduler>"
+                           + "<nodes>"
+                           + "<node id=\"dummy\" type=\"com.vaushell.superpipes.nodes.dummy.N_Dummy\">"
+                           + "<params><param name=\"executor\" value=\"io\" /></params>"
+                           + "</node>"
+                           + "<node id=\"receive\" type=\"com.vaushell.superpipes.nodes.test.N_ReceiveBlocking\">"
+                           + "<params>"
+                           + "<param name=\"executor\" value=\"io\" />"
+                           + "<param name=\"inbox-capacity\" value=\"2\" />"
+                           + "<param name=\"inbox-overflow\" value=\"drop-newest\" />"
+                           + "<param name=\"anti-burst\" value=\"3600000\" />"
+                           + "</params>"
+                           + "</node>"
+                           + "</nodes>"
+                           + "<routes><route source=\"dummy\" destination=\"receive\" /></routes>"
+                           + "</configuration>";
+
+        final XMLConfiguration config = new XMLConfiguration();
+        config.load( new ByteArrayInputStream( xml.getBytes( Charset.forName( "utf-8" ) ) ) );
+
+        final Path datas = Files.createTempDirectory( "dispatcher" );
+        try
+        {
+            final Dispatcher dispatcher = new Dispatcher();
+            dispatcher.init( config ,
+                             datas ,
+                             null );
+
+            final A_Node dummy = dispatcher.getNode( "dummy" );
+
+            dispatcher.start();
+
+            for ( int i = 0 ; i < 100 ; ++i )
+            {
+                dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                      "message " + i ) );
+            }
+
+            // The consumer takes 1 message per hour: the producer sends everything anyway
+            final long end = System.currentTimeMillis() + 10L * 1000L;
+            while ( dummy.getMetrics().getSent() < 100L && System.currentTimeMillis() < end )
+            {
+                Thread.sleep( 10L );
+            }
+
+            assertEquals( "Producer should never stall" ,
+                          100L ,
+                          dummy.getMetrics().getSent() );
+
+            dispatcher.stopAndWait();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+
+    /**
+     * Test parallel instances of a node, with the input order.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testInstances()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+
+        final List<A_Node> instances = dispatcher.addInstances( "dummy" ,
+                                                                3 ,
+                                                                true ,
+                                                                ConfigProperties.EMPTY_COMMONS );
+
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.addNode( "receive" ,
+                                                                                  N_ReceiveBlocking.class ,
+                                                                                  ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "dummy" ,
+                             "receive" );
+
+        dispatcher.start();
+
+        for ( final A_Node instance : instances )
+        {
+            assertEquals( "Instances should share the node index" ,
+                          dummy.getNodeIndex() ,
+                          instance.getNodeIndex() );
+        }
+
+        for ( int i = 0 ; i < 200 ; ++i )
+        {
+            dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                  "message " + i ) );
+        }
+
+        for ( int i = 0 ; i < 200 ; ++i )
+        {
+            final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+            assertNotNull( "Message " + i + " should be received" ,
+                           message );
+            assertEquals( "Messages should keep their order" ,
+                          "message " + i ,
+                          message.getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test a rate limiter shared by 2 nodes.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSharedRateLimiter()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        dispatcher.addRateLimiter( "account" ,
+                                   new RateLimiter( 3 ,
+                                                    new Duration( 60L * 60L * 1000L ) ) );
+
+        final A_Node dummy1 = dispatcher.addNode( "dummy1" ,
+                                                  N_Dummy.class ,
+                                                  ConfigProperties.EMPTY_COMMONS );
+        dummy1.getProperties().setProperty( "rate-limiter" ,
+                                            "account" );
+
+        final A_Node dummy2 = dispatcher.addNode( "dummy2" ,
+                                                  N_Dummy.class ,
+                                                  ConfigProperties.EMPTY_COMMONS );
+        dummy2.getProperties().setProperty( "rate-limiter" ,
+                                            "account" );
+        dummy2.getProperties().setProperty( "executor" ,
+                                            "io" );
+
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.addNode( "receive" ,
+                                                                                  N_ReceiveBlocking.class ,
+                                                                                  ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "dummy1" ,
+                             "receive" );
+        dispatcher.addRoute( "dummy2" ,
+                             "receive" );
+
+        dispatcher.start();
+
+        for ( int i = 0 ; i < 5 ; ++i )
+        {
+            dummy1.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                   "message " + i ) );
+            dummy2.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                   "message " + i ) );
+        }
+
+        for ( int i = 0 ; i < 3 ; ++i )
+        {
+            assertNotNull( "Message " + i + " should be received" ,
+                           receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) ) );
+        }
+
+        assertNull( "Burst should be limited for both nodes" ,
+                    receive.getProcessingMessageOrWait( new Duration( 500L ) ) );
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test the node's metrics and their JMX export.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testMetrics()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+        dummy.addTransformOUT( T_Date.class ,
+                               ConfigProperties.EMPTY_COMMONS );
+
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.addNode( "receive" ,
+                                                                                  N_ReceiveBlocking.class ,
+                                                                                  ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "dummy" ,
+                             "receive" );
+
+        dispatcher.start();
+
+        // T_Date discards the messages without date
+        for ( int i = 0 ; i < 10 ; ++i )
+        {
+            if ( i % 2 == 1 )
+            {
+                dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                      "message " + i ,
+                                                      Message.KeyIndex.PUBLISHED_DATE ,
+                                                      new DateTime() ) );
+            }
+            else
+            {
+                dummy.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                      "message " + i ) );
+            }
+        }
+
+        for ( int i = 0 ; i < 5 ; ++i )
+        {
+            assertNotNull( receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) ) );
+        }
+
+        final NodeMetrics metrics = dummy.getMetrics();
+        assertEquals( 10L ,
+                      metrics.getReceived() );
+        assertEquals( 5L ,
+                      metrics.getSent() );
+        assertEquals( 5L ,
+                      metrics.getDiscarded() );
+        assertEquals( 10L ,
+                      metrics.getQueueWait().getCount() );
+        assertEquals( 10L ,
+                      metrics.getTransformTimes().get( "OUT/0/T_Date" ).getCount() );
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = Dispatcher.getMetricsName( "dummy" );
+
+        assertEquals( 10L ,
+                      server.getAttribute( name ,
+                                           "Received" ) );
+
+        final CompositeData queueWait = (CompositeData) server.getAttribute( name ,
+                                                                             "QueueWait" );
+        assertEquals( 10L ,
+                      queueWait.get( "count" ) );
+
+        dispatcher.stopAndWait();
+
+        assertFalse( "Metrics should be unregistered" ,
+                     server.isRegistered( name ) );
+    }
+
+    /**
+     * Count the messages and filter the message "filtered".
+     */
+    public static class T_CountFilter
+        extends A_Transform
+    {
+        // PUBLIC
+        public T_CountFilter()
+        {
+            super();
+
+            this.count = new AtomicInteger();
+        }
+
+        public int getCount()
+        {
+            return count.get();
+        }
+
+        @Override
+        public void prepare()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        @Override
+        public Message transform( final Message message )
+            throws Exception
+        {
+            count.incrementAndGet();
+
+            if ( "filtered".equals( message.getProperty( Message.KeyIndex.TITLE ) ) )
+            {
+                return null;
+            }
+
+            return message;
+        }
+
+        @Override
+        public void terminate()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        // PRIVATE
+        private final AtomicInteger count;
+    }
 }
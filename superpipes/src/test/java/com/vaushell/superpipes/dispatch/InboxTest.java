@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see Inbox
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class InboxTest
+{
+    // PUBLIC
+    public InboxTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the FIFO order.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOrder()
+        throws Exception
+    {
+        final Inbox inbox = new Inbox( 3 ,
+                                       Inbox.OverflowPolicy.BLOCK ,
+                                       null );
+
+        assertEquals( "Capacity must be rounded to a power of 2" ,
+                      4 ,
+                      inbox.getCapacity() );
+
+        for ( int round = 0 ; round < 3 ; ++round )
+        {
+            for ( int i = 0 ; i < 4 ; ++i )
+            {
+                assertTrue( inbox.offer( createMessage( i ) ) );
+            }
+
+            assertEquals( 4 ,
+                          inbox.size() );
+
+            for ( int i = 0 ; i < 4 ; ++i )
+            {
+                assertEquals( Integer.toString( i ) ,
+                              inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertNull( inbox.poll() );
+            assertTrue( inbox.isEmpty() );
+        }
+    }
+
+    /**
+     * Test the batch operations.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatch()
+        throws Exception
+    {
+        final Inbox inbox = new Inbox( 8 ,
+                                       Inbox.OverflowPolicy.DROP_NEWEST ,
+                                       null );
+
+        final List<Message> messages = new ArrayList<>();
+        for ( int i = 0 ; i < 10 ; ++i )
+        {
+            messages.add( createMessage( i ) );
+        }
+
+        assertEquals( "Overflow must be discarded" ,
+                      8 ,
+                      inbox.offerAll( messages ) );
+
+        final List<Message> drained = new ArrayList<>();
+        assertEquals( 5 ,
+                      inbox.drainTo( drained ,
+                                     5 ) );
+        assertEquals( 3 ,
+                      inbox.drainTo( drained ,
+                                     5 ) );
+
+        for ( int i = 0 ; i < 8 ; ++i )
+        {
+            assertEquals( Integer.toString( i ) ,
+                          drained.get( i ).getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        assertTrue( inbox.isEmpty() );
+    }
+
+    /**
+     * Test the overflow policies which discard messages.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDrop()
+        throws Exception
+    {
+        final Inbox newest = new Inbox( 2 ,
+                                        Inbox.OverflowPolicy.DROP_NEWEST ,
+                                        null );
+
+        final Inbox oldest = new Inbox( 2 ,
+                                        Inbox.OverflowPolicy.DROP_OLDEST ,
+                                        null );
+
+        for ( int i = 0 ; i < 5 ; ++i )
+        {
+            newest.offer( createMessage( i ) );
+            oldest.offer( createMessage( i ) );
+        }
+
+        assertEquals( 3L ,
+                      newest.getDroppedCount() );
+        assertEquals( "0" ,
+                      newest.poll().getProperty( Message.KeyIndex.TITLE ) );
+        assertEquals( "1" ,
+                      newest.poll().getProperty( Message.KeyIndex.TITLE ) );
+        assertNull( newest.poll() );
+
+        assertEquals( 3L ,
+                      oldest.getDroppedCount() );
+        assertEquals( "3" ,
+                      oldest.poll().getProperty( Message.KeyIndex.TITLE ) );
+        assertEquals( "4" ,
+                      oldest.poll().getProperty( Message.KeyIndex.TITLE ) );
+        assertNull( oldest.poll() );
+    }
+
+    /**
+     * Test the overflow to disk.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSpill()
+        throws Exception
+    {
+        final Path path = Files.createTempDirectory( "inbox" ).resolve( "inbox.spill" );
+
+        final Inbox inbox = new Inbox( 2 ,
+                                       Inbox.OverflowPolicy.SPILL ,
+                                       path );
+
+        for ( int i = 0 ; i < 5 ; ++i )
+        {
+            assertTrue( inbox.offer( createMessage( i ) ) );
+        }
+
+        assertEquals( 5 ,
+                      inbox.size() );
+
+        // Ring is full: the next ones are read from the disk
+        assertEquals( "0" ,
+                      inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+        assertEquals( "1" ,
+                      inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+
+        // Spill is not empty: keep the order
+        inbox.offer( createMessage( 5 ) );
+
+        for ( int i = 2 ; i < 6 ; ++i )
+        {
+            assertEquals( Integer.toString( i ) ,
+                          inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        assertNull( inbox.poll() );
+        assertEquals( 0L ,
+                      Files.size( path ) );
+
+        Files.delete( path );
+        Files.delete( path.getParent() );
+    }
+
+    /**
+     * Test that the messages left in the spill file are read again after a restart.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSpillReplay()
+        throws Exception
+    {
+        final Path path = Files.createTempDirectory( "inbox" ).resolve( "inbox.spill" );
+
+        Inbox inbox = new Inbox( 2 ,
+                                 Inbox.OverflowPolicy.SPILL ,
+                                 path );
+        inbox.open();
+
+        for ( int i = 0 ; i < 5 ; ++i )
+        {
+            assertTrue( inbox.offer( createMessage( i ) ) );
+        }
+
+        for ( int i = 0 ; i < 3 ; ++i )
+        {
+            assertEquals( Integer.toString( i ) ,
+                          inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        inbox.close();
+
+        // Half of a message
+        Files.write( path ,
+                     new byte[]
+        {
+            0 , 0 , 1 , 0 , 42
+        } ,
+                     StandardOpenOption.APPEND );
+
+        inbox = new Inbox( 2 ,
+                           Inbox.OverflowPolicy.SPILL ,
+                           path );
+        inbox.open();
+
+        assertEquals( "Only the unread messages are kept" ,
+                      2 ,
+                      inbox.size() );
+
+        // New messages come after the old ones
+        inbox.offer( createMessage( 5 ) );
+
+        for ( int i = 3 ; i < 6 ; ++i )
+        {
+            assertEquals( Integer.toString( i ) ,
+                          inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+        }
+        assertNull( inbox.poll() );
+
+        inbox.close();
+
+        assertFalse( "Empty spill file must be deleted" ,
+                     Files.exists( path ) );
+
+        Files.delete( path.getParent() );
+    }
+
+    /**
+     * Test the backpressure.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBlock()
+        throws Exception
+    {
+        final Inbox inbox = new Inbox( 2 ,
+                                       Inbox.OverflowPolicy.BLOCK ,
+                                       null );
+
+        final Thread producer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for ( int i = 0 ; i < 100 ; ++i )
+                    {
+                        inbox.offer( createMessage( i ) );
+                    }
+                }
+                catch( final Exception ex )
+                {
+                    throw new RuntimeException( ex );
+                }
+            }
+        };
+        producer.start();
+
+        for ( int i = 0 ; i < 100 ; ++i )
+        {
+            final Message message = inbox.poll( 5L ,
+                                                TimeUnit.SECONDS );
+
+            assertNotNull( message );
+            assertEquals( Integer.toString( i ) ,
+                          message.getProperty( Message.KeyIndex.TITLE ) );
+            assertTrue( inbox.size() <= 2 );
+        }
+
+        producer.join();
+
+        assertNull( inbox.poll( 10L ,
+                                TimeUnit.MILLISECONDS ) );
+        assertEquals( 0L ,
+                      inbox.getDroppedCount() );
+    }
+
+    /**
+     * Test a producer which can't wait: messages are kept over the capacity, and the producer waits for the room.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBlockWithoutWait()
+        throws Exception
+    {
+        final Inbox inbox = new Inbox( 2 ,
+                                       Inbox.OverflowPolicy.BLOCK ,
+                                       null );
+
+        for ( int i = 0 ; i < 5 ; ++i )
+        {
+            assertTrue( inbox.offer( createMessage( i ) ,
+                                     false ) );
+        }
+
+        assertEquals( "Messages should be kept over the capacity" ,
+                      5 ,
+                      inbox.size() );
+        assertFalse( inbox.hasRoom() );
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Runnable listener = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                calls.incrementAndGet();
+            }
+        };
+
+        inbox.addRoomListener( listener );
+        inbox.addRoomListener( listener );
+
+        for ( int i = 0 ; i < 3 ; ++i )
+        {
+            assertEquals( Integer.toString( i ) ,
+                          inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        assertEquals( "Listener shouldn't be called while the inbox is full" ,
+                      0 ,
+                      calls.get() );
+
+        // New messages go after the kept ones
+        assertTrue( inbox.offer( createMessage( 5 ) ,
+                                 false ) );
+        assertEquals( 3 ,
+                      inbox.size() );
+
+        for ( int i = 3 ; i < 6 ; ++i )
+        {
+            assertEquals( Integer.toString( i ) ,
+                          inbox.poll().getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        assertEquals( "Listener should be called once" ,
+                      1 ,
+                      calls.get() );
+        assertNull( inbox.poll() );
+        assertEquals( 0L ,
+                      inbox.getDroppedCount() );
+    }
+
+    // PRIVATE
+    private static Message createMessage( final int index )
+    {
+        return Message.create( Message.KeyIndex.TITLE ,
+                               Integer.toString( index ) );
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see LatencyHistogram
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class LatencyHistogramTest
+{
+    // PUBLIC
+    public LatencyHistogramTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the buckets bounds.
+     */
+    @Test
+    public void testBuckets()
+    {
+        long previous = -1L;
+        for ( long value = 0L ; value < 100000L ; ++value )
+        {
+            final int index = LatencyHistogram.indexOf( value );
+            assertTrue( "Buckets should be contiguous" ,
+                        index == previous || index == previous + 1L );
+            assertTrue( "Value " + value + " should be in its bucket" ,
+                        value <= LatencyHistogram.highestValueAt( index ) );
+
+            previous = index;
+        }
+
+        final int last = LatencyHistogram.indexOf( Long.MAX_VALUE );
+        assertEquals( Long.MAX_VALUE ,
+                      LatencyHistogram.highestValueAt( last ) );
+    }
+
+    /**
+     * Test the percentiles.
+     */
+    @Test
+    public void testPercentiles()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for ( long value = 1L ; value <= 1000L ; ++value )
+        {
+            histogram.record( value * 1000L );
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals( 1000L ,
+                      snapshot.getCount() );
+        assertEquals( 500500L ,
+                      snapshot.getMean() );
+        assertEquals( 1000000L ,
+                      snapshot.getMax() );
+
+        // 12.5% precision
+        assertTrue( snapshot.getP50() >= 500000L && snapshot.getP50() <= 562500L );
+        assertTrue( snapshot.getP90() >= 900000L && snapshot.getP90() <= 1000000L );
+        assertTrue( snapshot.getP99() >= 990000L && snapshot.getP99() <= 1000000L );
+    }
+}
@@ -107,6 +107,75 @@ public class MessageTest
         Files.delete( path );
     }
 
+    /**
+     * Test of copy-on-write.
+     */
+    @Test
+    public void testCopy()
+    {
+        final Message message = Message.create( Message.KeyIndex.TITLE ,
+                                                "title" ,
+                                                Message.KeyIndex.AUTHOR ,
+                                                "John Kiki" );
+
+        final Message copy = message.copy();
+        compareMessage( message ,
+                        copy );
+
+        copy.setProperty( Message.KeyIndex.TITLE ,
+                          "other title" );
+        copy.removeProperty( Message.KeyIndex.AUTHOR );
+
+        assertEquals( "Source must not be modified by the copy" ,
+                      "title" ,
+                      message.getProperty( Message.KeyIndex.TITLE ) );
+        assertEquals( "Source must not be modified by the copy" ,
+                      "John Kiki" ,
+                      message.getProperty( Message.KeyIndex.AUTHOR ) );
+        assertEquals( "other title" ,
+                      copy.getProperty( Message.KeyIndex.TITLE ) );
+        assertFalse( copy.contains( Message.KeyIndex.AUTHOR ) );
+
+        message.setProperty( Message.KeyIndex.CONTENT ,
+                             "content" );
+        assertFalse( "Copy must not be modified by the source" ,
+                     copy.contains( Message.KeyIndex.CONTENT ) );
+    }
+
+    /**
+     * Test of a frozen message.
+     */
+    @Test
+    public void testFreeze()
+    {
+        final Message message = Message.create( Message.KeyIndex.TITLE ,
+                                                "title" );
+        message.freeze();
+
+        try
+        {
+            message.setProperty( Message.KeyIndex.TITLE ,
+                                 "other title" );
+
+            fail( "A frozen message can't be modified" );
+        }
+        catch( final IllegalStateException ex )
+        {
+            // Ok
+        }
+
+        final Message copy = message.copy();
+        assertFalse( copy.isFrozen() );
+
+        copy.setProperty( Message.KeyIndex.TITLE ,
+                          "other title" );
+
+        assertEquals( "title" ,
+                      message.getProperty( Message.KeyIndex.TITLE ) );
+        assertEquals( "other title" ,
+                      copy.getProperty( Message.KeyIndex.TITLE ) );
+    }
+
     // PRIVATE
     private void compareMessage( final Message expected ,
                                  final Message actual )
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.dispatch;
+
+import com.vaushell.superpipes.tools.clock.SimulatedClock;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see RateLimiter
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class RateLimiterTest
+{
+    // PUBLIC
+    public RateLimiterTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the burst capacity.
+     */
+    @Test
+    public void testBurst()
+    {
+        final RateLimiter limiter = new RateLimiter( 3 ,
+                                                     new Duration( 60L * 60L * 1000L ) );
+
+        for ( int i = 0 ; i < 3 ; ++i )
+        {
+            assertEquals( "Permit " + i + " should be taken" ,
+                          0L ,
+                          limiter.tryAcquire() );
+        }
+
+        assertTrue( "Bucket should be empty" ,
+                    limiter.tryAcquire() > 0L );
+
+        limiter.release();
+
+        assertEquals( "Released permit should be taken" ,
+                      0L ,
+                      limiter.tryAcquire() );
+        assertEquals( 0 ,
+                      limiter.getAvailablePermits() );
+    }
+
+    /**
+     * Test the refill.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRefill()
+        throws Exception
+    {
+        final RateLimiter limiter = new RateLimiter( 1 ,
+                                                     new Duration( 100L ) );
+
+        assertEquals( 0L ,
+                      limiter.tryAcquire() );
+
+        final long wait = limiter.tryAcquire();
+        assertTrue( "Wait should be smaller than the refill" ,
+                    wait > 0L && wait <= 100L );
+
+        Thread.sleep( wait );
+
+        assertEquals( "Permit should be refilled" ,
+                      0L ,
+                      limiter.tryAcquire() );
+
+        Thread.sleep( 350L );
+
+        assertEquals( "Permits shouldn't exceed the capacity" ,
+                      1 ,
+                      limiter.getAvailablePermits() );
+    }
+
+    /**
+     * Test the anti-burst spacing after an idle period.
+     */
+    @Test
+    public void testIdle()
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       1 ,
+                                                                       1 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final RateLimiter limiter = new RateLimiter( 1 ,
+                                                     new Duration( 60_000L ) ,
+                                                     clock );
+
+        // The bucket stays full for 30s
+        clock.advance( new Duration( 30_000L ) );
+
+        assertEquals( "Permit should be taken" ,
+                      0L ,
+                      limiter.tryAcquire() );
+        assertEquals( "Next permit should wait a full refill" ,
+                      60_000L ,
+                      limiter.tryAcquire() );
+
+        clock.advance( new Duration( 30_000L ) );
+
+        assertEquals( "Next permit should still wait" ,
+                      30_000L ,
+                      limiter.tryAcquire() );
+
+        clock.advance( new Duration( 30_000L ) );
+
+        assertEquals( "Permit should be refilled" ,
+                      0L ,
+                      limiter.tryAcquire() );
+    }
+}
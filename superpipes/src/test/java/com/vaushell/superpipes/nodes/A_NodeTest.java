@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.test.N_ReceiveBlocking;
+import com.vaushell.superpipes.transforms.A_Transform;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see A_Node
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class A_NodeTest
+{
+    // PUBLIC
+    public A_NodeTest()
+    {
+        this.datas = null;
+    }
+
+    /**
+     * Create the datas directory.
+     *
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void setUp()
+        throws Exception
+    {
+        datas = Files.createTempDirectory( "node" );
+
+        T_Batch.SIZES.clear();
+        N_Keep.KEPT.clear();
+    }
+
+    /**
+     * Delete the datas directory.
+     *
+     * @throws Exception
+     */
+    @AfterMethod
+    public void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( datas.toFile() );
+    }
+
+    /**
+     * Test the waiting messages drained by batch into the transforms IN.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchTransformsIN()
+        throws Exception
+    {
+        final Dispatcher dispatcher = createDispatcher();
+
+        final A_Node node = dispatcher.getNode( "node" );
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.getNode( "receive" );
+
+        // The messages wait before the start
+        for ( final String title : Arrays.asList( "message 0" ,
+                                                  "filtered" ,
+                                                  "message 1" ,
+                                                  "message 2" ,
+                                                  "message 3" ) )
+        {
+            node.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                 title ) );
+        }
+
+        dispatcher.start();
+
+        checkReceived( receive ,
+                       4 );
+
+        assertEquals( "Messages should be drained by batch" ,
+                      Arrays.asList( 3 ,
+                                     2 ) ,
+                      T_Batch.SIZES );
+        assertEquals( 1L ,
+                      node.getMetrics().getDiscarded() );
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test an error in a batch: only the faulty message is discarded.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchError()
+        throws Exception
+    {
+        final Dispatcher dispatcher = createDispatcher();
+
+        final A_Node node = dispatcher.getNode( "node" );
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.getNode( "receive" );
+
+        for ( final String title : Arrays.asList( "message 0" ,
+                                                  "fail" ,
+                                                  "message 1" ) )
+        {
+            node.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                 title ) );
+        }
+
+        dispatcher.start();
+
+        checkReceived( receive ,
+                       2 );
+
+        assertEquals( 1L ,
+                      node.getMetrics().getErrors() );
+        assertEquals( 1L ,
+                      node.getMetrics().getDiscarded() );
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Test that the node sends a copy of its message: the node can still modify its message. The dispatcher doesn't
+     * copy: it freezes the given message.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSendMessageCopy()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node keep = dispatcher.addNode( "keep" ,
+                                                N_Keep.class ,
+                                                ConfigProperties.EMPTY_COMMONS );
+
+        final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.addNode( "receive" ,
+                                                                                  N_ReceiveBlocking.class ,
+                                                                                  ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "keep" ,
+                             "receive" );
+
+        dispatcher.start();
+
+        keep.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                             "message" ) );
+
+        final Message received = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+        final Message kept = N_Keep.KEPT.poll( 10L ,
+                                               TimeUnit.SECONDS );
+
+        assertNotNull( "Node's message should stay modifiable" ,
+                       kept );
+        assertFalse( kept.isFrozen() );
+        assertEquals( "modified after send" ,
+                      kept.getProperty( Message.KeyIndex.TITLE ) );
+
+        assertNotNull( received );
+        assertEquals( "Destination should receive the message as sent" ,
+                      "sent" ,
+                      received.getProperty( Message.KeyIndex.TITLE ) );
+
+        // The dispatcher doesn't copy: the given message is frozen
+        final Message given = Message.create( Message.KeyIndex.TITLE ,
+                                              "given" );
+        dispatcher.sendMessage( "keep" ,
+                                given );
+
+        assertTrue( given.isFrozen() );
+        try
+        {
+            given.setProperty( Message.KeyIndex.TITLE ,
+                               "modified" );
+
+            fail( "Given message should be frozen" );
+        }
+        catch( final IllegalStateException ex )
+        {
+            // Expected
+        }
+
+        assertNotNull( receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) ) );
+
+        dispatcher.stopAndWait();
+    }
+
+    /**
+     * Record the batch sizes. Filter "filtered" and fail on "fail".
+     */
+    public static class T_Batch
+        extends A_Transform
+    {
+        // PUBLIC
+        public static final List<Integer> SIZES = new CopyOnWriteArrayList<>();
+
+        public T_Batch()
+        {
+            super();
+        }
+
+        @Override
+        public void prepare()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        @Override
+        public Message transform( final Message message )
+            throws Exception
+        {
+            final Object title = message.getProperty( Message.KeyIndex.TITLE );
+            if ( "fail".equals( title ) )
+            {
+                throw new IllegalStateException( "fail" );
+            }
+
+            if ( "filtered".equals( title ) )
+            {
+                return null;
+            }
+
+            return message;
+        }
+
+        @Override
+        public List<Message> transformBatch( final List<Message> messages )
+            throws Exception
+        {
+            SIZES.add( messages.size() );
+
+            return super.transformBatch( messages );
+        }
+
+        @Override
+        public void terminate()
+            throws Exception
+        {
+            // Nothing
+        }
+    }
+
+    /**
+     * Send its own message, then modify it.
+     */
+    public static class N_Keep
+        extends A_Node
+    {
+        // PUBLIC
+        public static final BlockingQueue<Message> KEPT = new LinkedBlockingQueue<>();
+
+        public N_Keep()
+        {
+            super( null ,
+                   null );
+        }
+
+        // PROTECTED
+        @Override
+        protected void prepareImpl()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        @Override
+        protected void loop()
+            throws Exception
+        {
+            getLastMessageOrWait();
+
+            final Message own = Message.create( Message.KeyIndex.TITLE ,
+                                                "sent" );
+            setMessage( own );
+            sendMessage();
+
+            own.setProperty( Message.KeyIndex.TITLE ,
+                             "modified after send" );
+
+            KEPT.add( own );
+        }
+
+        @Override
+        protected void terminateImpl()
+            throws Exception
+        {
+            // Nothing
+        }
+    }
+
+    // PRIVATE
+    private Path datas;
+
+    private Dispatcher createDispatcher()
+        throws Exception
+    {
+        final String xml = "<configuration>"
+                           + "<mailer><params><param name=\"anti-burst\" value=\"1000\" /></params></mailer>"
+                           + "<nodes>"
+                           + "<node id=\"node\" type=\"com.vaushell.superpipes.nodes.dummy.N_Dummy\">"
+                           + "<params><param name=\"batch-size\" value=\"3\" /></params>"
+                           + "<in><transform type=\"" + T_Batch.class.getName() + "\" /></in>"
+                           + "</node>"
+                           + "<node id=\"receive\" type=\"com.vaushell.superpipes.nodes.test.N_ReceiveBlocking\" />"
+                           + "</nodes>"
+                           + "<routes><route source=\"node\" destination=\"receive\" /></routes>"
+                           + "</configuration>";
+
+        final XMLConfiguration config = new XMLConfiguration();
+        config.load( new ByteArrayInputStream( xml.getBytes( Charset.forName( "utf-8" ) ) ) );
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.init( config ,
+                         datas ,
+                         null );
+
+        return dispatcher;
+    }
+
+    private static void checkReceived( final N_ReceiveBlocking receive ,
+                                       final int count )
+        throws Exception
+    {
+        for ( int i = 0 ; i < count ; ++i )
+        {
+            final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+            assertNotNull( "Message " + i + " should be received" ,
+                           message );
+            assertEquals( "Messages should keep their order" ,
+                          "message " + i ,
+                          message.getProperty( Message.KeyIndex.TITLE ) );
+        }
+
+        assertNull( "No more message" ,
+                    receive.getProcessingMessageOrWait( new Duration( 200L ) ) );
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.buffer.N_Buffer;
+import com.vaushell.superpipes.nodes.dummy.N_Dummy;
+import com.vaushell.superpipes.nodes.test.N_ReceiveBlocking;
+import com.vaushell.superpipes.transforms.done.T_Done;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see NodeInstances
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class NodeInstancesTest
+{
+    // PUBLIC
+    public NodeInstancesTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test that a blocked destination doesn't block the other instances: the released messages are sent without the
+     * lock, in the sequence order.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSendWithoutLock()
+        throws Exception
+    {
+        N_Gate.ENTERED = new CountDownLatch( 1 );
+        N_Gate.RELEASE = new CountDownLatch( 1 );
+
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+
+        final N_Gate gate = (N_Gate) dispatcher.addNode( "gate" ,
+                                                         N_Gate.class ,
+                                                         ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "dummy" ,
+                             "gate" );
+
+        dispatcher.start();
+        try
+        {
+            final NodeInstances instances = new NodeInstances( dummy ,
+                                                               true );
+
+            // The first instance blocks in the destination
+            final FutureTask<Void> first = complete( instances ,
+                                                     0L ,
+                                                     "message 0" );
+            new Thread( first ).start();
+
+            assertTrue( "Destination should be reached" ,
+                        N_Gate.ENTERED.await( 10L ,
+                                              TimeUnit.SECONDS ) );
+
+            // The second instance doesn't wait the first one
+            final FutureTask<Void> second = complete( instances ,
+                                                      1L ,
+                                                      "message 1" );
+            new Thread( second ).start();
+
+            second.get( 10L ,
+                        TimeUnit.SECONDS );
+
+            assertFalse( first.isDone() );
+
+            N_Gate.RELEASE.countDown();
+
+            first.get( 10L ,
+                       TimeUnit.SECONDS );
+
+            for ( int i = 0 ; i < 2 ; ++i )
+            {
+                final Message message = gate.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "Message " + i + " should be received" ,
+                               message );
+                assertEquals( "Messages should keep their order" ,
+                              "message " + i ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+        }
+        finally
+        {
+            N_Gate.RELEASE.countDown();
+
+            dispatcher.stopAndWait();
+        }
+    }
+
+    /**
+     * Test that an instance too far ahead of the release waits for the slow instances.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBackpressure()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+        final int capacity = dummy.getInbox().getCapacity();
+
+        final NodeInstances instances = new NodeInstances( dummy ,
+                                                           true );
+
+        // The message 0 is still processed by a slow instance
+        for ( long sequence = 1L ; sequence < capacity ; ++sequence )
+        {
+            instances.complete( sequence );
+        }
+
+        final FutureTask<Void> ahead = complete( instances ,
+                                                 capacity ,
+                                                 "message ahead" );
+        new Thread( ahead ).start();
+
+        Thread.sleep( 200L );
+
+        assertFalse( "Instance should wait for the release" ,
+                     ahead.isDone() );
+
+        instances.complete( 0L );
+
+        ahead.get( 10L ,
+                   TimeUnit.SECONDS );
+
+        // Unordered instances never wait
+        final NodeInstances unordered = new NodeInstances( dummy ,
+                                                           false );
+        unordered.complete( 2L * capacity );
+    }
+
+    /**
+     * Test that a node with a state can't have instances.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStatefulNode()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        dispatcher.addNode( "buffer" ,
+                            N_Buffer.class ,
+                            ConfigProperties.EMPTY_COMMONS );
+        dispatcher.addInstances( "buffer" ,
+                                 1 ,
+                                 true ,
+                                 ConfigProperties.EMPTY_COMMONS );
+
+        checkRefused( dispatcher );
+    }
+
+    /**
+     * Test that a node with a transform which has a state can't have instances.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStatefulTransform()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node dummy = dispatcher.addNode( "dummy" ,
+                                                 N_Dummy.class ,
+                                                 ConfigProperties.EMPTY_COMMONS );
+        dummy.addTransformOUT( T_Done.class ,
+                               ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addInstances( "dummy" ,
+                                 1 ,
+                                 true ,
+                                 ConfigProperties.EMPTY_COMMONS );
+
+        checkRefused( dispatcher );
+    }
+
+    /**
+     * Receive node which blocks the first sender until the test releases it.
+     */
+    public static class N_Gate
+        extends N_ReceiveBlocking
+    {
+        // PUBLIC
+        public static volatile CountDownLatch ENTERED;
+        public static volatile CountDownLatch RELEASE;
+
+        public N_Gate()
+        {
+            super();
+        }
+
+        @Override
+        public void receiveMessages( final List<Message> messages )
+            throws Exception
+        {
+            if ( ENTERED.getCount() > 0L )
+            {
+                ENTERED.countDown();
+
+                RELEASE.await();
+            }
+
+            super.receiveMessages( messages );
+        }
+    }
+
+    // PRIVATE
+    private static FutureTask<Void> complete( final NodeInstances instances ,
+                                              final long sequence ,
+                                              final String title )
+    {
+        return new FutureTask<>( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws Exception
+            {
+                instances.buffer( sequence ,
+                                  Arrays.asList( Message.create( Message.KeyIndex.TITLE ,
+                                                                 title ) ) );
+                instances.complete( sequence );
+
+                return null;
+            }
+        } );
+    }
+
+    private static void checkRefused( final Dispatcher dispatcher )
+        throws Exception
+    {
+        try
+        {
+            dispatcher.start();
+
+            fail( "Instances should be refused" );
+        }
+        catch( final IllegalArgumentException ex )
+        {
+            // Expected
+        }
+    }
+}
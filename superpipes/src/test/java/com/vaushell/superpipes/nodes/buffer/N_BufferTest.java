@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.buffer;
+
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.test.N_ReceiveBlocking;
+import com.vaushell.superpipes.tools.clock.SimulatedClock;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see N_Buffer
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class N_BufferTest
+{
+    // PUBLIC
+    public N_BufferTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Replay a week of slots with a simulated clock.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReplay()
+        throws Exception
+    {
+        final String xml = "<configuration>"
+                           + "<mailer><params><param name=\"anti-burst\" value=\"1000\" /></params></mailer>"
+                           + "<nodes>"
+                           + "<node id=\"buffer\" type=\"com.vaushell.superpipes.nodes.buffer.N_Buffer\">"
+                           + "<params><param name=\"flow-limit\" value=\"3600000\" /></params>"
+                           + "<slots><slot days=\"MON,TUE,WED,THU,FRI\" startat=\"12:00:00\" endat=\"14:00:00\" /></slots>"
+                           + "</node>"
+                           + "<node id=\"receiver\" type=\"com.vaushell.superpipes.nodes.test.N_ReceiveBlocking\" />"
+                           + "</nodes>"
+                           + "<routes><route source=\"buffer\" destination=\"receiver\" /></routes>"
+                           + "</configuration>";
+
+        final XMLConfiguration config = new XMLConfiguration();
+        config.setDelimiterParsingDisabled( true );
+        config.load( new ByteArrayInputStream( xml.getBytes( Charset.forName( "utf-8" ) ) ) );
+
+        // Saturday
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       10 ,
+                                                                       0 ,
+                                                                       0 ,
+                                                                       0 ) );
+
+        final Path datas = Files.createTempDirectory( "buffer" );
+        try
+        {
+            final Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setClock( clock );
+            dispatcher.init( config ,
+                             datas ,
+                             null );
+
+            final N_ReceiveBlocking receiver = (N_ReceiveBlocking) dispatcher.getNode( "receiver" );
+
+            dispatcher.start();
+
+            for ( int i = 0 ; i < 10 ; ++i )
+            {
+                dispatcher.getNode( "buffer" ).receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                                               Integer.toString( i ) ) );
+            }
+
+            // 2 messages a day (flow limit is 1 hour), from monday to friday
+            for ( int i = 0 ; i < 10 ; ++i )
+            {
+                final Message message = receiver.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "A week must be replayed in seconds" ,
+                               message );
+                assertEquals( Integer.toString( i ) ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            dispatcher.stopAndWait();
+
+            assertEquals( "Last message is sent on friday at 13:00" ,
+                          new DateTime( 2014 ,
+                                        5 ,
+                                        16 ,
+                                        13 ,
+                                        0 ,
+                                        0 ) ,
+                          clock.now() );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+}
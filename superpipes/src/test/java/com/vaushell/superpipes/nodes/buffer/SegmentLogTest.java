@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.buffer;
+
+import com.vaushell.superpipes.dispatch.Message;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.commons.io.FileUtils;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see SegmentLog
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class SegmentLogTest
+{
+    // PUBLIC
+    public SegmentLogTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the order, and the reload from the index.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOrder()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "segmentlog" );
+        try
+        {
+            SegmentLog log = new SegmentLog( directory ,
+                                             1024L * 1024L );
+            log.open();
+
+            for ( final long time : new long[]
+            {
+                30L , 10L , 50L , 20L , 40L
+            } )
+            {
+                log.push( time ,
+                          createMessage( time ) );
+            }
+
+            assertEquals( 10L ,
+                          log.getFirstTime() );
+            assertEquals( 50L ,
+                          log.getLastTime() );
+            assertEquals( "10" ,
+                          log.pop().getProperty( Message.KeyIndex.TITLE ) );
+
+            log.close();
+
+            // Reload
+            log = new SegmentLog( directory ,
+                                  1024L * 1024L );
+            log.open();
+
+            assertEquals( 4 ,
+                          log.size() );
+            for ( long time = 20L ; time <= 50L ; time += 10L )
+            {
+                assertEquals( Long.toString( time ) ,
+                              log.pop().getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertNull( log.pop() );
+            assertTrue( log.isEmpty() );
+
+            log.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the compaction of the segments.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCompaction()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "segmentlog" );
+        try
+        {
+            SegmentLog log = new SegmentLog( directory ,
+                                             16L * 1024L );
+            log.open();
+
+            for ( long time = 0L ; time < 2500L ; ++time )
+            {
+                log.push( time ,
+                          createMessage( time ) );
+            }
+
+            assertTrue( "Small segments must roll" ,
+                        countSegments( directory ) > 10 );
+
+            for ( long time = 0L ; time < 1500L ; ++time )
+            {
+                assertEquals( Long.toString( time ) ,
+                              log.pop().getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertEquals( "Live messages must be copied to 1 segment" ,
+                          1 ,
+                          countSegments( directory ) );
+
+            log.close();
+
+            log = new SegmentLog( directory ,
+                                  16L * 1024L );
+            log.open();
+
+            assertEquals( 1000 ,
+                          log.size() );
+            for ( long time = 1500L ; time < 2500L ; ++time )
+            {
+                assertEquals( Long.toString( time ) ,
+                              log.pop().getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertTrue( log.isEmpty() );
+            assertEquals( "Live messages must be copied to 1 segment" ,
+                          1 ,
+                          countSegments( directory ) );
+
+            log.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the checkpoint of the index: only the operations after it are read at startup.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCheckpoint()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "segmentlog" );
+        try
+        {
+            SegmentLog log = new SegmentLog( directory ,
+                                             1024L * 1024L );
+            log.open();
+
+            // An empty queue isn't compacted below the threshold
+            for ( long time = 0L ; time < 10L ; ++time )
+            {
+                log.push( time ,
+                          createMessage( time ) );
+            }
+            for ( long time = 0L ; time < 10L ; ++time )
+            {
+                log.pop();
+            }
+
+            final Path indexPath = directory.resolve( "index.dat" );
+            assertTrue( "Index must not be rewritten" ,
+                        Files.size( indexPath ) > 0L );
+
+            for ( long time = 10L ; time < 1500L ; ++time )
+            {
+                log.push( time ,
+                          createMessage( time ) );
+            }
+
+            log.close();
+
+            assertTrue( Files.exists( directory.resolve( "index.ckp" ) ) );
+
+            // Operations covered by the checkpoint are not read again
+            try( final FileChannel channel = FileChannel.open( indexPath ,
+                                                               StandardOpenOption.WRITE ) )
+            {
+                channel.write( ByteBuffer.wrap( new byte[]
+                {
+                    'X'
+                } ) ,
+                               0L );
+            }
+
+            log = new SegmentLog( directory ,
+                                  1024L * 1024L );
+            log.open();
+
+            assertEquals( 1490 ,
+                          log.size() );
+            assertEquals( "10" ,
+                          log.pop().getProperty( Message.KeyIndex.TITLE ) );
+
+            log.push( 5000L ,
+                      createMessage( 5000L ) );
+            log.close();
+
+            // A checkpoint beyond the index is ignored: the whole index is read
+            try( final FileChannel channel = FileChannel.open( indexPath ,
+                                                               StandardOpenOption.WRITE ) )
+            {
+                channel.truncate( 0L );
+            }
+
+            log = new SegmentLog( directory ,
+                                  1024L * 1024L );
+            log.open();
+
+            assertTrue( log.isEmpty() );
+
+            log.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the import of the old storage (1 file per message).
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testImport()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "segmentlog" );
+        try
+        {
+            for ( long time = 1L ; time <= 3L ; ++time )
+            {
+                try( final ObjectOutputStream os = new ObjectOutputStream( Files.newOutputStream( directory.resolve(
+                    Long.toString( time ) ) ) ) )
+                {
+                    os.writeObject( createMessage( time ) );
+                }
+            }
+
+            final SegmentLog log = new SegmentLog( directory ,
+                                                   1024L * 1024L );
+            log.open();
+
+            assertEquals( 3 ,
+                          log.size() );
+            assertFalse( "Old files must be deleted" ,
+                         Files.exists( directory.resolve( "1" ) ) );
+
+            for ( long time = 1L ; time <= 3L ; ++time )
+            {
+                assertEquals( Long.toString( time ) ,
+                              log.pop().getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            log.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test an import interrupted after the first message: the remaining files are imported at the next startup.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInterruptedImport()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "segmentlog" );
+        try
+        {
+            // The first message is imported, but its file isn't deleted yet
+            SegmentLog log = new SegmentLog( directory ,
+                                             1024L * 1024L );
+            log.open();
+            log.push( 1L ,
+                      createMessage( 1L ) );
+            log.close();
+
+            for ( long time = 1L ; time <= 3L ; ++time )
+            {
+                try( final ObjectOutputStream os = new ObjectOutputStream( Files.newOutputStream( directory.resolve(
+                    Long.toString( time ) ) ) ) )
+                {
+                    os.writeObject( createMessage( time ) );
+                }
+            }
+
+            log = new SegmentLog( directory ,
+                                  1024L * 1024L );
+            log.open();
+
+            assertEquals( "Each message must be imported once" ,
+                          3 ,
+                          log.size() );
+            for ( long time = 1L ; time <= 3L ; ++time )
+            {
+                assertFalse( "Old files must be deleted" ,
+                             Files.exists( directory.resolve( Long.toString( time ) ) ) );
+            }
+
+            for ( long time = 1L ; time <= 3L ; ++time )
+            {
+                assertEquals( Long.toString( time ) ,
+                              log.pop().getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            log.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the recovery of an interrupted index write.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInterruptedWrite()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "segmentlog" );
+        try
+        {
+            SegmentLog log = new SegmentLog( directory ,
+                                             1024L * 1024L );
+            log.open();
+
+            for ( long time = 1L ; time <= 3L ; ++time )
+            {
+                log.push( time ,
+                          createMessage( time ) );
+            }
+
+            log.close();
+
+            // Half of an operation
+            Files.write( directory.resolve( "index.dat" ) ,
+                         new byte[]
+            {
+                'A' , 0 , 0 , 0
+            } ,
+                         StandardOpenOption.APPEND );
+
+            log = new SegmentLog( directory ,
+                                  1024L * 1024L );
+            log.open();
+
+            assertEquals( 3 ,
+                          log.size() );
+
+            log.push( 4L ,
+                      createMessage( 4L ) );
+            log.close();
+
+            log = new SegmentLog( directory ,
+                                  1024L * 1024L );
+            log.open();
+
+            assertEquals( 4 ,
+                          log.size() );
+
+            log.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    // PRIVATE
+    private static Message createMessage( final long time )
+    {
+        return Message.create( Message.KeyIndex.TITLE ,
+                               Long.toString( time ) ,
+                               Message.KeyIndex.DESCRIPTION ,
+                               "A message waiting in the buffer" );
+    }
+
+    private static int countSegments( final Path directory )
+        throws Exception
+    {
+        int count = 0;
+        try( final DirectoryStream<Path> stream = Files.newDirectoryStream( directory ,
+                                                                            "segment-*.log" ) )
+        {
+            for ( final Path p : stream )
+            {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.buffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see WeekSchedule
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class WeekScheduleTest
+{
+    // PUBLIC
+    public WeekScheduleTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Compare with the Slot computation.
+     */
+    @Test
+    public void testSameAsSlots()
+    {
+        final List<Slot> slots = Arrays.asList( Slot.parse( "TUE,SAT" ,
+                                                            "17:00:00" ,
+                                                            "18:30:00" ) ,
+                                                Slot.parse( "MON,WED,SUN" ,
+                                                            "08:00:00" ,
+                                                            "09:00:00" ) );
+
+        final WeekSchedule schedule = new WeekSchedule( slots ,
+                                                        DateTimeZone.UTC );
+
+        final Random rnd = new Random( 42L );
+        final long base = new DateTime( 2014 ,
+                                        1 ,
+                                        1 ,
+                                        0 ,
+                                        0 ,
+                                        0 ,
+                                        DateTimeZone.UTC ).getMillis();
+        for ( int i = 0 ; i < 10000 ; ++i )
+        {
+            final DateTime date = new DateTime( base + (long) rnd.nextInt( 365 * 24 * 60 ) * 60000L ,
+                                                DateTimeZone.UTC );
+
+            long expected = Long.MAX_VALUE;
+            for ( final Slot slot : slots )
+            {
+                expected = Math.min( expected ,
+                                     slot.getSmallestDiff( date ).getMillis() );
+            }
+
+            assertEquals( "At " + date ,
+                          expected ,
+                          schedule.getTimeToWait( date.getMillis() ) );
+        }
+    }
+
+    /**
+     * Test overlapping slots and a slot which crosses midnight.
+     */
+    @Test
+    public void testOverlapAndMidnight()
+    {
+        final List<Slot> slots = new ArrayList<>();
+        slots.add( Slot.parse( "SUN" ,
+                               "22:00:00" ,
+                               "02:00:00" ) );
+        slots.add( Slot.parse( "MON" ,
+                               "01:00:00" ,
+                               "03:00:00" ) );
+
+        final WeekSchedule schedule = new WeekSchedule( slots ,
+                                                        DateTimeZone.UTC );
+
+        // With 19/01/2014 (SUN) 23:00:00 => inside
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 19 ,
+                                                   23 ) ) );
+
+        // With 20/01/2014 (MON) 02:30:00 => inside (merged)
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 20 ,
+                                                   2 ) + 1800000L ) );
+
+        // With 20/01/2014 (MON) 03:00:00 => next sunday 22:00:00
+        assertEquals( 6L * 24L * 3600000L + 19L * 3600000L ,
+                      schedule.getTimeToWait( utc( 20 ,
+                                                   3 ) ) );
+    }
+
+    /**
+     * Test a slot which ends before its start: it ends the next day.
+     */
+    @Test
+    public void testEndBeforeStart()
+    {
+        final WeekSchedule schedule = new WeekSchedule( Arrays.asList( Slot.parse( "TUE" ,
+                                                                                   "22:00:00" ,
+                                                                                   "02:00:00" ) ) ,
+                                                        DateTimeZone.UTC );
+
+        // With 14/01/2014 (TUE) 21:00:00 => 1 hour
+        assertEquals( 3600000L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   21 ) ) );
+
+        // With 15/01/2014 (WED) 01:00:00 => inside
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 15 ,
+                                                   1 ) ) );
+
+        // With 15/01/2014 (WED) 02:00:00 => next tuesday 22:00:00
+        assertEquals( 6L * 24L * 3600000L + 20L * 3600000L ,
+                      schedule.getTimeToWait( utc( 15 ,
+                                                   2 ) ) );
+
+        // With 14/01/2014 (TUE) 01:00:00 => the slot of monday doesn't exist
+        assertEquals( 21L * 3600000L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   1 ) ) );
+    }
+
+    /**
+     * Test a slot which ends at its start: it lasts 24 hours.
+     */
+    @Test
+    public void testEndAtStart()
+    {
+        final WeekSchedule schedule = new WeekSchedule( Arrays.asList( Slot.parse( "TUE" ,
+                                                                                   "08:00:00" ,
+                                                                                   "08:00:00" ) ) ,
+                                                        DateTimeZone.UTC );
+
+        assertFalse( schedule.isEmpty() );
+
+        // With 14/01/2014 (TUE) 07:00:00 => 1 hour
+        assertEquals( 3600000L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   7 ) ) );
+
+        // With 14/01/2014 (TUE) 08:00:00 => inside
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   8 ) ) );
+
+        // With 15/01/2014 (WED) 07:00:00 => inside
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 15 ,
+                                                   7 ) ) );
+
+        // With 15/01/2014 (WED) 08:00:00 => next tuesday 08:00:00
+        assertEquals( 6L * 24L * 3600000L ,
+                      schedule.getTimeToWait( utc( 15 ,
+                                                   8 ) ) );
+    }
+
+    /**
+     * Test the time zone of the slots.
+     */
+    @Test
+    public void testTimeZone()
+    {
+        final WeekSchedule schedule = new WeekSchedule( Arrays.asList( Slot.parse( "TUE" ,
+                                                                                   "12:00:00" ,
+                                                                                   "14:00:00" ) ) ,
+                                                        DateTimeZone.forID( "America/New_York" ) );
+
+        // With 14/01/2014 (TUE) 12:00:00 UTC = 07:00:00 in New York => 5 hours
+        assertEquals( 5L * 3600000L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   12 ) ) );
+
+        // With 14/01/2014 (TUE) 18:00:00 UTC = 13:00:00 in New York => inside
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   18 ) ) );
+    }
+
+    /**
+     * Without slot, the buffer is always open.
+     */
+    @Test
+    public void testEmpty()
+    {
+        final WeekSchedule schedule = new WeekSchedule( new ArrayList<Slot>() ,
+                                                        DateTimeZone.UTC );
+
+        assertTrue( schedule.isEmpty() );
+        assertEquals( 0L ,
+                      schedule.getTimeToWait( utc( 14 ,
+                                                   12 ) ) );
+    }
+
+    // PRIVATE
+    private static long utc( final int dayOfJanuary ,
+                             final int hour )
+    {
+        return new DateTime( 2014 ,
+                             1 ,
+                             dayOfJanuary ,
+                             hour ,
+                             0 ,
+                             0 ,
+                             DateTimeZone.UTC ).getMillis();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.nodes.stub;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see N_LoadGenerator
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class N_LoadGeneratorTest
+{
+    // PUBLIC
+    public N_LoadGeneratorTest()
+    {
+        this.dispatcher = new Dispatcher();
+    }
+
+    /**
+     * Test the constant profile.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConstant()
+        throws Exception
+    {
+        final N_LoadGenerator n = (N_LoadGenerator) dispatcher.addNode( "constant" ,
+                                                                        N_LoadGenerator.class ,
+                                                                        ConfigProperties.EMPTY_COMMONS );
+        n.getProperties().setProperty( "rate" ,
+                                       "100" );
+        n.prepare();
+
+        assertEquals( "First message is sent at once" ,
+                      1L ,
+                      n.getExpectedCount( 0L ) );
+        assertEquals( 1L ,
+                      n.getExpectedCount( 9L ) );
+        assertEquals( 2L ,
+                      n.getExpectedCount( 10L ) );
+        assertEquals( 101L ,
+                      n.getExpectedCount( 1000L ) );
+
+        n.terminate();
+    }
+
+    /**
+     * Test the ramp profile.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRamp()
+        throws Exception
+    {
+        final N_LoadGenerator n = (N_LoadGenerator) dispatcher.addNode( "ramp" ,
+                                                                        N_LoadGenerator.class ,
+                                                                        ConfigProperties.EMPTY_COMMONS );
+        n.getProperties().setProperty( "profile" ,
+                                       "RAMP" );
+        n.getProperties().setProperty( "rate" ,
+                                       "0" );
+        n.getProperties().setProperty( "rate-max" ,
+                                       "100" );
+        n.getProperties().setProperty( "ramp" ,
+                                       "1000" );
+        n.prepare();
+
+        assertEquals( 1L ,
+                      n.getExpectedCount( 0L ) );
+        assertEquals( "Half of the ramp: 1/4 of the ramp messages" ,
+                      13L ,
+                      n.getExpectedCount( 500L ) );
+        assertEquals( 51L ,
+                      n.getExpectedCount( 1000L ) );
+        assertEquals( "After the ramp, the rate is constant" ,
+                      151L ,
+                      n.getExpectedCount( 2000L ) );
+
+        n.terminate();
+    }
+
+    /**
+     * Test the burst profile.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBurst()
+        throws Exception
+    {
+        final N_LoadGenerator n = (N_LoadGenerator) dispatcher.addNode( "burst" ,
+                                                                        N_LoadGenerator.class ,
+                                                                        ConfigProperties.EMPTY_COMMONS );
+        n.getProperties().setProperty( "profile" ,
+                                       "BURST" );
+        n.getProperties().setProperty( "burst-size" ,
+                                       "10" );
+        n.getProperties().setProperty( "burst-period" ,
+                                       "500" );
+        n.prepare();
+
+        assertEquals( 10L ,
+                      n.getExpectedCount( 0L ) );
+        assertEquals( 10L ,
+                      n.getExpectedCount( 499L ) );
+        assertEquals( 20L ,
+                      n.getExpectedCount( 500L ) );
+        assertEquals( 50L ,
+                      n.getExpectedCount( 2000L ) );
+
+        n.terminate();
+    }
+
+    // PRIVATE
+    private final Dispatcher dispatcher;
+}
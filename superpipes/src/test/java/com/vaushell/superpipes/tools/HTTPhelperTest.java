@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vaushell.superpipes.tools.http.HTTPclientPool;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see HTTPhelper
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class HTTPhelperTest
+{
+    // PUBLIC
+    public HTTPhelperTest()
+    {
+        this.server = null;
+        this.pool = null;
+        this.client = null;
+        this.requests = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Start a local HTTP server and the asynchronous client of a pool.
+     *
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void setUp()
+        throws Exception
+    {
+        requests.clear();
+
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress() ,
+                                                           0 ) ,
+                                    10 );
+
+        // Answer HEAD
+        server.createContext( "/ok" ,
+                              new RecordHandler()
+        {
+            @Override
+            protected void answer( final HttpExchange exchange )
+                throws IOException
+            {
+                send( exchange ,
+                      200 ,
+                      "text/plain" ,
+                      "hello".getBytes( "utf-8" ) );
+            }
+        } );
+
+        server.createContext( "/missing" ,
+                              new RecordHandler()
+        {
+            @Override
+            protected void answer( final HttpExchange exchange )
+                throws IOException
+            {
+                send( exchange ,
+                      404 ,
+                      "text/plain" ,
+                      "missing".getBytes( "utf-8" ) );
+            }
+        } );
+
+        // Reject HEAD, answer the first byte of GET
+        server.createContext( "/nohead" ,
+                              new RecordHandler()
+        {
+            @Override
+            protected void answer( final HttpExchange exchange )
+                throws IOException
+            {
+                if ( "HEAD".equals( exchange.getRequestMethod() ) )
+                {
+                    send( exchange ,
+                          405 ,
+                          "text/plain" ,
+                          new byte[ 0 ] );
+                }
+                else if ( "bytes=0-0".equals( exchange.getRequestHeaders().getFirst( "Range" ) ) )
+                {
+                    send( exchange ,
+                          206 ,
+                          "text/plain" ,
+                          "h".getBytes( "utf-8" ) );
+                }
+                else
+                {
+                    send( exchange ,
+                          200 ,
+                          "text/plain" ,
+                          "hello".getBytes( "utf-8" ) );
+                }
+            }
+        } );
+
+        server.createContext( "/redirect" ,
+                              new RecordHandler()
+        {
+            @Override
+            protected void answer( final HttpExchange exchange )
+                throws IOException
+            {
+                exchange.getResponseHeaders().set( "Location" ,
+                                                   getURI( "/ok" ).toString() );
+                send( exchange ,
+                      302 ,
+                      "text/plain" ,
+                      new byte[ 0 ] );
+            }
+        } );
+
+        server.createContext( "/picture" ,
+                              new RecordHandler()
+        {
+            @Override
+            protected void answer( final HttpExchange exchange )
+                throws IOException
+            {
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                ImageIO.write( new BufferedImage( 3 ,
+                                                  2 ,
+                                                  BufferedImage.TYPE_INT_RGB ) ,
+                               "png" ,
+                               bos );
+
+                send( exchange ,
+                      200 ,
+                      "image/png" ,
+                      bos.toByteArray() );
+            }
+        } );
+
+        server.start();
+
+        pool = new HTTPclientPool();
+        client = pool.getAsyncClient();
+    }
+
+    /**
+     * Stop the client and the server.
+     *
+     * @throws Exception
+     */
+    @AfterMethod
+    public void tearDown()
+        throws Exception
+    {
+        try
+        {
+            pool.close();
+        }
+        finally
+        {
+            server.stop( 0 );
+        }
+    }
+
+    /**
+     * Test that the pool starts its asynchronous client once.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncClient()
+        throws Exception
+    {
+        assertTrue( "Asynchronous client should be started" ,
+                    client.isRunning() );
+        assertSame( client ,
+                    pool.getAsyncClient() );
+
+        pool.close();
+
+        assertFalse( "Asynchronous client should be closed" ,
+                     client.isRunning() );
+
+        client = pool.getAsyncClient();
+        assertTrue( client.isRunning() );
+        assertEquals( 200 ,
+                      HTTPhelper.getStatusCode( client ,
+                                                getURI( "/ok" ) ,
+                                                null ) );
+    }
+
+    /**
+     * Test the response code given by a HEAD request.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStatusCode()
+        throws Exception
+    {
+        assertEquals( 200 ,
+                      HTTPhelper.getStatusCodeAsync( client ,
+                                                     getURI( "/ok" ) ,
+                                                     TIMEOUT ,
+                                                     null ).get( 10L ,
+                                                                 TimeUnit.SECONDS ).intValue() );
+        assertEquals( 404 ,
+                      HTTPhelper.getStatusCode( client ,
+                                                getURI( "/missing" ) ,
+                                                TIMEOUT ) );
+
+        assertTrue( HTTPhelper.isURIvalid( client ,
+                                           getURI( "/ok" ) ,
+                                           TIMEOUT ) );
+        assertFalse( HTTPhelper.isURIvalid( client ,
+                                            getURI( "/missing" ) ,
+                                            TIMEOUT ) );
+
+        for ( final String request : requests )
+        {
+            assertTrue( "Only HEAD should be sent: " + request ,
+                        request.startsWith( "HEAD " ) );
+        }
+    }
+
+    /**
+     * Test that a server which rejects HEAD is asked with a GET of the first byte.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStatusCodeWithoutHead()
+        throws Exception
+    {
+        assertEquals( 206 ,
+                      HTTPhelper.getStatusCode( client ,
+                                                getURI( "/nohead" ) ,
+                                                TIMEOUT ) );
+
+        assertEquals( 2 ,
+                      requests.size() );
+        assertEquals( "HEAD /nohead" ,
+                      requests.get( 0 ) );
+        assertEquals( "GET /nohead bytes=0-0" ,
+                      requests.get( 1 ) );
+    }
+
+    /**
+     * Test the redirects.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRedirect()
+        throws Exception
+    {
+        final List<URI> redirects = HTTPhelper.getRedirected( client ,
+                                                              getURI( "/redirect" ) );
+        assertEquals( 1 ,
+                      redirects.size() );
+        assertEquals( getURI( "/ok" ) ,
+                      redirects.get( 0 ) );
+
+        assertEquals( getURI( "/ok" ) ,
+                      HTTPhelper.resolveRedirect( client ,
+                                                  getURI( "/redirect" ) ) );
+        assertEquals( getURI( "/ok" ) ,
+                      HTTPhelper.resolveRedirect( client ,
+                                                  getURI( "/ok" ) ) );
+
+        assertEquals( 200 ,
+                      HTTPhelper.getStatusCode( client ,
+                                                getURI( "/redirect" ) ,
+                                                TIMEOUT ) );
+    }
+
+    /**
+     * Test the picture loading.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLoadPicture()
+        throws Exception
+    {
+        final BufferedImage image = HTTPhelper.loadPicture( client ,
+                                                            getURI( "/picture" ) );
+        assertNotNull( image );
+        assertEquals( 3 ,
+                      image.getWidth() );
+        assertEquals( 2 ,
+                      image.getHeight() );
+
+        assertNull( "Text is not a picture" ,
+                    HTTPhelper.loadPicture( client ,
+                                            getURI( "/ok" ) ) );
+
+        try
+        {
+            HTTPhelper.loadPicture( client ,
+                                    getURI( "/missing" ) );
+
+            fail( "Should fail on a 404" );
+        }
+        catch( final IOException ex )
+        {
+            // Expected
+        }
+    }
+
+    // PRIVATE
+    private static final Duration TIMEOUT = new Duration( 5000L );
+    private HttpServer server;
+    private HTTPclientPool pool;
+    private CloseableHttpAsyncClient client;
+    private final List<String> requests;
+
+    private URI getURI( final String path )
+    {
+        return URI.create( "http://127.0.0.1:" + server.getAddress().getPort() + path );
+    }
+
+    private static void send( final HttpExchange exchange ,
+                              final int statusCode ,
+                              final String contentType ,
+                              final byte[] content )
+        throws IOException
+    {
+        exchange.getResponseHeaders().set( "Content-Type" ,
+                                           contentType );
+
+        if ( "HEAD".equals( exchange.getRequestMethod() ) || content.length <= 0 )
+        {
+            exchange.sendResponseHeaders( statusCode ,
+                                          -1L );
+        }
+        else
+        {
+            exchange.sendResponseHeaders( statusCode ,
+                                          content.length );
+            try( final OutputStream os = exchange.getResponseBody() )
+            {
+                os.write( content );
+            }
+        }
+
+        exchange.close();
+    }
+
+    /**
+     * Record the method, the path and the range of each request.
+     */
+    private abstract class RecordHandler
+        implements HttpHandler
+    {
+        // PUBLIC
+        public RecordHandler()
+        {
+            // Nothing
+        }
+
+        @Override
+        public void handle( final HttpExchange exchange )
+            throws IOException
+        {
+            final String range = exchange.getRequestHeaders().getFirst( "Range" );
+            if ( range == null )
+            {
+                requests.add( exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() );
+            }
+            else
+            {
+                requests.add( exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " " + range );
+            }
+
+            answer( exchange );
+        }
+
+        // PROTECTED
+        protected abstract void answer( final HttpExchange exchange )
+            throws IOException;
+    }
+}
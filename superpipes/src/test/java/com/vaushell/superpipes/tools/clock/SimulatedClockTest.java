@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.clock;
+
+import com.vaushell.superpipes.dispatch.RateLimiter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see SimulatedClock
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class SimulatedClockTest
+{
+    // PUBLIC
+    public SimulatedClockTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the jumps.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSleep()
+        throws Exception
+    {
+        final DateTime start = new DateTime( 2014 ,
+                                             5 ,
+                                             12 ,
+                                             8 ,
+                                             0 ,
+                                             0 );
+        final SimulatedClock clock = new SimulatedClock( start );
+
+        assertEquals( start ,
+                      clock.now() );
+        assertEquals( 0L ,
+                      clock.nanoTime() );
+
+        final long realStart = System.nanoTime();
+        clock.sleep( 24L * 3600L * 1000L );
+
+        assertTrue( "Sleep must not wait" ,
+                    System.nanoTime() - realStart < 1000L * 1000L * 1000L );
+        assertEquals( start.plusDays( 1 ) ,
+                      clock.now() );
+
+        assertEquals( "Clock jumps over the wait" ,
+                      0L ,
+                      clock.elapse( 1000L ) );
+        assertEquals( start.plusDays( 1 ).plusSeconds( 1 ) ,
+                      clock.now() );
+
+        clock.advance( new Duration( 1000L ) );
+        assertEquals( start.plusDays( 1 ).plusSeconds( 2 ) ,
+                      clock.now() );
+
+        Thread.currentThread().interrupt();
+        try
+        {
+            clock.sleep( 1000L );
+
+            fail( "Sleep must be interrupted" );
+        }
+        catch( final InterruptedException ex )
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Test a rate limiter with the simulated time.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRateLimiter()
+        throws Exception
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+
+        final RateLimiter limiter = new RateLimiter( 1 ,
+                                                     new Duration( 60L * 1000L ) ,
+                                                     clock );
+
+        assertEquals( 0L ,
+                      limiter.tryAcquire() );
+        assertEquals( 60L * 1000L ,
+                      limiter.tryAcquire() );
+
+        clock.sleep( 30L * 1000L );
+        assertEquals( 30L * 1000L ,
+                      limiter.tryAcquire() );
+
+        clock.sleep( 30L * 1000L );
+        assertEquals( 0L ,
+                      limiter.tryAcquire() );
+    }
+
+    /**
+     * Test that a long wait never jumps over a shorter one.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testParticipants()
+        throws Exception
+    {
+        final DateTime start = new DateTime( 2014 ,
+                                             5 ,
+                                             12 ,
+                                             8 ,
+                                             0 ,
+                                             0 );
+        final SimulatedClock clock = new SimulatedClock( start );
+
+        final List<DateTime> longWakes = new CopyOnWriteArrayList<>();
+        final List<DateTime> shortWakes = new CopyOnWriteArrayList<>();
+
+        final Thread longThread = new Thread( new Sleeper( clock ,
+                                                           longWakes ,
+                                                           10L * 3600L * 1000L ) );
+        final Thread shortThread = new Thread( new Sleeper( clock ,
+                                                            shortWakes ,
+                                                            3600L * 1000L ,
+                                                            3600L * 1000L ) );
+
+        clock.register( longThread );
+        clock.register( shortThread );
+
+        longThread.start();
+
+        // The long wait must not move the time alone
+        Thread.sleep( 50L );
+        assertEquals( start ,
+                      clock.now() );
+
+        shortThread.start();
+
+        longThread.join( 10000L );
+        shortThread.join( 10000L );
+
+        assertEquals( Arrays.asList( start.plusHours( 1 ) ,
+                                     start.plusHours( 2 ) ) ,
+                      shortWakes );
+        assertEquals( Arrays.asList( start.plusHours( 10 ) ) ,
+                      longWakes );
+    }
+
+    // PRIVATE
+    /**
+     * Registered thread which sleeps and records its wake-up dates.
+     */
+    private static final class Sleeper
+        implements Runnable
+    {
+        // PUBLIC
+        public Sleeper( final SimulatedClock clock ,
+                        final List<DateTime> wakes ,
+                        final long... delays )
+        {
+            this.clock = clock;
+            this.wakes = wakes;
+            this.delays = delays;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for ( final long delay : delays )
+                {
+                    clock.sleep( delay );
+
+                    wakes.add( clock.now() );
+                }
+            }
+            catch( final InterruptedException ex )
+            {
+                // Stop
+            }
+            finally
+            {
+                clock.unregister( Thread.currentThread() );
+            }
+        }
+
+        // PRIVATE
+        private final SimulatedClock clock;
+        private final List<DateTime> wakes;
+        private final long[] delays;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.hash;
+
+import java.nio.charset.Charset;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see Murmur3
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class Murmur3Test
+{
+    // PUBLIC
+    public Murmur3Test()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the reference values of MurmurHash3 x64 128.
+     */
+    @Test
+    public void testReference()
+    {
+        final Murmur3 hasher = new Murmur3();
+
+        assertEquals( 0L ,
+                      hasher.getHigh() );
+        assertEquals( 0L ,
+                      hasher.getLow() );
+
+        hasher.reset()
+            .putBytes( "The quick brown fox jumps over the lazy dog".getBytes( Charset.forName( "US-ASCII" ) ) );
+        assertEquals( 0xe34bbc7bbc071b6cL ,
+                      hasher.getHigh() );
+        assertEquals( 0x7a433ca9c49a9347L ,
+                      hasher.getLow() );
+
+        // 2 blocks and a tail
+        hasher.reset();
+        for ( int i = 0 ; i < 40 ; ++i )
+        {
+            hasher.putByte( (byte) i );
+        }
+        assertEquals( 0xc3a054d8418c8064L ,
+                      hasher.getHigh() );
+        assertEquals( 0xa001ca30974c12adL ,
+                      hasher.getLow() );
+
+        final Murmur3 seeded = new Murmur3( 42 );
+        seeded.putBytes( "hello".getBytes( Charset.forName( "US-ASCII" ) ) );
+        assertEquals( 0xc4b8b3c960af6f08L ,
+                      seeded.getHigh() );
+        assertEquals( 0x2334b875b0efbc7aL ,
+                      seeded.getLow() );
+    }
+
+    /**
+     * Typed values are fed as little-endian bytes.
+     */
+    @Test
+    public void testTypes()
+    {
+        final Murmur3 hasher = new Murmur3();
+
+        hasher.putChars( "ab" )
+            .putInt( 0x01020304 )
+            .putLong( 0x0102030405060708L );
+        final long high = hasher.getHigh();
+        final long low = hasher.getLow();
+
+        hasher.reset()
+            .putBytes( new byte[]
+            {
+                'a' , 0 , 'b' , 0 , 4 , 3 , 2 , 1 , 8 , 7 , 6 , 5 , 4 , 3 , 2 , 1
+            } );
+
+        assertEquals( high ,
+                      hasher.getHigh() );
+        assertEquals( low ,
+                      hasher.getLow() );
+    }
+}
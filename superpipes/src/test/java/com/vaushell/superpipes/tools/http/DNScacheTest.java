@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import com.vaushell.superpipes.tools.clock.SimulatedClock;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.conn.DnsResolver;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see DNScache
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class DNScacheTest
+{
+    // PUBLIC
+    public DNScacheTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the time to live.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTTL()
+        throws Exception
+    {
+        final AtomicInteger calls = new AtomicInteger( 0 );
+        final DnsResolver resolver = new DnsResolver()
+        {
+            @Override
+            public InetAddress[] resolve( final String host )
+                throws UnknownHostException
+            {
+                calls.incrementAndGet();
+
+                if ( "unknown.test".equals( host ) )
+                {
+                    throw new UnknownHostException( host );
+                }
+
+                return new InetAddress[]
+                {
+                    InetAddress.getByAddress( host ,
+                                              new byte[]
+                                              {
+                                                  10 , 0 , 0 , (byte) calls.get()
+                                              } )
+                };
+            }
+        };
+
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final DNScache cache = new DNScache( resolver ,
+                                             new Duration( 60_000L ) ,
+                                             clock );
+
+        final InetAddress[] first = cache.resolve( "www.test" );
+        assertEquals( 1 ,
+                      calls.get() );
+
+        clock.advance( new Duration( 59_000L ) );
+        assertEquals( first[0] ,
+                      cache.resolve( "www.test" )[0] );
+        assertEquals( 1 ,
+                      calls.get() );
+
+        // Another host
+        cache.resolve( "img.test" );
+        assertEquals( 2 ,
+                      calls.get() );
+        assertEquals( 2 ,
+                      cache.size() );
+
+        // Expired
+        clock.advance( new Duration( 1_000L ) );
+        final InetAddress[] second = cache.resolve( "www.test" );
+        assertEquals( 3 ,
+                      calls.get() );
+        assertFalse( first[0].equals( second[0] ) );
+
+        // Unknown hosts are not cached
+        for ( int i = 0 ; i < 2 ; ++i )
+        {
+            try
+            {
+                cache.resolve( "unknown.test" );
+                fail( "Host should be unknown" );
+            }
+            catch( final UnknownHostException ex )
+            {
+                // Expected
+            }
+        }
+        assertEquals( 5 ,
+                      calls.get() );
+        assertEquals( 2 ,
+                      cache.size() );
+
+        cache.clear();
+        cache.resolve( "img.test" );
+        assertEquals( 6 ,
+                      calls.get() );
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.transforms.A_Transform;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see HTTPclientPool
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class HTTPclientPoolTest
+{
+    // PUBLIC
+    public HTTPclientPoolTest()
+    {
+        this.datas = null;
+    }
+
+    /**
+     * Create the datas directory.
+     *
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void setUp()
+        throws Exception
+    {
+        datas = Files.createTempDirectory( "http" );
+
+        T_Client.CLIENTS.clear();
+        T_Client.ASYNC_CLIENTS.clear();
+    }
+
+    /**
+     * Delete the datas directory.
+     *
+     * @throws Exception
+     */
+    @AfterMethod
+    public void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( datas.toFile() );
+    }
+
+    /**
+     * Test that the transforms of all the nodes share the same clients, and that close() resets the pool.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReuse()
+        throws Exception
+    {
+        final Dispatcher dispatcher = createDispatcher( "" );
+        final HTTPclientPool pool = dispatcher.getHTTPclientPool();
+
+        dispatcher.start();
+
+        assertEquals( 2 ,
+                      T_Client.CLIENTS.size() );
+        assertSame( "Blocking client should be shared" ,
+                    T_Client.CLIENTS.get( 0 ) ,
+                    T_Client.CLIENTS.get( 1 ) );
+        assertSame( pool.getClient() ,
+                    T_Client.CLIENTS.get( 0 ) );
+
+        assertEquals( 2 ,
+                      T_Client.ASYNC_CLIENTS.size() );
+        assertSame( "Asynchronous client should be shared" ,
+                    T_Client.ASYNC_CLIENTS.get( 0 ) ,
+                    T_Client.ASYNC_CLIENTS.get( 1 ) );
+        assertSame( pool.getAsyncClient() ,
+                    T_Client.ASYNC_CLIENTS.get( 0 ) );
+
+        // The dispatcher closes the pool when it stops
+        dispatcher.stopAndWait();
+
+        assertFalse( "Asynchronous client should be closed" ,
+                     T_Client.ASYNC_CLIENTS.get( 0 ).isRunning() );
+
+        final CloseableHttpClient client = pool.getClient();
+        assertNotSame( "A new client should be created after close" ,
+                       T_Client.CLIENTS.get( 0 ) ,
+                       client );
+        assertSame( client ,
+                    pool.getClient() );
+
+        final CloseableHttpAsyncClient asyncClient = pool.getAsyncClient();
+        assertNotSame( T_Client.ASYNC_CLIENTS.get( 0 ) ,
+                       asyncClient );
+        assertTrue( asyncClient.isRunning() );
+
+        pool.close();
+    }
+
+    /**
+     * Test the limit per host and the timeouts read from the configuration.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConfiguration()
+        throws Exception
+    {
+        final Dispatcher dispatcher = createDispatcher( "<http><params>"
+                                                        + "<param name=\"max-connections-per-host\" value=\"1\" />"
+                                                        + "<param name=\"socket-timeout\" value=\"1000\" />"
+                                                        + "<param name=\"connection-request-timeout\" value=\"200\" />"
+                                                        + "</params></http>" );
+        final HTTPclientPool pool = dispatcher.getHTTPclientPool();
+
+        // Server which accepts the connections and never answers
+        final List<Socket> accepted = new CopyOnWriteArrayList<>();
+        try( final ServerSocket server = new ServerSocket( 0 ,
+                                                           10 ,
+                                                           InetAddress.getLoopbackAddress() ) )
+        {
+            final Thread acceptor = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        while ( true )
+                        {
+                            accepted.add( server.accept() );
+                        }
+                    }
+                    catch( final IOException ex )
+                    {
+                        // Server is closed
+                    }
+                }
+            } );
+            acceptor.start();
+
+            final String uri = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            final CloseableHttpClient client = pool.getClient();
+
+            // The first request takes the only connection to the host
+            final FutureTask<Void> first = new FutureTask<>( new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws Exception
+                {
+                    try( final CloseableHttpResponse response = client.execute( new HttpGet( uri ) ) )
+                    {
+                        return null;
+                    }
+                }
+            } );
+            new Thread( first ).start();
+
+            while ( accepted.isEmpty() )
+            {
+                Thread.sleep( 10L );
+            }
+
+            // The second request waits for a free connection (200 ms), not for the socket timeout
+            try( final CloseableHttpResponse response = client.execute( new HttpGet( uri ) ) )
+            {
+                fail( "Request should wait for a free connection" );
+            }
+            catch( final ConnectionPoolTimeoutException ex )
+            {
+                // Expected
+            }
+
+            assertFalse( "First request should still wait for data" ,
+                         first.isDone() );
+
+            // The first request stops with the socket timeout (1 second), not the default one (20 seconds)
+            try
+            {
+                first.get( 10L ,
+                           TimeUnit.SECONDS );
+
+                fail( "Server never answers" );
+            }
+            catch( final ExecutionException ex )
+            {
+                assertTrue( "Should be a socket timeout: " + ex.getCause() ,
+                            ex.getCause() instanceof SocketTimeoutException );
+            }
+
+            assertEquals( "Only 1 connection to the host" ,
+                          1 ,
+                          accepted.size() );
+        }
+        finally
+        {
+            for ( final Socket socket : accepted )
+            {
+                socket.close();
+            }
+
+            pool.close();
+        }
+    }
+
+    /**
+     * Record the clients given by the pool.
+     */
+    public static class T_Client
+        extends A_Transform
+    {
+        // PUBLIC
+        public static final List<CloseableHttpClient> CLIENTS = new CopyOnWriteArrayList<>();
+        public static final List<CloseableHttpAsyncClient> ASYNC_CLIENTS = new CopyOnWriteArrayList<>();
+
+        public T_Client()
+        {
+            super();
+        }
+
+        @Override
+        public void prepare()
+            throws Exception
+        {
+            final HTTPclientPool pool = getNode().getDispatcher().getHTTPclientPool();
+
+            CLIENTS.add( pool.getClient() );
+            ASYNC_CLIENTS.add( pool.getAsyncClient() );
+        }
+
+        @Override
+        public Message transform( final Message message )
+            throws Exception
+        {
+            return message;
+        }
+
+        @Override
+        public void terminate()
+            throws Exception
+        {
+            // Nothing
+        }
+    }
+
+    // PRIVATE
+    private Path datas;
+
+    private Dispatcher createDispatcher( final String http )
+        throws Exception
+    {
+        final String xml = "<configuration>"
+                           + "<mailer><params><param name=\"anti-burst\" value=\"1000\" /></params></mailer>"
+                           + http
+                           + "<nodes>"
+                           + "<node id=\"node1\" type=\"com.vaushell.superpipes.nodes.dummy.N_Dummy\">"
+                           + "<in><transform type=\"" + T_Client.class.getName() + "\" /></in>"
+                           + "</node>"
+                           + "<node id=\"node2\" type=\"com.vaushell.superpipes.nodes.dummy.N_Dummy\">"
+                           + "<in><transform type=\"" + T_Client.class.getName() + "\" /></in>"
+                           + "</node>"
+                           + "</nodes>"
+                           + "</configuration>";
+
+        final XMLConfiguration config = new XMLConfiguration();
+        config.load( new ByteArrayInputStream( xml.getBytes( Charset.forName( "utf-8" ) ) ) );
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.init( config ,
+                         datas ,
+                         null );
+
+        return dispatcher;
+    }
+}
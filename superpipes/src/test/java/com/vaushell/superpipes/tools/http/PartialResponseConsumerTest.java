@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.protocol.BasicHttpContext;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see PartialResponseConsumer
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class PartialResponseConsumerTest
+{
+    // PUBLIC
+    public PartialResponseConsumerTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test a content longer than the limit: the result is given early and the connection is closed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTruncated()
+        throws Exception
+    {
+        final BasicFuture<PartialResponse> future = new BasicFuture<>( null );
+        final PartialResponseConsumer consumer = new PartialResponseConsumer( 1024 ,
+                                                                              future );
+        final Control control = new Control();
+
+        consumer.responseReceived( createResponse() );
+
+        final Decoder decoder = new Decoder( 100_000 ,
+                                             300 );
+        while ( !future.isDone() && !decoder.isCompleted() )
+        {
+            consumer.consumeContent( decoder ,
+                                     control );
+        }
+
+        assertTrue( future.isDone() );
+        assertTrue( control.shutdown );
+        assertTrue( "Only the first KB (and 1 buffer) is read" ,
+                    decoder.position <= 1024 + 4096 );
+
+        final PartialResponse result = future.get();
+        assertEquals( 200 ,
+                      result.getStatusCode() );
+        assertTrue( result.isTruncated() );
+        assertTrue( Arrays.equals( expected( 1024 ) ,
+                                   result.getContent() ) );
+    }
+
+    /**
+     * Test a content shorter than the limit.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testComplete()
+        throws Exception
+    {
+        final BasicFuture<PartialResponse> future = new BasicFuture<>( null );
+        final PartialResponseConsumer consumer = new PartialResponseConsumer( 1024 ,
+                                                                              future );
+        final Control control = new Control();
+
+        consumer.responseReceived( createResponse() );
+
+        final Decoder decoder = new Decoder( 500 ,
+                                             300 );
+        while ( !decoder.isCompleted() )
+        {
+            consumer.consumeContent( decoder ,
+                                     control );
+        }
+        consumer.responseCompleted( new BasicHttpContext() );
+
+        assertFalse( "Completed by the client" ,
+                     future.isDone() );
+        assertFalse( control.shutdown );
+
+        final PartialResponse result = consumer.getResult();
+        assertFalse( result.isTruncated() );
+        assertTrue( Arrays.equals( expected( 500 ) ,
+                                   result.getContent() ) );
+
+        // Nothing kept
+        final BasicFuture<PartialResponse> future2 = new BasicFuture<>( null );
+        final PartialResponseConsumer consumer2 = new PartialResponseConsumer( 0 ,
+                                                                               future2 );
+
+        consumer2.responseReceived( createResponse() );
+
+        final Decoder decoder2 = new Decoder( 1 ,
+                                              300 );
+        consumer2.consumeContent( decoder2 ,
+                                  control );
+        consumer2.responseCompleted( new BasicHttpContext() );
+
+        assertFalse( control.shutdown );
+        assertTrue( consumer2.getResult().isTruncated() );
+        assertEquals( 0 ,
+                      consumer2.getResult().getContent().length );
+    }
+
+    // PRIVATE
+    private static HttpResponse createResponse()
+    {
+        final HttpResponse response = new BasicHttpResponse( HttpVersion.HTTP_1_1 ,
+                                                             200 ,
+                                                             "OK" );
+        response.setEntity( new BasicHttpEntity() );
+
+        return response;
+    }
+
+    private static byte[] expected( final int length )
+    {
+        final byte[] bytes = new byte[ length ];
+        for ( int i = 0 ; i < length ; ++i )
+        {
+            bytes[ i] = (byte) i;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Content of a given length, read by chunks.
+     */
+    private static final class Decoder
+        implements ContentDecoder
+    {
+        // PUBLIC
+        public Decoder( final int length ,
+                        final int chunk )
+        {
+            this.length = length;
+            this.chunk = chunk;
+            this.position = 0;
+            this.chunkRead = false;
+        }
+
+        @Override
+        public int read( final ByteBuffer dst )
+        {
+            // 1 chunk per call
+            if ( chunkRead || position >= length )
+            {
+                chunkRead = false;
+
+                return 0;
+            }
+
+            final int count = Math.min( Math.min( chunk ,
+                                                  dst.remaining() ) ,
+                                        length - position );
+            for ( int i = 0 ; i < count ; ++i )
+            {
+                dst.put( (byte) position++ );
+            }
+
+            chunkRead = true;
+
+            return count;
+        }
+
+        @Override
+        public boolean isCompleted()
+        {
+            return position >= length;
+        }
+
+        // DEFAULT
+        int position;
+
+        // PRIVATE
+        private final int length;
+        private final int chunk;
+        private boolean chunkRead;
+    }
+
+    /**
+     * Connection control.
+     */
+    private static final class Control
+        implements IOControl
+    {
+        // PUBLIC
+        public Control()
+        {
+            this.shutdown = false;
+        }
+
+        @Override
+        public void requestInput()
+        {
+            // Nothing
+        }
+
+        @Override
+        public void suspendInput()
+        {
+            // Nothing
+        }
+
+        @Override
+        public void requestOutput()
+        {
+            // Nothing
+        }
+
+        @Override
+        public void suspendOutput()
+        {
+            // Nothing
+        }
+
+        @Override
+        public void shutdown()
+            throws IOException
+        {
+            shutdown = true;
+        }
+
+        // DEFAULT
+        boolean shutdown;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.http;
+
+import com.vaushell.superpipes.tools.clock.SimulatedClock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see RedirectCache
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class RedirectCacheTest
+{
+    // PUBLIC
+    public RedirectCacheTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the least recently used eviction and the failures.
+     */
+    @Test
+    public void testEviction()
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final RedirectCache cache = new RedirectCache( 2 ,
+                                                       new Duration( 60_000L ) ,
+                                                       clock );
+
+        cache.putTarget( "http://t.co/a" ,
+                         "http://www.vauchelles.com/a" );
+        cache.putFailure( "http://t.co/b" );
+
+        assertEquals( "http://www.vauchelles.com/a" ,
+                      cache.get( "http://t.co/a" ).getTarget() );
+        assertTrue( cache.get( "http://t.co/b" ).isFailed() );
+
+        // b is the most recently used
+        cache.putTarget( "http://t.co/c" ,
+                         "http://www.vauchelles.com/c" );
+
+        assertNull( cache.get( "http://t.co/a" ) );
+        assertNotNull( cache.get( "http://t.co/b" ) );
+        assertEquals( 2 ,
+                      cache.size() );
+
+        // Failures expire, not the targets
+        clock.advance( new Duration( 60_000L ) );
+
+        assertNull( cache.get( "http://t.co/b" ) );
+        assertEquals( "http://www.vauchelles.com/c" ,
+                      cache.get( "http://t.co/c" ).getTarget() );
+        assertEquals( 1 ,
+                      cache.size() );
+    }
+
+    /**
+     * Test the save and the load.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPersistence()
+        throws Exception
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final Path path = Files.createTempDirectory( "redirects" ).resolve( "redirects.dat" );
+
+        final RedirectCache cache = new RedirectCache( 10 ,
+                                                       new Duration( 60_000L ) ,
+                                                       clock );
+        cache.putTarget( "http://t.co/a" ,
+                         "http://www.vauchelles.com/a" );
+        cache.putTarget( "http://t.co/b" ,
+                         "http://t.co/b" );
+        cache.putFailure( "http://t.co/c" );
+        cache.save( path );
+
+        clock.advance( new Duration( 30_000L ) );
+
+        // Only 2 URLs: the least recently used is dropped
+        final RedirectCache loaded = new RedirectCache( 2 ,
+                                                        new Duration( 60_000L ) ,
+                                                        clock );
+        loaded.load( path );
+
+        assertEquals( 2 ,
+                      loaded.size() );
+        assertNull( loaded.get( "http://t.co/a" ) );
+        assertEquals( "http://t.co/b" ,
+                      loaded.get( "http://t.co/b" ).getTarget() );
+        assertTrue( loaded.get( "http://t.co/c" ).isFailed() );
+
+        // The failure keeps its time
+        clock.advance( new Duration( 30_000L ) );
+
+        assertNull( loaded.get( "http://t.co/c" ) );
+
+        // Missing file
+        final RedirectCache empty = new RedirectCache( 10 ,
+                                                       new Duration( 60_000L ) ,
+                                                       clock );
+        empty.load( path.resolveSibling( "missing.dat" ) );
+
+        assertEquals( 0 ,
+                      empty.size() );
+    }
+}
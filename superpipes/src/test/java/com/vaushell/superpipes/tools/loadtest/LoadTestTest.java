@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.tools.loadtest;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.nodes.A_Node;
+import com.vaushell.superpipes.nodes.stub.N_LatencySink;
+import com.vaushell.superpipes.nodes.stub.N_LoadGenerator;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see LoadTest
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class LoadTestTest
+{
+    // PUBLIC
+    public LoadTestTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test a run from a generator to a sink.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRun()
+        throws Exception
+    {
+        final Dispatcher dispatcher = new Dispatcher();
+
+        final A_Node generator = dispatcher.addNode( "generator" ,
+                                                     N_LoadGenerator.class ,
+                                                     ConfigProperties.EMPTY_COMMONS );
+        generator.getProperties().setProperty( "rate" ,
+                                               "1000" );
+        generator.getProperties().setProperty( "count" ,
+                                               "200" );
+
+        dispatcher.addNode( "sink" ,
+                            N_LatencySink.class ,
+                            ConfigProperties.EMPTY_COMMONS );
+
+        dispatcher.addRoute( "generator" ,
+                             "sink" );
+
+        final LoadTestReport report = new LoadTest( dispatcher ,
+                                                    new Duration( 1000L ) ,
+                                                    new Duration( 100L ) ).run();
+
+        assertEquals( 200L ,
+                      report.getGenerated() );
+        assertEquals( 200L ,
+                      report.getReceived() );
+        assertEquals( "All messages must be stamped" ,
+                      200L ,
+                      report.getLatencies().getCount() );
+        assertTrue( report.getThroughput() > 0.0 );
+
+        assertEquals( 2 ,
+                      report.getQueues().size() );
+        assertEquals( "Sink must follow the flow" ,
+                      0 ,
+                      report.getQueues().get( "sink" ).getLast() );
+
+        final String text = report.format();
+        assertTrue( text.contains( "p999=" ) );
+        assertTrue( text.contains( "sink" ) );
+    }
+}
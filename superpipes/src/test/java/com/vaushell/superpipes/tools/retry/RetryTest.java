@@ -192,4 +192,47 @@ public class RetryTest
                         duration.getMillis() < 3500L );
         }
     }
+
+    /**
+     * Test the tries without waiting (to schedule them).
+     *
+     * @throws RetryException
+     */
+    @Test
+    public void testFailed()
+        throws RetryException
+    {
+        final A_Retry<Void> retry = new A_Retry<Void>()
+        {
+            @Override
+            protected Void executeContent()
+                throws Exception
+            {
+                throw new UnsupportedOperationException();
+            }
+        }
+            .setRetry( 2 )
+            .setWaitTime( new Duration( 100L ) )
+            .setWaitTimeMultiplier( 2.0 )
+            .start();
+
+        final IOException error = new IOException( "error" );
+
+        assertEquals( 100L ,
+                      retry.failed( error ) );
+        assertEquals( 200L ,
+                      retry.failed( error ) );
+
+        try
+        {
+            retry.failed( error );
+
+            fail( "Tries must be exhausted" );
+        }
+        catch( final RetryException ex )
+        {
+            assertEquals( error ,
+                          ex.getCause() );
+        }
+    }
 }
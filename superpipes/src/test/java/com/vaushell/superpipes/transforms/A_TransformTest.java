@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms;
+
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import com.vaushell.superpipes.nodes.test.N_ReceiveBlocking;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see A_Transform
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class A_TransformTest
+{
+    // PUBLIC
+    public A_TransformTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the order of the messages in flight, when the transforms finish in the reverse order. The node thread
+     * waits the oldest message.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInFlightOrder()
+        throws Exception
+    {
+        checkInFlightOrder( "thread" );
+    }
+
+    /**
+     * Test the order of the messages in flight, with a pooled node. The node is woken up by the finished transforms.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInFlightOrderPooled()
+        throws Exception
+    {
+        checkInFlightOrder( "io" );
+    }
+
+    /**
+     * Test the errors of asynchronous transforms: the message is discarded, the next ones are kept.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInFlightErrors()
+        throws Exception
+    {
+        final Path datas = Files.createTempDirectory( "transform" );
+        try
+        {
+            final Dispatcher dispatcher = createDispatcher( T_Fail.class ,
+                                                            "thread" ,
+                                                            3 ,
+                                                            datas );
+
+            final A_Node node = dispatcher.getNode( "node" );
+            final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.getNode( "receive" );
+
+            dispatcher.start();
+
+            for ( final String title : new String[]
+            {
+                "message 0" , "throw" , "message 1" , "fail" , "message 2"
+            } )
+            {
+                node.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                     title ) );
+            }
+
+            for ( int i = 0 ; i < 3 ; ++i )
+            {
+                final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "Message " + i + " should be received" ,
+                               message );
+                assertEquals( "message " + i ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertEquals( 2L ,
+                          node.getMetrics().getErrors() );
+            assertEquals( 2L ,
+                          node.getMetrics().getDiscarded() );
+
+            dispatcher.stopAndWait();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+
+    /**
+     * Test that a transform which isn't thread-safe is called by 1 I/O thread at a time.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNotThreadSafe()
+        throws Exception
+    {
+        T_Unsafe.CURRENT.set( 0 );
+        T_Unsafe.MAX.set( 0 );
+
+        final Path datas = Files.createTempDirectory( "transform" );
+        try
+        {
+            final Dispatcher dispatcher = createDispatcher( T_Unsafe.class ,
+                                                            "thread" ,
+                                                            4 ,
+                                                            datas );
+
+            final A_Node node = dispatcher.getNode( "node" );
+            final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.getNode( "receive" );
+
+            dispatcher.start();
+
+            for ( int i = 0 ; i < 8 ; ++i )
+            {
+                node.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                     "message " + i ) );
+            }
+
+            for ( int i = 0 ; i < 8 ; ++i )
+            {
+                final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "Message " + i + " should be received" ,
+                               message );
+                assertEquals( "message " + i ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            assertEquals( "Calls should be serialized" ,
+                          1 ,
+                          T_Unsafe.MAX.get() );
+
+            dispatcher.stopAndWait();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+
+    /**
+     * Hold the transforms until the test runs them.
+     */
+    public static class T_Hold
+        extends A_Transform
+    {
+        // PUBLIC
+        public static final BlockingQueue<FutureTask<Message>> HELD = new LinkedBlockingQueue<>();
+
+        public T_Hold()
+        {
+            super();
+        }
+
+        @Override
+        public void prepare()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        @Override
+        public Message transform( final Message message )
+            throws Exception
+        {
+            return message;
+        }
+
+        @Override
+        public Future<Message> transformAsync( final Message message )
+        {
+            final FutureTask<Message> task = new FutureTask<Message>( new Callable<Message>()
+            {
+                @Override
+                public Message call()
+                    throws Exception
+                {
+                    return transform( message );
+                }
+            } )
+            {
+                @Override
+                protected void done()
+                {
+                    getNode().wakeUp();
+                }
+            };
+
+            HELD.add( task );
+
+            return task;
+        }
+
+        @Override
+        public void terminate()
+            throws Exception
+        {
+            // Nothing
+        }
+    }
+
+    /**
+     * Fail in the call ("throw") or in the future ("fail").
+     */
+    public static class T_Fail
+        extends A_Transform
+    {
+        // PUBLIC
+        public T_Fail()
+        {
+            super();
+        }
+
+        @Override
+        public void prepare()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        @Override
+        public Message transform( final Message message )
+            throws Exception
+        {
+            if ( "fail".equals( message.getProperty( Message.KeyIndex.TITLE ) ) )
+            {
+                throw new IllegalStateException( "fail" );
+            }
+
+            return message;
+        }
+
+        @Override
+        public Future<Message> transformAsync( final Message message )
+            throws Exception
+        {
+            if ( "throw".equals( message.getProperty( Message.KeyIndex.TITLE ) ) )
+            {
+                throw new IllegalStateException( "throw" );
+            }
+
+            return transformOnIO( message );
+        }
+
+        @Override
+        public void terminate()
+            throws Exception
+        {
+            // Nothing
+        }
+    }
+
+    /**
+     * Slow transform which isn't thread-safe. Count the concurrent calls.
+     */
+    public static class T_Unsafe
+        extends A_Transform
+    {
+        // PUBLIC
+        public static final AtomicInteger CURRENT = new AtomicInteger();
+        public static final AtomicInteger MAX = new AtomicInteger();
+
+        public T_Unsafe()
+        {
+            super();
+        }
+
+        @Override
+        public void prepare()
+            throws Exception
+        {
+            // Nothing
+        }
+
+        @Override
+        public Message transform( final Message message )
+            throws Exception
+        {
+            final int current = CURRENT.incrementAndGet();
+            try
+            {
+                while ( true )
+                {
+                    final int max = MAX.get();
+                    if ( current <= max || MAX.compareAndSet( max ,
+                                                              current ) )
+                    {
+                        break;
+                    }
+                }
+
+                Thread.sleep( 20L );
+
+                return message;
+            }
+            finally
+            {
+                CURRENT.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Future<Message> transformAsync( final Message message )
+        {
+            return transformOnIO( message );
+        }
+
+        @Override
+        public void terminate()
+            throws Exception
+        {
+            // Nothing
+        }
+    }
+
+    // PRIVATE
+    private static void checkInFlightOrder( final String executor )
+        throws Exception
+    {
+        T_Hold.HELD.clear();
+
+        final Path datas = Files.createTempDirectory( "transform" );
+        try
+        {
+            final Dispatcher dispatcher = createDispatcher( T_Hold.class ,
+                                                            executor ,
+                                                            3 ,
+                                                            datas );
+
+            final A_Node node = dispatcher.getNode( "node" );
+            final N_ReceiveBlocking receive = (N_ReceiveBlocking) dispatcher.getNode( "receive" );
+
+            dispatcher.start();
+
+            for ( int i = 0 ; i < 3 ; ++i )
+            {
+                node.receiveMessage( Message.create( Message.KeyIndex.TITLE ,
+                                                     "message " + i ) );
+            }
+
+            final List<FutureTask<Message>> tasks = new ArrayList<>();
+            for ( int i = 0 ; i < 3 ; ++i )
+            {
+                final FutureTask<Message> task = T_Hold.HELD.poll( 10L ,
+                                                                   TimeUnit.SECONDS );
+
+                assertNotNull( "Message " + i + " should be in flight" ,
+                               task );
+
+                tasks.add( task );
+            }
+
+            // The youngest messages finish first
+            tasks.get( 2 ).run();
+            tasks.get( 1 ).run();
+
+            assertNull( "The oldest message isn't transformed yet" ,
+                        receive.getProcessingMessageOrWait( new Duration( 200L ) ) );
+
+            tasks.get( 0 ).run();
+
+            for ( int i = 0 ; i < 3 ; ++i )
+            {
+                final Message message = receive.getProcessingMessageOrWait( new Duration( 10L * 1000L ) );
+
+                assertNotNull( "Message " + i + " should be received" ,
+                               message );
+                assertEquals( "Messages should keep their order" ,
+                              "message " + i ,
+                              message.getProperty( Message.KeyIndex.TITLE ) );
+            }
+
+            dispatcher.stopAndWait();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( datas.toFile() );
+        }
+    }
+
+    private static Dispatcher createDispatcher( final Class<?> transform ,
+                                                final String executor ,
+                                                final int inFlight ,
+                                                final Path datas )
+        throws Exception
+    {
+        final String xml = "<configuration>"
+                           + "<mailer><params><param name=\"anti-burst\" value=\"1000\" /></params></mailer>"
+                           + "<scheduler><params><param name=\"io-threads\" value=\"4\" /></params></scheduler>"
+                           + "<nodes>"
+                           + "<node id=\"node\" type=\"com.vaushell.superpipes.nodes.dummy.N_Dummy\">"
+                           + "<params>"
+                           + "<param name=\"executor\" value=\"" + executor + "\" />"
+                           + "<param name=\"in-flight\" value=\"" + inFlight + "\" />"
+                           + "</params>"
+                           + "<in><transform type=\"" + transform.getName() + "\" /></in>"
+                           + "</node>"
+                           + "<node id=\"receive\" type=\"com.vaushell.superpipes.nodes.test.N_ReceiveBlocking\" />"
+                           + "</nodes>"
+                           + "<routes><route source=\"node\" destination=\"receive\" /></routes>"
+                           + "</configuration>";
+
+        final XMLConfiguration config = new XMLConfiguration();
+        config.load( new ByteArrayInputStream( xml.getBytes( Charset.forName( "utf-8" ) ) ) );
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.init( config ,
+                         datas ,
+                         null );
+
+        return dispatcher;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see BloomFilter
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class BloomFilterTest
+{
+    // PUBLIC
+    public BloomFilterTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the false negatives (none) and the false positives (about 1%).
+     */
+    @Test
+    public void testMightContain()
+    {
+        final BloomFilter filter = new BloomFilter( 10000 );
+
+        final Random rnd = new Random( 42L );
+        final long[] hashes = new long[ 10000 * 2 ];
+        for ( int i = 0 ; i < hashes.length ; ++i )
+        {
+            hashes[ i] = rnd.nextLong();
+        }
+
+        for ( int i = 0 ; i < hashes.length ; i += 2 )
+        {
+            filter.add( hashes[ i] ,
+                        hashes[ i + 1] );
+        }
+
+        assertTrue( filter.isFull() );
+
+        for ( int i = 0 ; i < hashes.length ; i += 2 )
+        {
+            assertTrue( filter.mightContain( hashes[ i] ,
+                                             hashes[ i + 1] ) );
+        }
+
+        int falsePositives = 0;
+        for ( int i = 0 ; i < 10000 ; ++i )
+        {
+            if ( filter.mightContain( rnd.nextLong() ,
+                                      rnd.nextLong() ) )
+            {
+                ++falsePositives;
+            }
+        }
+
+        assertTrue( "False positives: " + falsePositives ,
+                    falsePositives < 300 );
+    }
+
+    /**
+     * Test the rebuild of a filter from a table.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAddTo()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            final DoneTable table = new DoneTable( directory.resolve( "done.idx" ) );
+            table.open();
+
+            // With a growth
+            for ( long i = 1L ; i < 2000L ; ++i )
+            {
+                table.add( i * 31L ,
+                           i );
+            }
+
+            final BloomFilter filter = new BloomFilter( 2000 );
+            table.addTo( filter );
+
+            assertFalse( filter.isFull() );
+            for ( long i = 1L ; i < 2000L ; ++i )
+            {
+                assertTrue( filter.mightContain( i * 31L ,
+                                                 i ) );
+            }
+
+            table.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+import com.vaushell.superpipes.dispatch.Message;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see DoneJournal
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class DoneJournalTest
+{
+    // PUBLIC
+    public DoneJournalTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the group commit and the position of the written journal.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPosition()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            final Path path = directory.resolve( "done.log" );
+
+            DoneJournal journal = new DoneJournal( path ,
+                                                   3 );
+            journal.open();
+
+            journal.append( 1L ,
+                            2L ,
+                            Message.create( Message.KeyIndex.TITLE ,
+                                            "message 1" ) );
+            journal.append( 3L ,
+                            4L ,
+                            Message.create( Message.KeyIndex.TITLE ,
+                                            "message 2" ) );
+            journal.commit();
+
+            assertEquals( "2 lines wait for the third" ,
+                          0L ,
+                          journal.getPosition() );
+            assertEquals( 0L ,
+                          Files.size( path ) );
+
+            journal.append( 5L ,
+                            6L ,
+                            Message.create( Message.KeyIndex.TITLE ,
+                                            "message 3" ) );
+            journal.commit();
+
+            final long position = journal.getPosition();
+            assertTrue( position > 0L );
+            assertEquals( position ,
+                          Files.size( path ) );
+
+            final List<String> lines = Files.readAllLines( path ,
+                                                           Charset.forName( "utf-8" ) );
+            assertEquals( 3 ,
+                          lines.size() );
+            assertTrue( lines.get( 0 ).startsWith( "0000000000000001" + "0000000000000002 " ) );
+
+            // Close writes the waiting lines
+            journal.append( 7L ,
+                            8L ,
+                            Message.create( Message.KeyIndex.TITLE ,
+                                            "message 4" ) );
+            journal.close();
+
+            assertTrue( Files.size( path ) > position );
+
+            // Reopen at the end
+            journal = new DoneJournal( path ,
+                                       3 );
+            journal.open();
+
+            assertEquals( Files.size( path ) ,
+                          journal.getPosition() );
+
+            journal.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the replay of the journal from the position stored in the table.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReplay()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            final Path journalPath = directory.resolve( "done.log" );
+            final Path tablePath = directory.resolve( "done.idx" );
+
+            DoneGeneration generation = new DoneGeneration( journalPath ,
+                                                            tablePath ,
+                                                            0L );
+            generation.open( 1 );
+            for ( long i = 0L ; i < 10L ; ++i )
+            {
+                generation.add( i ,
+                                i ,
+                                Message.create( Message.KeyIndex.TITLE ,
+                                                "message " + i ) );
+                generation.commit();
+            }
+            generation.close();
+
+            // Lines written after the last synchronization of the table (i.e. a crash)
+            Files.write( journalPath ,
+                         ( "000000000000000a000000000000000a message 10" + System.lineSeparator()
+                           + "000000000000000b000000000000000b" + System.lineSeparator() ).getBytes( "utf-8" ) ,
+                         StandardOpenOption.APPEND );
+
+            DoneTable table = new DoneTable( tablePath );
+            table.open();
+            assertTrue( "Table isn't synchronized with the end of the journal" ,
+                        table.getJournalPosition() < Files.size( journalPath ) );
+            assertEquals( 10 ,
+                          table.size() );
+            table.close();
+
+            // Only the end of the journal is replayed
+            generation = new DoneGeneration( journalPath ,
+                                             tablePath ,
+                                             0L );
+            generation.open( 1 );
+
+            assertEquals( 12 ,
+                          generation.size() );
+            assertTrue( generation.contains( 10L ,
+                                             10L ) );
+            assertTrue( generation.contains( 11L ,
+                                             11L ) );
+
+            generation.close();
+
+            table = new DoneTable( tablePath );
+            table.open();
+            assertEquals( Files.size( journalPath ) ,
+                          table.getJournalPosition() );
+            table.close();
+
+            // A table beyond the journal (the journal was replaced) is rebuilt
+            Files.write( journalPath ,
+                         ( "000000000000000c000000000000000c message 12" + System.lineSeparator() ).getBytes( "utf-8" ) );
+
+            generation = new DoneGeneration( journalPath ,
+                                             tablePath ,
+                                             0L );
+            generation.open( 1 );
+
+            assertEquals( 1 ,
+                          generation.size() );
+            assertTrue( generation.contains( 12L ,
+                                             12L ) );
+            assertFalse( generation.contains( 1L ,
+                                              1L ) );
+
+            generation.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.done;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see DoneTable
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class DoneTableTest
+{
+    // PUBLIC
+    public DoneTableTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test add and contains, with the growth of the table.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAdd()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            final DoneTable table = new DoneTable( directory.resolve( "done.idx" ) );
+            table.open();
+
+            final Random rnd = new Random( 42L );
+            final long[] hashes = new long[ 10000 * 2 ];
+            for ( int i = 0 ; i < hashes.length ; ++i )
+            {
+                hashes[ i] = rnd.nextLong();
+            }
+
+            for ( int i = 0 ; i < hashes.length ; i += 2 )
+            {
+                assertTrue( table.add( hashes[ i] ,
+                                       hashes[ i + 1] ) );
+            }
+
+            assertEquals( 10000 ,
+                          table.size() );
+
+            for ( int i = 0 ; i < hashes.length ; i += 2 )
+            {
+                assertTrue( table.contains( hashes[ i] ,
+                                            hashes[ i + 1] ) );
+                assertFalse( "Hash is already known" ,
+                             table.add( hashes[ i] ,
+                                        hashes[ i + 1] ) );
+            }
+
+            assertFalse( table.contains( 1L ,
+                                         2L ) );
+
+            // Empty slot marker
+            assertFalse( table.contains( 0L ,
+                                         0L ) );
+            assertTrue( table.add( 0L ,
+                                   0L ) );
+            assertTrue( table.contains( 0L ,
+                                        0L ) );
+
+            table.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the reload of the table.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReload()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            DoneTable table = new DoneTable( directory.resolve( "done.idx" ) );
+            table.open();
+
+            for ( long i = 0L ; i < 5000L ; ++i )
+            {
+                table.add( i * 31L ,
+                           i );
+            }
+            table.setJournalPosition( 1234L );
+
+            table.close();
+
+            table = new DoneTable( directory.resolve( "done.idx" ) );
+            table.open();
+
+            assertEquals( 5000 ,
+                          table.size() );
+            assertEquals( 1234L ,
+                          table.getJournalPosition() );
+            for ( long i = 0L ; i < 5000L ; ++i )
+            {
+                assertTrue( table.contains( i * 31L ,
+                                            i ) );
+            }
+            assertFalse( table.contains( 5000L * 31L ,
+                                         5000L ) );
+
+            table.close();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test the growth: the file is replaced, the journal position is kept, and the grown table is reopened.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGrowthAndReopen()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            final Path path = directory.resolve( "done.idx" );
+
+            DoneTable table = new DoneTable( path );
+            table.open();
+            table.setJournalPosition( 4321L );
+
+            assertEquals( "Initial capacity is 1024 slots" ,
+                          32L + 1024L * 16L ,
+                          Files.size( path ) );
+
+            // 3/4 of 4096 slots => 2 growths
+            for ( long i = 0L ; i < 3000L ; ++i )
+            {
+                assertTrue( table.add( i ,
+                                       i * 17L ) );
+            }
+
+            assertEquals( 32L + 4096L * 16L ,
+                          Files.size( path ) );
+            assertFalse( "Temporary file is moved" ,
+                         Files.exists( directory.resolve( "done.idx.tmp" ) ) );
+            assertEquals( "Growth keeps the journal position" ,
+                          4321L ,
+                          table.getJournalPosition() );
+
+            table.close();
+
+            // Reopen twice: the mapping of the grown file is released at close
+            for ( int i = 0 ; i < 2 ; ++i )
+            {
+                table = new DoneTable( path );
+                table.open();
+
+                assertEquals( 3000 ,
+                              table.size() );
+                assertEquals( 4321L ,
+                              table.getJournalPosition() );
+                for ( long j = 0L ; j < 3000L ; ++j )
+                {
+                    assertTrue( table.contains( j ,
+                                                j * 17L ) );
+                }
+
+                table.close();
+            }
+
+            // Grow again after a reopen
+            table = new DoneTable( path );
+            table.open();
+            for ( long i = 3000L ; i < 4000L ; ++i )
+            {
+                assertTrue( table.add( i ,
+                                       i * 17L ) );
+            }
+            table.close();
+
+            assertEquals( 32L + 8192L * 16L ,
+                          Files.size( path ) );
+
+            Files.delete( path );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+
+    /**
+     * Test a file which isn't a table.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBadFile()
+        throws Exception
+    {
+        final Path directory = Files.createTempDirectory( "done" );
+        try
+        {
+            final Path path = directory.resolve( "done.idx" );
+            Files.write( path ,
+                         new byte[ 64 ] );
+
+            final DoneTable table = new DoneTable( path );
+            try
+            {
+                table.open();
+
+                fail( "File should be refused" );
+            }
+            catch( final IOException ex )
+            {
+                // Expected
+            }
+
+            // The file is released: it can be replaced
+            Files.delete( path );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( directory.toFile() );
+        }
+    }
+}
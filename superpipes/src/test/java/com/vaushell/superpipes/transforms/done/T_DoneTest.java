@@ -24,13 +24,20 @@ import com.vaushell.superpipes.dispatch.Dispatcher;
 import com.vaushell.superpipes.dispatch.Message;
 import com.vaushell.superpipes.nodes.A_Node;
 import com.vaushell.superpipes.nodes.dummy.N_Dummy;
+import com.vaushell.superpipes.tools.clock.SimulatedClock;
 import com.vaushell.superpipes.tools.scribe.code.VC_FileFactory;
 import com.vaushell.superpipes.transforms.A_Transform;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import static org.testng.AssertJUnit.*;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -71,9 +78,9 @@ public class T_DoneTest
             datas = "conf-local/test/datas";
         }
 
-        final XMLConfiguration config = new XMLConfiguration( conf );
+        config = new XMLConfiguration( conf );
 
-        final Path pDatas = Paths.get( datas );
+        pDatas = Paths.get( datas );
         dispatcher.init( config ,
                          pDatas ,
                          new VC_FileFactory( pDatas ) );
@@ -95,9 +102,10 @@ public class T_DoneTest
                                                 ConfigProperties.EMPTY_COMMONS );
 
         final Path p = dispatcher.getDatas().resolve( Paths.get( n.getNodeID() ,
-                                                                 "done.dat" ) );
+                                                                 "ids.dat" ) );
 
         Files.deleteIfExists( p );
+        Files.deleteIfExists( p.resolveSibling( "done.dat" ) );
 
         // Prepare
         n.prepare();
@@ -126,6 +134,52 @@ public class T_DoneTest
         n.terminate();
     }
 
+    /**
+     * Test a batch: duplicates inside the batch and already known messages are discarded, the order is kept.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testBatch()
+        throws Exception
+    {
+        final A_Node n = dispatcher.addNode( "dummy7" ,
+                                             N_Dummy.class ,
+                                             ConfigProperties.EMPTY_COMMONS );
+        final A_Transform t = n.addTransformIN( T_Done.class ,
+                                                ConfigProperties.EMPTY_COMMONS );
+
+        FileUtils.deleteDirectory( dispatcher.getDatas().resolve( n.getNodeID() ).toFile() );
+
+        final Message mA = Message.create( Message.KeyIndex.TITLE ,
+                                           "A" );
+        final Message mB = Message.create( Message.KeyIndex.TITLE ,
+                                           "B" );
+        final Message mC = Message.create( Message.KeyIndex.TITLE ,
+                                           "C" );
+
+        n.prepare();
+
+        assertNotNull( "A is learned" ,
+                       t.transform( mA ) );
+
+        assertEquals( Arrays.asList( mB ,
+                                     mC ) ,
+                      t.transformBatch( Arrays.asList( mA ,
+                                                       mB ,
+                                                       mB.copy() ,
+                                                       mC ) ) );
+
+        n.terminate();
+
+        // The batch is written
+        n.prepare();
+        assertEquals( 0 ,
+                      t.transformBatch( Arrays.asList( mB ,
+                                                       mC ) ).size() );
+        n.terminate();
+    }
+
     /**
      * Test duplicate with fields.
      *
@@ -142,9 +196,10 @@ public class T_DoneTest
                                                 Arrays.asList( dispatcher.getCommon( "id" ) ) );
 
         final Path p = dispatcher.getDatas().resolve( Paths.get( n.getNodeID() ,
-                                                                 "done.dat" ) );
+                                                                 "ids.dat" ) );
 
         Files.deleteIfExists( p );
+        Files.deleteIfExists( p.resolveSibling( "done.dat" ) );
 
         // Prepare
         n.prepare();
@@ -168,6 +223,287 @@ public class T_DoneTest
         n.terminate();
     }
 
+    /**
+     * Test the reload of the IDs, from the table and from the journal.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testReload()
+        throws Exception
+    {
+        final A_Node n = dispatcher.addNode( "dummy3" ,
+                                             N_Dummy.class ,
+                                             ConfigProperties.EMPTY_COMMONS );
+        final A_Transform t = n.addTransformIN( T_Done.class ,
+                                          ConfigProperties.EMPTY_COMMONS );
+
+        final Path p = dispatcher.getDatas().resolve( Paths.get( n.getNodeID() ,
+                                                                 "ids.dat" ) );
+        final Path pTable = p.resolveSibling( "ids.idx" );
+
+        Files.deleteIfExists( p );
+        Files.deleteIfExists( pTable );
+
+        final Message mLearn = Message.create( Message.KeyIndex.TITLE ,
+                                               "mon titre" ,
+                                               Message.KeyIndex.DESCRIPTION ,
+                                               "ma description" );
+        final Message mLearn2 = Message.create( Message.KeyIndex.TITLE ,
+                                                "mon titre2" ,
+                                                Message.KeyIndex.DESCRIPTION ,
+                                                "ma description2" );
+
+        n.prepare();
+        assertNotNull( "Message is learned" ,
+                       t.transform( mLearn ) );
+        n.terminate();
+
+        // Reload from the table
+        n.prepare();
+        assertNull( "Message is not duplicated" ,
+                    t.transform( mLearn ) );
+        assertNotNull( "Message 2 is learned" ,
+                       t.transform( mLearn2 ) );
+        n.terminate();
+
+        // Rebuild from the journal
+        Files.delete( pTable );
+
+        n.prepare();
+        assertNull( "Message is not duplicated" ,
+                    t.transform( mLearn ) );
+        assertNull( "Message 2 is not duplicated" ,
+                    t.transform( mLearn2 ) );
+        n.terminate();
+    }
+
+    /**
+     * Test the group commit of the journal.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testGroupCommit()
+        throws Exception
+    {
+        final A_Node n = dispatcher.addNode( "dummy4" ,
+                                             N_Dummy.class ,
+                                             ConfigProperties.EMPTY_COMMONS );
+        final A_Transform t = n.addTransformIN( T_Done.class ,
+                                                ConfigProperties.EMPTY_COMMONS );
+        t.getProperties().setProperty( "flush-records" ,
+                                       "3" );
+
+        final Path p = dispatcher.getDatas().resolve( Paths.get( n.getNodeID() ,
+                                                                 "ids.dat" ) );
+
+        Files.deleteIfExists( p );
+        Files.deleteIfExists( p.resolveSibling( "done.dat" ) );
+        Files.deleteIfExists( p.resolveSibling( "ids.idx" ) );
+
+        n.prepare();
+
+        for ( int i = 0 ; i < 2 ; ++i )
+        {
+            assertNotNull( t.transform( Message.create( Message.KeyIndex.TITLE ,
+                                                        "titre " + i ) ) );
+        }
+
+        assertEquals( "Lines are waiting" ,
+                      0L ,
+                      Files.size( p ) );
+
+        assertNotNull( t.transform( Message.create( Message.KeyIndex.TITLE ,
+                                                    "titre 2" ) ) );
+        assertEquals( 3 ,
+                      Files.readAllLines( p ,
+                                          Charset.forName( "utf-8" ) ).size() );
+
+        assertNotNull( t.transform( Message.create( Message.KeyIndex.TITLE ,
+                                                    "titre 3" ) ) );
+
+        // Terminate writes the waiting lines
+        n.terminate();
+
+        assertEquals( 4 ,
+                      Files.readAllLines( p ,
+                                          Charset.forName( "utf-8" ) ).size() );
+    }
+
+    /**
+     * Test the expiry of the IDs.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testExpire()
+        throws Exception
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       1 ,
+                                                                       1 ,
+                                                                       0 ,
+                                                                       0 ,
+                                                                       0 ) );
+
+        final Dispatcher simulated = new Dispatcher();
+        simulated.setClock( clock );
+        simulated.init( config ,
+                        pDatas ,
+                        new VC_FileFactory( pDatas ) );
+
+        final A_Node n = simulated.addNode( "dummy5" ,
+                                            N_Dummy.class ,
+                                            ConfigProperties.EMPTY_COMMONS );
+        final A_Transform t = n.addTransformIN( T_Done.class ,
+                                                ConfigProperties.EMPTY_COMMONS );
+        t.getProperties().setProperty( "expire" ,
+                                       "4000" );
+
+        final Path directory = simulated.getDatas().resolve( n.getNodeID() );
+        FileUtils.deleteDirectory( directory.toFile() );
+
+        final Message mA = Message.create( Message.KeyIndex.TITLE ,
+                                           "A" );
+        final Message mB = Message.create( Message.KeyIndex.TITLE ,
+                                           "B" );
+
+        n.prepare();
+
+        assertNotNull( "A is learned" ,
+                       t.transform( mA ) );
+        assertNotNull( "B is learned" ,
+                       t.transform( mB ) );
+
+        // A is seen again: it stays known
+        clock.advance( new Duration( 2500L ) );
+        assertNull( "A is not duplicated" ,
+                    t.transform( mA ) );
+
+        // First generation is expired: B is forgotten
+        clock.advance( new Duration( 3000L ) );
+        assertNull( "A is not duplicated" ,
+                    t.transform( mA ) );
+        assertNotNull( "B is forgotten" ,
+                       t.transform( mB ) );
+
+        final long start = clock.currentTimeMillis() - 5500L;
+        assertFalse( "First generation is deleted" ,
+                     Files.exists( directory.resolve( "ids-" + start + ".dat" ) ) );
+
+        n.terminate();
+
+        // Reload
+        n.prepare();
+        assertNull( "A is not duplicated" ,
+                    t.transform( mA ) );
+        assertNull( "B is not duplicated" ,
+                    t.transform( mB ) );
+        n.terminate();
+    }
+
+    /**
+     * Test the IDs of the previous versions (MD5).
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testLegacy()
+        throws Exception
+    {
+        final A_Node n = dispatcher.addNode( "dummy6" ,
+                                             N_Dummy.class ,
+                                             ConfigProperties.EMPTY_COMMONS );
+        final A_Transform t = n.addTransformIN( T_Done.class ,
+                                                ConfigProperties.EMPTY_COMMONS );
+
+        final Path directory = dispatcher.getDatas().resolve( n.getNodeID() );
+        FileUtils.deleteDirectory( directory.toFile() );
+        Files.createDirectories( directory );
+
+        final Message mOld = Message.create( Message.KeyIndex.TITLE ,
+                                             "mon titre" ,
+                                             Message.KeyIndex.DESCRIPTION ,
+                                             "ma description" );
+        final Message mNew = Message.create( Message.KeyIndex.TITLE ,
+                                             "mon titre2" ,
+                                             Message.KeyIndex.DESCRIPTION ,
+                                             "ma description2" );
+
+        // Journal of a previous version
+        Files.write( directory.resolve( "done.dat" ) ,
+                     Arrays.asList( DigestUtils.md5Hex( "$description#ma description$title#mon titre" ) + " " + Message.
+                         formatSimple( mOld ) ) ,
+                     Charset.forName( "utf-8" ) );
+
+        n.prepare();
+
+        assertNull( "Old message is not duplicated" ,
+                    t.transform( mOld ) );
+        assertNotNull( "New message is learned" ,
+                       t.transform( mNew ) );
+
+        n.terminate();
+
+        // Old message is learned with its new ID
+        Files.delete( directory.resolve( "done.dat" ) );
+
+        n.prepare();
+        assertNull( "Old message is not duplicated" ,
+                    t.transform( mOld ) );
+        assertNull( "New message is not duplicated" ,
+                    t.transform( mNew ) );
+        n.terminate();
+    }
+
+    /**
+     * Test that the IDs of the previous versions are deleted after the cutoff.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testLegacyExpire()
+        throws Exception
+    {
+        final A_Node n = dispatcher.addNode( "dummy8" ,
+                                             N_Dummy.class ,
+                                             ConfigProperties.EMPTY_COMMONS );
+        final A_Transform t = n.addTransformIN( T_Done.class ,
+                                                ConfigProperties.EMPTY_COMMONS );
+        t.getProperties().setProperty( "legacy-expire" ,
+                                       "86400000" );
+
+        final Path directory = dispatcher.getDatas().resolve( n.getNodeID() );
+        FileUtils.deleteDirectory( directory.toFile() );
+        Files.createDirectories( directory );
+
+        final Message mOld = Message.create( Message.KeyIndex.TITLE ,
+                                             "mon titre" ,
+                                             Message.KeyIndex.DESCRIPTION ,
+                                             "ma description" );
+
+        // Journal of a previous version, written 2 days ago
+        final Path legacyPath = directory.resolve( "done.dat" );
+        Files.write( legacyPath ,
+                     Arrays.asList( DigestUtils.md5Hex( "$description#ma description$title#mon titre" ) + " " + Message.
+                         formatSimple( mOld ) ) ,
+                     Charset.forName( "utf-8" ) );
+        Files.setLastModifiedTime( legacyPath ,
+                                   FileTime.fromMillis( System.currentTimeMillis() - 2L * 86400000L ) );
+
+        n.prepare();
+
+        assertFalse( "Old journal must be deleted" ,
+                     Files.exists( legacyPath ) );
+        assertNotNull( "Old IDs are forgotten" ,
+                       t.transform( mOld ) );
+
+        n.terminate();
+    }
+
     // PRIVATE
     private final Dispatcher dispatcher;
+    private XMLConfiguration config;
+    private Path pDatas;
 }
@@ -55,6 +55,11 @@ public class T_FindBiggestTest
         this.transform = node.addTransformIN( T_FindBiggest.class ,
                                               ConfigProperties.EMPTY_COMMONS );
 
+        this.transformProbe = node.addTransformIN( T_FindBiggest.class ,
+                                                   ConfigProperties.EMPTY_COMMONS );
+        this.transformProbe.getProperties().setProperty( "probe-size" ,
+                                                         "4096" );
+
         // Server
         this.server = new Server( PORT );
 
@@ -134,6 +139,42 @@ public class T_FindBiggestTest
 
     }
 
+    /**
+     * Test image with a probe of the sizes.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testImageProbe()
+        throws Exception
+    {
+        // Transform
+        final Message m = Message.create( Message.KeyIndex.TITLE ,
+                                          "mon titre" ,
+                                          Message.KeyIndex.URI ,
+                                          URI.create( "http://localhost:" + Integer.toString( PORT ) + "/findbiggest.html" ) );
+
+        assertNotNull( "Message is inside" ,
+                       transformProbe.transform( m ) );
+
+        assertTrue( "Message should contain an image" ,
+                    m.contains( Message.KeyIndex.PICTURE ) );
+
+        final byte[] bImage = (byte[]) m.getProperty( Message.KeyIndex.PICTURE );
+
+        final BufferedImage imageRef = ImageIO.read( getClass().getResourceAsStream( "/fabienvauchelles600px.jpeg" ) );
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write( imageRef ,
+                       "png" ,
+                       os );
+        os.close();
+
+        assertArrayEquals( "Images should be the same" ,
+                           os.toByteArray() ,
+                           bImage );
+    }
+
     /**
      * Test no image.
      *
@@ -160,5 +201,6 @@ public class T_FindBiggestTest
     private static final int PORT = 45123;
     private final A_Node node;
     private final A_Transform transform;
+    private final A_Transform transformProbe;
     private final Server server;
 }
@@ -24,8 +24,15 @@ import com.vaushell.superpipes.dispatch.Dispatcher;
 import com.vaushell.superpipes.dispatch.Message;
 import com.vaushell.superpipes.nodes.A_Node;
 import com.vaushell.superpipes.nodes.dummy.N_Dummy;
+import com.vaushell.superpipes.tools.retry.RetryException;
 import com.vaushell.superpipes.transforms.A_Transform;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import static org.testng.AssertJUnit.*;
@@ -123,6 +130,55 @@ public class T_CheckURITest
 
     }
 
+    /**
+     * Test a batch: each URI is checked, the order is kept.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testBatch()
+        throws Exception
+    {
+        final Message mValid = Message.create( Message.KeyIndex.TITLE ,
+                                               "valid" ,
+                                               Message.KeyIndex.URI ,
+                                               URI.create( "http://localhost:" + Integer.toString( PORT ) + "/findbiggest.html" ) );
+        final Message mInvalid = Message.create( Message.KeyIndex.TITLE ,
+                                                 "invalid" ,
+                                                 Message.KeyIndex.URI ,
+                                                 URI.create( "http://localhost:" + Integer.toString( PORT ) + "/notexist2.html" ) );
+        final Message mSame = Message.create( Message.KeyIndex.TITLE ,
+                                              "same URI" ,
+                                              Message.KeyIndex.URI ,
+                                              URI.create( "http://localhost:" + Integer.toString( PORT ) + "/findbiggest.html" ) );
+        final Message mNoURI = Message.create( Message.KeyIndex.TITLE ,
+                                               "no URI" );
+
+        assertEquals( Arrays.asList( mValid ,
+                                     mSame ) ,
+                      transform.transformBatch( Arrays.asList( mValid ,
+                                                               mInvalid ,
+                                                               mSame ,
+                                                               mNoURI ) ) );
+    }
+
+    /**
+     * Test the errors which make a host unreachable: only the failures to connect, not the timeouts.
+     */
+    @Test
+    public void testUnreachable()
+    {
+        assertTrue( T_CheckURI.isUnreachable( new UnknownHostException( "dead.vauchelles.com" ) ) );
+        assertTrue( T_CheckURI.isUnreachable( new ConnectException( "Connection refused" ) ) );
+        assertTrue( "Cause is searched" ,
+                    T_CheckURI.isUnreachable( new RetryException( new ConnectException( "Connection refused" ) ) ) );
+
+        assertFalse( T_CheckURI.isUnreachable( new SocketTimeoutException() ) );
+        assertFalse( T_CheckURI.isUnreachable( new ConnectTimeoutException() ) );
+        assertFalse( T_CheckURI.isUnreachable( new RetryException( new HttpResponseException( 404 ,
+                                                                                              "Not found" ) ) ) );
+    }
+
     // PRIVATE
     private static final int PORT = 45123;
     private final A_Node node;
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.uri;
+
+import com.vaushell.superpipes.dispatch.ConfigProperties;
+import com.vaushell.superpipes.dispatch.Dispatcher;
+import com.vaushell.superpipes.dispatch.Message;
+import com.vaushell.superpipes.nodes.A_Node;
+import com.vaushell.superpipes.nodes.dummy.N_Dummy;
+import com.vaushell.superpipes.transforms.A_Transform;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see T_ExpandURL
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class T_ExpandURLTest
+{
+    // PUBLIC
+    public T_ExpandURLTest()
+    {
+        // Dispatcher
+        final Dispatcher dispatcher = new Dispatcher();
+        this.node = dispatcher.addNode( "dummy" ,
+                                        N_Dummy.class ,
+                                        ConfigProperties.EMPTY_COMMONS );
+        this.transform = node.addTransformIN( T_ExpandURL.class ,
+                                              ConfigProperties.EMPTY_COMMONS );
+
+        // Server
+        this.server = new Server( PORT );
+
+        final ResourceHandler rHandler = new ResourceHandler();
+        rHandler.setDirectoriesListed( true );
+        rHandler.setResourceBase( "src/test/webapp" );
+
+        this.server.setHandler( rHandler );
+    }
+
+    /**
+     * Start test execution.
+     *
+     * @throws Exception
+     */
+    @BeforeClass
+    public void start()
+        throws Exception
+    {
+        server.start();
+
+        // Prepare
+        node.prepare();
+    }
+
+    /**
+     * Stop test execution.
+     *
+     * @throws Exception
+     */
+    @AfterClass
+    public void stop()
+        throws Exception
+    {
+        // Terminate
+        node.terminate();
+
+        server.stop();
+        server.join();
+        server.destroy();
+    }
+
+    /**
+     * Test the expansion of the URLs of the content and the description.
+     *
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testExpand()
+        throws Exception
+    {
+        final String root = "http://localhost:" + Integer.toString( PORT );
+
+        // A directory without slash is redirected
+        final Message m = Message.create( Message.KeyIndex.CONTENT ,
+                                          "Look at " + root + "/images, " + root + "/images and " + root
+                                          + "/findbiggest.html." ,
+                                          Message.KeyIndex.DESCRIPTION ,
+                                          "(" + root + "/images)" ,
+                                          Message.KeyIndex.TITLE ,
+                                          root + "/images" );
+
+        final Message result = transform.transform( m );
+
+        assertEquals( "Look at " + root + "/images/, " + root + "/images/ and " + root + "/findbiggest.html." ,
+                      result.getProperty( Message.KeyIndex.CONTENT ) );
+        assertEquals( "(" + root + "/images/)" ,
+                      result.getProperty( Message.KeyIndex.DESCRIPTION ) );
+        assertEquals( root + "/images" ,
+                      result.getProperty( Message.KeyIndex.TITLE ) );
+
+        // Unreachable URL is kept
+        final Message m2 = Message.create( Message.KeyIndex.CONTENT ,
+                                           "Dead link: http://localhost:1/nothing" );
+
+        assertEquals( "Dead link: http://localhost:1/nothing" ,
+                      transform.transform( m2 ).getProperty( Message.KeyIndex.CONTENT ) );
+    }
+
+    // PRIVATE
+    private static final int PORT = 45124;
+    private final A_Node node;
+    private final A_Transform transform;
+    private final Server server;
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013 Fabien Vauchelles (fabien_AT_vauchelles_DOT_com).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3, 29 June 2007, of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+package com.vaushell.superpipes.transforms.uri;
+
+import com.vaushell.superpipes.tools.clock.SimulatedClock;
+import java.net.URI;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import static org.testng.AssertJUnit.*;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test.
+ *
+ * @see URIverdictCache
+ * @author Fabien Vauchelles (fabien_AT_vauchelles_DOT_com)
+ */
+public class URIverdictCacheTest
+{
+    // PUBLIC
+    public URIverdictCacheTest()
+    {
+        // Nothing
+    }
+
+    /**
+     * Test the verdicts per URI and per host.
+     */
+    @Test
+    public void testVerdicts()
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final URIverdictCache cache = new URIverdictCache( 100 ,
+                                                           60_000L ,
+                                                           10_000L ,
+                                                           false ,
+                                                           true ,
+                                                           clock );
+
+        final URI valid = URI.create( "http://www.vauchelles.com/valid.html" );
+        final URI invalid = URI.create( "http://www.vauchelles.com/invalid.html" );
+        final URI other = URI.create( "http://WWW.vauchelles.com/other.html" );
+        final URI dead = URI.create( "http://dead.vauchelles.com/a.html" );
+        final URI dead2 = URI.create( "http://dead.vauchelles.com/b.html" );
+
+        assertNull( cache.get( valid ) );
+
+        cache.putValid( valid );
+        cache.putInvalid( invalid );
+        cache.putUnreachable( dead );
+
+        assertEquals( Boolean.TRUE ,
+                      cache.get( valid ) );
+        assertEquals( Boolean.FALSE ,
+                      cache.get( invalid ) );
+
+        // Host isn't trusted
+        assertNull( cache.get( other ) );
+
+        // All URIs of an unreachable host are invalid
+        assertEquals( Boolean.FALSE ,
+                      cache.get( dead2 ) );
+
+        // Invalid verdicts expire first
+        clock.advance( new Duration( 10_000L ) );
+
+        assertNull( cache.get( invalid ) );
+        assertNull( cache.get( dead2 ) );
+        assertEquals( Boolean.TRUE ,
+                      cache.get( valid ) );
+
+        clock.advance( new Duration( 50_000L ) );
+
+        assertNull( cache.get( valid ) );
+    }
+
+    /**
+     * Test that an unreachable host isn't kept when the unreachable hosts are not skipped.
+     */
+    @Test
+    public void testKeepUnreachableHosts()
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final URIverdictCache cache = new URIverdictCache( 100 ,
+                                                           60_000L ,
+                                                           10_000L ,
+                                                           false ,
+                                                           false ,
+                                                           clock );
+
+        cache.putUnreachable( URI.create( "http://dead.vauchelles.com/a.html" ) );
+
+        assertEquals( Boolean.FALSE ,
+                      cache.get( URI.create( "http://dead.vauchelles.com/a.html" ) ) );
+        assertNull( "Other URIs of the host are asked" ,
+                    cache.get( URI.create( "http://dead.vauchelles.com/b.html" ) ) );
+    }
+
+    /**
+     * Test the trusted hosts.
+     */
+    @Test
+    public void testTrustHosts()
+    {
+        final SimulatedClock clock = new SimulatedClock( new DateTime( 2014 ,
+                                                                       5 ,
+                                                                       12 ,
+                                                                       8 ,
+                                                                       0 ,
+                                                                       0 ) );
+        final URIverdictCache cache = new URIverdictCache( 3 ,
+                                                           60_000L ,
+                                                           10_000L ,
+                                                           true ,
+                                                           true ,
+                                                           clock );
+
+        cache.putValid( URI.create( "http://www.vauchelles.com/valid.html" ) );
+        cache.putInvalid( URI.create( "http://www.vauchelles.com/invalid.html" ) );
+
+        assertEquals( Boolean.TRUE ,
+                      cache.get( URI.create( "http://www.vauchelles.com/other.html" ) ) );
+        assertEquals( Boolean.FALSE ,
+                      cache.get( URI.create( "http://www.vauchelles.com/invalid.html" ) ) );
+
+        // Another port is another host
+        assertNull( cache.get( URI.create( "http://www.vauchelles.com:8080/other.html" ) ) );
+
+        // Bounded
+        cache.putValid( URI.create( "http://www.superpipes.com/valid.html" ) );
+
+        assertEquals( 3 ,
+                      cache.size() );
+    }
+}